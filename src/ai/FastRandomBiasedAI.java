@@ -0,0 +1,343 @@
+package ai;
+
+import ai.core.AI;
+import ai.core.ParameterSpecification;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import rts.*;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * Chooses the same actions, with the same probabilities, as {@link RandomBiasedAI}
+ * (attack, harvest and return actions are 5 times more likely than the others, and
+ * units whose action conflicts with those of the units before them do nothing for 10
+ * cycles), but it is meant to be used as the playout policy of search algorithms:
+ * the actions of each unit are generated directly from the game state into buffers
+ * that are reused from call to call (instead of into lists of UnitActions for a
+ * PlayerActionGenerator), and {@link #issueAction(int, GameState)} issues the sampled
+ * actions directly in the game state, without building a PlayerAction.
+ *
+ * Since the UnitActions that do not depend on the unit (idle, harvest, return and
+ * attack actions) and the move actions (whose resource usage only depends on the
+ * position they start from) are also reused, the only objects created per unit
+ * action are the action assignments of the game state and the produce actions.
+ *
+ * An instance keeps state between calls, so each thread needs its own (see
+ * {@link #clone()}).
+ */
+public class FastRandomBiasedAI extends AI {
+    static final int REGULAR_ACTION_WEIGHT = 1;
+    static final int BIASED_ACTION_WEIGHT = 5;
+    static final int NONE_DURATION = 10;
+
+    static final UnitAction NONE = new UnitAction(UnitAction.TYPE_NONE, NONE_DURATION);
+    static final UnitAction HARVEST[] = new UnitAction[4];
+    static final UnitAction RETURN[] = new UnitAction[4];
+    static {
+        for (int direction = 0; direction < 4; direction++) {
+            HARVEST[direction] = new UnitAction(UnitAction.TYPE_HARVEST, direction);
+            RETURN[direction] = new UnitAction(UnitAction.TYPE_RETURN, direction);
+        }
+    }
+
+    Random r = new Random();
+
+    // the actions of the current unit (type + 8 * (direction + 4 * attacked cell or produced type)),
+    // and the accumulated weights:
+    int candidates[] = new int[16];
+    int accumulatedWeights[] = new int[16];
+    int nCandidates = 0;
+
+    // the cells reserved by the actions in progress or issued in the current call (those
+    // whose stamp is the current one), and the resources reserved by each player:
+    int reservedCells[] = new int[0];
+    int stamp = 0;
+    int reservedResources[] = new int[2];
+
+    // the attack actions to each cell, and the move actions from each cell (4 per cell):
+    int width = -1, height = -1;
+    UnitAction attackActions[];
+    UnitAction moveActions[];
+
+
+    public FastRandomBiasedAI(UnitTypeTable utt) {
+    }
+
+
+    public FastRandomBiasedAI() {
+    }
+
+
+    @Override
+    public void reset() {
+    }
+
+
+    @Override
+    public AI clone() {
+        return new FastRandomBiasedAI();
+    }
+
+
+    @Override
+    public PlayerAction getAction(int player, GameState gs) throws Exception {
+        PlayerAction pa = new PlayerAction();
+        if (!gs.canExecuteAnyAction(player)) return pa;
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        for (Unit u : pgs.getUnits()) {
+            UnitActionAssignment uaa = gs.getActionAssignment(u);
+            if (uaa != null) pa.getResourceUsage().merge(uaa.action.resourceUsage(u, pgs));
+        }
+        chooseActions(player, gs, pa);
+        return pa;
+    }
+
+
+    /**
+     * Issues the actions of the player directly in the game state
+     */
+    @Override
+    public boolean issueAction(int player, GameState gs) throws Exception {
+        if (!gs.canExecuteAnyAction(player)) return false;
+        return chooseActions(player, gs, null);
+    }
+
+
+    /**
+     * Samples an action for each unit of the player without one, and adds it to pa (or,
+     * if pa is null, issues it in gs)
+     * @return whether any of the actions was not a NONE action
+     */
+    boolean chooseActions(int player, GameState gs, PlayerAction pa) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        prepareBuffers(pgs);
+        Random random = SimulationContext.random(r);
+
+        // the resources reserved by the actions in progress:
+        reservedResources[0] = reservedResources[1] = 0;
+        for (UnitActionAssignment uaa : gs.getUnitActions().values()) {
+            reserve(uaa.unit, uaa.action);
+        }
+
+        boolean issued = false;
+        for (Unit u : pgs.getUnits()) {
+            if (u.getPlayer() != player || gs.getActionAssignment(u) != null) continue;
+            generateActions(u, gs);
+            int index = 0;
+            double tmp = random.nextDouble() * accumulatedWeights[nCandidates - 1];
+            while (accumulatedWeights[index] < tmp) {
+                index++;
+            }
+            UnitAction ua = toUnitAction(candidates[index], u, pgs);
+            if (!consistent(u, ua, gs)) ua = NONE;
+            reserve(u, ua);
+            if (pa == null) {
+                if (gs.issue(u, ua)) issued = true;
+            } else {
+                pa.getResourceUsage().merge(ua.resourceUsage(u, pgs));
+                pa.addUnitAction(u, ua);
+            }
+        }
+        return issued;
+    }
+
+
+    void prepareBuffers(PhysicalGameState pgs) {
+        if (pgs.getWidth() != width || pgs.getHeight() != height) {
+            width = pgs.getWidth();
+            height = pgs.getHeight();
+            reservedCells = new int[width * height];
+            attackActions = new UnitAction[width * height];
+            moveActions = new UnitAction[width * height * 4];
+            stamp = 0;
+        }
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(reservedCells, 0);
+            stamp = 1;
+        }
+    }
+
+
+    /**
+     * Fills the buffers with the actions of a unit, in the same order as
+     * {@link Unit#getUnitActions(GameState, int)}
+     */
+    void generateActions(Unit u, GameState gs) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        UnitType type = u.getType();
+        int player = u.getPlayer();
+        int x = u.getX();
+        int y = u.getY();
+        nCandidates = 0;
+
+        Unit uup = pgs.getUnitAt(x, y - 1);
+        Unit uright = pgs.getUnitAt(x + 1, y);
+        Unit udown = pgs.getUnitAt(x, y + 1);
+        Unit uleft = pgs.getUnitAt(x - 1, y);
+
+        if (type.canAttack) {
+            if (type.attackRange == 1) {
+                addAttack(uup, player);
+                addAttack(uright, player);
+                addAttack(udown, player);
+                addAttack(uleft, player);
+            } else {
+                int sqrange = type.attackRange * type.attackRange;
+                for (Unit u2 : pgs.getUnits()) {
+                    if (u2.getPlayer() < 0 || u2.getPlayer() == player) continue;
+                    int dx = u2.getX() - x;
+                    int dy = u2.getY() - y;
+                    if (dx * dx + dy * dy <= sqrange) {
+                        add(UnitAction.TYPE_ATTACK_LOCATION, 0, u2.getX() + u2.getY() * width, BIASED_ACTION_WEIGHT);
+                    }
+                }
+            }
+        }
+
+        if (type.canHarvest) {
+            if (u.getResources() == 0) {
+                if (uup != null && uup.getType().isResource) add(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_UP, 0, BIASED_ACTION_WEIGHT);
+                if (uright != null && uright.getType().isResource) add(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_RIGHT, 0, BIASED_ACTION_WEIGHT);
+                if (udown != null && udown.getType().isResource) add(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_DOWN, 0, BIASED_ACTION_WEIGHT);
+                if (uleft != null && uleft.getType().isResource) add(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_LEFT, 0, BIASED_ACTION_WEIGHT);
+            } else {
+                if (isStockpile(uup, player)) add(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_UP, 0, BIASED_ACTION_WEIGHT);
+                if (isStockpile(uright, player)) add(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_RIGHT, 0, BIASED_ACTION_WEIGHT);
+                if (isStockpile(udown, player)) add(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_DOWN, 0, BIASED_ACTION_WEIGHT);
+                if (isStockpile(uleft, player)) add(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_LEFT, 0, BIASED_ACTION_WEIGHT);
+            }
+        }
+
+        boolean freeUp = free(pgs, x, y - 1, uup);
+        boolean freeRight = free(pgs, x + 1, y, uright);
+        boolean freeDown = free(pgs, x, y + 1, udown);
+        boolean freeLeft = free(pgs, x - 1, y, uleft);
+
+        int resources = pgs.getPlayer(player).getResources();
+        for (int i = 0; i < type.produces.size(); i++) {
+            if (resources >= type.produces.get(i).cost) {
+                if (freeUp) add(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_UP, i, REGULAR_ACTION_WEIGHT);
+                if (freeRight) add(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_RIGHT, i, REGULAR_ACTION_WEIGHT);
+                if (freeDown) add(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_DOWN, i, REGULAR_ACTION_WEIGHT);
+                if (freeLeft) add(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_LEFT, i, REGULAR_ACTION_WEIGHT);
+            }
+        }
+
+        if (type.canMove) {
+            if (freeUp) add(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_UP, 0, REGULAR_ACTION_WEIGHT);
+            if (freeRight) add(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_RIGHT, 0, REGULAR_ACTION_WEIGHT);
+            if (freeDown) add(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_DOWN, 0, REGULAR_ACTION_WEIGHT);
+            if (freeLeft) add(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_LEFT, 0, REGULAR_ACTION_WEIGHT);
+        }
+
+        add(UnitAction.TYPE_NONE, 0, 0, REGULAR_ACTION_WEIGHT);
+    }
+
+
+    void addAttack(Unit target, int player) {
+        if (target != null && target.getPlayer() != player && target.getPlayer() >= 0) {
+            add(UnitAction.TYPE_ATTACK_LOCATION, 0, target.getX() + target.getY() * width, BIASED_ACTION_WEIGHT);
+        }
+    }
+
+
+    static boolean isStockpile(Unit u, int player) {
+        return u != null && u.getType().isStockpile && u.getPlayer() == player;
+    }
+
+
+    static boolean free(PhysicalGameState pgs, int x, int y, Unit u) {
+        return u == null && x >= 0 && y >= 0 && x < pgs.getWidth() && y < pgs.getHeight()
+                && pgs.getTerrain(x, y) == PhysicalGameState.TERRAIN_NONE;
+    }
+
+
+    void add(int type, int direction, int extra, int weight) {
+        if (nCandidates == candidates.length) {
+            candidates = Arrays.copyOf(candidates, nCandidates * 2);
+            accumulatedWeights = Arrays.copyOf(accumulatedWeights, nCandidates * 2);
+        }
+        candidates[nCandidates] = type + 8 * (direction + 4 * extra);
+        accumulatedWeights[nCandidates] = (nCandidates == 0 ? 0 : accumulatedWeights[nCandidates - 1]) + weight;
+        nCandidates++;
+    }
+
+
+    UnitAction toUnitAction(int candidate, Unit u, PhysicalGameState pgs) {
+        int type = candidate % 8;
+        int direction = (candidate / 8) % 4;
+        int extra = candidate / 32;
+        switch (type) {
+            case UnitAction.TYPE_ATTACK_LOCATION:
+                if (attackActions[extra] == null) {
+                    attackActions[extra] = new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, extra % width, extra / width);
+                }
+                return attackActions[extra];
+            case UnitAction.TYPE_HARVEST:
+                return HARVEST[direction];
+            case UnitAction.TYPE_RETURN:
+                return RETURN[direction];
+            case UnitAction.TYPE_MOVE: {
+                int index = (u.getX() + u.getY() * width) * 4 + direction;
+                if (moveActions[index] == null) moveActions[index] = new UnitAction(UnitAction.TYPE_MOVE, direction);
+                return moveActions[index];
+            }
+            case UnitAction.TYPE_PRODUCE:
+                return new UnitAction(UnitAction.TYPE_PRODUCE, direction, u.getType().produces.get(extra));
+            default:
+                return NONE;
+        }
+    }
+
+
+    /**
+     * The cell a move or produce action uses (or -1)
+     */
+    int target(Unit u, UnitAction ua) {
+        if (ua.getType() != UnitAction.TYPE_MOVE && ua.getType() != UnitAction.TYPE_PRODUCE) return -1;
+        int pos = u.getX() + u.getY() * width;
+        switch (ua.getDirection()) {
+            case UnitAction.DIRECTION_UP: return pos - width;
+            case UnitAction.DIRECTION_RIGHT: return pos + 1;
+            case UnitAction.DIRECTION_DOWN: return pos + width;
+            case UnitAction.DIRECTION_LEFT: return pos - 1;
+        }
+        return pos;
+    }
+
+
+    void reserve(Unit u, UnitAction ua) {
+        int pos = target(u, ua);
+        if (pos >= 0 && pos < reservedCells.length) reservedCells[pos] = stamp;
+        if (ua.getType() == UnitAction.TYPE_PRODUCE) reservedResources[u.getPlayer()] += ua.getUnitType().cost;
+    }
+
+
+    /**
+     * Same as checking the resource usage of the action against the one reserved so far
+     * with {@link ResourceUsage#consistentWith(ResourceUsage, GameState)}
+     */
+    boolean consistent(Unit u, UnitAction ua, GameState gs) {
+        int pos = target(u, ua);
+        if (pos >= 0 && pos < reservedCells.length && reservedCells[pos] == stamp) return false;
+        for (int i = 0; i < reservedResources.length; i++) {
+            if (reservedResources[i] == 0) continue;
+            int used = reservedResources[i];
+            if (ua.getType() == UnitAction.TYPE_PRODUCE && u.getPlayer() == i) used += ua.getUnitType().cost;
+            if (used > 0 && used > gs.getPlayer(i).getResources()) return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public List<ParameterSpecification> getParameters()
+    {
+        return new ArrayList<>();
+    }
+}
@@ -5,6 +5,7 @@
 package ai.abstraction;
 
 import ai.abstraction.pathfinding.PathFinding;
+import ai.core.AI;
 import ai.core.AIWithComputationBudget;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -256,4 +257,26 @@ public abstract class AbstractionLayerAI extends AIWithComputationBudget {
     public void setPathFinding(PathFinding a_pf) {
         pf = a_pf;
     }
+
+    /**
+     * Returns a clone of an AI to be used by another thread. The clones of an 
+     * AbstractionLayerAI share its path-finding, whose searches are not thread-safe 
+     * (e.g. AStarPathFinding keeps its data structures in fields), so if the AI is one, 
+     * the clone gets a new path-finding of the same class (which the clones made from 
+     * it in that thread share).
+     */
+    public static AI cloneForThread(AI ai) {
+        AI clone = ai.clone();
+        if (clone instanceof AbstractionLayerAI) {
+            AbstractionLayerAI ala = (AbstractionLayerAI)clone;
+            if (ala.pf != null) {
+                try {
+                    ala.pf = ala.pf.getClass().getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new Error("Cannot create a " + ala.pf.getClass().getSimpleName() + " for another thread", e);
+                }
+            }
+        }
+        return clone;
+    }
 }
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 
+import rts.FreeCellView;
 import rts.GameState;
 import rts.PhysicalGameState;
 import rts.ResourceUsage;
@@ -44,7 +45,7 @@ public class FloodFillPathFinding extends PathFinding {
 	}
 	private void doFloodFill(int x, int y, GameState gs, int finalX, int finalY){
 		assert(distances[x][y]!=Integer.MAX_VALUE);
-		boolean gsFree[][]=gs.getAllFree();
+		FreeCellView gsFree=gs.getFreeCells();
 		int index=0;
 		ArrayList<Pair<Integer,Integer>> fringe= new ArrayList<>(h * w);
 		fringe.add(new Pair<>(x, y));
@@ -57,7 +58,7 @@ public class FloodFillPathFinding extends PathFinding {
 			int nextX=x-1;
 			int nextY=y;
 			if(nextX==finalX&&nextY==finalY)reached=true;
-			if(bounds(nextX,nextY)&&distances[nextX][nextY]==Integer.MAX_VALUE&&free[nextX][nextY]&&gsFree[nextX][nextY]){
+			if(bounds(nextX,nextY)&&distances[nextX][nextY]==Integer.MAX_VALUE&&free[nextX][nextY]&&gsFree.isFree(nextX,nextY)){
 				distances[nextX][nextY]=distances[x][y]+1;
 				fringe.add(new Pair<>(nextX, nextY));
 			}
@@ -66,7 +67,7 @@ public class FloodFillPathFinding extends PathFinding {
 			nextX=x;
 			nextY=y-1;
 			if(nextX==finalX&&nextY==finalY)reached=true;
-			if(bounds(nextX,nextY)&&distances[nextX][nextY]==Integer.MAX_VALUE&&free[nextX][nextY]&&gsFree[nextX][nextY]){
+			if(bounds(nextX,nextY)&&distances[nextX][nextY]==Integer.MAX_VALUE&&free[nextX][nextY]&&gsFree.isFree(nextX,nextY)){
 				distances[nextX][nextY]=distances[x][y]+1;
 				fringe.add(new Pair<>(nextX, nextY));
 			}
@@ -75,7 +76,7 @@ public class FloodFillPathFinding extends PathFinding {
 			nextX=x+1;
 			nextY=y;
 			if(nextX==finalX&&nextY==finalY)reached=true;
-			if(bounds(nextX,nextY)&&distances[nextX][nextY]==Integer.MAX_VALUE&&free[nextX][nextY]&&gsFree[nextX][nextY]){
+			if(bounds(nextX,nextY)&&distances[nextX][nextY]==Integer.MAX_VALUE&&free[nextX][nextY]&&gsFree.isFree(nextX,nextY)){
 				distances[nextX][nextY]=distances[x][y]+1;
 				fringe.add(new Pair<>(nextX, nextY));
 			}
@@ -84,7 +85,7 @@ public class FloodFillPathFinding extends PathFinding {
 			nextX=x;
 			nextY=y+1;
 			if(nextX==finalX&&nextY==finalY)reached=true;
-			if(bounds(nextX,nextY)&&distances[nextX][nextY]==Integer.MAX_VALUE&&free[nextX][nextY]&&gsFree[nextX][nextY]){
+			if(bounds(nextX,nextY)&&distances[nextX][nextY]==Integer.MAX_VALUE&&free[nextX][nextY]&&gsFree.isFree(nextX,nextY)){
 				distances[nextX][nextY]=distances[x][y]+1;
 				fringe.add(new Pair<>(nextX, nextY));
 			}
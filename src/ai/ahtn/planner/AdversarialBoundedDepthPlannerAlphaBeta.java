@@ -620,7 +620,7 @@ public class AdversarialBoundedDepthPlannerAlphaBeta {
                         
             while(!gameover && gs2.getTime()<timeLimit) {
                 if (gs2.isComplete()) {
-                    gameover = gs2.cycle();
+                    gameover = gs2.fastForwardToNextChange(timeLimit);
                 } else {
                     PlayerAction pa1 = ai1.getAction(player, gs2);
                     PlayerAction pa2 = ai2.getAction(1-player, gs2);
@@ -36,6 +36,21 @@ public abstract class AI {
      * @throws Exception
      */
     public abstract PlayerAction getAction(int player, GameState gs) throws Exception;
+
+
+    /**
+     * Computes the action of the player and issues it directly in the game state.
+     * Simulations (e.g. the playouts of Monte Carlo search algorithms) use this instead of
+     * {@link #getAction(int, GameState)}, so that AIs that can do it without building a
+     * PlayerAction (see {@link ai.FastRandomBiasedAI}) override it.
+     * @param player ID of the player to move
+     * @param gs the game state where the action is issued
+     * @return "true" is any action different from NONE was issued
+     * @throws Exception
+     */
+    public boolean issueAction(int player, GameState gs) throws Exception {
+        return gs.issue(getAction(player, gs));
+    }
     
     
     @Override
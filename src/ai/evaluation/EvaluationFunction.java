@@ -16,6 +16,39 @@ public abstract class EvaluationFunction {
     public abstract float evaluate(int maxplayer, int minplayer, GameState gs);
     public abstract float upperBound(GameState gs);
     
+    
+    /**
+     * Evaluates a batch of states (e.g. the leaves collected by a search), as evaluate would
+     * evaluate each of them, storing the evaluation of gss[i] in result[i], for i in [0,n).
+     * By default, it just calls evaluate for each state: subclasses override it to share
+     * the work between the states (e.g. computing the weights of each unit type once per
+     * batch), or to send them all at once to a different evaluator.
+     * @param maxplayer
+     * @param minplayer
+     * @param gss
+     * @param n the number of states to evaluate (the first n of gss)
+     * @param result
+     */
+    public void evaluate(int maxplayer, int minplayer, GameState gss[], int n, float result[]) {
+        for(int i = 0;i<n;i++) {
+            result[i] = evaluate(maxplayer, minplayer, gss[i]);
+        }
+    }
+    
+    
+    /**
+     * Evaluates a batch of states (see {@link #evaluate(int, int, GameState[], int, float[])})
+     * @param maxplayer
+     * @param minplayer
+     * @param gss
+     * @return the evaluation of each state
+     */
+    public float[] evaluate(int maxplayer, int minplayer, GameState gss[]) {
+        float result[] = new float[gss.length];
+        evaluate(maxplayer, minplayer, gss, gss.length, result);
+        return result;
+    }
+    
     public String toString() {
         return getClass().getSimpleName();
     }
@@ -27,6 +27,30 @@ public class EvaluationFunctionForwarding extends EvaluationFunction {
                baseFunction.evaluate(maxplayer,minplayer,gs2) * 0.5f;
     }
     
+    /**
+     * Evaluates the states, and the states with all their actions executed, with two
+     * batch evaluations of the base function
+     */
+    @Override
+    public void evaluate(int maxplayer, int minplayer, GameState gss[], int n, float result[]) {
+        if (getClass()!=EvaluationFunctionForwarding.class) {
+            // a subclass may redefine evaluate:
+            super.evaluate(maxplayer, minplayer, gss, n, result);
+            return;
+        }
+        GameState gss2[] = new GameState[n];
+        for(int i = 0;i<n;i++) {
+            gss2[i] = gss[i].clone();
+            gss2[i].forceExecuteAllActions();
+        }
+        float result2[] = new float[n];
+        baseFunction.evaluate(maxplayer, minplayer, gss, n, result);
+        baseFunction.evaluate(maxplayer, minplayer, gss2, n, result2);
+        for(int i = 0;i<n;i++) {
+            result[i] = result[i] + result2[i] * 0.5f;
+        }
+    }
+    
     public float upperBound(GameState gs) {
         return baseFunction.upperBound(gs)*1.5f;
     }
@@ -4,6 +4,7 @@
  */
 package ai.evaluation;
 
+import java.util.List;
 import rts.GameState;
 import rts.PhysicalGameState;
 import rts.units.*;
@@ -92,6 +93,84 @@ public class LanchesterEvaluationFunction extends EvaluationFunction {
         return score;
     }    
     
+    
+    // how the hit points of a unit type count in base_score:
+    static final int NONE = 0;
+    static final int BUILDING = 1;      // weight * HP, to the score of buildings
+    static final int UNIT = 2;          // weight * HP, to the score of units
+    static final int UNIT_RATIO = 3;    // weight * HP / max HP, to the score of units
+    
+    
+    /**
+     * Evaluates the states in one pass over the units of each (instead of one per player), 
+     * with the weight of each unit type looked up once per batch (instead of by name for 
+     * each unit). The results are the same as those of evaluate.
+     */
+    @Override
+    public void evaluate(int maxplayer, int minplayer, GameState gss[], int n, float result[]) {
+        if (getClass()!=LanchesterEvaluationFunction.class) {
+            // a subclass may redefine evaluate:
+            super.evaluate(maxplayer, minplayer, gss, n, result);
+            return;
+        }
+        UnitTypeTable utt = null;
+        List<UnitType> types = null;
+        int kinds[] = null;
+        float weights[][] = null;   // [index][unit type]
+        float scores[] = new float[2], buildings[] = new float[2], units[] = new float[2], carried[] = new float[2];
+        int players[] = {maxplayer, minplayer};
+        for(int i = 0;i<n;i++) {
+            GameState gs = gss[i];
+            if (gs.getUnitTypeTable()!=utt) {
+                utt = gs.getUnitTypeTable();
+                types = utt.getUnitTypes();
+                kinds = new int[types.size()];
+                weights = new float[2][types.size()];
+                setWeights(utt, "Base", BUILDING, W_BASE, kinds, weights);
+                setWeights(utt, "Barracks", BUILDING, W_RAX, kinds, weights);
+                setWeights(utt, "Worker", UNIT, W_WORKER, kinds, weights);
+                setWeights(utt, "Light", UNIT_RATIO, W_LIGHT, kinds, weights);
+                setWeights(utt, "Ranged", UNIT, W_RANGE, kinds, weights);
+                setWeights(utt, "Heavy", UNIT_RATIO, W_HEAVY, kinds, weights);
+            }
+            PhysicalGameState pgs = gs.getPhysicalGameState();
+            int index = (pgs.getWidth() == 128 ? 1 : 0);
+            for(int p = 0;p<2;p++) {
+                scores[p] = buildings[p] = units[p] = carried[p] = 0;
+            }
+            for(Unit u:pgs.getUnits()) {
+                UnitType type = u.getType();
+                int kind = (type.ID<kinds.length && types.get(type.ID)==type ? kinds[type.ID] : NONE);
+                float w = (kind==NONE ? 0 : weights[index][type.ID]);
+                for(int p = 0;p<2;p++) {
+                    if (u.getPlayer()!=players[p]) continue;
+                    carried[p] += u.getResources();
+                    switch(kind) {
+                        case BUILDING: buildings[p] += w*u.getHitPoints(); break;
+                        case UNIT: units[p] += 1; scores[p] += w*u.getHitPoints(); break;
+                        case UNIT_RATIO: units[p] += 1; scores[p] += w*u.getHitPoints()/(float)type.hp; break;
+                    }
+                }
+            }
+            for(int p = 0;p<2;p++) {
+                float score = (float) (scores[p] * Math.pow(units[p], order-1));
+                score += buildings[p] + carried[p] * W_MINERALS_CARRIED[index] + 
+                         gs.getPlayer(players[p]).getResources() * W_MINERALS_MINED[index];
+                scores[p] = score;
+            }
+            result[i] = 2.0f*sigmoid(scores[0] - scores[1])-1.0f;
+        }
+    }
+    
+    
+    static void setWeights(UnitTypeTable utt, String name, int kind, float w[], int kinds[], float weights[][]) {
+        UnitType type = utt.getUnitType(name);
+        if (type==null || kinds[type.ID]!=NONE) return;
+        kinds[type.ID] = kind;
+        weights[0][type.ID] = w[0];
+        weights[1][type.ID] = w[1];
+    }
+    
     public float upperBound(GameState gs) {
         return 2.0f;
     }
@@ -4,6 +4,7 @@
  */
 package ai.evaluation;
 
+import java.util.List;
 import rts.GameState;
 import rts.PhysicalGameState;
 import rts.units.*;
@@ -43,6 +44,60 @@ public class SimpleSqrtEvaluationFunction3 extends EvaluationFunction {
         return score;
     }    
     
+    
+    /**
+     * Evaluates the states in one pass over the units of each (instead of one per player), 
+     * with the bonus of each unit type computed once per batch. The results are the same 
+     * as those of evaluate.
+     */
+    @Override
+    public void evaluate(int maxplayer, int minplayer, GameState gss[], int n, float result[]) {
+        if (getClass()!=SimpleSqrtEvaluationFunction3.class) {
+            // a subclass may redefine evaluate:
+            super.evaluate(maxplayer, minplayer, gss, n, result);
+            return;
+        }
+        UnitTypeTable utt = null;
+        List<UnitType> types = null;
+        float bonus[] = null;
+        for(int i = 0;i<n;i++) {
+            GameState gs = gss[i];
+            if (gs.getUnitTypeTable()!=utt) {
+                utt = gs.getUnitTypeTable();
+                types = utt.getUnitTypes();
+                bonus = new float[types.size()];
+                for(UnitType type:types) {
+                    bonus[type.ID] = UNIT_BONUS_MULTIPLIER * type.cost;
+                }
+            }
+            float s1 = gs.getPlayer(maxplayer).getResources()*RESOURCE;
+            float s2 = gs.getPlayer(minplayer).getResources()*RESOURCE;
+            boolean anyunit1 = false, anyunit2 = false;
+            for(Unit u:gs.getPhysicalGameState().getUnits()) {
+                int player = u.getPlayer();
+                if (player!=maxplayer && player!=minplayer) continue;
+                UnitType type = u.getType();
+                float b = (type.ID<bonus.length && types.get(type.ID)==type ? bonus[type.ID] : UNIT_BONUS_MULTIPLIER * type.cost);
+                // sqrt of an integer division (0, unless the unit has all its hit points):
+                int ratio = u.getHitPoints()/type.hp;
+                float resources = u.getResources() * RESOURCE_IN_WORKER;
+                if (player==maxplayer) {
+                    anyunit1 = true;
+                    s1 += resources;
+                    if (ratio==1) s1 += b; else if (ratio!=0) s1 += b*Math.sqrt(ratio);
+                }
+                if (player==minplayer) {
+                    anyunit2 = true;
+                    s2 += resources;
+                    if (ratio==1) s2 += b; else if (ratio!=0) s2 += b*Math.sqrt(ratio);
+                }
+            }
+            if (!anyunit1) s1 = 0;
+            if (!anyunit2) s2 = 0;
+            result[i] = (s1 + s2 == 0 ? 0.5f : (2*s1 / (s1 + s2))-1);
+        }
+    }
+    
     public float upperBound(GameState gs) {
         return 1.0f;
     }
@@ -0,0 +1,202 @@
+package ai.jni;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * Legal action masks of one player, bit-packed into a LongBuffer, with the same
+ * layout as the int[height][width][mask] arrays of the JNI clients: each cell
+ * takes {@link #getWordsPerCell()} longs, and feature k of the cell (0: the cell
+ * has an idle unit of the player, 1-6: action types, etc., see
+ * {@link UnitAction#getValidActionArray(Unit, GameState, UnitTypeTable, int[], int, int)})
+ * is bit (k % 64) of word (k / 64), counting from the least significant bit.
+ *
+ * Masks are updated incrementally: {@link #update(GameState, int, LongBuffer, int)}
+ * only rewrites the cells whose unit, or a unit close enough to matter (next to it,
+ * or within attack range), changed since the previous update. Cells with a producer
+ * are also rewritten when the resources of the player change.
+ */
+public class PackedActionMasks {
+
+    int width, height;
+    UnitTypeTable utt;
+    int maxAttackRadius;
+    int maskSize;
+    int wordsPerCell;
+    // how far (in cells, in x or y) a unit can be from one whose mask depends on it:
+    int dependencyRange;
+
+    // a key that identifies everything the masks depend on about the unit in each cell
+    // (0 if the cell is empty), as of the last update:
+    int cellKeys[];
+    int newCellKeys[];
+    Unit cellUnits[];
+    int mask[];
+    int stamps[];
+    int stamp = 0;
+    int dirty[];
+
+    // what the last update was done for:
+    GameState lastGameState = null;
+    int lastPlayer = -1;
+    int lastResources = -1;
+    LongBuffer lastBuffer = null;
+    int lastOffset = -1;
+
+    /**
+     * @param a_width
+     * @param a_height
+     * @param a_utt
+     * @param a_maxAttackRadius the side of the square of relative attack locations
+     * (utt.getMaxAttackRange() * 2 + 1 in the JNI clients)
+     */
+    public PackedActionMasks(int a_width, int a_height, UnitTypeTable a_utt, int a_maxAttackRadius) {
+        width = a_width;
+        height = a_height;
+        utt = a_utt;
+        maxAttackRadius = a_maxAttackRadius;
+        maskSize = maskSize(utt, maxAttackRadius);
+        wordsPerCell = (maskSize + 63) / 64;
+        dependencyRange = Math.max(1, utt.getMaxAttackRange());
+        cellKeys = new int[width * height];
+        newCellKeys = new int[width * height];
+        cellUnits = new Unit[width * height];
+        mask = new int[maskSize];
+        stamps = new int[width * height];
+        dirty = new int[width * height];
+    }
+
+    /**
+     * @param utt
+     * @param maxAttackRadius
+     * @return the number of features per cell in the masks
+     */
+    public static int maskSize(UnitTypeTable utt, int maxAttackRadius) {
+        return 1 + UnitAction.NUMBER_OF_ACTION_TYPES + 4 + 4 + 4 + 4 + utt.getUnitTypes().size() + maxAttackRadius * maxAttackRadius;
+    }
+
+    /**
+     * @return the number of longs per cell
+     */
+    public int getWordsPerCell() {
+        return wordsPerCell;
+    }
+
+    /**
+     * @return the number of longs taken by the masks of the whole map
+     */
+    public int size() {
+        return width * height * wordsPerCell;
+    }
+
+    /**
+     * Makes the next update rewrite all the cells (e.g. if something else wrote
+     * into the buffer)
+     */
+    public void invalidate() {
+        lastGameState = null;
+    }
+
+    /**
+     * Updates the masks of a player, stored in buffer from offset on. Unless the game
+     * state, the player, the buffer or the offset are different from those of the
+     * previous update (or {@link #invalidate()} was called), the buffer is assumed
+     * to still have the masks written by the previous update, and only the cells
+     * that could have changed are rewritten.
+     *
+     * @param gs
+     * @param player
+     * @param buffer
+     * @param offset
+     * @return the number of cells that were rewritten
+     */
+    public int update(GameState gs, int player, LongBuffer buffer, int offset) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        if (pgs.getWidth() != width || pgs.getHeight() != height) {
+            throw new IllegalArgumentException("PackedActionMasks.update: the map is " + pgs.getWidth() + "x" + pgs.getHeight()
+                    + ", but the masks are " + width + "x" + height);
+        }
+        boolean full = (gs != lastGameState || player != lastPlayer || buffer != lastBuffer || offset != lastOffset);
+        int resources = pgs.getPlayer(player).getResources();
+        boolean resourcesChanged = (resources != lastResources);
+
+        stamp++;
+        int nDirty = 0;
+        Arrays.fill(newCellKeys, 0);
+        Arrays.fill(cellUnits, null);
+        for (Unit u : pgs.getUnits()) {
+            int c = u.getX() + u.getY() * width;
+            boolean idle = (gs.getActionAssignment(u) == null);
+            newCellKeys[c] = (u.getType().ID + 1) | ((u.getPlayer() + 1) << 16)
+                    | (u.getResources() > 0 ? 1 << 24 : 0) | (idle ? 1 << 25 : 0);
+            cellUnits[c] = u;
+            if (resourcesChanged && u.getPlayer() == player && idle
+                    && !u.getType().produces.isEmpty() && stamps[c] != stamp) {
+                stamps[c] = stamp;
+                dirty[nDirty++] = c;
+            }
+        }
+        for (int c = 0; c < newCellKeys.length; c++) {
+            if (full) {
+                if (stamps[c] != stamp) {
+                    stamps[c] = stamp;
+                    dirty[nDirty++] = c;
+                }
+            } else if (newCellKeys[c] != cellKeys[c]) {
+                // the masks of the units around this cell may have changed:
+                int cx = c % width;
+                int cy = c / width;
+                for (int y = Math.max(0, cy - dependencyRange); y <= Math.min(height - 1, cy + dependencyRange); y++) {
+                    for (int x = Math.max(0, cx - dependencyRange); x <= Math.min(width - 1, cx + dependencyRange); x++) {
+                        int c2 = x + y * width;
+                        if (stamps[c2] != stamp) {
+                            stamps[c2] = stamp;
+                            dirty[nDirty++] = c2;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < nDirty; i++) {
+            int c = dirty[i];
+            int base = offset + c * wordsPerCell;
+            Unit u = cellUnits[c];
+            if (u == null || u.getPlayer() != player || (newCellKeys[c] & (1 << 25)) == 0) {
+                for (int w = 0; w < wordsPerCell; w++) {
+                    buffer.put(base + w, 0);
+                }
+                continue;
+            }
+            Arrays.fill(mask, 0);
+            mask[0] = 1;
+            UnitAction.getValidActionArray(u, gs, utt, mask, maxAttackRadius, 1);
+            for (int w = 0; w < wordsPerCell; w++) {
+                long word = 0;
+                int end = Math.min(maskSize, (w + 1) * 64);
+                for (int k = w * 64; k < end; k++) {
+                    if (mask[k] != 0) {
+                        word |= 1L << (k & 63);
+                    }
+                }
+                buffer.put(base + w, word);
+            }
+        }
+
+        int tmp[] = cellKeys;
+        cellKeys = newCellKeys;
+        newCellKeys = tmp;
+        lastGameState = gs;
+        lastPlayer = player;
+        lastResources = resources;
+        lastBuffer = buffer;
+        lastOffset = offset;
+        return nDirty;
+    }
+}
@@ -0,0 +1,85 @@
+package ai.mcts;
+
+import java.util.List;
+import rts.UnitAction;
+import rts.units.Unit;
+import util.Pair;
+
+/**
+ * Keys that identify the player actions of a node by the index of the action chosen
+ * for each unit (its "choice"), as two longs. If the number of possible player
+ * actions fits in a long, the key is exact: the first long is the mixed radix code
+ * of the indexes (the sum of index * multiplier over the choices), and the second
+ * is 0. Otherwise, each long is the sum of a 64 bit hash of each (choice, index)
+ * pair, so that different player actions have the same key with a probability of
+ * about 2^-128. In both cases the key is the sum of the terms of each choice, so
+ * it can be accumulated in any order without allocating anything:
+ *
+ * <pre>
+ * long key1 = 0, key2 = 0;
+ * for each choice i, with index code:
+ *     key1 += ActionKey.key1(multipliers, i, code);
+ *     key2 += ActionKey.key2(multipliers, i, code);
+ * </pre>
+ *
+ * The keys only depend on the choices, so they are the same in nodes created from
+ * copies of the same state.
+ */
+public class ActionKey {
+
+    /**
+     * @param choices the units and their possible actions (see
+     * {@link rts.PlayerActionGenerator#getChoices()})
+     * @return the multiplier of each choice in the exact key, or null if the
+     * number of player actions does not fit in a long (and keys are hashed)
+     */
+    public static long[] multipliers(List<Pair<Unit, List<UnitAction>>> choices) {
+        long multipliers[] = new long[choices.size()];
+        long baseMultiplier = 1;
+        int idx = 0;
+        for (Pair<Unit, List<UnitAction>> choice : choices) {
+            multipliers[idx++] = baseMultiplier;
+            int n = Math.max(1, choice.m_b.size());
+            if (baseMultiplier > Long.MAX_VALUE / n) {
+                return null;
+            }
+            baseMultiplier *= n;
+        }
+        return multipliers;
+    }
+
+    /**
+     * @param multipliers see {@link #multipliers(List)}
+     * @param choice
+     * @param code the index of the action chosen
+     * @return the term of the choice in the first long of the key
+     */
+    public static long key1(long multipliers[], int choice, int code) {
+        if (multipliers != null) {
+            return code * multipliers[choice];
+        }
+        return mix((((long) choice) << 32 | code) + 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * @param multipliers see {@link #multipliers(List)}
+     * @param choice
+     * @param code the index of the action chosen
+     * @return the term of the choice in the second long of the key
+     */
+    public static long key2(long multipliers[], int choice, int code) {
+        if (multipliers != null) {
+            return 0;
+        }
+        return mix((((long) choice) << 32 | code) ^ 0xC2B2AE3D27D4EB4FL);
+    }
+
+    /**
+     * The finalizer of SplitMix64
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,112 @@
+package ai.mcts;
+
+import java.util.Arrays;
+
+/**
+ * Map from action keys (see {@link ActionKey}) to the children of a node, with open
+ * addressing on the primitive keys, so that looking up a child allocates nothing.
+ * The entries are kept in the order in which they were added, and can be accessed
+ * by position (which is the position of the child in {@link MCTSNode#children} when
+ * both are added to at the same time).
+ *
+ * @param <T> the type of the children
+ */
+public class ActionKeyMap<T> {
+
+    long keys1[];
+    long keys2[];
+    Object values[];
+    int size = 0;
+    // position + 1 of the entry in each slot (0: empty), with as many slots as a power of 2:
+    int slots[];
+
+    public ActionKeyMap() {
+        keys1 = new long[4];
+        keys2 = new long[4];
+        values = new Object[4];
+        slots = new int[8];
+    }
+
+    int slot(long key1, long key2) {
+        return (int) ((key1 * 0x9E3779B97F4A7C15L + key2) >>> 32) & (slots.length - 1);
+    }
+
+    /**
+     * @return the position of the entry with the key, or -1 if there is none
+     */
+    public int indexOf(long key1, long key2) {
+        int mask = slots.length - 1;
+        for (int s = slot(key1, key2);; s = (s + 1) & mask) {
+            int e = slots[s] - 1;
+            if (e < 0) {
+                return -1;
+            }
+            if (keys1[e] == key1 && keys2[e] == key2) {
+                return e;
+            }
+        }
+    }
+
+    /**
+     * @return the child with the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long key1, long key2) {
+        int e = indexOf(key1, key2);
+        return (e < 0 ? null : (T) values[e]);
+    }
+
+    /**
+     * Sets the child of a key (replacing the previous one, if any)
+     */
+    public void put(long key1, long key2, T value) {
+        int e = indexOf(key1, key2);
+        if (e >= 0) {
+            values[e] = value;
+            return;
+        }
+        if (size == keys1.length) {
+            keys1 = Arrays.copyOf(keys1, size * 2);
+            keys2 = Arrays.copyOf(keys2, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys1[size] = key1;
+        keys2[size] = key2;
+        values[size] = value;
+        size++;
+        if (size * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < size; i++) {
+                insertSlot(i);
+            }
+        } else {
+            insertSlot(size - 1);
+        }
+    }
+
+    void insertSlot(int e) {
+        int mask = slots.length - 1;
+        int s = slot(keys1[e], keys2[e]);
+        while (slots[s] != 0) {
+            s = (s + 1) & mask;
+        }
+        slots[s] = e + 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getKey1(int i) {
+        return keys1[i];
+    }
+
+    public long getKey2(int i) {
+        return keys2[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getValue(int i) {
+        return (T) values[i];
+    }
+}
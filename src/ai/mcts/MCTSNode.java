@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Random;
 import rts.GameState;
 import rts.PlayerAction;
+import rts.SimulationContext;
 
 /**
  *
@@ -17,6 +18,16 @@ import rts.PlayerAction;
 public abstract class MCTSNode {
     public static Random r = new Random();
 
+    /**
+     * @return the generator to use in the current thread: the one of its 
+     * {@link SimulationContext} if it has one (e.g. the threads of a parallel search),
+     * so that they do not contend for "r" and seeded searches can be reproduced, 
+     * and "r" otherwise
+     */
+    public static Random random() {
+        return SimulationContext.random(r);
+    }
+
     public int type;    // 0 : max, 1 : min, -1: Game-over
     public MCTSNode parent;
     public GameState gs;
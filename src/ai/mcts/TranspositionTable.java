@@ -0,0 +1,147 @@
+package ai.mcts;
+
+import java.util.Arrays;
+
+/**
+ * Statistics (visits and accumulated evaluation) of the states visited by a Monte
+ * Carlo tree search, keyed by their Zobrist hash (see
+ * {@link rts.GameState#getZobristHash()}), so that the nodes of a state that is reached
+ * through different sequences of actions can share them. The table has a fixed number
+ * of entries, in buckets of 4: when the bucket of a new state is full, the least visited
+ * state of the bucket is replaced. Several threads can use the table at the same time:
+ * each bucket is guarded by one of a fixed set of locks.
+ */
+public class TranspositionTable {
+
+    static final int WAYS = 4;
+    static final int STRIPES = 64;
+
+    int size;
+    int mask;           // number of buckets - 1
+    long keys[];        // 0: empty entry
+    int visits[];
+    double evaluations[];
+    Object locks[] = new Object[STRIPES];
+
+    /**
+     * @param a_size the number of states to keep (rounded up to a power of 2)
+     */
+    public TranspositionTable(int a_size) {
+        size = a_size;
+        int buckets = 1;
+        while (buckets * WAYS < a_size) {
+            buckets *= 2;
+        }
+        mask = buckets - 1;
+        keys = new long[buckets * WAYS];
+        visits = new int[buckets * WAYS];
+        evaluations = new double[buckets * WAYS];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the size the table was created with
+     */
+    public int getSize() {
+        return size;
+    }
+
+    static long key(long hash) {
+        return (hash == 0 ? 1 : hash);
+    }
+
+    int bucket(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * @return the position of the entry of the key in its bucket, or -1
+     */
+    int find(long key, int first) {
+        for (int i = first; i < first + WAYS; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds an evaluation (and a number of visits) to the statistics of a state
+     *
+     * @param hash
+     * @param evaluation
+     * @param a_visits
+     */
+    public void add(long hash, double evaluation, int a_visits) {
+        long key = key(hash);
+        int bucket = bucket(key);
+        int first = bucket * WAYS;
+        synchronized (locks[bucket & (STRIPES - 1)]) {
+            int e = find(key, first);
+            if (e < 0) {
+                // replace the empty or least visited entry of the bucket:
+                e = first;
+                for (int i = first; i < first + WAYS; i++) {
+                    if (keys[i] == 0) {
+                        e = i;
+                        break;
+                    }
+                    if (visits[i] < visits[e]) {
+                        e = i;
+                    }
+                }
+                keys[e] = key;
+                visits[e] = 0;
+                evaluations[e] = 0;
+            }
+            visits[e] += a_visits;
+            evaluations[e] += evaluation;
+        }
+    }
+
+    /**
+     * @param hash
+     * @return the visits of a state (0 if it is not in the table)
+     */
+    public int getVisits(long hash) {
+        long key = key(hash);
+        int bucket = bucket(key);
+        synchronized (locks[bucket & (STRIPES - 1)]) {
+            int e = find(key, bucket * WAYS);
+            return (e < 0 ? 0 : visits[e]);
+        }
+    }
+
+    /**
+     * Returns the average evaluation of a state, if it has more visits in the table
+     * than the given ones (typically, those of the node asking for it, so that the
+     * statistics of the node are used while the table does not add anything to them,
+     * e.g. after the entry was replaced)
+     *
+     * @param hash
+     * @param minVisits
+     * @param defaultValue the value returned otherwise
+     * @return
+     */
+    public double getAverageEvaluation(long hash, int minVisits, double defaultValue) {
+        long key = key(hash);
+        int bucket = bucket(key);
+        synchronized (locks[bucket & (STRIPES - 1)]) {
+            int e = find(key, bucket * WAYS);
+            if (e < 0 || visits[e] <= minVisits || visits[e] <= 0) {
+                return defaultValue;
+            }
+            return evaluations[e] / visits[e];
+        }
+    }
+
+    /**
+     * Removes all the states (not to be called while other threads use the table)
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+    }
+}
@@ -2,7 +2,7 @@ package ai.mcts.believestatemcts;
 
 import ai.core.AI;
 import ai.evaluation.EvaluationFunction;
-import static ai.mcts.MCTSNode.r;
+import static ai.mcts.MCTSNode.random;
 import ai.mcts.naivemcts.NaiveMCTS;
 import ai.mcts.naivemcts.NaiveMCTSNode;
 import java.util.ArrayList;
@@ -116,7 +116,7 @@ public class BS1_NaiveMCTS extends NaiveMCTS implements AIWithBelieveState {
         if (bestIdxs.size() == 1) return bestIdxs.get(0);
 
         // otherwise we have multiple best actions, choose one randomly
-        return r.nextInt(bestIdxs.size());
+        return random().nextInt(bestIdxs.size());
     }
     
     
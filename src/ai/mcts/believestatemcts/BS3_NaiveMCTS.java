@@ -2,7 +2,7 @@ package ai.mcts.believestatemcts;
 
 import ai.core.AI;
 import ai.evaluation.EvaluationFunction;
-import static ai.mcts.MCTSNode.r;
+import static ai.mcts.MCTSNode.random;
 import ai.mcts.naivemcts.NaiveMCTS;
 import ai.mcts.naivemcts.NaiveMCTSNode;
 import java.util.ArrayList;
@@ -124,7 +124,7 @@ public class BS3_NaiveMCTS extends NaiveMCTS implements AIWithBelieveState {
 
         // otherwise we have multiple best actions, choose one randomly
         System.out.println("Random action from " + bestIdxs.size());
-        return r.nextInt(bestIdxs.size());
+        return random().nextInt(bestIdxs.size());
     }
 
     
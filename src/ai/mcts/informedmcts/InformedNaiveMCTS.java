@@ -318,7 +318,7 @@ public class InformedNaiveMCTS extends AIWithComputationBudget implements Interr
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForwardToNextChange(time);
             } else {
                 gs.issue(playoutPolicy.getAction(0, gs));
                 gs.issue(playoutPolicy.getAction(1, gs));
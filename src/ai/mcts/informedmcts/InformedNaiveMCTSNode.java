@@ -4,9 +4,10 @@
  */
 package ai.mcts.informedmcts;
 
+import ai.mcts.ActionKey;
+import ai.mcts.ActionKeyMap;
 import ai.mcts.MCTSNode;
 import ai.stochastic.UnitActionProbabilityDistribution;
-import java.math.BigInteger;
 import java.util.*;
 import rts.*;
 import rts.units.Unit;
@@ -27,11 +28,11 @@ public class InformedNaiveMCTSNode extends MCTSNode {
     
     boolean hasMoreActions = true;
     public PlayerActionGenerator moveGenerator;
-    HashMap<BigInteger,InformedNaiveMCTSNode> childrenMap = new LinkedHashMap<>();    // associates action codes with children
+    ActionKeyMap<InformedNaiveMCTSNode> childrenMap = new ActionKeyMap<>();    // associates action keys with children
     // Decomposition of the player actions in unit actions, and their contributions:
     public List<InformedUnitActionTableEntry> unitActionTable;
     double evaluation_bound;    // this is the maximum positive value that the evaluation function can return
-    public BigInteger multipliers[];
+    public long multipliers[];    // to compute the action keys (null if they are hashed, see ActionKey)
     UnitActionProbabilityDistribution model;
     
 
@@ -58,34 +59,24 @@ public class InformedNaiveMCTSNode extends MCTSNode {
             moveGenerator = new PlayerActionGenerator(gs, maxplayer);
             actions = new ArrayList<>();
             children = new ArrayList<>();
-            unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
+            unitActionTable = new ArrayList<>();
+            multipliers = ActionKey.multipliers(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 double []prior_distribution = model.predictDistribution(choice.m_a, gs, choice.m_b);
                 InformedUnitActionTableEntry ae = new InformedUnitActionTableEntry(choice.m_a, choice.m_b, prior_distribution);
                 unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));                
-                idx++;
              }
         } else if (gs.canExecuteAnyAction(minplayer)) {
             type = 1;
             moveGenerator = new PlayerActionGenerator(gs, minplayer);
             actions = new ArrayList<>();
             children = new ArrayList<>();
-            unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
+            unitActionTable = new ArrayList<>();
+            multipliers = ActionKey.multipliers(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 double []prior_distribution = model.predictDistribution(choice.m_a, gs, choice.m_b);
                 InformedUnitActionTableEntry ae = new InformedUnitActionTableEntry(choice.m_a, choice.m_b, prior_distribution);
                 unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));                
-                idx++;
            }
         } else {
             type = -1;
@@ -180,11 +171,11 @@ public class InformedNaiveMCTSNode extends MCTSNode {
     
     public InformedNaiveMCTSNode selectLeafUsingLocalMABs(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {   
         PlayerAction pa2;
-        BigInteger actionCode;       
+        long actionKey1 = 0, actionKey2 = 0;
 
         // For each unit, rank the unitActions according to preference:
-        List<double []> distributions = new LinkedList<>();
-        List<Integer> notSampledYet = new LinkedList<>();
+        List<double []> distributions = new ArrayList<>();
+        List<Integer> notSampledYet = new ArrayList<>();
         for(InformedUnitActionTableEntry ate:unitActionTable) {
             double []dist = new double[ate.nactions];
             int bestIdx = -1;
@@ -237,17 +228,10 @@ public class InformedNaiveMCTSNode extends MCTSNode {
         }
 
         // Select the best combination that results in a valid playeraction by epsilon-greedy sampling:
-        ResourceUsage base_ru = new ResourceUsage();
-        for(Unit u:gs.getUnits()) {
-            UnitAction ua = gs.getUnitAction(u);
-            if (ua!=null) {
-                ResourceUsage ru = ua.resourceUsage(u, gs.getPhysicalGameState());
-                base_ru.merge(ru);
-            }
-        }
+        // resources used by the actions already assigned (computed when the node was created):
+        ResourceUsage base_ru = moveGenerator.getBaseResourceUsage();
 
         pa2 = new PlayerAction();
-        actionCode = BigInteger.ZERO;
         pa2.setResourceUsage(base_ru.clone());            
         while(!notSampledYet.isEmpty()) {
             int i = notSampledYet.remove(r.nextInt(notSampledYet.size()));
@@ -289,19 +273,20 @@ public class InformedNaiveMCTSNode extends MCTSNode {
                 pa2.getResourceUsage().merge(r2);
                 pa2.addUnitAction(ate.u, ua);
 
-                actionCode = actionCode.add(BigInteger.valueOf(code).multiply(multipliers[i]));
+                actionKey1 += ActionKey.key1(multipliers, i, code);
+                actionKey2 += ActionKey.key2(multipliers, i, code);
                 
             } catch(Exception e) {
                 e.printStackTrace();
             }
         }   
 
-        InformedNaiveMCTSNode pate = childrenMap.get(actionCode);
+        InformedNaiveMCTSNode pate = childrenMap.get(actionKey1, actionKey2);
         if (pate==null) {
             actions.add(pa2);            
             GameState gs2 = gs.cloneIssue(pa2);
-            InformedNaiveMCTSNode node = new InformedNaiveMCTSNode(maxplayer, minplayer, gs2.clone(), model, this, evaluation_bound, a_creation_ID);
-            childrenMap.put(actionCode,node);
+            InformedNaiveMCTSNode node = new InformedNaiveMCTSNode(maxplayer, minplayer, gs2.cloneSharingUnits(), model, this, evaluation_bound, a_creation_ID);
+            childrenMap.put(actionKey1, actionKey2, node);
             children.add(node);          
             return node;                
         }
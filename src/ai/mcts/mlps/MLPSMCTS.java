@@ -231,7 +231,7 @@ public class MLPSMCTS extends AIWithComputationBudget implements InterruptibleAI
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForwardToNextChange(time);
             } else {
                 gs.issue(randomAI.getAction(0, gs));
                 gs.issue(randomAI.getAction(1, gs));
@@ -4,6 +4,8 @@
  */
 package ai.mcts.mlps;
 
+import ai.mcts.ActionKey;
+import ai.mcts.ActionKeyMap;
 import ai.mcts.MCTSNode;
 import ai.montecarlo.lsi.Sampling.UnitActionTableEntry;
 import java.util.*;
@@ -31,7 +33,7 @@ public class MLPSNode extends MCTSNode {
         
     boolean hasMoreActions = true;
     public PlayerActionGenerator moveGenerator;
-    HashMap<Long,MLPSNode> childrenMap = new LinkedHashMap<>();    // associates action codes with children
+    ActionKeyMap<MLPSNode> childrenMap = new ActionKeyMap<>();    // associates action keys with children
     // Decomposition of the player actions in unit actions, and their contributions:
     public List<UnitActionTableEntry> unitActionTable;
     public List<double[]> UCBExplorationScores;
@@ -39,7 +41,7 @@ public class MLPSNode extends MCTSNode {
     double evaluation_bound = 0;
     int max_nactions = 0;
     
-    public long multipliers[];
+    public long multipliers[];    // to compute the action keys (null if they are hashed, see ActionKey)
 
 
     public MLPSNode(int maxplayer, int minplayer, GameState a_gs, MLPSNode a_parent, double bound, int a_creation_ID) throws Exception {
@@ -66,9 +68,7 @@ public class MLPSNode extends MCTSNode {
             unitActionTable = new ArrayList<>();
             UCBExplorationScores = new ArrayList<>();
             UCBExploitationScores = new ArrayList<>();
-            multipliers = new long[moveGenerator.getChoices().size()];
-            long baseMultiplier = 1;
-            int idx = 0;
+            multipliers = ActionKey.multipliers(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 UnitActionTableEntry ae = new UnitActionTableEntry();
                 ae.u = choice.m_a;
@@ -84,9 +84,6 @@ public class MLPSNode extends MCTSNode {
                 unitActionTable.add(ae);
                 UCBExplorationScores.add(new double[ae.nactions]);
                 UCBExploitationScores.add(new double[ae.nactions]);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier*=ae.nactions;
-                idx++;
              }
         } else if (gs.canExecuteAnyAction(minplayer)) {
             type = 1;
@@ -96,9 +93,7 @@ public class MLPSNode extends MCTSNode {
             unitActionTable = new ArrayList<>();
             UCBExplorationScores = new ArrayList<>();
             UCBExploitationScores = new ArrayList<>();
-            multipliers = new long[moveGenerator.getChoices().size()];
-            long baseMultiplier = 1;
-            int idx = 0;
+            multipliers = ActionKey.multipliers(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 UnitActionTableEntry ae = new UnitActionTableEntry();
                 ae.u = choice.m_a;
@@ -114,9 +109,6 @@ public class MLPSNode extends MCTSNode {
                 unitActionTable.add(ae);
                 UCBExplorationScores.add(new double[ae.nactions]);
                 UCBExploitationScores.add(new double[ae.nactions]);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier*=ae.nactions;
-                idx++;
            }
         } else {
             type = -1;
@@ -167,22 +159,16 @@ public class MLPSNode extends MCTSNode {
         }
 
         // Select the best combination that results in a valid playeraction by MLPS sampling (maximizing UCB1 score of each action):
-        ResourceUsage base_ru = new ResourceUsage();
-        for(Unit u:gs.getUnits()) {
-            UnitAction ua = gs.getUnitAction(u);
-            if (ua!=null) {
-                ResourceUsage ru = ua.resourceUsage(u, gs.getPhysicalGameState());
-                base_ru.merge(ru);
-            }
-        }
+        // resources used by the actions already assigned (computed when the node was created):
+        ResourceUsage base_ru = moveGenerator.getBaseResourceUsage();
 
         PlayerAction best_pa = null;
-        long best_actionCode = -1;
+        long best_actionKey1 = 0, best_actionKey2 = 0;
         double best_accumUCBScore = 0;
 
         for(int repeat = 0;repeat<10;repeat++) {
             PlayerAction pa2 = new PlayerAction();
-            long actionCode = 0; 
+            long actionKey1 = 0, actionKey2 = 0;
             double accumUCBScore = 0;
             double maxExplorationScore = 0;
             pa2.setResourceUsage(base_ru.clone());
@@ -244,7 +230,8 @@ public class MLPSNode extends MCTSNode {
                     pa2.getResourceUsage().merge(r2);
                     pa2.addUnitAction(ate.u, ua);
 
-                    actionCode+= ((long)code)*multipliers[i];
+                    actionKey1 += ActionKey.key1(multipliers, i, code);
+                    actionKey2 += ActionKey.key2(multipliers, i, code);
 
                 } catch(Exception e) {
                     e.printStackTrace();
@@ -256,16 +243,17 @@ public class MLPSNode extends MCTSNode {
             if (best_pa==null || accumUCBScore>best_accumUCBScore) {
                 best_pa = pa2;
                 best_accumUCBScore = accumUCBScore;
-                best_actionCode = actionCode;
+                best_actionKey1 = actionKey1;
+                best_actionKey2 = actionKey2;
             }
         }
 
-        MLPSNode pate = childrenMap.get(best_actionCode);
+        MLPSNode pate = childrenMap.get(best_actionKey1, best_actionKey2);
         if (pate==null) {
             actions.add(best_pa);
             GameState gs2 = gs.cloneIssue(best_pa);
-            MLPSNode node = new MLPSNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, a_creation_ID);
-            childrenMap.put(best_actionCode,node);
+            MLPSNode node = new MLPSNode(maxplayer, minplayer, gs2.cloneSharingUnits(), this, evaluation_bound, a_creation_ID);
+            childrenMap.put(best_actionKey1, best_actionKey2, node);
             children.add(node);
             return node;                
         }
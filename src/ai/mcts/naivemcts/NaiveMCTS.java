@@ -10,6 +10,7 @@ import ai.core.AIWithComputationBudget;
 import ai.core.ParameterSpecification;
 import ai.evaluation.EvaluationFunction;
 import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.TranspositionTable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -54,12 +55,27 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     
     public int global_strategy = NaiveMCTSNode.E_GREEDY;
     public boolean forceExplorationOfNonSampledActions = true;
+
+    // tree reuse: if true, the search of each frame starts from the node of the previous
+    // tree whose state is the one observed (if any), keeping at most MAX_TREE_NODES nodes:
+    public boolean reuseTree = false;
+    public int MAX_TREE_NODES = 20000;
+
+    // if positive, the nodes of the same state share their statistics through a transposition
+    // table of this size (see NaiveMCTSNode.averageEvaluation()):
+    public int TRANSPOSITION_TABLE_SIZE = 0;
+    protected TranspositionTable transpositionTable;
+
+    // if more than 1, the states at the end of the playouts are evaluated in batches of this
+    // size (see iterationBatch()):
+    public int EVALUATION_BATCH_SIZE = 1;
     
     // statistics:
     public long total_runs = 0;
     public long total_cycles_executed = 0;
     public long total_actions_issued = 0;
     public long total_time = 0;
+    public long total_reused_runs = 0;  // playouts inherited from the tree of the previous frame
     
     
     public NaiveMCTS(UnitTypeTable utt) {
@@ -128,12 +144,18 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
         total_cycles_executed = 0;
         total_actions_issued = 0;
         total_time = 0;
+        total_reused_runs = 0;
         current_iteration = 0;
     }    
         
     
     public AI clone() {
-        return new NaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, epsilon_l, discount_l, epsilon_g, discount_g, epsilon_0, discount_0, playoutPolicy, ef, forceExplorationOfNonSampledActions);
+        NaiveMCTS clone = new NaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, epsilon_l, discount_l, epsilon_g, discount_g, epsilon_0, discount_0, playoutPolicy, ef, forceExplorationOfNonSampledActions);
+        clone.reuseTree = reuseTree;
+        clone.MAX_TREE_NODES = MAX_TREE_NODES;
+        clone.TRANSPOSITION_TABLE_SIZE = TRANSPOSITION_TABLE_SIZE;
+        clone.EVALUATION_BATCH_SIZE = EVALUATION_BATCH_SIZE;
+        return clone;
     }    
     
     
@@ -150,9 +172,16 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     
     
     public void startNewComputation(int a_player, GameState gs) throws Exception {
+        NaiveMCTSNode reused = (reuseTree ? reusableSubtree(a_player, gs) : null);
         player = a_player;
-        current_iteration = 0;
-        tree = new NaiveMCTSNode(player, 1-player, gs, null, ef.upperBound(gs), current_iteration++, forceExplorationOfNonSampledActions);
+        if (reused!=null) {
+            // keep counting, so that the creation IDs of the new nodes are higher:
+            tree = reused;
+        } else {
+            current_iteration = 0;
+            tree = new NaiveMCTSNode(player, 1-player, gs, null, ef.upperBound(gs), current_iteration++, forceExplorationOfNonSampledActions);
+        }
+        tree.setTranspositionTable(transpositionTableForNewSearch(reused!=null));
         
         if (tree.moveGenerator==null) {
             max_actions_so_far = 0;
@@ -167,6 +196,44 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     }    
     
     
+    /**
+     * Looks for a node of the current tree whose state is equivalent to gs (the one of the
+     * frame to search now), and makes it the root of the tree, removing the least visited
+     * subtrees if it has more than MAX_TREE_NODES nodes. Since the units in the states of
+     * the tree may be different objects than those of gs, the actions of its children are
+     * translated before being returned (see {@link #getBestActionSoFar()}).
+     * @param a_player
+     * @param gs
+     * @return the new root, or null if there is no such node
+     */
+    protected NaiveMCTSNode reusableSubtree(int a_player, GameState gs) {
+        if (tree==null || a_player!=player) return null;
+        NaiveMCTSNode node = tree.findNode(gs, 0);
+        if (node==null) return null;
+        node.makeRoot();
+        if (MAX_TREE_NODES>=0) node.prune(MAX_TREE_NODES);
+        total_reused_runs += node.visit_count;
+        return node;
+    }
+
+
+    /**
+     * @param reused whether the tree of the previous search is reused
+     * @return the transposition table for a new search (emptied, unless the tree is reused), 
+     * or null if there is none
+     */
+    protected TranspositionTable transpositionTableForNewSearch(boolean reused) {
+        if (TRANSPOSITION_TABLE_SIZE<=0) {
+            transpositionTable = null;
+        } else if (transpositionTable==null || transpositionTable.getSize()!=TRANSPOSITION_TABLE_SIZE) {
+            transpositionTable = new TranspositionTable(TRANSPOSITION_TABLE_SIZE);
+        } else if (!reused) {
+            transpositionTable.clear();
+        }
+        return transpositionTable;
+    }
+
+
     public void resetSearch() {
         if (DEBUG>=2) System.out.println("Resetting search...");
         tree = null;
@@ -180,8 +247,14 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
         long end = start;
         long count = 0;
         while(true) {
-            if (!iteration(player)) break;
-            count++;
+            if (EVALUATION_BATCH_SIZE>1) {
+                int n = iterationBatch(player, (int)(ITERATIONS_BUDGET>=0 ? Math.min(EVALUATION_BATCH_SIZE, ITERATIONS_BUDGET - count) : EVALUATION_BATCH_SIZE));
+                if (n==0) break;
+                count += n;
+            } else {
+                if (!iteration(player)) break;
+                count++;
+            }
             end = System.currentTimeMillis();
             if (TIME_BUDGET>=0 && (end - start)>=TIME_BUDGET) break; 
             if (ITERATIONS_BUDGET>=0 && count>=ITERATIONS_BUDGET) break;             
@@ -221,6 +294,51 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
         return true;
     }
     
+    /**
+     * Runs up to n iterations, evaluating the states at the end of their playouts in one
+     * batch (see {@link EvaluationFunction#evaluate(int, int, GameState[], int, float[])}).
+     * Since the evaluations are only propagated once all the playouts are done, a virtual 
+     * loss is added to the path of each playout (see {@link NaiveMCTSNode#addVirtualLoss()}), 
+     * so that the next ones tend to try other paths, as the threads of ParallelNaiveMCTS do.
+     * @param player
+     * @param n
+     * @return the number of iterations run (fewer than n if there were no more leaves to explore)
+     * @throws Exception 
+     */
+    public int iterationBatch(int player, int n) throws Exception {
+        NaiveMCTSNode leaves[] = new NaiveMCTSNode[n];
+        GameState states[] = new GameState[n];
+        int count = 0;
+        while(count<n) {
+            NaiveMCTSNode leaf = tree.selectLeaf(player, 1-player, epsilon_l, epsilon_g, epsilon_0, global_strategy, MAX_TREE_DEPTH, current_iteration++);
+            if (leaf==null) {
+                // no actions to choose from :)
+                System.err.println(this.getClass().getSimpleName() + ": claims there are no more leafs to explore...");
+                break;
+            }
+            leaf.addVirtualLoss();
+            GameState gs2 = leaf.gs.clone();
+            simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME);
+            leaves[count] = leaf;
+            states[count] = gs2;
+            count++;
+
+            // update the epsilon values:
+            epsilon_0*=discount_0;
+            epsilon_l*=discount_l;
+            epsilon_g*=discount_g;
+        }
+
+        float evaluations[] = new float[count];
+        ef.evaluate(player, 1-player, states, count, evaluations);
+        for(int i = 0;i<count;i++) {
+            int time = states[i].getTime() - gs_to_start_from.getTime();
+            leaves[i].propagateEvaluation(evaluations[i]*Math.pow(0.99,time/10.0), null, true);
+            total_runs++;
+        }
+        return count;
+    }
+    
     public PlayerAction getBestActionSoFar() {
         int idx = getMostVisitedActionIdx();
         if (idx==-1) {
@@ -232,7 +350,10 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
             NaiveMCTSNode best = (NaiveMCTSNode) tree.children.get(idx);
             System.out.println("NaiveMCTS selected children " + tree.actions.get(idx) + " explored " + best.visit_count + " Avg evaluation: " + (best.accum_evaluation/((double)best.visit_count)));
         }
-        return tree.actions.get(idx);
+        PlayerAction action = tree.actions.get(idx);
+        // the root might come from the tree of a previous frame:
+        if (tree.gs!=gs_to_start_from) action = action.translate(tree.gs, gs_to_start_from);
+        return action;
     }
     
     
@@ -298,10 +419,10 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForwardToNextChange(time);
             } else {
-                gs.issue(playoutPolicy.getAction(0, gs));
-                gs.issue(playoutPolicy.getAction(1, gs));
+                playoutPolicy.issueAction(0, gs);
+                playoutPolicy.issueAction(1, gs);
             }
         }while(!gameover && gs.getTime()<time);   
     }
@@ -326,7 +447,8 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
                ", runs per action: " + (total_runs/(float)total_actions_issued) + 
                ", runs per cycle: " + (total_runs/(float)total_cycles_executed) + 
                ", average time per cycle: " + (total_time/(float)total_cycles_executed) + 
-               ", max branching factor: " + max_actions_so_far;
+               ", max branching factor: " + max_actions_so_far +
+               (reuseTree ? ", reused runs per action: " + (total_reused_runs/(float)total_actions_issued) : "");
     }
     
     
@@ -350,6 +472,11 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
         parameters.add(new ParameterSpecification("EvaluationFunction", EvaluationFunction.class, new SimpleSqrtEvaluationFunction3()));
 
         parameters.add(new ParameterSpecification("ForceExplorationOfNonSampledActions",boolean.class,true));
+
+        parameters.add(new ParameterSpecification("ReuseTree",boolean.class,false));
+        parameters.add(new ParameterSpecification("MaxTreeNodes",int.class,20000));
+        parameters.add(new ParameterSpecification("TranspositionTableSize",int.class,0));
+        parameters.add(new ParameterSpecification("EvaluationBatchSize",int.class,1));
         
         return parameters;
     }    
@@ -463,4 +590,44 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     {
         forceExplorationOfNonSampledActions = fensa;
     }    
+
+
+    public boolean getReuseTree() {
+        return reuseTree;
+    }
+
+
+    public void setReuseTree(boolean a_reuseTree) {
+        reuseTree = a_reuseTree;
+    }
+
+
+    public int getMaxTreeNodes() {
+        return MAX_TREE_NODES;
+    }
+
+
+    public void setMaxTreeNodes(int a_maxTreeNodes) {
+        MAX_TREE_NODES = a_maxTreeNodes;
+    }
+
+
+    public int getTranspositionTableSize() {
+        return TRANSPOSITION_TABLE_SIZE;
+    }
+
+
+    public void setTranspositionTableSize(int a_size) {
+        TRANSPOSITION_TABLE_SIZE = a_size;
+    }
+
+
+    public int getEvaluationBatchSize() {
+        return EVALUATION_BATCH_SIZE;
+    }
+
+
+    public void setEvaluationBatchSize(int a_size) {
+        EVALUATION_BATCH_SIZE = a_size;
+    }
 }
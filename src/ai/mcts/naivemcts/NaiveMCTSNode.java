@@ -4,8 +4,10 @@
  */
 package ai.mcts.naivemcts;
 
+import ai.mcts.ActionKey;
+import ai.mcts.ActionKeyMap;
 import ai.mcts.MCTSNode;
-import java.math.BigInteger;
+import ai.mcts.TranspositionTable;
 import java.util.*;
 import rts.*;
 import rts.units.Unit;
@@ -28,11 +30,14 @@ public class NaiveMCTSNode extends MCTSNode {
     boolean forceExplorationOfNonSampledActions = true;
     boolean hasMoreActions = true;
     public PlayerActionGenerator moveGenerator;
-    HashMap<BigInteger,NaiveMCTSNode> childrenMap = new LinkedHashMap<>();    // associates action codes with children
+    ActionKeyMap<NaiveMCTSNode> childrenMap = new ActionKeyMap<>();    // associates action keys with children
     // Decomposition of the player actions in unit actions, and their contributions:
     public List<UnitActionTableEntry> unitActionTable;
     double evaluation_bound;    // this is the maximum positive value that the evaluation function can return
-    public BigInteger multipliers[];
+    public long multipliers[];    // to compute the action keys (null if they are hashed, see ActionKey)
+    // statistics shared with the other nodes of the same state (null if they are not shared), and the hash of the state:
+    TranspositionTable transpositionTable;
+    long hash;
 
 
     public NaiveMCTSNode(int maxplayer, int minplayer, GameState a_gs, NaiveMCTSNode a_parent, double a_evaluation_bound, int a_creation_ID, boolean fensa) throws Exception {
@@ -57,10 +62,8 @@ public class NaiveMCTSNode extends MCTSNode {
             moveGenerator = new PlayerActionGenerator(gs, maxplayer);
             actions = new ArrayList<>();
             children = new ArrayList<>();
-            unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
+            unitActionTable = new ArrayList<>();
+            multipliers = ActionKey.multipliers(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 UnitActionTableEntry ae = new UnitActionTableEntry();
                 ae.u = choice.m_a;
@@ -73,19 +76,14 @@ public class NaiveMCTSNode extends MCTSNode {
                     ae.visit_count[i] = 0;
                 }
                 unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));
-                idx++;
              }
         } else if (gs.canExecuteAnyAction(minplayer)) {
             type = 1;
             moveGenerator = new PlayerActionGenerator(gs, minplayer);
             actions = new ArrayList<>();
             children = new ArrayList<>();
-            unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
+            unitActionTable = new ArrayList<>();
+            multipliers = ActionKey.multipliers(moveGenerator.getChoices());
             for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
                 UnitActionTableEntry ae = new UnitActionTableEntry();
                 ae.u = choice.m_a;
@@ -98,14 +96,37 @@ public class NaiveMCTSNode extends MCTSNode {
                     ae.visit_count[i] = 0;
                 }
                 unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));
-                idx++;
            }
         } else {
             type = -1;
             System.err.println("NaiveMCTSNode: This should not have happened...");
         }
+        // the state is only read from now on; building its lazy indexes here lets several threads
+        // search from this node at the same time (see ParallelNaiveMCTS):
+        if (type != -1) gs.buildIndexes();
+        if (parent != null) setTranspositionTable(((NaiveMCTSNode)parent).transpositionTable);
+    }
+
+
+    /**
+     * Makes this node, and the ones created below it from now on, share their statistics with
+     * the other nodes of the same state through a transposition table (see {@link #averageEvaluation()})
+     * @param tt the table, or null not to share them
+     */
+    public void setTranspositionTable(TranspositionTable tt) {
+        transpositionTable = tt;
+        if (tt != null) hash = gs.getZobristHash();
+    }
+
+
+    /**
+     * @return the average evaluation of the playouts through this node, or through any node
+     * of the same state if there is a transposition table that has more of them
+     */
+    public double averageEvaluation() {
+        double average = accum_evaluation/visit_count;
+        if (transpositionTable == null) return average;
+        return transpositionTable.getAverageEvaluation(hash, visit_count, average);
     }
 
     
@@ -128,11 +149,15 @@ public class NaiveMCTSNode extends MCTSNode {
         } 
         */
         
-        if (children.size()>0 && r.nextFloat()>=epsilon_0) {
-            // sample from the global MAB:
-            NaiveMCTSNode selected = null;
-            if (global_strategy==E_GREEDY) selected = selectFromAlreadySampledEpsilonGreedy(epsilon_g);
-            else if (global_strategy==UCB1) selected = selectFromAlreadySampledUCB1(C);
+        NaiveMCTSNode selected = null;
+        synchronized(this) {
+            if (children.size()>0 && random().nextFloat()>=epsilon_0) {
+                // sample from the global MAB:
+                if (global_strategy==E_GREEDY) selected = selectFromAlreadySampledEpsilonGreedy(epsilon_g);
+                else if (global_strategy==UCB1) selected = selectFromAlreadySampledUCB1(C);
+            }
+        }
+        if (selected!=null) {
             return selected.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
         }  else {
             // sample from the local MABs (this might recursively call "selectLeaf" internally):
@@ -143,18 +168,25 @@ public class NaiveMCTSNode extends MCTSNode {
 
     
     public NaiveMCTSNode selectFromAlreadySampledEpsilonGreedy(float epsilon_g) throws Exception {
-        if (r.nextFloat()>=epsilon_g) {
+        if (random().nextFloat()>=epsilon_g) {
             NaiveMCTSNode best = null;
+            double bestEvaluation = 0;
             for(MCTSNode pate:children) {
+                double evaluation;
+                synchronized(pate) {
+                    evaluation = ((NaiveMCTSNode)pate).averageEvaluation();
+                }
                 if (type==0) {
                     // max node:
-                    if (best==null || (pate.accum_evaluation/pate.visit_count)>(best.accum_evaluation/best.visit_count)) {
+                    if (best==null || evaluation>bestEvaluation) {
                         best = (NaiveMCTSNode)pate;
+                        bestEvaluation = evaluation;
                     }                    
                 } else {
                     // min node:
-                    if (best==null || (pate.accum_evaluation/pate.visit_count)<(best.accum_evaluation/best.visit_count)) {
+                    if (best==null || evaluation<bestEvaluation) {
                         best = (NaiveMCTSNode)pate;
+                        bestEvaluation = evaluation;
                     }                                        
                 }
             }
@@ -162,7 +194,7 @@ public class NaiveMCTSNode extends MCTSNode {
             return best;
         } else {
             // choose one at random from the ones seen so far:
-            NaiveMCTSNode best = (NaiveMCTSNode)children.get(r.nextInt(children.size()));
+            NaiveMCTSNode best = (NaiveMCTSNode)children.get(random().nextInt(children.size()));
             return best;
         }
     }
@@ -172,8 +204,14 @@ public class NaiveMCTSNode extends MCTSNode {
         NaiveMCTSNode best = null;
         double bestScore = 0;
         for(MCTSNode pate:children) {
-            double exploitation = ((double)pate.accum_evaluation) / pate.visit_count;
-            double exploration = Math.sqrt(Math.log((double)visit_count)/pate.visit_count);
+            // the statistics of the child are updated under its own lock (see propagateEvaluation):
+            double exploitation;
+            int child_visit_count;
+            synchronized(pate) {
+                exploitation = ((NaiveMCTSNode)pate).averageEvaluation();
+                child_visit_count = pate.visit_count;
+            }
+            double exploration = Math.sqrt(Math.log((double)visit_count)/child_visit_count);
             if (type==0) {
                 // max node:
                 exploitation = (evaluation_bound + exploitation)/(2*evaluation_bound);
@@ -195,77 +233,73 @@ public class NaiveMCTSNode extends MCTSNode {
     
     public NaiveMCTSNode selectLeafUsingLocalMABs(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {   
         PlayerAction pa2;
-        BigInteger actionCode;       
+        long actionKey1 = 0, actionKey2 = 0;
 
         // For each unit, rank the unitActions according to preference:
-        List<double []> distributions = new LinkedList<>();
-        List<Integer> notSampledYet = new LinkedList<>();
-        for(UnitActionTableEntry ate:unitActionTable) {
-            double []dist = new double[ate.nactions];
-            int bestIdx = -1;
-            double bestEvaluation = 0;
-            int visits = 0;
-            for(int i = 0;i<ate.nactions;i++) {
-                if (type==0) {
-                    // max node:
-                    if (bestIdx==-1 || 
-                        (visits!=0 && ate.visit_count[i]==0) ||
-                        (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])>bestEvaluation)) {
-                        bestIdx = i;
-                        if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
-                                             else bestEvaluation = 0;
-                        visits = ate.visit_count[i];
+        List<double []> distributions = new ArrayList<>();
+        List<Integer> notSampledYet = new ArrayList<>();
+        // (the unit action tables are updated under the lock of the node, see addStatistics)
+        synchronized(this) {
+            for(UnitActionTableEntry ate:unitActionTable) {
+                double []dist = new double[ate.nactions];
+                int bestIdx = -1;
+                double bestEvaluation = 0;
+                int visits = 0;
+                for(int i = 0;i<ate.nactions;i++) {
+                    if (type==0) {
+                        // max node:
+                        if (bestIdx==-1 || 
+                            (visits!=0 && ate.visit_count[i]==0) ||
+                            (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])>bestEvaluation)) {
+                            bestIdx = i;
+                            if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
+                                                 else bestEvaluation = 0;
+                            visits = ate.visit_count[i];
+                        }
+                    } else {
+                        // min node:
+                        if (bestIdx==-1 || 
+                            (visits!=0 && ate.visit_count[i]==0) ||
+                            (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])<bestEvaluation)) {
+                            bestIdx = i;
+                            if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
+                                                 else bestEvaluation = 0;
+                            visits = ate.visit_count[i];
+                        }
                     }
+                    dist[i] = epsilon_l/ate.nactions;
+                }
+                if (ate.visit_count[bestIdx]!=0) {
+                    dist[bestIdx] = (1-epsilon_l) + (epsilon_l/ate.nactions);
                 } else {
-                    // min node:
-                    if (bestIdx==-1 || 
-                        (visits!=0 && ate.visit_count[i]==0) ||
-                        (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])<bestEvaluation)) {
-                        bestIdx = i;
-                        if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
-                                             else bestEvaluation = 0;
-                        visits = ate.visit_count[i];
+                    if (forceExplorationOfNonSampledActions) {
+                        for(int j = 0;j<dist.length;j++) 
+                            if (ate.visit_count[j]>0) dist[j] = 0;
                     }
+                }  
+
+                if (DEBUG>=3) {
+                    System.out.print("[ ");
+                    for(int i = 0;i<ate.nactions;i++) System.out.print("(" + ate.visit_count[i] + "," + ate.accum_evaluation[i]/ate.visit_count[i] + ")");
+                    System.out.println("]");
+                    System.out.print("[ ");
+                    for (double v : dist) System.out.print(v + " ");
+                    System.out.println("]");
                 }
-                dist[i] = epsilon_l/ate.nactions;
-            }
-            if (ate.visit_count[bestIdx]!=0) {
-                dist[bestIdx] = (1-epsilon_l) + (epsilon_l/ate.nactions);
-            } else {
-                if (forceExplorationOfNonSampledActions) {
-                    for(int j = 0;j<dist.length;j++) 
-                        if (ate.visit_count[j]>0) dist[j] = 0;
-                }
-            }  
-
-            if (DEBUG>=3) {
-                System.out.print("[ ");
-                for(int i = 0;i<ate.nactions;i++) System.out.print("(" + ate.visit_count[i] + "," + ate.accum_evaluation[i]/ate.visit_count[i] + ")");
-                System.out.println("]");
-                System.out.print("[ ");
-                for (double v : dist) System.out.print(v + " ");
-                System.out.println("]");
-            }
 
-            notSampledYet.add(distributions.size());
-            distributions.add(dist);
+                notSampledYet.add(distributions.size());
+                distributions.add(dist);
+            }
         }
 
         // Select the best combination that results in a valid playeraction by epsilon-greedy sampling:
-        ResourceUsage base_ru = new ResourceUsage();
-        for(Unit u:gs.getUnits()) {
-            UnitAction ua = gs.getUnitAction(u);
-            if (ua!=null) {
-                ResourceUsage ru = ua.resourceUsage(u, gs.getPhysicalGameState());
-                base_ru.merge(ru);
-            }
-        }
+        // resources used by the actions already assigned (computed when the node was created):
+        ResourceUsage base_ru = moveGenerator.getBaseResourceUsage();
 
         pa2 = new PlayerAction();
-        actionCode = BigInteger.ZERO;
         pa2.setResourceUsage(base_ru.clone());            
         while(!notSampledYet.isEmpty()) {
-            int i = notSampledYet.remove(r.nextInt(notSampledYet.size()));
+            int i = notSampledYet.remove(random().nextInt(notSampledYet.size()));
 
             try {
                 UnitActionTableEntry ate = unitActionTable.get(i);
@@ -304,21 +338,31 @@ public class NaiveMCTSNode extends MCTSNode {
                 pa2.getResourceUsage().merge(r2);
                 pa2.addUnitAction(ate.u, ua);
 
-                actionCode = actionCode.add(BigInteger.valueOf(code).multiply(multipliers[i]));
+                actionKey1 += ActionKey.key1(multipliers, i, code);
+                actionKey2 += ActionKey.key2(multipliers, i, code);
 
             } catch(Exception e) {
                 e.printStackTrace();
             }
         }   
 
-        NaiveMCTSNode pate = childrenMap.get(actionCode);
+        NaiveMCTSNode pate;
+        synchronized(this) {
+            pate = childrenMap.get(actionKey1, actionKey2);
+        }
         if (pate==null) {
-            actions.add(pa2);            
+            // the child is created outside of the lock, and discarded if another thread added it meanwhile:
             GameState gs2 = gs.cloneIssue(pa2);
-            NaiveMCTSNode node = new NaiveMCTSNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
-            childrenMap.put(actionCode,node);
-            children.add(node);          
-            return node;                
+            NaiveMCTSNode node = new NaiveMCTSNode(maxplayer, minplayer, gs2.cloneSharingUnits(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
+            synchronized(this) {
+                pate = childrenMap.get(actionKey1, actionKey2);
+                if (pate==null) {
+                    actions.add(pa2);
+                    childrenMap.put(actionKey1, actionKey2, node);
+                    children.add(node);
+                    return node;
+                }
+            }
         }
 
         return pate.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
@@ -334,10 +378,74 @@ public class NaiveMCTSNode extends MCTSNode {
 
 
     public void propagateEvaluation(double evaluation, NaiveMCTSNode child) {
-        accum_evaluation += evaluation;
-        visit_count++;
-        
+        propagateEvaluation(evaluation, child, false);
+    }
+
+
+    /**
+     * Propagates the evaluation of a playout up the tree
+     * @param evaluation
+     * @param child the child the playout went through (null for the leaf)
+     * @param virtualLossAdded whether a virtual loss was added for the playout (see 
+     * {@link #addVirtualLoss()}), in which case it is replaced by the evaluation
+     */
+    public void propagateEvaluation(double evaluation, NaiveMCTSNode child, boolean virtualLossAdded) {
 //        if (child!=null) System.out.println(evaluation);
+        synchronized(this) {
+            if (virtualLossAdded) {
+                addStatistics(evaluation - virtualLoss(), child, (child==null ? 0 : evaluation - child.virtualLoss()), 0);
+            } else {
+                addStatistics(evaluation, child, evaluation, 1);
+            }
+        }
+
+        if (parent != null) {
+            ((NaiveMCTSNode)parent).propagateEvaluation(evaluation, this, virtualLossAdded);
+        }
+    }
+
+
+    /**
+     * Adds a virtual loss to this node and its ancestors (for tree-parallel search): a 
+     * visit with the worst possible evaluation for the player that chooses each of them 
+     * (also in the unit action tables), so that other threads tend to try other paths 
+     * until the playout from this node is propagated with 
+     * {@link #propagateEvaluation(double, NaiveMCTSNode, boolean)}.
+     */
+    public void addVirtualLoss() {
+        NaiveMCTSNode child = null;
+        NaiveMCTSNode node = this;
+        while(node!=null) {
+            synchronized(node) {
+                node.addStatistics(node.virtualLoss(), child, (child==null ? 0 : child.virtualLoss()), 1);
+            }
+            child = node;
+            node = (NaiveMCTSNode)node.parent;
+        }
+    }
+
+
+    /**
+     * The virtual loss of a node: the worst evaluation for the player that chooses it
+     */
+    double virtualLoss() {
+        if (parent==null) return 0;
+        return (parent.type==0 ? -evaluation_bound : evaluation_bound);
+    }
+
+
+    /**
+     * Adds an evaluation to the statistics of this node, and another to those of the unit 
+     * actions that lead to the child
+     * @param evaluation
+     * @param child
+     * @param childEvaluation
+     * @param visits
+     */
+    void addStatistics(double evaluation, NaiveMCTSNode child, double childEvaluation, int visits) {
+        accum_evaluation += evaluation;
+        visit_count += visits;
+        if (transpositionTable != null) transpositionTable.add(hash, evaluation, visits);
 
         // update the unitAction table:
         if (child != null) {
@@ -353,16 +461,112 @@ public class NaiveMCTSNode extends MCTSNode {
                     System.out.println("Available actions are: " + actionTable.actions);
                 }
                 
-                actionTable.accum_evaluation[idx] += evaluation;
-                actionTable.visit_count[idx]++;
+                actionTable.accum_evaluation[idx] += childEvaluation;
+                actionTable.visit_count[idx] += visits;
             }
         }
+    }
 
-        if (parent != null) {
-            ((NaiveMCTSNode)parent).propagateEvaluation(evaluation, this);
+    /**
+     * Looks for the most visited node of type a_type, in the tree below this one (including
+     * it), whose state is the same as a_gs (the Zobrist hashes are compared first, and then
+     * {@link GameState#equalsIncludingResources(GameState)}), to continue the search from it
+     * in the next frame.
+     * @param a_gs
+     * @param a_type
+     * @return the node, or null if there is none
+     */
+    public NaiveMCTSNode findNode(GameState a_gs, int a_type) {
+        // (computed from scratch, in case the observed state was changed through the setters of Unit)
+        return findNode(a_gs, ZobristHash.compute(a_gs), a_type);
+    }
+
+
+    NaiveMCTSNode findNode(GameState a_gs, long hash, int a_type) {
+        int time = a_gs.getTime();
+        if (gs.getTime()>time) return null;
+        NaiveMCTSNode best = null;
+        if (type==a_type && gs.getTime()==time && gs.getZobristHash()==hash && gs.equalsIncludingResources(a_gs)) best = this;
+        if (children!=null) {
+            for(MCTSNode child:children) {
+                NaiveMCTSNode found = ((NaiveMCTSNode)child).findNode(a_gs, hash, a_type);
+                if (found!=null && (best==null || found.visit_count>best.visit_count)) best = found;
+            }
+        }
+        return best;
+    }
+
+
+    /**
+     * Makes this node the root of its tree, dropping its parent (and so, the rest of the
+     * tree above it)
+     */
+    public void makeRoot() {
+        parent = null;
+        setDepth(0);
+    }
+
+
+    void setDepth(int a_depth) {
+        depth = a_depth;
+        if (children!=null) {
+            for(MCTSNode child:children) ((NaiveMCTSNode)child).setDepth(depth+1);
+        }
+    }
+
+
+    /**
+     * Removes the children of the least visited nodes below this one, until the tree has
+     * at most maxNodes nodes. The nodes that lose their children keep their statistics
+     * (and those of their unit action tables), and are expanded again if they are selected.
+     * @param maxNodes
+     * @return the number of nodes left in the tree
+     */
+    public int prune(int maxNodes) {
+        Map<NaiveMCTSNode, Integer> sizes = new IdentityHashMap<>();
+        List<NaiveMCTSNode> expanded = new ArrayList<>();
+        int size = countNodes(sizes, expanded);
+        if (size<=maxNodes) return size;
+
+        expanded.sort((n1, n2) -> Integer.compare(n1.visit_count, n2.visit_count));
+        for(NaiveMCTSNode node:expanded) {
+            if (size<=maxNodes) break;
+            // skip the root, and the nodes that were removed with an ancestor:
+            if (node==this || !sizes.containsKey(node)) continue;
+            int removed = sizes.get(node) - 1;
+            for(MCTSNode child:node.children) ((NaiveMCTSNode)child).forget(sizes);
+            node.children.clear();
+            node.actions.clear();
+            node.childrenMap = new ActionKeyMap<>();
+            sizes.put(node, 1);
+            for(MCTSNode ancestor = node.parent;ancestor!=null && sizes.containsKey(ancestor);ancestor = ancestor.parent) {
+                sizes.put((NaiveMCTSNode)ancestor, sizes.get(ancestor) - removed);
+            }
+            size -= removed;
+        }
+        return size;
+    }
+
+
+    int countNodes(Map<NaiveMCTSNode, Integer> sizes, List<NaiveMCTSNode> expanded) {
+        int size = 1;
+        if (children!=null && !children.isEmpty()) {
+            for(MCTSNode child:children) size += ((NaiveMCTSNode)child).countNodes(sizes, expanded);
+            expanded.add(this);
         }
+        sizes.put(this, size);
+        return size;
     }
 
+
+    void forget(Map<NaiveMCTSNode, Integer> sizes) {
+        sizes.remove(this);
+        if (children!=null) {
+            for(MCTSNode child:children) ((NaiveMCTSNode)child).forget(sizes);
+        }
+    }
+
+
     public void printUnitActionTable() {
         for (UnitActionTableEntry uat : unitActionTable) {
             System.out.println("Actions for unit " + uat.u);
@@ -0,0 +1,387 @@
+package ai.mcts.naivemcts;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.AbstractionLayerAI;
+import ai.core.AI;
+import ai.core.ParameterSpecification;
+import ai.evaluation.EvaluationFunction;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.ActionKeyMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import rts.GameState;
+import rts.PlayerAction;
+import rts.SimulationContext;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * NaiveMCTS running its iterations in several threads, in one of two ways:
+ * - ROOT_PARALLEL: each thread searches its own tree, and the action is chosen by
+ *   adding up the visits of the children of all the roots.
+ * - TREE_PARALLEL: all the threads search the same tree. A thread adds a virtual
+ *   loss to the path it selected while it runs the playout (see
+ *   {@link NaiveMCTSNode#addVirtualLoss()}), so that the others tend to try other paths.
+ *
+ * Each thread has its own copy of the playout policy, and runs the playouts with its
+ * own {@link SimulationContext} (the IDs of the units it creates are taken from a
+ * range of its own, so that they are unique in all the states of a shared tree).
+ * The evaluation function is shared, so it must not keep any state between calls.
+ * Each iteration counts as one for the iterations budget, no matter the thread.
+ */
+public class ParallelNaiveMCTS extends NaiveMCTS {
+    public static final int ROOT_PARALLEL = 0;
+    public static final int TREE_PARALLEL = 1;
+
+    // IDs of the units created by each thread start this far apart:
+    static final long ID_RANGE = 1L << 40;
+
+    static ExecutorService executor = Executors.newCachedThreadPool((r) -> {
+        Thread t = new Thread(r, "ParallelNaiveMCTS worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public int nThreads = 4;
+    public int parallelization = TREE_PARALLEL;
+
+    // the trees of the other threads in ROOT_PARALLEL (the one of the first thread is "tree"):
+    protected NaiveMCTSNode trees[];
+    protected AtomicInteger creation_ID = new AtomicInteger();
+
+
+    public ParallelNaiveMCTS(UnitTypeTable utt) {
+        this(100,-1,100,10,
+             0.3f, 0.0f, 0.4f,
+             new RandomBiasedAI(),
+             new SimpleSqrtEvaluationFunction3(), true, 4, TREE_PARALLEL);
+    }
+
+
+    public ParallelNaiveMCTS(int available_time, int max_playouts, int lookahead, int max_depth, float e_l, float e_g, float e_0, AI policy, EvaluationFunction a_ef, boolean fensa, int a_nThreads, int a_parallelization) {
+        super(available_time, max_playouts, lookahead, max_depth, e_l, e_g, e_0, policy, a_ef, fensa);
+        nThreads = a_nThreads;
+        parallelization = a_parallelization;
+    }
+
+
+    public ParallelNaiveMCTS(int available_time, int max_playouts, int lookahead, int max_depth,
+                               float e_l, float discout_l,
+                               float e_g, float discout_g,
+                               float e_0, float discout_0,
+                               AI policy, EvaluationFunction a_ef,
+                               boolean fensa, int a_nThreads, int a_parallelization) {
+        super(available_time, max_playouts, lookahead, max_depth, e_l, discout_l, e_g, discout_g, e_0, discout_0, policy, a_ef, fensa);
+        nThreads = a_nThreads;
+        parallelization = a_parallelization;
+    }
+
+
+    @Override
+    public void reset() {
+        super.reset();
+        trees = null;
+    }
+
+
+    @Override
+    public AI clone() {
+        ParallelNaiveMCTS clone = new ParallelNaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, epsilon_l, discount_l, epsilon_g, discount_g, epsilon_0, discount_0, playoutPolicy, ef, forceExplorationOfNonSampledActions, nThreads, parallelization);
+        clone.reuseTree = reuseTree;
+        clone.MAX_TREE_NODES = MAX_TREE_NODES;
+        clone.TRANSPOSITION_TABLE_SIZE = TRANSPOSITION_TABLE_SIZE;
+        clone.EVALUATION_BATCH_SIZE = EVALUATION_BATCH_SIZE;
+        return clone;
+    }
+
+
+    @Override
+    public void startNewComputation(int a_player, GameState gs) throws Exception {
+        // the tree is only reused in TREE_PARALLEL (the trees of ROOT_PARALLEL are rebuilt):
+        NaiveMCTSNode reused = (reuseTree && parallelization==TREE_PARALLEL && trees==null ? reusableSubtree(a_player, gs) : null);
+        player = a_player;
+        current_iteration = 0;
+        if (reused!=null) {
+            tree = reused;
+        } else {
+            creation_ID.set(0);
+            tree = new NaiveMCTSNode(player, 1-player, gs, null, ef.upperBound(gs), creation_ID.getAndIncrement(), forceExplorationOfNonSampledActions);
+        }
+        trees = null;
+        tree.setTranspositionTable(transpositionTableForNewSearch(reused!=null));
+        if (parallelization==ROOT_PARALLEL) {
+            trees = new NaiveMCTSNode[nThreads];
+            trees[0] = tree;
+            for(int i = 1;i<nThreads;i++) {
+                trees[i] = new NaiveMCTSNode(player, 1-player, gs.clone(), null, ef.upperBound(gs), creation_ID.getAndIncrement(), forceExplorationOfNonSampledActions);
+                trees[i].setTranspositionTable(transpositionTable);    // shared by all the trees
+            }
+        }
+
+        if (tree.moveGenerator==null) {
+            max_actions_so_far = 0;
+        } else {
+            max_actions_so_far = Math.max(tree.moveGenerator.getSize(),max_actions_so_far);
+        }
+        gs_to_start_from = gs;
+
+        epsilon_l = initial_epsilon_l;
+        epsilon_g = initial_epsilon_g;
+        epsilon_0 = initial_epsilon_0;
+    }
+
+
+    @Override
+    public void resetSearch() {
+        super.resetSearch();
+        trees = null;
+    }
+
+
+    @Override
+    public void computeDuringOneGameFrame() throws Exception {
+        if (DEBUG>=2) System.out.println("Search...");
+        long start = System.currentTimeMillis();
+        AtomicLong count = new AtomicLong();
+        SimulationContext context = SimulationContext.get();
+        long firstID = (context==null ? Unit.next_ID : context.getNextID());
+
+        List<Future<Void>> futures = new ArrayList<>(nThreads);
+        for(int i = 0;i<nThreads;i++) {
+            final NaiveMCTSNode root = (trees==null ? tree : trees[i]);
+            final SimulationContext threadContext = new SimulationContext(r.nextLong());
+            threadContext.reserveID(firstID + (i+1) * ID_RANGE);
+            final AI policy = AbstractionLayerAI.cloneForThread(playoutPolicy);
+            futures.add(executor.submit(() -> {
+                SimulationContext.set(threadContext);
+                try {
+                    while(true) {
+                        if (EVALUATION_BATCH_SIZE>1) {
+                            int n = EVALUATION_BATCH_SIZE;
+                            if (ITERATIONS_BUDGET>=0) {
+                                long previous = count.getAndAdd(n);
+                                if (previous>=ITERATIONS_BUDGET) break;
+                                n = (int)Math.min(n, ITERATIONS_BUDGET - previous);
+                            }
+                            if (iterationBatch(root, policy, n)<n) break;
+                        } else {
+                            if (ITERATIONS_BUDGET>=0 && count.getAndIncrement()>=ITERATIONS_BUDGET) break;
+                            if (!iteration(root, policy)) break;
+                        }
+                        if (TIME_BUDGET>=0 && (System.currentTimeMillis() - start)>=TIME_BUDGET) break;
+                    }
+                } finally {
+                    SimulationContext.set(null);
+                }
+                return null;
+            }));
+        }
+        // wait for all of them, so that no thread is still using the tree when we return:
+        Exception exception = null;
+        for(Future<Void> future:futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (exception==null) {
+                    Throwable t = e.getCause();
+                    if (t instanceof Error) throw (Error)t;
+                    exception = (t instanceof Exception ? (Exception)t : e);
+                }
+            }
+        }
+        if (exception!=null) throw exception;
+
+        total_time += (System.currentTimeMillis() - start);
+        total_cycles_executed++;
+    }
+
+
+    /**
+     * One iteration from the given root, using the given playout policy (the epsilon
+     * values and the statistics are shared by all the threads)
+     */
+    boolean iteration(NaiveMCTSNode root, AI policy) throws Exception {
+        float e_l, e_g, e_0;
+        synchronized(this) {
+            e_l = epsilon_l;
+            e_g = epsilon_g;
+            e_0 = epsilon_0;
+        }
+        NaiveMCTSNode leaf = root.selectLeaf(player, 1-player, e_l, e_g, e_0, global_strategy, MAX_TREE_DEPTH, creation_ID.getAndIncrement());
+
+        if (leaf!=null) {
+            boolean virtualLoss = (parallelization==TREE_PARALLEL);
+            if (virtualLoss) leaf.addVirtualLoss();
+            GameState gs2 = leaf.gs.clone();
+            simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME, policy);
+
+            int time = gs2.getTime() - gs_to_start_from.getTime();
+            double evaluation = ef.evaluate(player, 1-player, gs2)*Math.pow(0.99,time/10.0);
+
+            leaf.propagateEvaluation(evaluation, null, virtualLoss);
+
+            // update the epsilon values:
+            synchronized(this) {
+                epsilon_0*=discount_0;
+                epsilon_l*=discount_l;
+                epsilon_g*=discount_g;
+                total_runs++;
+                current_iteration++;
+            }
+        } else {
+            // no actions to choose from :)
+            System.err.println(this.getClass().getSimpleName() + ": claims there are no more leafs to explore...");
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Up to n iterations from the given root, with the evaluations of their playouts done
+     * in one batch (see {@link NaiveMCTS#iterationBatch(int, int)}: virtual losses are
+     * added also in ROOT_PARALLEL)
+     * @return the number of iterations run
+     */
+    int iterationBatch(NaiveMCTSNode root, AI policy, int n) throws Exception {
+        NaiveMCTSNode leaves[] = new NaiveMCTSNode[n];
+        GameState states[] = new GameState[n];
+        int count = 0;
+        while(count<n) {
+            float e_l, e_g, e_0;
+            synchronized(this) {
+                e_l = epsilon_l;
+                e_g = epsilon_g;
+                e_0 = epsilon_0;
+                epsilon_0*=discount_0;
+                epsilon_l*=discount_l;
+                epsilon_g*=discount_g;
+            }
+            NaiveMCTSNode leaf = root.selectLeaf(player, 1-player, e_l, e_g, e_0, global_strategy, MAX_TREE_DEPTH, creation_ID.getAndIncrement());
+            if (leaf==null) {
+                // no actions to choose from :)
+                System.err.println(this.getClass().getSimpleName() + ": claims there are no more leafs to explore...");
+                break;
+            }
+            leaf.addVirtualLoss();
+            GameState gs2 = leaf.gs.clone();
+            simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME, policy);
+            leaves[count] = leaf;
+            states[count] = gs2;
+            count++;
+        }
+
+        float evaluations[] = new float[count];
+        ef.evaluate(player, 1-player, states, count, evaluations);
+        for(int i = 0;i<count;i++) {
+            int time = states[i].getTime() - gs_to_start_from.getTime();
+            leaves[i].propagateEvaluation(evaluations[i]*Math.pow(0.99,time/10.0), null, true);
+        }
+        synchronized(this) {
+            total_runs += count;
+            current_iteration += count;
+        }
+        return count;
+    }
+
+
+    public void simulate(GameState gs, int time, AI policy) throws Exception {
+        boolean gameover = false;
+
+        do{
+            if (gs.isComplete()) {
+                gameover = gs.fastForwardToNextChange(time);
+            } else {
+                policy.issueAction(0, gs);
+                policy.issueAction(1, gs);
+            }
+        }while(!gameover && gs.getTime()<time);
+    }
+
+
+    @Override
+    public PlayerAction getBestActionSoFar() {
+        if (trees==null) return super.getBestActionSoFar();
+
+        // add up the visits of each action over all the trees (since all the roots are
+        // copies of the same state, the same action has the same key in all of them):
+        total_actions_issued++;
+        ActionKeyMap<int[]> visits = new ActionKeyMap<>();    // visits, tree and index of the child
+        for(int t = 0;t<trees.length;t++) {
+            ActionKeyMap<NaiveMCTSNode> childrenMap = trees[t].childrenMap;
+            for(int i = 0;i<childrenMap.size();i++) {
+                int v[] = visits.get(childrenMap.getKey1(i), childrenMap.getKey2(i));
+                if (v==null) {
+                    visits.put(childrenMap.getKey1(i), childrenMap.getKey2(i), new int[]{childrenMap.getValue(i).visit_count, t, i});
+                } else {
+                    v[0] += childrenMap.getValue(i).visit_count;
+                }
+            }
+        }
+        int best[] = null;
+        for(int i = 0;i<visits.size();i++) {
+            if (best==null || visits.getValue(i)[0]>best[0]) best = visits.getValue(i);
+        }
+        if (best==null) {
+            if (DEBUG>=1) System.out.println("ParallelNaiveMCTS no children selected. Returning an empty asction");
+            return new PlayerAction();
+        }
+        PlayerAction action = trees[best[1]].actions.get(best[2]);
+        if (DEBUG>=1) System.out.println("ParallelNaiveMCTS selected children " + action + " explored " + best[0]);
+        return action;
+    }
+
+
+    /**
+     * @return the trees searched by each thread in ROOT_PARALLEL, or null
+     */
+    public NaiveMCTSNode[] getTrees() {
+        return trees;
+    }
+
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + TIME_BUDGET + ", " + ITERATIONS_BUDGET + ", " + MAXSIMULATIONTIME + "," + MAX_TREE_DEPTH + "," + epsilon_l + ", " + discount_l + ", " + epsilon_g + ", " + discount_g + ", " + epsilon_0 + ", " + discount_0 + ", " + playoutPolicy + ", " + ef + ", " + nThreads + ", " + (parallelization==ROOT_PARALLEL ? "root" : "tree") + ")";
+    }
+
+
+    @Override
+    public List<ParameterSpecification> getParameters() {
+        List<ParameterSpecification> parameters = super.getParameters();
+
+        parameters.add(new ParameterSpecification("Threads",int.class,4));
+        ParameterSpecification ps = new ParameterSpecification("Parallelization",int.class,TREE_PARALLEL);
+        ps.addPossibleValue(ROOT_PARALLEL);
+        ps.addPossibleValue(TREE_PARALLEL);
+        parameters.add(ps);
+
+        return parameters;
+    }
+
+
+    public int getThreads() {
+        return nThreads;
+    }
+
+
+    public void setThreads(int a_nThreads) {
+        nThreads = a_nThreads;
+    }
+
+
+    public int getParallelization() {
+        return parallelization;
+    }
+
+
+    public void setParallelization(int a_parallelization) {
+        parallelization = a_parallelization;
+    }
+}
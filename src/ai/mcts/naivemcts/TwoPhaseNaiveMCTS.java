@@ -302,7 +302,7 @@ public class TwoPhaseNaiveMCTS extends AIWithComputationBudget implements Interr
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForwardToNextChange(time);
             } else {
                 gs.issue(randomAI.getAction(0, gs));
                 gs.issue(randomAI.getAction(1, gs));
@@ -4,11 +4,10 @@
  */
 package ai.mcts.naivemcts;
 
-import static ai.mcts.MCTSNode.r;
+import static ai.mcts.MCTSNode.random;
 import static ai.mcts.naivemcts.NaiveMCTSNode.DEBUG;
-import java.math.BigInteger;
+import ai.mcts.ActionKey;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import rts.*;
 import rts.units.Unit;
@@ -36,7 +35,7 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
         float epsilon_g = (visit_count<phase1_budget ? eg1 : eg2);
         int global_strategy = (visit_count<phase1_budget ? a_gs1 : a_gs2);
         
-        if (children.size()>0 && r.nextFloat()>=epsilon_0) {
+        if (children.size()>0 && random().nextFloat()>=epsilon_0) {
             // sample from the global MAB:
             TwoPhaseNaiveMCTSNode selected = null;
             if (global_strategy==E_GREEDY) selected = (TwoPhaseNaiveMCTSNode)selectFromAlreadySampledEpsilonGreedy(epsilon_g);
@@ -54,13 +53,13 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
                                                                                         int phase1_budget,
                                                                                         int max_depth, int a_creation_ID) throws Exception {   
         PlayerAction pa2;
-        BigInteger actionCode;       
+        long actionKey1 = 0, actionKey2 = 0;
         
         float epsilon_l = (visit_count<phase1_budget ? el1 : el2);      
 
         // For each unit, rank the unitActions according to preference:
-        List<double []> distributions = new LinkedList<>();
-        List<Integer> notSampledYet = new LinkedList<>();
+        List<double []> distributions = new ArrayList<>();
+        List<Integer> notSampledYet = new ArrayList<>();
         for(UnitActionTableEntry ate:unitActionTable) {
             double []dist = new double[ate.nactions];
             int bestIdx = -1;
@@ -111,20 +110,13 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
         }
 
         // Select the best combination that results in a valid playeraction by epsilon-greedy sampling:
-        ResourceUsage base_ru = new ResourceUsage();
-        for(Unit u:gs.getUnits()) {
-            UnitAction ua = gs.getUnitAction(u);
-            if (ua!=null) {
-                ResourceUsage ru = ua.resourceUsage(u, gs.getPhysicalGameState());
-                base_ru.merge(ru);
-            }
-        }
+        // resources used by the actions already assigned (computed when the node was created):
+        ResourceUsage base_ru = moveGenerator.getBaseResourceUsage();
 
         pa2 = new PlayerAction();
-        actionCode = BigInteger.ZERO;
         pa2.setResourceUsage(base_ru.clone());            
         while(!notSampledYet.isEmpty()) {
-            int i = notSampledYet.remove(r.nextInt(notSampledYet.size()));
+            int i = notSampledYet.remove(random().nextInt(notSampledYet.size()));
 
             try {
                 UnitActionTableEntry ate = unitActionTable.get(i);
@@ -163,19 +155,20 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
                 pa2.getResourceUsage().merge(r2);
                 pa2.addUnitAction(ate.u, ua);
 
-                actionCode = actionCode.add(BigInteger.valueOf(code).multiply(multipliers[i]));
+                actionKey1 += ActionKey.key1(multipliers, i, code);
+                actionKey2 += ActionKey.key2(multipliers, i, code);
                 
             } catch(Exception e) {
                 e.printStackTrace();
             }
         }   
 
-        TwoPhaseNaiveMCTSNode pate = (TwoPhaseNaiveMCTSNode)childrenMap.get(actionCode);
+        TwoPhaseNaiveMCTSNode pate = (TwoPhaseNaiveMCTSNode)childrenMap.get(actionKey1, actionKey2);
         if (pate==null) {
             actions.add(pa2);            
             GameState gs2 = gs.cloneIssue(pa2);
-            TwoPhaseNaiveMCTSNode node = new TwoPhaseNaiveMCTSNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
-            childrenMap.put(actionCode,node);
+            TwoPhaseNaiveMCTSNode node = new TwoPhaseNaiveMCTSNode(maxplayer, minplayer, gs2.cloneSharingUnits(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
+            childrenMap.put(actionKey1, actionKey2, node);
             children.add(node);          
             return node;                
         }
@@ -286,7 +286,7 @@ public class TwoPhaseNaiveMCTSPerNode extends AIWithComputationBudget implements
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForwardToNextChange(time);
             } else {
                 gs.issue(randomAI.getAction(0, gs));
                 gs.issue(randomAI.getAction(1, gs));
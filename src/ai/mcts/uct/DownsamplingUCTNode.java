@@ -97,7 +97,7 @@ public class DownsamplingUCTNode {
             } else {
                 PlayerAction a = actions.get(children.size());
                 GameState gs2 = gs.cloneIssue(a);                
-                DownsamplingUCTNode node = new DownsamplingUCTNode(maxplayer, minplayer, gs2.clone(), this, MAXACTIONS, evaluation_bound);
+                DownsamplingUCTNode node = new DownsamplingUCTNode(maxplayer, minplayer, gs2.cloneSharingUnits(), this, MAXACTIONS, evaluation_bound);
                 children.add(node);
                 return node;                
             }            
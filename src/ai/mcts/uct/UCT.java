@@ -10,6 +10,7 @@ import ai.core.AIWithComputationBudget;
 import ai.core.ParameterSpecification;
 import ai.evaluation.EvaluationFunction;
 import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.TranspositionTable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -44,6 +45,16 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     int MAX_TREE_DEPTH = 10;
     
     int playerForThisComputation;
+
+    // tree reuse: if true, the search of each frame starts from the node of the previous
+    // tree whose state is the one observed (if any), keeping at most MAX_TREE_NODES nodes:
+    boolean reuseTree = false;
+    int MAX_TREE_NODES = 20000;
+
+    // if positive, the nodes of the same state share their statistics through a transposition
+    // table of this size:
+    int TRANSPOSITION_TABLE_SIZE = 0;
+    TranspositionTable transpositionTable;
     
     
     public UCT(UnitTypeTable utt) {
@@ -84,7 +95,11 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     
     
     public AI clone() {
-        return new UCT(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, randomAI, ef);
+        UCT clone = new UCT(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, randomAI, ef);
+        clone.reuseTree = reuseTree;
+        clone.MAX_TREE_NODES = MAX_TREE_NODES;
+        clone.TRANSPOSITION_TABLE_SIZE = TRANSPOSITION_TABLE_SIZE;
+        return clone;
     }  
     
     
@@ -102,8 +117,29 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     
     public void startNewComputation(int a_player, GameState gs) throws Exception {
         float evaluation_bound = ef.upperBound(gs);
+        UCTNode reused = null;
+        if (reuseTree && tree!=null && a_player==playerForThisComputation) {
+            // continue from the node of the previous tree with the observed state, if any:
+            reused = tree.findNode(gs, 0);
+            if (reused!=null) {
+                reused.makeRoot();
+                if (MAX_TREE_NODES>=0) reused.prune(MAX_TREE_NODES, a_player, 1-a_player);
+            }
+        }
         playerForThisComputation = a_player;
-        tree = new UCTNode(playerForThisComputation, 1-playerForThisComputation, gs, null, evaluation_bound);
+        if (reused!=null) {
+            tree = reused;
+        } else {
+            tree = new UCTNode(playerForThisComputation, 1-playerForThisComputation, gs, null, evaluation_bound);
+        }
+        if (TRANSPOSITION_TABLE_SIZE<=0) {
+            transpositionTable = null;
+        } else if (transpositionTable==null || transpositionTable.getSize()!=TRANSPOSITION_TABLE_SIZE) {
+            transpositionTable = new TranspositionTable(TRANSPOSITION_TABLE_SIZE);
+        } else if (reused==null) {
+            transpositionTable.clear();
+        }
+        tree.setTranspositionTable(transpositionTable);
         gs_to_start_from = gs;
         total_runs_this_move = 0;
 //        System.out.println(evaluation_bound);
@@ -151,8 +187,7 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
 //                System.out.println(evaluation_bound + " -> " + evaluation + " -> " + (evaluation+evaluation_bound)/(evaluation_bound*2));
 
             while(leaf!=null) {
-                leaf.accum_evaluation += evaluation;
-                leaf.visit_count++;
+                leaf.addEvaluation(evaluation);
                 leaf = leaf.parent;
             }
             total_runs++;
@@ -195,7 +230,10 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
         
         if (mostVisitedIdx==-1) return new PlayerAction();
         
-        return tree.actions.get(mostVisitedIdx);
+        PlayerAction action = tree.actions.get(mostVisitedIdx);
+        // the root might come from the tree of a previous frame (see startNewComputation):
+        if (tree.gs!=gs_to_start_from) action = action.translate(tree.gs, gs_to_start_from);
+        return action;
     }
     
     
@@ -225,10 +263,10 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForwardToNextChange(time);
             } else {
-                gs.issue(randomAI.getAction(0, gs));
-                gs.issue(randomAI.getAction(1, gs));
+                randomAI.issueAction(0, gs);
+                randomAI.issueAction(1, gs);
             }
         }while(!gameover && gs.getTime()<time);   
     }
@@ -252,6 +290,10 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
         parameters.add(new ParameterSpecification("DefaultPolicy",AI.class, randomAI));
         parameters.add(new ParameterSpecification("EvaluationFunction", EvaluationFunction.class, new SimpleSqrtEvaluationFunction3()));
 
+        parameters.add(new ParameterSpecification("ReuseTree",boolean.class,false));
+        parameters.add(new ParameterSpecification("MaxTreeNodes",int.class,20000));
+        parameters.add(new ParameterSpecification("TranspositionTableSize",int.class,0));
+
         return parameters;
     }      
     
@@ -294,4 +336,34 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     public void setEvaluationFunction(EvaluationFunction a_ef) {
         ef = a_ef;
     }
+
+
+    public boolean getReuseTree() {
+        return reuseTree;
+    }
+
+
+    public void setReuseTree(boolean a_reuseTree) {
+        reuseTree = a_reuseTree;
+    }
+
+
+    public int getMaxTreeNodes() {
+        return MAX_TREE_NODES;
+    }
+
+
+    public void setMaxTreeNodes(int a_maxTreeNodes) {
+        MAX_TREE_NODES = a_maxTreeNodes;
+    }
+
+
+    public int getTranspositionTableSize() {
+        return TRANSPOSITION_TABLE_SIZE;
+    }
+
+
+    public void setTranspositionTableSize(int a_size) {
+        TRANSPOSITION_TABLE_SIZE = a_size;
+    }
 }
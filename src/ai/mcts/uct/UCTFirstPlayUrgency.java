@@ -227,7 +227,7 @@ public class UCTFirstPlayUrgency extends AIWithComputationBudget implements Inte
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForwardToNextChange(time);
             } else {
                 gs.issue(randomAI.getAction(0, gs));
                 gs.issue(randomAI.getAction(1, gs));
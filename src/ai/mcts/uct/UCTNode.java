@@ -4,12 +4,16 @@
  */
 package ai.mcts.uct;
 
+import ai.mcts.TranspositionTable;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import rts.GameState;
 import rts.PlayerAction;
 import rts.PlayerActionGenerator;
+import rts.ZobristHash;
 
 /**
  *
@@ -32,6 +36,9 @@ public class UCTNode {
     float evaluation_bound = 0;
     float accum_evaluation = 0;
     int visit_count = 0;
+    // statistics shared with the other nodes of the same state (null if they are not shared), and the hash of the state:
+    TranspositionTable transpositionTable;
+    long hash;
     
     
     public UCTNode(int maxplayer, int minplayer, GameState a_gs, UCTNode a_parent, float bound) throws Exception {
@@ -65,6 +72,29 @@ public class UCTNode {
             type = -1;
             System.err.println("RTMCTSNode: This should not have happened...");
         }     
+        if (parent!=null) setTranspositionTable(parent.transpositionTable);
+    }
+
+
+    /**
+     * Makes this node, and the ones created below it from now on, share their statistics with
+     * the other nodes of the same state through a transposition table (see {@link #childValue(UCTNode)})
+     * @param tt the table, or null not to share them
+     */
+    public void setTranspositionTable(TranspositionTable tt) {
+        transpositionTable = tt;
+        if (tt!=null) hash = gs.getZobristHash();
+    }
+
+
+    /**
+     * Adds the evaluation of a playout through this node to its statistics
+     * @param evaluation
+     */
+    public void addEvaluation(double evaluation) {
+        accum_evaluation += evaluation;
+        visit_count++;
+        if (transpositionTable!=null) transpositionTable.add(hash, evaluation, 1);
     }
     
     public UCTNode UCTSelectLeaf(int maxplayer, int minplayer, long cutOffTime, int max_depth) throws Exception {
@@ -82,7 +112,7 @@ public class UCTNode {
             if (a!=null) {
                 actions.add(a);
                 GameState gs2 = gs.cloneIssue(a);                
-                UCTNode node = new UCTNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound);
+                UCTNode node = new UCTNode(maxplayer, minplayer, gs2.cloneSharingUnits(), this, evaluation_bound);
                 children.add(node);
                 return node;                
             } else {
@@ -113,6 +143,8 @@ public class UCTNode {
         
     public double childValue(UCTNode child) {
         double exploitation = ((double)child.accum_evaluation) / child.visit_count;
+        // use the statistics of all the nodes of the same state, if they have more playouts:
+        if (child.transpositionTable!=null) exploitation = child.transpositionTable.getAverageEvaluation(child.hash, child.visit_count, exploitation);
         double exploration = Math.sqrt(Math.log((double)visit_count)/child.visit_count);
         if (type==0) {
             // max node:
@@ -127,6 +159,109 @@ public class UCTNode {
     }
     
     
+    /**
+     * Looks for the most visited node of type a_type, in the tree below this one (including
+     * it), whose state is the same as a_gs (the Zobrist hashes are compared first, and then
+     * {@link GameState#equalsIncludingResources(GameState)})
+     * @param a_gs
+     * @param a_type
+     * @return the node, or null if there is none
+     */
+    public UCTNode findNode(GameState a_gs, int a_type) {
+        // (computed from scratch, in case the observed state was changed through the setters of Unit)
+        return findNode(a_gs, ZobristHash.compute(a_gs), a_type);
+    }
+
+
+    UCTNode findNode(GameState a_gs, long hash, int a_type) {
+        int time = a_gs.getTime();
+        if (gs.getTime()>time) return null;
+        UCTNode best = null;
+        if (type==a_type && gs.getTime()==time && gs.getZobristHash()==hash && gs.equalsIncludingResources(a_gs)) best = this;
+        if (children!=null) {
+            for(UCTNode child:children) {
+                UCTNode found = child.findNode(a_gs, hash, a_type);
+                if (found!=null && (best==null || found.visit_count>best.visit_count)) best = found;
+            }
+        }
+        return best;
+    }
+
+
+    /**
+     * Makes this node the root of its tree, dropping its parent (and so, the rest of the
+     * tree above it)
+     */
+    public void makeRoot() {
+        parent = null;
+        setDepth(0);
+    }
+
+
+    void setDepth(int a_depth) {
+        depth = a_depth;
+        if (children!=null) {
+            for(UCTNode child:children) child.setDepth(depth+1);
+        }
+    }
+
+
+    /**
+     * Removes the children of the least visited nodes below this one, until the tree has
+     * at most maxNodes nodes. The nodes that lose their children keep their statistics,
+     * and generate their actions again if they are selected.
+     * @param maxNodes
+     * @param maxplayer
+     * @param minplayer
+     * @return the number of nodes left in the tree
+     */
+    public int prune(int maxNodes, int maxplayer, int minplayer) throws Exception {
+        Map<UCTNode, Integer> sizes = new IdentityHashMap<>();
+        List<UCTNode> expanded = new ArrayList<>();
+        int size = countNodes(sizes, expanded);
+        if (size<=maxNodes) return size;
+
+        expanded.sort((n1, n2) -> Integer.compare(n1.visit_count, n2.visit_count));
+        for(UCTNode node:expanded) {
+            if (size<=maxNodes) break;
+            // skip the root, and the nodes that were removed with an ancestor:
+            if (node==this || !sizes.containsKey(node)) continue;
+            int removed = sizes.get(node) - 1;
+            for(UCTNode child:node.children) child.forget(sizes);
+            node.children.clear();
+            node.actions.clear();
+            node.moveGenerator = new PlayerActionGenerator(node.gs, (node.type==0 ? maxplayer : minplayer));
+            node.moveGenerator.randomizeOrder();
+            node.hasMoreActions = true;
+            sizes.put(node, 1);
+            for(UCTNode ancestor = node.parent;ancestor!=null && sizes.containsKey(ancestor);ancestor = ancestor.parent) {
+                sizes.put(ancestor, sizes.get(ancestor) - removed);
+            }
+            size -= removed;
+        }
+        return size;
+    }
+
+
+    int countNodes(Map<UCTNode, Integer> sizes, List<UCTNode> expanded) {
+        int size = 1;
+        if (children!=null && !children.isEmpty()) {
+            for(UCTNode child:children) size += child.countNodes(sizes, expanded);
+            expanded.add(this);
+        }
+        sizes.put(this, size);
+        return size;
+    }
+
+
+    void forget(Map<UCTNode, Integer> sizes) {
+        sizes.remove(this);
+        if (children!=null) {
+            for(UCTNode child:children) child.forget(sizes);
+        }
+    }
+
+
     public void showNode(int depth, int maxdepth) {
         int mostVisitedIdx = -1;
         UCTNode mostVisited = null;
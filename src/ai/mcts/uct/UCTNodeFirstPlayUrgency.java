@@ -112,7 +112,7 @@ public class UCTNodeFirstPlayUrgency {
             if (attemptsLeft>0) {
                 actions.add(a);
                 GameState gs2 = gs.cloneIssue(a);                
-                UCTNodeFirstPlayUrgency node = new UCTNodeFirstPlayUrgency(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, FPUvalue);
+                UCTNodeFirstPlayUrgency node = new UCTNodeFirstPlayUrgency(maxplayer, minplayer, gs2.cloneSharingUnits(), this, evaluation_bound, FPUvalue);
                 children.add(node);
                 childrenMap.put(index, node);
                 return node;                
@@ -91,7 +91,7 @@ public class UCTUnitActionsNode {
             PlayerAction a = actions.get(children.size());
             if (a!=null) {
                 GameState gs2 = gs.cloneIssue(a);                
-                UCTUnitActionsNode node = new UCTUnitActionsNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound);
+                UCTUnitActionsNode node = new UCTUnitActionsNode(maxplayer, minplayer, gs2.cloneSharingUnits(), this, evaluation_bound);
                 children.add(node);
                 return node;                
             }
@@ -96,7 +96,17 @@ public class ABCD extends AI {
         if (nNodes>max_nodes_so_far) max_nodes_so_far = nNodes;
         nLeaves = 0;
         nNodes = 0;
-        MiniMaxResult bestMove = ABCD(gs, maxplayer, minplayer, alpha, beta, depthLeft, maxplayer);
+        // the search walks the tree on gs itself (issuing actions and undoing them), 
+        // and leaves it as it was given:
+        boolean startedUndoLog = gs.startUndoLog();
+        int checkpoint = gs.checkpoint();
+        MiniMaxResult bestMove;
+        try {
+            bestMove = ABCD(gs, maxplayer, minplayer, alpha, beta, depthLeft, maxplayer);
+        } finally {
+            gs.undo(checkpoint);
+            if (startedUndoLog) gs.stopUndoLog();
+        }
         if (DEBUG>=1) System.out.println("ABCD: " + bestMove + " in " + (System.currentTimeMillis()-start));
         return bestMove.action;
     }
@@ -119,7 +129,7 @@ public class ABCD extends AI {
             boolean gameover = false;
             while(!gameover && gs2.getTime()<timeOut) {
                 if (gs2.isComplete()) {
-                    gameover = gs2.cycle();
+                    gameover = gs2.fastForwardToNextChange(timeOut);
                 } else {
                     gs2.issue(playoutAI1.getAction(0, gs2));
                     gs2.issue(playoutAI2.getAction(1, gs2));
@@ -152,8 +162,10 @@ public class ABCD extends AI {
             do{
                 next = actions.getNextAction(-1);
                 if (next!=null) {
-                    GameState gs2 = gs.cloneIssue(next);
-                    MiniMaxResult tmp = ABCD(gs2, maxplayer, minplayer, alpha, beta, depthLeft-1, nextPlayerInSimultaneousNode);
+                    int checkpoint = gs.checkpoint();
+                    gs.issue(next);
+                    MiniMaxResult tmp = ABCD(gs, maxplayer, minplayer, alpha, beta, depthLeft-1, nextPlayerInSimultaneousNode);
+                    gs.undo(checkpoint);
                     alpha = Math.max(alpha,tmp.evaluation);
                     if (best==null || tmp.evaluation>best.evaluation) {
                         best = tmp;
@@ -172,8 +184,10 @@ public class ABCD extends AI {
             do{
                 next = actions.getNextAction(-1);
                 if (next!=null) {
-                    GameState gs2 = gs.cloneIssue(next);
-                    MiniMaxResult tmp = ABCD(gs2, maxplayer, minplayer, alpha, beta, depthLeft-1, nextPlayerInSimultaneousNode);
+                    int checkpoint = gs.checkpoint();
+                    gs.issue(next);
+                    MiniMaxResult tmp = ABCD(gs, maxplayer, minplayer, alpha, beta, depthLeft-1, nextPlayerInSimultaneousNode);
+                    gs.undo(checkpoint);
                     beta = Math.min(beta,tmp.evaluation);
                     if (best==null || tmp.evaluation<best.evaluation) {
                         best = tmp;
@@ -184,12 +198,12 @@ public class ABCD extends AI {
             }while(next!=null);
             return best;
         } else {
-            GameState gs2 = gs.clone();
-            while(gs2.winner()==-1 && 
-                  !gs2.gameover() && 
-                  !gs2.canExecuteAnyAction(maxplayer) && 
-                  !gs2.canExecuteAnyAction(minplayer)) gs2.cycle();
-            return ABCD(gs2, maxplayer, minplayer, alpha, beta, depthLeft, nextPlayerInSimultaneousNode);
+            // (the caller undoes these cycles)
+            while(gs.winner()==-1 && 
+                  !gs.gameover() && 
+                  !gs.canExecuteAnyAction(maxplayer) && 
+                  !gs.canExecuteAnyAction(minplayer)) gs.cycle();
+            return ABCD(gs, maxplayer, minplayer, alpha, beta, depthLeft, nextPlayerInSimultaneousNode);
         }
     }       
     
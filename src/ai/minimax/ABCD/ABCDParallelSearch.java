@@ -0,0 +1,138 @@
+package ai.minimax.ABCD;
+
+import ai.abstraction.AbstractionLayerAI;
+import ai.core.AI;
+import ai.evaluation.EvaluationFunction;
+import ai.minimax.MinimaxTranspositionTable;
+import ai.minimax.ParallelAlphaBetaSearch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import rts.GameState;
+import rts.PlayerActionGenerator;
+
+/**
+ * The search of one iteration of {@link IDABCD} (up to a fixed depth), run by several
+ * threads (see {@link ParallelAlphaBetaSearch}). The nodes are the same as the ones of
+ * IDABCD.searchOutsideStack: when both players can act, they alternate, and the leaves
+ * are evaluated after a playout.
+ */
+class ABCDParallelSearch extends ParallelAlphaBetaSearch {
+    AI playoutAI;
+    // the playout AIs of each thread are cloned from a copy of its own (with its own path-finding):
+    ThreadLocal<AI> threadPlayoutAI;
+    int maxPlayoutTime;
+    EvaluationFunction ef;
+    int maxDepth;
+    int maxPlayouts;
+
+    AtomicInteger nPlayouts = new AtomicInteger();
+    volatile boolean treeIsComplete = true;
+    volatile int time_depth = 0;
+    int startTime;
+
+
+    ABCDParallelSearch(ForkJoinPool a_pool, int a_nThreads, MinimaxTranspositionTable a_tt,
+                       AI a_playoutAI, int a_maxPlayoutTime, EvaluationFunction a_ef) {
+        super(a_pool, a_nThreads, a_tt);
+        playoutAI = a_playoutAI;
+        threadPlayoutAI = ThreadLocal.withInitial(() -> AbstractionLayerAI.cloneForThread(playoutAI));
+        maxPlayoutTime = a_maxPlayoutTime;
+        ef = a_ef;
+    }
+
+
+    /**
+     * Searches a state up to a given depth
+     * @param gs
+     * @param depth
+     * @param a_maxPlayouts the maximum number of playouts of the search (including the
+     * ones run by earlier calls since the counter was last reset), or -1
+     */
+    rts.PlayerAction search(GameState gs, int a_maxplayer, int depth, long cutOffTime, int a_maxPlayouts) throws Exception {
+        maxDepth = depth;
+        maxPlayouts = a_maxPlayouts;
+        treeIsComplete = true;
+        time_depth = 0;
+        startTime = gs.getTime();
+        return search(new Node(gs, 0, 0), a_maxplayer, 1 - a_maxplayer, cutOffTime);
+    }
+
+
+    @Override
+    protected int prepare(Node n) throws Exception {
+        while (true) {
+            if (n.depth >= maxDepth || n.gs.winner() != -1 || n.gs.gameover()) return LEAF;
+            boolean maxCanAct = n.gs.canExecuteAnyAction(maxplayer);
+            boolean minCanAct = n.gs.canExecuteAnyAction(minplayer);
+            if (maxCanAct && minCanAct) {
+                int type = n.nextPlayer;
+                n.nextPlayer = 1 - n.nextPlayer;
+                return type;
+            }
+            if (maxCanAct) return MAX;
+            if (minCanAct) return MIN;
+            // simulation node:
+            n.gs = n.gs.clone();
+            while (n.gs.winner() == -1 &&
+                   !n.gs.gameover() &&
+                   !n.gs.canExecuteAnyAction(maxplayer) &&
+                   !n.gs.canExecuteAnyAction(minplayer)) {
+                n.gs.cycle();
+            }
+        }
+    }
+
+
+    @Override
+    protected float evaluate(Node n) throws Exception {
+        if (maxPlayouts > 0 && nPlayouts.incrementAndGet() > maxPlayouts) {
+            abort();
+            return 0;
+        }
+        int t = n.gs.getTime() - startTime;
+        if (t > time_depth) time_depth = t;
+        GameState gs2 = n.gs.clone();
+        AI threadAI = threadPlayoutAI.get();
+        AI playoutAI1 = threadAI.clone();
+        AI playoutAI2 = threadAI.clone();
+        int timeOut = gs2.getTime() + maxPlayoutTime;
+        if (!gs2.gameover()) treeIsComplete = false;
+        boolean gameover = false;
+        while (!gameover && gs2.getTime() < timeOut) {
+            if (gs2.isComplete()) {
+                gameover = gs2.fastForwardToNextChange(timeOut);
+            } else {
+                playoutAI1.issueAction(0, gs2);
+                playoutAI2.issueAction(1, gs2);
+            }
+        }
+        return ef.evaluate(maxplayer, minplayer, gs2);
+    }
+
+
+    @Override
+    protected int remaining(Node n) {
+        return maxDepth - n.depth;
+    }
+
+
+    @Override
+    protected Node child(Node n, GameState gs) {
+        return new Node(gs, n.depth + 1, n.nextPlayer);
+    }
+
+
+    @Override
+    protected PlayerActionGenerator generator(Node n, int player) throws Exception {
+        PlayerActionGenerator pag = new PlayerActionGenerator(n.gs, player);
+        pag.randomizeOrder();
+        return pag;
+    }
+
+
+    @Override
+    protected long key(Node n) {
+        // which player acts first in the next simultaneous node changes the search:
+        return super.key(n) ^ (n.nextPlayer == 0 ? 0 : 0x9E3779B97F4A7C15L);
+    }
+}
@@ -11,9 +11,11 @@ import ai.core.AIWithComputationBudget;
 import ai.core.ParameterSpecification;
 import ai.evaluation.EvaluationFunction;
 import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.minimax.MinimaxTranspositionTable;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import rts.GameState;
 import rts.PlayerAction;
 import rts.PlayerActionGenerator;
@@ -31,6 +33,8 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
     
     int MAX_DEPTH = 50; // if search goes beyond this point, most likely we are done
 
+    public static int TT_SIZE = 1 << 16;    // entries of the transposition table of the parallel search
+
     int avg_depth_so_far = 0;
     int count_depth_so_far = 0;
 
@@ -62,6 +66,12 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
     EvaluationFunction ef;
     boolean performGreedyActionScan = false;
 
+    // with more than one thread, each depth is searched by an ABCDParallelSearch:
+    int nThreads = 1;
+    ForkJoinPool pool;
+    MinimaxTranspositionTable tt;   // kept across frames, to try the best actions found so far first
+    long nodesSearched = 0;
+
     int max_consecutive_frames_searching_so_far = 0;
 
     GameState gs_to_start_from;
@@ -100,6 +110,12 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
     }
 
 
+    public IDABCD(int tpc, int ppc, AI a_playoutAI, int a_maxPlayoutTime, EvaluationFunction a_ef, boolean a_performGreedyActionScan, int a_nThreads) {
+        this(tpc, ppc, a_playoutAI, a_maxPlayoutTime, a_ef, a_performGreedyActionScan);
+        nThreads = a_nThreads;
+    }
+
+
     @Override
     public void reset() {
         gs_to_start_from = null;
@@ -108,6 +124,8 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
         lastResult = null;
         bestMove = null;
         treeIsComplete = true;
+        if (tt != null) tt.clear();
+        nodesSearched = 0;
         
         max_depth_so_far = 0;
         max_branching_so_far = 0;
@@ -135,7 +153,7 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
 
 
     public AI clone() {
-        return new IDABCD(TIME_BUDGET, ITERATIONS_BUDGET, playoutAI, maxPlayoutTime, ef, performGreedyActionScan);
+        return new IDABCD(TIME_BUDGET, ITERATIONS_BUDGET, playoutAI, maxPlayoutTime, ef, performGreedyActionScan, nThreads);
     }
     
 
@@ -194,6 +212,11 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
 
         consecutive_frames_searching++;
 
+        if (nThreads > 1) {
+            computeInParallel(maxplayer, cutOffTime);
+            return;
+        }
+
 //        System.out.println("Starting realTimeMinimaxABIterativeDeepening... (time  " + gs.getTime() + ")");
         do {
             if (stack!=null) depth = last_depth;
@@ -271,6 +294,54 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
     }
 
 
+    /**
+     * Iterative deepening, searching each depth with several threads. Unlike the
+     * sequential search, an interrupted depth is not resumed in the next frame: the search
+     * starts again from depth 1, but the transposition table (which keeps the results of
+     * the previous frames) makes the depths searched before fast, and orders the actions
+     * of each node by the results of the previous depth.
+     */
+    void computeInParallel(int maxplayer, long cutOffTime) throws Exception {
+        if (pool == null || pool.getParallelism() != nThreads) pool = new ForkJoinPool(nThreads);
+        if (tt == null) tt = new MinimaxTranspositionTable(TT_SIZE);
+        ABCDParallelSearch search = new ABCDParallelSearch(pool, nThreads, tt, playoutAI, maxPlayoutTime, ef);
+        int depth = 1;
+        long leaves = 0;
+        do {
+            PlayerAction tmp = search.search(gs_to_start_from, maxplayer, depth, cutOffTime, ITERATIONS_BUDGET);
+            if (tmp == null) break;
+            // search was completed:
+            bestMove = tmp;
+            if (depth > max_depth_so_far) max_depth_so_far = depth;
+            last_nleaves = (int)(search.leaves.get() - leaves);
+            leaves = search.leaves.get();
+            last_time_depth = search.time_depth;
+            if (last_nleaves > max_leaves_so_far) max_leaves_so_far = last_nleaves;
+            depth++;
+            if (search.treeIsComplete || depth > MAX_DEPTH) break;
+        } while (cutOffTime <= 0 || System.currentTimeMillis() < cutOffTime);
+        last_depth = depth;
+        nPlayouts = search.nPlayouts.get();
+        nodesSearched += search.nodes.get();
+    }
+
+
+    /**
+     * @return the depth of the last iteration of the search (completed or not)
+     */
+    public int getLastDepth() {
+        return last_depth;
+    }
+
+
+    /**
+     * @return the nodes searched since the last reset
+     */
+    public long getNodesSearched() {
+        return nodesSearched;
+    }
+
+
     public PlayerAction greedyActionScan(GameState gs, int player, long cutOffTime, int maxPlayouts) throws Exception {
         PlayerAction best = null;
         float bestScore = 0;
@@ -338,6 +409,7 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
                                 nLeaves++;
                                 nNodes++;
                                 nPlayouts++;
+                                nodesSearched++;
                                 
                                 if (DEBUG>=2) {
                                     for(int i = 0;i<current.depth;i++) System.out.print(" ");
@@ -353,10 +425,10 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
                                 gameover = false;
                                 while(!gameover && gs2.getTime()<timeOut) {
                                     if (gs2.isComplete()) {
-                                        gameover = gs2.cycle();
+                                        gameover = gs2.fastForwardToNextChange(timeOut);
                                     } else {
-                                        gs2.issue(playoutAI1.getAction(0, gs2));
-                                        gs2.issue(playoutAI2.getAction(1, gs2));
+                                        playoutAI1.issueAction(0, gs2);
+                                        playoutAI2.issueAction(1, gs2);
                                     }
                                 }
                                 lastResult = new Pair<>(null, ef.evaluate(maxplayer, minplayer, gs2));
@@ -376,6 +448,7 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
                                         current.type = 1;
                                     }
                                 }
+                                if (current.type != 2) nodesSearched++;
                             }
                         }
                         break;
@@ -517,7 +590,7 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
     
     
     public String toString() {
-        return getClass().getSimpleName() + "(" + TIME_BUDGET + ", " + ITERATIONS_BUDGET + ", " + playoutAI + ", " + maxPlayoutTime + ", " + ef + ", " + performGreedyActionScan + ")";
+        return getClass().getSimpleName() + "(" + TIME_BUDGET + ", " + ITERATIONS_BUDGET + ", " + playoutAI + ", " + maxPlayoutTime + ", " + ef + ", " + performGreedyActionScan + ", " + nThreads + ")";
     }     
 
     
@@ -532,6 +605,7 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
         parameters.add(new ParameterSpecification("PlayoutLookahead",int.class,100));
         parameters.add(new ParameterSpecification("EvaluationFunction", EvaluationFunction.class, new SimpleSqrtEvaluationFunction3()));
         parameters.add(new ParameterSpecification("PerformGreedyActionScan",boolean.class,true));
+        parameters.add(new ParameterSpecification("Threads",int.class,1));
         
         return parameters;
     }  
@@ -575,4 +649,14 @@ public class IDABCD extends AIWithComputationBudget implements InterruptibleAI {
     public void setPerformGreedyActionScan(boolean a_pgas) {
         performGreedyActionScan = a_pgas;
     }
+
+
+    public int getThreads() {
+        return nThreads;
+    }
+
+
+    public void setThreads(int a_nThreads) {
+        nThreads = a_nThreads;
+    }
 }
@@ -0,0 +1,153 @@
+package ai.minimax;
+
+import java.util.List;
+import rts.PlayerAction;
+import rts.PlayerActionGenerator;
+import rts.UnitAction;
+import rts.units.Unit;
+import util.Pair;
+
+/**
+ * Results of alpha-beta searches, keyed by the Zobrist hash of the state they were
+ * searched from (see {@link rts.GameState#getZobristHash()}): the value found, whether
+ * it is exact or a bound, how far below the state the search went, and the best action,
+ * which later searches (in particular, the next iteration of an iterative deepening
+ * search) try first. The table has a fixed number of entries, each of which keeps the
+ * result of the deepest search of the last state stored in it. Several threads can use
+ * it at the same time: entries are immutable, and replaced as a whole.
+ */
+public class MinimaxTranspositionTable {
+    public static final int EXACT = 0;
+    public static final int LOWER_BOUND = 1;
+    public static final int UPPER_BOUND = 2;
+
+    public static class Entry {
+        public final long key;
+        public final int remaining;     // the search horizon below the state
+        public final float value;
+        public final int flag;
+        // the best action, as the position (x + y * width) of each unit and its action:
+        final int positions[];
+        final UnitAction actions[];
+
+        Entry(long a_key, int a_remaining, float a_value, int a_flag, int a_positions[], UnitAction a_actions[]) {
+            key = a_key;
+            remaining = a_remaining;
+            value = a_value;
+            flag = a_flag;
+            positions = a_positions;
+            actions = a_actions;
+        }
+    }
+
+    int mask;
+    Entry entries[];
+
+
+    /**
+     * @param a_size the number of entries (rounded up to a power of 2)
+     */
+    public MinimaxTranspositionTable(int a_size) {
+        int size = 1;
+        while (size < a_size) {
+            size *= 2;
+        }
+        mask = size - 1;
+        entries = new Entry[size];
+    }
+
+
+    /**
+     * @return the number of entries
+     */
+    public int getSize() {
+        return entries.length;
+    }
+
+
+    /**
+     * @param key
+     * @return the entry of the state, or null if it is not in the table
+     */
+    public Entry get(long key) {
+        Entry e = entries[index(key)];
+        return (e != null && e.key == key ? e : null);
+    }
+
+
+    /**
+     * Stores the result of a search, unless the entry already has a deeper search of the
+     * same state
+     *
+     * @param key
+     * @param remaining the search horizon below the state
+     * @param value
+     * @param flag EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param best the best action found (or null)
+     * @param width the width of the map
+     */
+    public void put(long key, int remaining, float value, int flag, PlayerAction best, int width) {
+        int i = index(key);
+        Entry old = entries[i];
+        if (old != null && old.key == key && old.remaining > remaining) return;
+        int positions[] = null;
+        UnitAction actions[] = null;
+        if (best != null) {
+            List<Pair<Unit, UnitAction>> l = best.getActions();
+            positions = new int[l.size()];
+            actions = new UnitAction[l.size()];
+            for (int j = 0; j < l.size(); j++) {
+                Unit u = l.get(j).m_a;
+                positions[j] = u.getX() + u.getY() * width;
+                actions[j] = l.get(j).m_b;
+            }
+        }
+        entries[i] = new Entry(key, remaining, value, flag, positions, actions);
+    }
+
+
+    /**
+     * Finds the best action of an entry among the ones of a generator (matching the units
+     * by their position, so that it works for any state with the same hash)
+     *
+     * @param e
+     * @param pag
+     * @param width the width of the map
+     * @return the choice of the action in the generator (see
+     * {@link PlayerActionGenerator#getAction(int[])}), or null if it is not one of them
+     */
+    public static int[] bestChoice(Entry e, PlayerActionGenerator pag, int width) {
+        if (e == null || e.positions == null) return null;
+        List<Pair<Unit, List<UnitAction>>> choices = pag.getChoices();
+        if (choices.size() != e.positions.length) return null;
+        int choice[] = new int[choices.size()];
+        for (int i = 0; i < choice.length; i++) {
+            Unit u = choices.get(i).m_a;
+            int pos = u.getX() + u.getY() * width;
+            choice[i] = -1;
+            for (int j = 0; j < e.positions.length; j++) {
+                if (e.positions[j] == pos) {
+                    choice[i] = choices.get(i).m_b.indexOf(e.actions[j]);
+                    break;
+                }
+            }
+            if (choice[i] < 0) return null;
+        }
+        return choice;
+    }
+
+
+    /**
+     * Removes all the entries (not to be called while other threads use the table)
+     */
+    public void clear() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = null;
+        }
+    }
+
+
+    int index(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,361 @@
+package ai.minimax;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import rts.GameState;
+import rts.PlayerAction;
+import rts.PlayerActionGenerator;
+import rts.SimulationContext;
+import rts.units.Unit;
+
+/**
+ * Alpha-beta search of a game state, run by several threads with the "young brothers
+ * wait" scheme: the children of a node are searched in parallel, but only after the
+ * first one (the best action found for the node by previous searches, kept in a
+ * {@link MinimaxTranspositionTable} shared by all the threads, which makes it the
+ * principal variation of the previous iteration of an iterative deepening search) has
+ * been searched alone, so that the others are searched with its bounds. The threads
+ * take the next child to search from the node, and share the bounds found so far.
+ *
+ * Subclasses define the nodes of the search (see {@link #prepare(Node)}). Each task
+ * advances the states with its own {@link SimulationContext} (the IDs of the units it
+ * creates are taken from a range of its own), and the state of a node is only read by
+ * the threads searching its children while holding the lock of the node, so search
+ * algorithms that are not thread-safe (e.g. evaluation functions, playout AIs) only
+ * need to use a copy of their own in each call.
+ */
+public abstract class ParallelAlphaBetaSearch {
+    public static final int LEAF = -1;
+    public static final int MAX = 0;
+    public static final int MIN = 1;
+
+    // IDs of the units created by each task start this far apart:
+    static final long ID_RANGE = 1L << 32;
+
+    /**
+     * A node of the search: a state, and the values subclasses need to define what is
+     * searched below it
+     */
+    public static class Node {
+        public GameState gs;
+        public int depth;       // plies from the root
+        public int nextPlayer;  // subclasses can use it, e.g. to alternate the players in simultaneous nodes
+
+        public Node(GameState a_gs, int a_depth, int a_nextPlayer) {
+            gs = a_gs;
+            depth = a_depth;
+            nextPlayer = a_nextPlayer;
+        }
+    }
+
+    protected ForkJoinPool pool;
+    protected int nThreads;
+    protected MinimaxTranspositionTable tt;
+    protected int minSplitRemaining = 2;    // nodes closer to the horizon are searched by a single thread
+
+    protected int maxplayer, minplayer;
+    protected long cutOffTime;
+    protected volatile boolean aborted = false;
+    public AtomicLong nodes = new AtomicLong();
+    public AtomicLong leaves = new AtomicLong();
+    AtomicLong nextIDRange = new AtomicLong();
+    long firstID;
+    long seed;
+
+
+    /**
+     * @param a_pool the pool whose threads run the search
+     * @param a_nThreads the number of threads that search the children of each node
+     * @param a_tt
+     */
+    public ParallelAlphaBetaSearch(ForkJoinPool a_pool, int a_nThreads, MinimaxTranspositionTable a_tt) {
+        pool = a_pool;
+        nThreads = a_nThreads;
+        tt = a_tt;
+    }
+
+
+    /**
+     * Decides what to do in a node: this can advance its state (e.g. until a player can
+     * act), and change its values
+     * @param n
+     * @return LEAF, MAX (maxplayer acts) or MIN (minplayer acts)
+     */
+    protected abstract int prepare(Node n) throws Exception;
+
+
+    /**
+     * @param n a node for which {@link #prepare(Node)} returned LEAF
+     * @return the value of the node for maxplayer
+     */
+    protected abstract float evaluate(Node n) throws Exception;
+
+
+    /**
+     * @param n
+     * @return the search horizon below the node (the depth or time left), so that two
+     * nodes of the same state and horizon have the same value
+     */
+    protected abstract int remaining(Node n);
+
+
+    /**
+     * @param n
+     * @param gs the state after issuing an action in n
+     * @return the child of n with that state
+     */
+    protected abstract Node child(Node n, GameState gs);
+
+
+    /**
+     * @param n
+     * @param player
+     * @return the generator of the actions of the player in the node
+     */
+    protected PlayerActionGenerator generator(Node n, int player) throws Exception {
+        return new PlayerActionGenerator(n.gs, player);
+    }
+
+
+    /**
+     * @param n
+     * @return the key of the node in the transposition table (to which nodes of the same
+     * state that are searched differently must not have the same)
+     */
+    protected long key(Node n) {
+        // values are stored from the point of view of maxplayer:
+        return n.gs.getZobristHash() ^ (maxplayer == 0 ? 0 : 0xC2B2AE3D27D4EB4FL);
+    }
+
+
+    /**
+     * Searches a state
+     * @param root
+     * @param a_maxplayer
+     * @param a_minplayer
+     * @param a_cutOffTime time to stop the search (0 for none)
+     * @return the best action of the node, or null if the search was interrupted (or the
+     * root is not a MAX node)
+     */
+    public PlayerAction search(Node root, int a_maxplayer, int a_minplayer, long a_cutOffTime) throws Exception {
+        maxplayer = a_maxplayer;
+        minplayer = a_minplayer;
+        cutOffTime = a_cutOffTime;
+        aborted = false;
+        SimulationContext context = SimulationContext.get();
+        firstID = (context == null ? Unit.next_ID : context.getNextID());
+        seed = root.gs.getTime();
+        nextIDRange.set(0);
+
+        SplitPoint result[] = new SplitPoint[1];
+        Task task = new Task() {
+            @Override
+            void run() throws Exception {
+                int type = prepare(root);
+                if (type == MAX) result[0] = expand(root, type, -Float.MAX_VALUE, Float.MAX_VALUE);
+            }
+        };
+        try {
+            pool.invoke(task);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+        if (context != null) context.reserveID(firstID + (nextIDRange.get() + 1) * ID_RANGE);
+        if (aborted || result[0] == null) return null;
+        return result[0].best;
+    }
+
+
+    /**
+     * Marks the search as interrupted (when the time is over, or subclasses decide so)
+     */
+    protected void abort() {
+        aborted = true;
+    }
+
+
+    protected boolean timeOver() {
+        if (!aborted && cutOffTime > 0 && System.currentTimeMillis() >= cutOffTime) aborted = true;
+        return aborted;
+    }
+
+
+    /**
+     * @return the value of a node (meaningless if the search was interrupted)
+     */
+    float search(Node n, float alpha, float beta) throws Exception {
+        if (timeOver()) return 0;
+        int type = prepare(n);
+        nodes.incrementAndGet();
+        if (type == LEAF) {
+            leaves.incrementAndGet();
+            return evaluate(n);
+        }
+        MinimaxTranspositionTable.Entry e = tt.get(key(n));
+        if (e != null && e.remaining >= remaining(n)) {
+            if (e.flag == MinimaxTranspositionTable.EXACT ||
+                (e.flag == MinimaxTranspositionTable.LOWER_BOUND && e.value >= beta) ||
+                (e.flag == MinimaxTranspositionTable.UPPER_BOUND && e.value <= alpha)) return e.value;
+        }
+        SplitPoint sp = expand(n, type, alpha, beta);
+        return sp.bestValue;
+    }
+
+
+    /**
+     * Searches the children of a MAX or MIN node, and stores the result in the
+     * transposition table
+     */
+    SplitPoint expand(Node n, int type, float alpha, float beta) throws Exception {
+        PlayerActionGenerator pag = generator(n, (type == MAX ? maxplayer : minplayer));
+        int width = n.gs.getPhysicalGameState().getWidth();
+        long key = key(n);
+        SplitPoint sp = new SplitPoint(n, type == MAX, pag, alpha, beta,
+                MinimaxTranspositionTable.bestChoice(tt.get(key), pag, width));
+
+        // the first child alone, and then the rest in parallel:
+        sp.searchChildren();
+        if (!sp.isDone() && nThreads > 1 && remaining(n) >= minSplitRemaining) {
+            List<Task> helpers = new ArrayList<>();
+            for (int i = 0; i < nThreads; i++) {
+                helpers.add(new Task() {
+                    @Override
+                    void run() throws Exception {
+                        while (sp.searchChildren()) ;
+                    }
+                });
+            }
+            ForkJoinTask.invokeAll(helpers);
+        } else {
+            while (sp.searchChildren()) ;
+        }
+
+        if (!aborted && sp.best != null) {
+            int flag = MinimaxTranspositionTable.EXACT;
+            if (sp.bestValue <= alpha) flag = MinimaxTranspositionTable.UPPER_BOUND;
+            else if (sp.bestValue >= beta) flag = MinimaxTranspositionTable.LOWER_BOUND;
+            tt.put(key, remaining(n), sp.bestValue, flag, sp.best, width);
+        }
+        return sp;
+    }
+
+
+    /**
+     * A node whose children are being searched: the threads take the next action to
+     * search from it, and update its bounds with the results
+     */
+    class SplitPoint {
+        final Node node;
+        final boolean max;
+        final PlayerActionGenerator pag;
+        final int firstChoice[];    // the action to try first (or null)
+        boolean firstChoiceTried = false;
+        boolean done = false;
+        float alpha, beta;
+        float bestValue;
+        PlayerAction best = null;
+
+        SplitPoint(Node a_node, boolean a_max, PlayerActionGenerator a_pag, float a_alpha, float a_beta, int a_firstChoice[]) {
+            node = a_node;
+            max = a_max;
+            pag = a_pag;
+            alpha = a_alpha;
+            beta = a_beta;
+            firstChoice = a_firstChoice;
+            bestValue = (max ? -Float.MAX_VALUE : Float.MAX_VALUE);
+        }
+
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+
+        /**
+         * Searches the next child
+         * @return false if there are no more children to search
+         */
+        boolean searchChildren() throws Exception {
+            PlayerAction pa;
+            Node child;
+            float a, b;
+            synchronized (this) {
+                pa = next();
+                if (pa == null) return false;
+                GameState gs2 = node.gs.cloneSharingUnits();
+                gs2.issue(pa);
+                child = child(node, gs2);
+                a = alpha;
+                b = beta;
+            }
+            float value = search(child, a, b);
+            if (aborted) {
+                synchronized (this) {
+                    done = true;
+                }
+                return false;
+            }
+            synchronized (this) {
+                if (max ? value > bestValue : value < bestValue) {
+                    bestValue = value;
+                    best = pa;
+                }
+                if (max) alpha = Math.max(alpha, value);
+                    else beta = Math.min(beta, value);
+                if (beta <= alpha) done = true;
+            }
+            return true;
+        }
+
+
+        PlayerAction next() throws Exception {
+            if (done) return null;
+            if (firstChoice != null && !firstChoiceTried) {
+                firstChoiceTried = true;
+                PlayerAction pa = pag.getAction(firstChoice);
+                if (pa != null) return pa;
+            }
+            while (pag.nextConsistentChoice(cutOffTime)) {
+                if (firstChoice != null && Arrays.equals(pag.getAcceptedChoice(), firstChoice)) continue;
+                return pag.getAction(pag.getAcceptedChoice());
+            }
+            timeOver();
+            done = true;
+            return null;
+        }
+    }
+
+
+    /**
+     * A task of the search, run with its own SimulationContext
+     */
+    abstract class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        abstract void run() throws Exception;
+
+        @Override
+        protected void compute() {
+            long range = nextIDRange.incrementAndGet();
+            SimulationContext context = new SimulationContext(seed * 31 + range);
+            context.reserveID(firstID + range * ID_RANGE);
+            SimulationContext previous = SimulationContext.get();
+            SimulationContext.set(context);
+            try {
+                run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                SimulationContext.set(previous);
+            }
+        }
+    }
+}
@@ -10,10 +10,12 @@ import ai.core.AIWithComputationBudget;
 import ai.core.ParameterSpecification;
 import ai.evaluation.EvaluationFunction;
 import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.minimax.MinimaxTranspositionTable;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import rts.GameState;
 import rts.PlayerAction;
 import rts.PlayerActionGenerator;
@@ -32,6 +34,8 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
     static int minCT = -1;
     static int maxCT = -1;
     static int nLeaves = 0;
+
+    public static int TT_SIZE = 1 << 16;    // entries of the transposition table of the parallel search
     
     public long max_branching_so_far = 0;
     public long max_leaves_so_far = 0;
@@ -41,6 +45,12 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
     protected int defaultNONEduration = 8;
     
     EvaluationFunction ef;
+
+    // with more than one thread, each lookahead is searched by an RTMinimaxParallelSearch:
+    int nThreads = 1;
+    ForkJoinPool pool;
+    MinimaxTranspositionTable tt;   // kept across frames, to try the best actions found so far first
+    long nodesSearched = 0;
         
     int max_depth_so_far = 0;
     long max_potential_branching_so_far = 0;
@@ -69,6 +79,12 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
         ef = a_ef;
     }
 
+
+    public IDRTMinimax(int available_time, EvaluationFunction a_ef, int a_nThreads) {
+        this(available_time, a_ef);
+        nThreads = a_nThreads;
+    }
+
     
     @Override
     public void reset() {
@@ -77,12 +93,14 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
         stack = null;
         lastResult = null;
         bestMove = null;
+        if (tt != null) tt.clear();
+        nodesSearched = 0;
     }    
     
     
     @Override
     public AI clone() {
-        return new IDRTMinimax(TIME_BUDGET, ef);
+        return new IDRTMinimax(TIME_BUDGET, ef, nThreads);
     }  
     
     
@@ -126,6 +144,11 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
         if (System.currentTimeMillis() >= cutOffTime) return;
         
         consecutive_frames_searching++;
+
+        if (nThreads > 1) {
+            computeInParallel(maxplayer, cutOffTime);
+            return;
+        }
         
 //        System.out.println("Starting realTimeMinimaxABIterativeDeepening... (time  " + gs.getTime() + ")");
         do {
@@ -170,6 +193,49 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
     public PlayerAction getBestActionSoFar() throws Exception {
         return bestMove;
     }
+
+
+    /**
+     * Iterative deepening, searching each lookahead with several threads. Unlike the
+     * sequential search, an interrupted lookahead is not resumed in the next frame: the
+     * search starts again from the shortest lookahead, but the transposition table (which
+     * keeps the results of the previous frames) makes the lookaheads searched before fast,
+     * and orders the actions of each node by the results of the previous lookahead.
+     */
+    void computeInParallel(int maxplayer, long cutOffTime) throws Exception {
+        if (pool == null || pool.getParallelism() != nThreads) pool = new ForkJoinPool(nThreads);
+        if (tt == null) tt = new MinimaxTranspositionTable(TT_SIZE);
+        RTMinimaxParallelSearch search = new RTMinimaxParallelSearch(pool, nThreads, tt, ef);
+        int lookAhead = 1;
+        do {
+            PlayerAction tmp = search.search(gs_to_start_from, maxplayer, gs_to_start_from.getTime() + lookAhead, cutOffTime);
+            if (tmp == null) break;
+            // search was completed:
+            bestMove = tmp;
+            if (lookAhead > max_depth_so_far) max_depth_so_far = lookAhead;
+            int nextLookAhead = Math.max((search.minCT + 1) - gs_to_start_from.getTime(), lookAhead + 4);
+            if ((search.minCT == -1 && search.maxCT == -1) || nextLookAhead <= lookAhead) break;
+            lookAhead = nextLookAhead;
+        } while (System.currentTimeMillis() < cutOffTime);
+        last_lookAhead = lookAhead;
+        nodesSearched += search.nodes.get();
+    }
+
+
+    /**
+     * @return the lookahead of the last iteration of the search (completed or not)
+     */
+    public int getLastLookAhead() {
+        return last_lookAhead;
+    }
+
+
+    /**
+     * @return the nodes searched since the last reset
+     */
+    public long getNodesSearched() {
+        return nodesSearched;
+    }
     
     
     public PlayerAction timeBoundedRealTimeMinimaxABOutsideStack(GameState initial_gs, int maxplayer, int minplayer, int lookAhead, long cutOffTime, boolean needAResult) throws Exception {
@@ -200,12 +266,15 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
                                     if (maxCT==-1 || CT>maxCT) maxCT = CT;
                                 }
                                 nLeaves++;
+                                nodesSearched++;
                                 lastResult = new Pair<>(null, ef.evaluate(maxplayer, minplayer, current.gs));
                                 stack.remove(0);    
                             } else if (current.gs.canExecuteAnyAction(maxplayer)) {
                                 current.type = 0;
+                                nodesSearched++;
                             } else if (current.gs.canExecuteAnyAction(minplayer)) {
                                 current.type = 1;
+                                nodesSearched++;
                             } else {
                                 current.type = 2;
                             }     
@@ -328,7 +397,7 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
     
     
     public String toString() {
-        return getClass().getSimpleName() + "(" + TIME_BUDGET + ", " + ITERATIONS_BUDGET + ", " + ef + ")";
+        return getClass().getSimpleName() + "(" + TIME_BUDGET + ", " + ITERATIONS_BUDGET + ", " + ef + ", " + nThreads + ")";
     }     
     
     
@@ -340,6 +409,7 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
         parameters.add(new ParameterSpecification("TimeBudget",int.class,100));
         parameters.add(new ParameterSpecification("IterationsBudget",int.class,-1));
         parameters.add(new ParameterSpecification("EvaluationFunction", EvaluationFunction.class, new SimpleSqrtEvaluationFunction3()));
+        parameters.add(new ParameterSpecification("Threads",int.class,1));
         
         return parameters;
     }    
@@ -352,5 +422,15 @@ public class IDRTMinimax extends AIWithComputationBudget implements Interruptibl
     
     public void setEvaluationFunction(EvaluationFunction a_ef) {
         ef = a_ef;
-    }    
+    }
+
+
+    public int getThreads() {
+        return nThreads;
+    }
+
+
+    public void setThreads(int a_nThreads) {
+        nThreads = a_nThreads;
+    }
 }
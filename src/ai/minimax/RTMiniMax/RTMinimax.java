@@ -107,7 +107,17 @@ public class RTMinimax extends AI {
         minCT = -1;
         maxCT = -1;
         nLeaves = 0;
-        MiniMaxResult bestMove = realTimeMinimaxAB(gs, maxplayer, minplayer, alpha, beta, gs.getTime() + lookAhead, 0);
+        // the search walks the tree on gs itself (issuing actions and undoing them), 
+        // and leaves it as it was given:
+        boolean startedUndoLog = gs.startUndoLog();
+        int checkpoint = gs.checkpoint();
+        MiniMaxResult bestMove;
+        try {
+            bestMove = realTimeMinimaxAB(gs, maxplayer, minplayer, alpha, beta, gs.getTime() + lookAhead, 0);
+        } finally {
+            gs.undo(checkpoint);
+            if (startedUndoLog) gs.stopUndoLog();
+        }
         System.out.println("realTimeMinimax: " + bestMove + " in " + (System.currentTimeMillis()-start));
         return bestMove.action;
     }
@@ -124,7 +134,8 @@ public class RTMinimax extends AI {
             nLeaves++;
 //            System.out.println("Eval (at " + gs.getTime() + "): " + EvaluationFunction.evaluate(maxplayer, minplayer, gs));
 //            System.out.println(gs);
-            return new MiniMaxResult(null,ef.evaluate(maxplayer, minplayer, gs), gs);
+            // (gs is not stored in the result, since it will be rolled back)
+            return new MiniMaxResult(null,ef.evaluate(maxplayer, minplayer, gs), null);
         }
 
         if (gs.canExecuteAnyAction(maxplayer)) {
@@ -134,9 +145,11 @@ public class RTMinimax extends AI {
             MiniMaxResult best = null;
 //            System.out.println("realTimeMinimaxAB.max: " + actions_max.size());
             for(PlayerAction action_max:actions_max) {
-                GameState gs2 = gs.cloneIssue(action_max);
+                int checkpoint = gs.checkpoint();
+                gs.issue(action_max);
 //                System.out.println("action_max: " + action_max);
-                MiniMaxResult tmp = realTimeMinimaxAB(gs2, maxplayer, minplayer, alpha, beta, lookAhead, depth+1);
+                MiniMaxResult tmp = realTimeMinimaxAB(gs, maxplayer, minplayer, alpha, beta, lookAhead, depth+1);
+                gs.undo(checkpoint);
 //                System.out.println(action_max + " -> " + tmp.evaluation);
                 alpha = Math.max(alpha,tmp.evaluation);
                 if (best==null || tmp.evaluation>best.evaluation) {
@@ -159,9 +172,11 @@ public class RTMinimax extends AI {
             MiniMaxResult best = null;
 //            System.out.println("realTimeMinimaxAB.min: " + actions_min.size());
             for(PlayerAction action_min:actions_min) {
-                GameState gs2 = gs.cloneIssue(action_min);
+                int checkpoint = gs.checkpoint();
+                gs.issue(action_min);
 //                System.out.println("action_min: " + action_min);
-                MiniMaxResult tmp = realTimeMinimaxAB(gs2, maxplayer, minplayer, alpha, beta, lookAhead, depth+1);
+                MiniMaxResult tmp = realTimeMinimaxAB(gs, maxplayer, minplayer, alpha, beta, lookAhead, depth+1);
+                gs.undo(checkpoint);
                 beta = Math.min(beta,tmp.evaluation);
                 if (best==null || tmp.evaluation<best.evaluation) {
                     best = tmp;
@@ -171,12 +186,12 @@ public class RTMinimax extends AI {
             }
             return best;
         } else {
-            GameState gs2 = gs.clone();
-            while(gs2.winner()==-1 && 
-                  !gs2.gameover() &&
-                  !gs2.canExecuteAnyAction(maxplayer) && 
-                  !gs2.canExecuteAnyAction(minplayer)) gs2.cycle();
-            return realTimeMinimaxAB(gs2, maxplayer, minplayer, alpha, beta, lookAhead, depth+1);
+            // (the caller undoes these cycles)
+            while(gs.winner()==-1 && 
+                  !gs.gameover() &&
+                  !gs.canExecuteAnyAction(maxplayer) && 
+                  !gs.canExecuteAnyAction(minplayer)) gs.cycle();
+            return realTimeMinimaxAB(gs, maxplayer, minplayer, alpha, beta, lookAhead, depth+1);
         }
     }    
 
@@ -0,0 +1,88 @@
+package ai.minimax.RTMiniMax;
+
+import ai.evaluation.EvaluationFunction;
+import ai.minimax.MinimaxTranspositionTable;
+import ai.minimax.ParallelAlphaBetaSearch;
+import java.util.concurrent.ForkJoinPool;
+import rts.GameState;
+import rts.PlayerAction;
+
+/**
+ * The search of one iteration of {@link IDRTMinimax} (up to a fixed game time), run by
+ * several threads (see {@link ParallelAlphaBetaSearch}). The nodes are the same as the
+ * ones of IDRTMinimax.timeBoundedRealTimeMinimaxABOutsideStack: maxplayer acts first
+ * when both players can act, and the leaves are evaluated directly.
+ */
+class RTMinimaxParallelSearch extends ParallelAlphaBetaSearch {
+    EvaluationFunction ef;
+    int lookAhead;
+
+    // the earliest and latest times at which the leaves will change:
+    int minCT = -1;
+    int maxCT = -1;
+
+
+    RTMinimaxParallelSearch(ForkJoinPool a_pool, int a_nThreads, MinimaxTranspositionTable a_tt, EvaluationFunction a_ef) {
+        super(a_pool, a_nThreads, a_tt);
+        ef = a_ef;
+    }
+
+
+    /**
+     * Searches a state up to a given game time
+     * @param gs
+     * @param a_lookAhead the game time of the leaves
+     */
+    PlayerAction search(GameState gs, int a_maxplayer, int a_lookAhead, long cutOffTime) throws Exception {
+        lookAhead = a_lookAhead;
+        minCT = -1;
+        maxCT = -1;
+        return search(new Node(gs, 0, 0), a_maxplayer, 1 - a_maxplayer, cutOffTime);
+    }
+
+
+    @Override
+    protected int prepare(Node n) throws Exception {
+        while (true) {
+            int winner = n.gs.winner();
+            if (n.gs.getTime() >= lookAhead || winner != -1 || n.gs.gameover()) {
+                if (winner == -1) {
+                    int CT = n.gs.getNextChangeTime();
+                    synchronized (this) {
+                        if (minCT == -1 || CT < minCT) minCT = CT;
+                        if (maxCT == -1 || CT > maxCT) maxCT = CT;
+                    }
+                }
+                return LEAF;
+            }
+            if (n.gs.canExecuteAnyAction(maxplayer)) return MAX;
+            if (n.gs.canExecuteAnyAction(minplayer)) return MIN;
+            // simulation node:
+            n.gs = n.gs.clone();
+            while (n.gs.winner() == -1 &&
+                   !n.gs.gameover() &&
+                   !n.gs.canExecuteAnyAction(maxplayer) &&
+                   !n.gs.canExecuteAnyAction(minplayer)) {
+                n.gs.cycle();
+            }
+        }
+    }
+
+
+    @Override
+    protected float evaluate(Node n) throws Exception {
+        return ef.evaluate(maxplayer, minplayer, n.gs);
+    }
+
+
+    @Override
+    protected int remaining(Node n) {
+        return lookAhead - n.gs.getTime();
+    }
+
+
+    @Override
+    protected Node child(Node n, GameState gs) {
+        return new Node(gs, n.depth + 1, 0);
+    }
+}
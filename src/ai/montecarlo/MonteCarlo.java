@@ -226,10 +226,10 @@ public class MonteCarlo extends AIWithComputationBudget implements Interruptible
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForwardToNextChange(time);
             } else {
-                gs.issue(randomAI.getAction(0, gs));
-                gs.issue(randomAI.getAction(1, gs));
+                randomAI.issueAction(0, gs);
+                randomAI.issueAction(1, gs);
             }
         }while(!gameover && gs.getTime()<time);   
     }
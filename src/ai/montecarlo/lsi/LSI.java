@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
@@ -24,6 +25,7 @@ import rts.PhysicalGameState;
 import rts.PlayerAction;
 import rts.PlayerActionGenerator;
 import rts.ResourceUsage;
+import rts.SimulationContext;
 import rts.UnitAction;
 import rts.UnitActionAssignment;
 import rts.units.Unit;
@@ -63,7 +65,7 @@ public class LSI extends AIWithComputationBudget {
     private int nofPlayedUnits = 0;
     private int nofActions = 0;
 
-    private Sampling sampling;
+    Sampling sampling;
 
     private LinkedHashMap<PlayerAction, Pair<Double, Integer>> elitePlayerActions = new LinkedHashMap<>();
     private Set<Unit> nextEpochUnits = new HashSet<>();
@@ -363,27 +365,41 @@ public class LSI extends AIWithComputationBudget {
 
         // init --> sample (noop, ..., noop)'s neighbours
         List<double[]> distributions = new ArrayList<>();
+        List<PlayerAction> neighbourPAs = new ArrayList<>();
         i = 0;
         for (UnitActionTableEntry entry : unitActionTable) {
             double[] distribution = new double[entry.nactions];
             int idx = 0;
-            double min = Double.POSITIVE_INFINITY;
             for (UnitAction action : entry.actions) {
                 PlayerAction neighbourPA = currentPA.clone();
                 neighbourPA.getActions().set(i, new Pair<>(entry.u, action));
 
                 if (isPlayerActionValid(gameState, neighbourPA)) {
-                    double eval = sampling.evaluatePlayerAction(player, gameState, neighbourPA,
-                            (int) (ITERATIONS_BUDGET * split / reducedActionCount));
-                    distribution[idx] = eval;
-
-                    if (eval < min) min = eval;
+                    neighbourPAs.add(neighbourPA);
                 } else {
                     // marking invalid unit action
                     distribution[idx] = Double.NEGATIVE_INFINITY;
                 }
                 idx++;
             }
+            distributions.add(distribution);
+            i++;
+        }
+
+        int[] numEval = new int[neighbourPAs.size()];
+        Arrays.fill(numEval, (int) (ITERATIONS_BUDGET * split / reducedActionCount));
+        double[] evals = sampling.evaluatePlayerActions(player, gameState, neighbourPAs, numEval);
+
+        int k = 0;
+        for (double[] distribution : distributions) {
+            double min = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < distribution.length; j++) {
+                if (!Double.isInfinite(distribution[j])) {
+                    distribution[j] = evals[k++];
+
+                    if (distribution[j] < min) min = distribution[j];
+                }
+            }
 
             for (int j = 0; j < distribution.length; j++) {
                 if (Double.isInfinite(distribution[j])) {
@@ -402,10 +418,6 @@ public class LSI extends AIWithComputationBudget {
                     System.err.println("Negative/NaN distribution!");
                 }
             }
-
-            distributions.add(distribution);
-
-            i++;
         }
 
         return distributions;
@@ -424,6 +436,9 @@ public class LSI extends AIWithComputationBudget {
             }
         }
 
+        // the neighbour player actions, and the agent each of them was generated for:
+        List<PlayerAction> neighbourPAs = new ArrayList<>();
+        List<Integer> neighbourAgents = new ArrayList<>();
         int sample = 0;
         boolean completeOnce = false;
         // round-robin
@@ -446,7 +461,7 @@ public class LSI extends AIWithComputationBudget {
                             agentOrder.add(i);
                         }
                     }
-                    Collections.shuffle(agentOrder);
+                    Collections.shuffle(agentOrder, SimulationContext.random(rnd));
                     agentOrder.add(0, agentIndex);
 
                     // generate valid random action with uniform distribution (0s are fine, because of .wighted implementation)
@@ -470,21 +485,8 @@ public class LSI extends AIWithComputationBudget {
                         throw new RuntimeException("Should generate only valid combinations!");
                     }
 
-                    // evaluate & store
-                    double eval = sampling.evaluatePlayerAction(player, gameState, neighbourPA, 1);
-
-                    switch (estimateReuseType) {
-                    case SINGLE:
-                        // depends on actions in playerAction in the same order as in unitActionTable
-                        updateActionEvalSingle(unitActionTable, neighbourPA, agentIndex, eval);
-                        break;
-                    case ALL:
-                        // depends on actions in playerAction in the same order as in unitActionTable
-                        updateActionEvalAll(unitActionTable, neighbourPA, agentIndex, eval);
-                        break;
-                    default:
-                        throw new RuntimeException("Unknown EstimateReusingType");
-                    }
+                    neighbourPAs.add(neighbourPA);
+                    neighbourAgents.add(agentIndex);
                     sample++;
 
                     if (sample >= ITERATIONS_BUDGET * split) {
@@ -502,6 +504,23 @@ public class LSI extends AIWithComputationBudget {
             System.err.println("Generate did not complete even one round! " + sample + " >= (" + ITERATIONS_BUDGET + " * " + split + ")");
         }
 
+        // evaluate & store
+        double[] evals = evaluateOnce(player, gameState, neighbourPAs);
+        for (int i = 0; i < evals.length; i++) {
+            switch (estimateReuseType) {
+            case SINGLE:
+                // depends on actions in playerAction in the same order as in unitActionTable
+                updateActionEvalSingle(unitActionTable, neighbourPAs.get(i), neighbourAgents.get(i), evals[i]);
+                break;
+            case ALL:
+                // depends on actions in playerAction in the same order as in unitActionTable
+                updateActionEvalAll(unitActionTable, neighbourPAs.get(i), neighbourAgents.get(i), evals[i]);
+                break;
+            default:
+                throw new RuntimeException("Unknown EstimateReusingType");
+            }
+        }
+
         for (UnitActionTableEntry entry : unitActionTable) {
             double min = Double.POSITIVE_INFINITY;
             for (double accumEval : entry.accum_evaluation) {
@@ -547,6 +566,10 @@ public class LSI extends AIWithComputationBudget {
             throws Exception {
         List<double[]> distributions = new ArrayList<>();
 
+        Random random = SimulationContext.random(rnd);
+        // the valid neighbour player actions, and the agent each of them was generated for:
+        List<PlayerAction> neighbourPAs = new ArrayList<>();
+        List<Integer> neighbourAgents = new ArrayList<>();
         int sample = 0;
         // round-robin
         while (sample < ITERATIONS_BUDGET * split) {
@@ -557,41 +580,49 @@ public class LSI extends AIWithComputationBudget {
                 for (UnitAction action : entry.actions) {
                     PlayerAction neighbourPA = new PlayerAction();
                     for (UnitActionTableEntry rndEntry : unitActionTable) {
-                        neighbourPA.addUnitAction(rndEntry.u, rndEntry.actions.get(rnd.nextInt(rndEntry.nactions)));
+                        neighbourPA.addUnitAction(rndEntry.u, rndEntry.actions.get(random.nextInt(rndEntry.nactions)));
                     }
                     neighbourPA.getActions().set(agentIndex, new Pair<>(entry.u, action));
 
                     if (isPlayerActionValid(gameState, neighbourPA)) {
                         sample++;
-                        double eval = sampling.evaluatePlayerAction(player, gameState, neighbourPA, 1);
-
-                        if (eliteReuse) {
-                            // store elite candidates
-                            if (elitePlayerActions.containsKey(neighbourPA)) {
-                                Pair<Double, Integer> evalPair = elitePlayerActions.get(neighbourPA);
-                                double newEval = (evalPair.m_a * evalPair.m_b + eval) / (evalPair.m_b + 1);
-                                elitePlayerActions.put(neighbourPA, new Pair<>(newEval, evalPair.m_b + 1));
-                            } else {
-                                elitePlayerActions.put(neighbourPA, new Pair<>(eval, 1));
-                            }
-                        }
-
-                        switch (estimateReuseType) {
-                        case SINGLE:
-                            updateActionEvalSingle(unitActionTable, neighbourPA, agentIndex, eval);
-                            break;
-                        case ALL:
-                            updateActionEvalAll(unitActionTable, neighbourPA, agentIndex, eval);
-                            break;
-                        default:
-                            throw new RuntimeException("Unknown EstimateReusingType");
-                        }
+                        neighbourPAs.add(neighbourPA);
+                        neighbourAgents.add(agentIndex);
                     }
                 }
                 agentIndex++;
             }
         }
 
+        // evaluate & store
+        double[] evals = evaluateOnce(player, gameState, neighbourPAs);
+        for (int i = 0; i < evals.length; i++) {
+            PlayerAction neighbourPA = neighbourPAs.get(i);
+            double eval = evals[i];
+
+            if (eliteReuse) {
+                // store elite candidates
+                if (elitePlayerActions.containsKey(neighbourPA)) {
+                    Pair<Double, Integer> evalPair = elitePlayerActions.get(neighbourPA);
+                    double newEval = (evalPair.m_a * evalPair.m_b + eval) / (evalPair.m_b + 1);
+                    elitePlayerActions.put(neighbourPA, new Pair<>(newEval, evalPair.m_b + 1));
+                } else {
+                    elitePlayerActions.put(neighbourPA, new Pair<>(eval, 1));
+                }
+            }
+
+            switch (estimateReuseType) {
+            case SINGLE:
+                updateActionEvalSingle(unitActionTable, neighbourPA, neighbourAgents.get(i), eval);
+                break;
+            case ALL:
+                updateActionEvalAll(unitActionTable, neighbourPA, neighbourAgents.get(i), eval);
+                break;
+            default:
+                throw new RuntimeException("Unknown EstimateReusingType");
+            }
+        }
+
         for (UnitActionTableEntry entry : unitActionTable) {
             double min = Double.POSITIVE_INFINITY;
             for (double accumEval : entry.accum_evaluation) {
@@ -732,7 +763,7 @@ public class LSI extends AIWithComputationBudget {
         } while ((int) (budget / actionCount / Math.ceil(Sampling.log(actionCount, 2))) != 1);
 
         // TODO: should be map
-        Set<PlayerAction> actionSet = new HashSet<>();
+        Set<PlayerAction> actionSet = new LinkedHashSet<>();
 
         for (int r = 0; r < actionCount; r++) {
             PlayerAction playerAction;
@@ -905,9 +936,14 @@ public class LSI extends AIWithComputationBudget {
         }
 
         actionCount = actionList.size();
+        List<PlayerAction> playerActions = new ArrayList<>(actionCount);
+        for (Pair<PlayerAction, Pair<Double, Integer>> pair : actionList) {
+            playerActions.add(pair.m_a);
+        }
+        double[] evals = evaluateOnce(player, gameState, playerActions);
+        int j = 0;
         for (Pair<PlayerAction, Pair<Double, Integer>> pair : actionList) {
-            double eval = sampling.evaluatePlayerAction(player, gameState, pair.m_a, 1);
-            pair.m_b.m_a += eval;
+            pair.m_b.m_a += evals[j++];
             pair.m_b.m_b++;
         }
 
@@ -933,6 +969,16 @@ public class LSI extends AIWithComputationBudget {
         return actionList.get(0).m_a;
     }
 
+    /**
+     * Evaluates each player action with one simulation (all of them with one call, see
+     * {@link Sampling#evaluatePlayerActions})
+     */
+    private double[] evaluateOnce(int player, GameState gameState, List<PlayerAction> playerActions) throws Exception {
+        int[] numEval = new int[playerActions.size()];
+        Arrays.fill(numEval, 1);
+        return sampling.evaluatePlayerActions(player, gameState, playerActions, numEval);
+    }
+
     private void incrementActionCounter(PlayerAction playerAction, List<UnitActionTableEntry> unitActionTableEntry) {
         if (DEBUG>=1) System.out.println("Selected action has " + playerAction.hasNamNoneActions() + " Noops.");
 
@@ -1007,7 +1053,7 @@ public class LSI extends AIWithComputationBudget {
             for (int i = 0; i < unitActionTable.size(); i++) {
                 indices.add(i);
             }
-            Collections.shuffle(indices);
+            Collections.shuffle(indices, SimulationContext.random(rnd));
             indices = indices.subList(0, noToRemove);
             Collections.sort(indices);
             Collections.reverse(indices);
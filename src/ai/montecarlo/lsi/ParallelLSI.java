@@ -0,0 +1,122 @@
+package ai.montecarlo.lsi;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import ai.core.ParameterSpecification;
+import ai.evaluation.EvaluationFunction;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.montecarlo.lsi.Sampling.AgentOrderingType;
+import java.util.List;
+import rts.GameState;
+import rts.PlayerAction;
+import rts.SimulationContext;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * LSI running the simulations of each of its stages (the generation of the estimates,
+ * and each round of sequential halving) in several threads (see {@link ParallelSampling}).
+ *
+ * With a seed (0 or more), all the random choices of the search are taken from a
+ * {@link SimulationContext} created with it (again after each reset), so the actions
+ * chosen only depend on the seed and the states: with one thread, they are the ones
+ * LSI chooses when run in a context with the same seed, and with more threads, they do
+ * not depend on the number of threads.
+ */
+public class ParallelLSI extends LSI {
+
+    int nThreads = 4;
+    long seed = -1;
+    SimulationContext context;
+
+    public ParallelLSI(UnitTypeTable utt) {
+        this(100, 100, 0.25,
+             LSI.EstimateType.RANDOM_TAIL, LSI.EstimateReuseType.ALL,
+             LSI.GenerateType.PER_AGENT, Sampling.AgentOrderingType.ENTROPY,
+             LSI.EvaluateType.HALVING, false,
+             LSI.RelaxationType.NONE, 2,
+             false,
+             new RandomBiasedAI(),
+             new SimpleSqrtEvaluationFunction3(), 4, -1);
+    }
+
+    public ParallelLSI(int availableSimulationCount, int lookAhead, double split,
+            EstimateType estimateType, EstimateReuseType estimateReuseType, GenerateType generateType,
+            AgentOrderingType agentOrderingType, EvaluateType evaluateType, boolean eliteReuse,
+            RelaxationType relaxationType, int relaxationLimit, boolean epochal,
+            AI simulationAi, EvaluationFunction evalFunction, int nThreads, long seed) {
+        super(availableSimulationCount, lookAhead, split, estimateType, estimateReuseType, generateType,
+                agentOrderingType, evaluateType, eliteReuse, relaxationType, relaxationLimit, epochal,
+                simulationAi, evalFunction);
+        this.nThreads = nThreads;
+        this.seed = seed;
+        this.sampling = new ParallelSampling(agentOrderingType, lookAhead, simulationAi, evalFunction, nThreads);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        context = null;
+    }
+
+    @Override
+    public AI clone() {
+        return new ParallelLSI(ITERATIONS_BUDGET, getPlayoutLookahead(), getSplit(),
+                getEstimateType(), getEstimateReuseType(), getGenerateType(), getAgentOrderingType(), getEvaluateType(),
+                getEliteReuse(), getRelaxationType(), getRelaxationLimit(), getEpochal(), getSimulationAI(), getEvaluationFunction(),
+                nThreads, seed);
+    }
+
+    @Override
+    public PlayerAction getAction(int player, GameState gameState) throws Exception {
+        if (seed < 0) {
+            return super.getAction(player, gameState);
+        }
+        if (context == null) {
+            context = new SimulationContext(seed);
+        }
+        SimulationContext previous = SimulationContext.get();
+        // the units created in the simulations must not reuse the IDs of the ones in the game:
+        context.reserveID(previous == null ? Unit.next_ID : previous.getNextID());
+        SimulationContext.set(context);
+        try {
+            return super.getAction(player, gameState);
+        } finally {
+            SimulationContext.set(previous);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String s = super.toString();
+        return s.substring(0, s.length() - 1) + ", " + nThreads + ", " + seed + ")";
+    }
+
+    @Override
+    public List<ParameterSpecification> getParameters() {
+        List<ParameterSpecification> parameters = super.getParameters();
+
+        parameters.add(new ParameterSpecification("Threads", int.class, 4));
+        parameters.add(new ParameterSpecification("Seed", long.class, -1L));
+
+        return parameters;
+    }
+
+    public int getThreads() {
+        return nThreads;
+    }
+
+    public void setThreads(int a_nThreads) {
+        nThreads = a_nThreads;
+        ((ParallelSampling) sampling).nThreads = a_nThreads;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long a_seed) {
+        seed = a_seed;
+        context = null;
+    }
+}
@@ -0,0 +1,129 @@
+package ai.montecarlo.lsi;
+
+import ai.abstraction.AbstractionLayerAI;
+import ai.core.AI;
+import ai.evaluation.EvaluationFunction;
+import ai.montecarlo.lsi.Sampling.AgentOrderingType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import rts.GameState;
+import rts.PlayerAction;
+import rts.SimulationContext;
+import rts.UnitAction;
+import rts.units.Unit;
+import util.Pair;
+
+/**
+ * Sampling that runs the simulations of each call to evaluatePlayerActions in several
+ * threads. Each thread works on its own copy of the game state and of the simulation
+ * AI, and each simulation runs with its own {@link SimulationContext}, seeded by its
+ * position in the call (with a seed drawn from the random generator of the calling
+ * thread), so the results do not depend on the number of threads or on which thread
+ * runs each simulation. The evaluations are then averaged in the same order as the
+ * sequential version does. With one thread, it is the sequential version.
+ * The evaluation function is shared, so it must not keep any state between calls.
+ */
+public class ParallelSampling extends Sampling {
+
+    static ExecutorService executor = Executors.newCachedThreadPool((r) -> {
+        Thread t = new Thread(r, "ParallelSampling worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    int nThreads;
+
+    public ParallelSampling(AgentOrderingType agentOrderingType, int lookAhead, AI simulationAi, EvaluationFunction evalFunction, int nThreads) {
+        super(agentOrderingType, lookAhead, simulationAi, evalFunction);
+        this.nThreads = nThreads;
+    }
+
+    @Override
+    public double[] evaluatePlayerActions(int player, GameState gs, List<PlayerAction> playerActions, int[] numEval) throws Exception {
+        if (nThreads <= 1) {
+            return super.evaluatePlayerActions(player, gs, playerActions, numEval);
+        }
+
+        // simulations first[i] ... first[i+1]-1 are the ones of player action i:
+        int[] first = new int[playerActions.size() + 1];
+        for (int i = 0; i < playerActions.size(); i++) {
+            first[i + 1] = first[i] + Math.max(0, numEval[i]);
+        }
+        int total = first[playerActions.size()];
+        double[] evals = new double[total];
+        long seed = SimulationContext.random(rnd).nextLong();
+        SimulationContext context = SimulationContext.get();
+        long firstID = (context == null ? Unit.next_ID : context.getNextID());
+        // the unit actions (shared by all the threads) cache their resource usage when first asked:
+        for (PlayerAction pa : playerActions) {
+            for (Pair<Unit, UnitAction> pair : pa.getActions()) {
+                pair.m_b.resourceUsage(pair.m_a, gs.getPhysicalGameState());
+            }
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        List<Future<Void>> futures = new ArrayList<>(nThreads);
+        for (int t = 0; t < Math.min(nThreads, total); t++) {
+            final GameState threadGS = gs.clone();
+            final IdentityHashMap<Unit, Unit> units = new IdentityHashMap<>();
+            for (int i = 0; i < gs.getUnits().size(); i++) {
+                units.put(gs.getUnits().get(i), threadGS.getUnits().get(i));
+            }
+            final AI ai = AbstractionLayerAI.cloneForThread(simulationAi);
+            futures.add(executor.submit(() -> {
+                PlayerAction[] threadPAs = new PlayerAction[playerActions.size()];
+                int i = 0;
+                for (int k = next.getAndIncrement(); k < total; k = next.getAndIncrement()) {
+                    while (first[i + 1] <= k) i++;
+                    if (threadPAs[i] == null) {
+                        threadPAs[i] = new PlayerAction();
+                        for (Pair<Unit, UnitAction> pair : playerActions.get(i).getActions()) {
+                            threadPAs[i].addUnitAction(units.get(pair.m_a), pair.m_b);
+                        }
+                    }
+                    SimulationContext simulationContext = new SimulationContext(seed + k * 0x9E3779B97F4A7C15L);
+                    simulationContext.reserveID(firstID);
+                    SimulationContext.set(simulationContext);
+                    try {
+                        evals[k] = simulatePlayerAction(player, threadGS, threadPAs[i], ai);
+                    } finally {
+                        SimulationContext.set(null);
+                    }
+                }
+                return null;
+            }));
+        }
+        // wait for all of them (as ParallelNaiveMCTS does):
+        Exception exception = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    Throwable t = e.getCause();
+                    if (t instanceof Error) throw (Error) t;
+                    exception = (t instanceof Exception ? (Exception) t : e);
+                }
+            }
+        }
+        if (exception != null) throw exception;
+
+        // average them as evaluatePlayerAction does:
+        double[] means = new double[playerActions.size()];
+        for (int i = 0; i < means.length; i++) {
+            double evalMean = 0;
+            for (int step = 0; step < first[i + 1] - first[i]; step++) {
+                evalMean = (step * evalMean + evals[first[i] + step]) / (step + 1);
+            }
+            means[i] = evalMean;
+        }
+        increaseSimulationCount(total);
+        return means;
+    }
+}
@@ -8,9 +8,11 @@ import util.CartesianProduct;
 import ai.core.AI;
 import ai.evaluation.EvaluationFunction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -18,6 +20,7 @@ import rts.GameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
 import rts.ResourceUsage;
+import rts.SimulationContext;
 import rts.UnitAction;
 import rts.UnitActionAssignment;
 import rts.units.Unit;
@@ -26,13 +29,15 @@ import util.Sampler;
 
 public class Sampling {
 
-    private final AgentOrderingType agentOrderingType;
-    private final int lookAhead;
-    private final EvaluationFunction evalFunction;
-    private final AI simulationAi;
+    final AgentOrderingType agentOrderingType;
+    final int lookAhead;
+    final EvaluationFunction evalFunction;
+    final AI simulationAi;
 
     private int simulationCount = 0;
 
+    Random rnd = new Random();
+
     public Sampling(AgentOrderingType agentOrderingType, int lookAhead, AI simulationAi, EvaluationFunction evalFunction) {
         this.agentOrderingType = agentOrderingType;
         this.lookAhead = lookAhead;
@@ -44,11 +49,8 @@ public class Sampling {
         double evalMean = 0;
 
         for (int step = 0; step < numEval; step++) {
-            GameState gs2 = gs.cloneIssue(playerAction);
-            GameState gs3 = gs2.clone();
-            simulate(gs3, gs3.getTime() + lookAhead);
-            int time = gs3.getTime() - gs2.getTime();
-            double eval = evalFunction.evaluate(player, 1 - player, gs3)*Math.pow(0.99, time / 10.0);
+            simulationCount++;
+            double eval = simulatePlayerAction(player, gs, playerAction, simulationAi);
 
             evalMean = (step * evalMean + eval) / (step + 1);
         }
@@ -56,17 +58,41 @@ public class Sampling {
         return evalMean;
     }
 
-    private void simulate(GameState gs, int lookaheadTime) throws Exception {
-        simulationCount++;
+    /**
+     * Evaluates several player actions, each with its own number of simulations. LSI
+     * evaluates all the actions of a stage with one call, so that subclasses can run their
+     * simulations in parallel (see {@link ParallelSampling}).
+     *
+     * @return the mean evaluation of each player action
+     */
+    public double[] evaluatePlayerActions(int player, GameState gs, List<PlayerAction> playerActions, int[] numEval) throws Exception {
+        double[] evals = new double[playerActions.size()];
+        for (int i = 0; i < evals.length; i++) {
+            evals[i] = evaluatePlayerAction(player, gs, playerActions.get(i), numEval[i]);
+        }
+        return evals;
+    }
+
+    /**
+     * Runs one simulation after issuing the player action, and evaluates the state it ends in
+     */
+    double simulatePlayerAction(int player, GameState gs, PlayerAction playerAction, AI ai) throws Exception {
+        GameState gs2 = gs.cloneIssue(playerAction);
+        GameState gs3 = gs2.clone();
+        simulate(gs3, gs3.getTime() + lookAhead, ai);
+        int time = gs3.getTime() - gs2.getTime();
+        return evalFunction.evaluate(player, 1 - player, gs3)*Math.pow(0.99, time / 10.0);
+    }
 
+    private void simulate(GameState gs, int lookaheadTime, AI ai) throws Exception {
         boolean gameover = false;
 
         do {
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForwardToNextChange(lookaheadTime);
             } else {
-                gs.issue(simulationAi.getAction(0, gs));
-                gs.issue(simulationAi.getAction(1, gs));
+                ai.issueAction(0, gs);
+                ai.issueAction(1, gs);
             }
         } while (!gameover && gs.getTime() < lookaheadTime);
     }
@@ -95,7 +121,7 @@ public class Sampling {
 
             switch(agentOrderingType) {
             case RANDOM:
-                Collections.shuffle(ent_list);
+                Collections.shuffle(ent_list, SimulationContext.random(rnd));
                 break;
             case ENTROPY:
                 ent_list.sort(new Comparator<Pair<Integer, Double>>() {
@@ -203,7 +229,7 @@ public class Sampling {
 
         while(!distTable.isEmpty()) {
 
-            Random gen = new Random();
+            Random gen = SimulationContext.random(rnd);
             double random = gen.nextDouble() * density;
 
 
@@ -259,7 +285,7 @@ public class Sampling {
             }
         }
         
-        Set<PlayerAction> actionSet = new HashSet<>();
+        Set<PlayerAction> actionSet = new LinkedHashSet<>();
 
         List<Set<Integer>> definitionOfDomains = new ArrayList<>(unitActionTable.size());
         for (UnitActionTableEntry unitActionTableEntry : unitActionTable) {
@@ -308,8 +334,17 @@ public class Sampling {
 
     public List<Pair<PlayerAction, Pair<Double, Integer>>> halvedSampling(List<Pair<PlayerAction,Pair<Double,Integer>>> actionList, GameState gameState,
             int player, int num) throws Exception {
+        List<PlayerAction> playerActions = new ArrayList<>(actionList.size());
         for (Pair<PlayerAction, Pair<Double, Integer>> pair : actionList) {
-            double eval = evaluatePlayerAction(player, gameState, pair.m_a, num);
+            playerActions.add(pair.m_a);
+        }
+        int[] numEval = new int[playerActions.size()];
+        Arrays.fill(numEval, num);
+        double[] evals = evaluatePlayerActions(player, gameState, playerActions, numEval);
+
+        int i = 0;
+        for (Pair<PlayerAction, Pair<Double, Integer>> pair : actionList) {
+            double eval = evals[i++];
 
             double oldEval = pair.m_b.m_a;
             int oldNum = pair.m_b.m_b;
@@ -335,8 +370,10 @@ public class Sampling {
 
     public List<Pair<PlayerAction, Double>> halvedOriginalSampling(List<Pair<PlayerAction, Double>> actionList, GameState gameState,
             int player, int numEval, int numEvalPrevious) throws Exception {
+        double[] evals = evaluateAll(player, gameState, actionList, numEval);
+        int i = 0;
         for (Pair<PlayerAction, Double> pair : actionList) {
-            double eval = evaluatePlayerAction(player, gameState, pair.m_a, numEval);
+            double eval = evals[i++];
             pair.m_b = (pair.m_b*numEvalPrevious + eval*numEval)/(numEvalPrevious + numEval);
         }
 
@@ -354,8 +391,10 @@ public class Sampling {
 
     public List<Pair<PlayerAction, Double>> halvedOriginalSamplingFill(List<Pair<PlayerAction, Double>> actionList, GameState gameState,
             int player, int numEval, int numEvalPrevious) throws Exception {
+        double[] evals = evaluateAll(player, gameState, actionList, numEval);
+        int i = 0;
         for (Pair<PlayerAction, Double> pair : actionList) {
-            double eval = evaluatePlayerAction(player, gameState, pair.m_a, numEval);
+            double eval = evals[i++];
             pair.m_b = (pair.m_b*numEvalPrevious + eval*numEval)/(numEvalPrevious + numEval);
         }
 
@@ -371,6 +410,16 @@ public class Sampling {
         return actionList.subList(0, actionList.size() / 2);
     }
 
+    private double[] evaluateAll(int player, GameState gameState, List<Pair<PlayerAction, Double>> actionList, int numEval) throws Exception {
+        List<PlayerAction> playerActions = new ArrayList<>(actionList.size());
+        for (Pair<PlayerAction, Double> pair : actionList) {
+            playerActions.add(pair.m_a);
+        }
+        int[] numEvals = new int[playerActions.size()];
+        Arrays.fill(numEvals, numEval);
+        return evaluatePlayerActions(player, gameState, playerActions, numEvals);
+    }
+
     public double entropy(double[] distribution) {
         double sum = 0;
         for (double prob : distribution) {
@@ -119,7 +119,7 @@ public class PortfolioAI extends AIWithComputationBudget implements Interruptibl
                         boolean gameover = false;
                         while(!gameover && gs2.getTime()<timeLimit) {
                             if (gs2.isComplete()) {
-                                gameover = gs2.cycle();
+                                gameover = gs2.fastForwardToNextChange(timeLimit);
                             } else {
                                 gs2.issue(ai1.getAction(playerForThisComputation, gs2));
                                 gs2.issue(ai2.getAction(1-playerForThisComputation, gs2));
@@ -256,7 +256,7 @@ public class PGSAI extends AIWithComputationBudget {
         boolean gameover = false;
         while(!gameover && gs2.getTime()<timeLimit) {
             if (gs2.isComplete()) {
-                gameover = gs2.cycle();
+                gameover = gs2.fastForwardToNextChange(timeLimit);
             } else {
                 gs2.issue(ai1.getAction(player, gs2));
                 gs2.issue(ai2.getAction(1-player, gs2));
@@ -0,0 +1,18 @@
+package ai.puppet;
+
+class Entry{
+	final Move _bestMove;
+	final long _hash;
+	final float _value;
+	final int _height;
+	final boolean _exact;
+	final boolean _upper;
+	Entry(Move bestMove,long hash, float value, int height, boolean exact, boolean upper){
+		_bestMove=bestMove;
+		_hash=hash;
+		_value=value;
+		_height=height;
+		_exact=exact;
+		_upper=upper;
+	}
+}
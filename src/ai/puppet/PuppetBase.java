@@ -8,6 +8,7 @@ import ai.core.AIWithComputationBudget;
 import ai.evaluation.EvaluationFunction;
 import rts.GameState;
 import rts.PlayerAction;
+import rts.ZobristHash;
 import util.Pair;
 class MoveGenerator{
 	ArrayList<ArrayList<Pair<Integer,Integer>>> choices;
@@ -76,6 +77,8 @@ public abstract class PuppetBase extends AIWithComputationBudget {
 	long lastSearchTime;
 	int frameLeaves = 0, totalLeaves = 0;
 	long frameStartTime=0,frameTime=0, totalTime = 0;
+	PuppetCache cache=PuppetCache.getShared();
+	CacheTable CT=new CacheTable(cache);
 	
 	PuppetBase(int max_time_per_frame, int max_playouts_per_frame, 
 			int max_plan_time, int max_plan_playouts,int step_playout_time,
@@ -110,6 +113,21 @@ public abstract class PuppetBase extends AIWithComputationBudget {
 		return (ITERATIONS_BUDGET>=0 && frameLeaves>=ITERATIONS_BUDGET) 
 				|| (TIME_BUDGET>=0 && frameTime>TIME_BUDGET);
 	}
+	/**
+	 * Starts a new search in the cache, with the keys salted by what, besides the states and
+	 * the moves, determines the results of the simulations: the script, its pathfinding,
+	 * the step playout time and the unit type table
+	 */
+	void startCacheSearch(GameState gs){
+		CT.salt=cacheSalt(gs);
+		cache.newSearch();
+	}
+	long cacheSalt(GameState gs){
+		long salt=ZobristHash.mix(script.toString().hashCode());
+		salt=ZobristHash.mix(salt+script.getPathFinding().getClass().getName().hashCode());
+		salt=ZobristHash.mix(salt+STEP_PLAYOUT_TIME);
+		return ZobristHash.mix(salt+System.identityHashCode(gs.getUnitTypeTable()));
+	}
 	abstract void startNewComputation(int player, GameState gs)  throws Exception;
 	abstract void computeDuringOneGameFrame() throws Exception;
 	abstract PlayerAction getBestActionSoFar() throws Exception;
@@ -123,7 +141,7 @@ public abstract class PuppetBase extends AIWithComputationBudget {
 		boolean gameover = gs.gameover();
 		while(!gameover && gs.getTime()<timeOut) {
 			if (gs.isComplete()) {
-				gameover = gs.cycle();
+				gameover = gs.fastForwardToNextChange(timeOut);
 			} else {
 				gs.issue(ai1.getAction(player1, gs));
 				gs.issue(ai2.getAction(player2, gs));
@@ -149,4 +167,20 @@ public abstract class PuppetBase extends AIWithComputationBudget {
     public void setPlanIterationsBudget(int a_ib) {
         PLAN_PLAYOUTS = a_ib;
     }    
+
+
+    public PuppetCache getCache() {
+        return cache;
+    }
+    
+    
+    /**
+     * Sets the cache used from the next search on (by default, {@link PuppetCache#getShared()})
+     */
+    public void setCache(PuppetCache a_cache) {
+        cache = a_cache;
+        long salt = CT.salt;
+        CT = new CacheTable(cache);
+        CT.salt = salt;
+    }    
 }
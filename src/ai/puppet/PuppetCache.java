@@ -0,0 +1,207 @@
+package ai.puppet;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rts.GameState;
+
+/**
+ * Results of puppet searches that can be reused by later searches: the states reached
+ * by simulating a pair of moves (see {@link CacheTable}) and the best moves found for a
+ * node (see {@link TranspositionTable}). Entries are keyed by the content (Zobrist) hash
+ * of the states (see {@link GameState#getZobristHash()}), so they are found again in
+ * later frames, in other games, and by other searches: by default, all the instances of
+ * {@link PuppetSearchAB}, {@link PuppetSearchMCTS} and {@link PuppetNoPlan} in the process
+ * share the same cache (see {@link #getShared()}).
+ *
+ * Each of the two tables has a fixed number of entries, in buckets of 4. When the bucket
+ * of a new entry is full, the entry replaced is the one last used by the oldest search
+ * (see {@link #newSearch()}), and among those, the one with the lowest draft (the depth
+ * of the search below it). Several threads can use the cache at the same time: each
+ * bucket is guarded by one of a fixed set of locks. The states in the cache are shared,
+ * so they must not be modified.
+ */
+public class PuppetCache {
+
+	static final int WAYS=4;
+	static final int STRIPES=64;
+	public static final int DEFAULT_STATES=1<<15;
+	public static final int DEFAULT_MOVES=1<<17;
+
+	static PuppetCache shared;
+
+	/**
+	 * @return the cache used by default by the puppet searches
+	 */
+	public static synchronized PuppetCache getShared(){
+		if(shared==null){
+			shared=new PuppetCache(DEFAULT_STATES, DEFAULT_MOVES);
+		}
+		return shared;
+	}
+
+	class Table{
+		String name;
+		int mask;// number of buckets - 1
+		long keys[];// 0: empty entry
+		Object values[];
+		int drafts[];
+		int ages[];
+		Object locks[]=new Object[STRIPES];
+		AtomicLong hits=new AtomicLong();
+		AtomicLong misses=new AtomicLong();
+		AtomicLong evictions=new AtomicLong();
+
+		Table(String name, int size){
+			this.name=name;
+			int buckets=1;
+			while(buckets*WAYS<size){
+				buckets*=2;
+			}
+			mask=buckets-1;
+			keys=new long[buckets*WAYS];
+			values=new Object[buckets*WAYS];
+			drafts=new int[buckets*WAYS];
+			ages=new int[buckets*WAYS];
+			for(int i=0;i<STRIPES;i++){
+				locks[i]=new Object();
+			}
+		}
+		Object get(long hash){
+			long key=(hash==0?1:hash);
+			int bucket=(int)(key^(key>>>32))&mask;
+			synchronized(locks[bucket&(STRIPES-1)]){
+				for(int i=bucket*WAYS;i<(bucket+1)*WAYS;i++){
+					if(keys[i]==key){
+						ages[i]=age;
+						hits.incrementAndGet();
+						return values[i];
+					}
+				}
+			}
+			misses.incrementAndGet();
+			return null;
+		}
+		void put(long hash, Object value, int draft){
+			long key=(hash==0?1:hash);
+			int bucket=(int)(key^(key>>>32))&mask;
+			synchronized(locks[bucket&(STRIPES-1)]){
+				int e=-1;
+				for(int i=bucket*WAYS;i<(bucket+1)*WAYS;i++){
+					if(keys[i]==key){
+						e=i;
+						break;
+					}
+				}
+				if(e==-1){
+					// replace an empty entry, or the oldest and shallowest one:
+					for(int i=bucket*WAYS;i<(bucket+1)*WAYS;i++){
+						if(keys[i]==0){
+							e=i;
+							break;
+						}
+						if(e==-1||ages[i]<ages[e]||(ages[i]==ages[e]&&drafts[i]<drafts[e])){
+							e=i;
+						}
+					}
+					if(keys[e]!=0){
+						evictions.incrementAndGet();
+					}
+				}
+				keys[e]=key;
+				values[e]=value;
+				drafts[e]=draft;
+				ages[e]=age;
+			}
+		}
+		void clear(){
+			for(int i=0;i<STRIPES;i++){
+				synchronized(locks[i]){
+					for(int bucket=i;bucket<=mask;bucket+=STRIPES){
+						Arrays.fill(keys, bucket*WAYS, (bucket+1)*WAYS, 0);
+						Arrays.fill(values, bucket*WAYS, (bucket+1)*WAYS, null);
+					}
+				}
+			}
+		}
+		void clearStatistics(){
+			hits.set(0);
+			misses.set(0);
+			evictions.set(0);
+		}
+		public String toString(){
+			return name+": "+hits.get()+" hits, "+misses.get()+" misses, "+evictions.get()+" evictions";
+		}
+	}
+
+	Table states, moves;
+	volatile int age=0;
+
+	/**
+	 * @param a_states the number of states to keep (rounded up to a power of 2)
+	 * @param a_moves the number of best moves to keep (rounded up to a power of 2)
+	 */
+	public PuppetCache(int a_states, int a_moves){
+		states=new Table("states", a_states);
+		moves=new Table("moves", a_moves);
+	}
+
+	/**
+	 * Starts a new search: from now on, the entries stored or used by the previous ones
+	 * are replaced first
+	 */
+	public synchronized void newSearch(){
+		age++;
+	}
+
+	GameState getState(long hash){
+		return (GameState)states.get(hash);
+	}
+	void putState(long hash, GameState gs, int draft){
+		states.put(hash, gs, draft);
+	}
+	Entry getMove(long hash){
+		return (Entry)moves.get(hash);
+	}
+	void putMove(long hash, Entry entry, int draft){
+		moves.put(hash, entry, draft);
+	}
+
+	/**
+	 * @return the number of lookups that found their entry
+	 */
+	public long getHits(){
+		return states.hits.get()+moves.hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that did not find their entry
+	 */
+	public long getMisses(){
+		return states.misses.get()+moves.misses.get();
+	}
+
+	/**
+	 * @return the number of entries replaced by entries with other keys
+	 */
+	public long getEvictions(){
+		return states.evictions.get()+moves.evictions.get();
+	}
+
+	public void clearStatistics(){
+		states.clearStatistics();
+		moves.clearStatistics();
+	}
+
+	/**
+	 * Removes all the entries
+	 */
+	public void clear(){
+		states.clear();
+		moves.clear();
+	}
+
+	public String statisticsString(){
+		return states+", "+moves;
+	}
+}
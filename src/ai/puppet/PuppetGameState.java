@@ -0,0 +1,52 @@
+package ai.puppet;
+
+import rts.GameState;
+import rts.ZobristHash;
+import util.Pair;
+
+class PuppetGameState{
+	GameState gs;
+	long hash;
+	static final long MOVE=0x510E527FADE682D1L;
+	static final long PLAYER=0x9B05688C2B3E6C1FL;
+
+	public PuppetGameState(GameState gs) {
+		this.gs=gs.clone();
+		hash=this.gs.getZobristHash();
+	}
+	public PuppetGameState(PuppetGameState gs) {
+		this.gs=gs.gs;
+		hash=gs.hash;
+	}
+	/**
+	 * Wraps a state without copying it (e.g. one reached in a simulation, or found in the cache)
+	 */
+	public PuppetGameState(GameState gs, long hash) {
+		this.gs=gs;
+		this.hash=hash;
+	}
+	static long moveKey(Move move){
+		long key=ZobristHash.mix(MOVE+move.player);
+		for (Pair<Integer,Integer> c : move.choices)
+		{
+			key = ZobristHash.mix(key+(((long)c.m_a<<32)|(c.m_b&0xFFFFFFFFL)));
+		}
+		return key;
+	}
+	long getHash(Move move1, Move move2)
+	{
+		return hash^moveKey(move1)^ZobristHash.mix(moveKey(move2));
+	}
+	long getHash(Move  move)
+	{
+		return hash^moveKey(move);
+	}
+	long getHash(int player)
+	{
+		return hash^ZobristHash.mix(PLAYER+player);
+	}
+	long getHash()
+	{
+		return hash;
+	}
+}
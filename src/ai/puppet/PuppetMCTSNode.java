@@ -86,7 +86,7 @@ public class PuppetMCTSNode {
 		}
 		return children.get(best);
 	}
-	PuppetMCTSNode selectLeaf(int STEP_PLAYOUT_TIME) throws Exception{
+	PuppetMCTSNode selectLeaf(int STEP_PLAYOUT_TIME, CacheTable CT) throws Exception{
 		// if non visited children, visit:        
 		if (children.size()<actions.length) {
 			Move m=actions[children.size()];
@@ -95,21 +95,29 @@ public class PuppetMCTSNode {
 			{
 				PuppetMCTSNode node= new PuppetMCTSNode(gs, script, C, 1-nextPlayerInSimultaneousNode,evaluation_bound, this,m,children.size());
 				children.add(node);
-				return node.selectLeaf(STEP_PLAYOUT_TIME);
+				return node.selectLeaf(STEP_PLAYOUT_TIME, CT);
 			}
 			else//second player
 			{
 				if(gs.gameover())return this;
-				GameState gs2=gs.clone();
-				ConfigurableScript<?> sc1=script.clone();
-				sc1.reset();
-				ConfigurableScript<?> sc2=script.clone();
-				sc2.reset();
+				PuppetGameState pgs=new PuppetGameState(gs, gs.getZobristHash());
+				PuppetGameState cached=CT.lookup(pgs, prevMove, m);
+				GameState gs2;
+				if(cached!=null){
+					gs2=cached.gs;
+				}else{
+					gs2=gs.clone();
+					ConfigurableScript<?> sc1=script.clone();
+					sc1.reset();
+					ConfigurableScript<?> sc2=script.clone();
+					sc2.reset();
 
-				sc1.setChoices(prevMove.choices);
-				sc2.setChoices(m.choices);
+					sc1.setChoices(prevMove.choices);
+					sc2.setChoices(m.choices);
 
-				PuppetBase.simulate(gs2,sc1,sc2,prevMove.player,m.player, STEP_PLAYOUT_TIME);
+					PuppetBase.simulate(gs2,sc1,sc2,prevMove.player,m.player, STEP_PLAYOUT_TIME);
+					CT.store(pgs, prevMove, m, new PuppetGameState(gs2, gs2.getZobristHash()), 0);
+				}
 				PuppetMCTSNode node= new PuppetMCTSNode(gs2, script, C, nextPlayerInSimultaneousNode, evaluation_bound, this,null,children.size() );//players alternate in 1-2-2-1
 				children.add(node);
 				return node;
@@ -136,7 +144,7 @@ public class PuppetMCTSNode {
 			if (best==-1) {
 				return this;
 			}else{
-				return children.get(best).selectLeaf(STEP_PLAYOUT_TIME);
+				return children.get(best).selectLeaf(STEP_PLAYOUT_TIME, CT);
 			}
 		}
 	}
@@ -99,4 +99,12 @@ public class PuppetNoPlan extends AIWithComputationBudget implements Interruptib
     public List<ParameterSpecification> getParameters() {
         return puppet.getParameters();
     }
+
+    public PuppetCache getCache() {
+        return puppet.getCache();
+    }
+
+    public void setCache(PuppetCache a_cache) {
+        puppet.setCache(a_cache);
+    }
 }
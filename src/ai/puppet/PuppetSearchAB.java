@@ -139,8 +139,7 @@ public class PuppetSearchAB extends PuppetBase {
 	ABCDNode head;
 	ABCDNode lastFinishedHead;
 	Plan currentPlan;
-	TranspositionTable TT=new TranspositionTable(100000);
-	CacheTable CT=new CacheTable(100000);
+	TranspositionTable TT=new TranspositionTable(cache);
 
         
         public PuppetSearchAB(UnitTypeTable utt) {
@@ -185,6 +184,7 @@ public class PuppetSearchAB extends PuppetBase {
 		ps.currentPlan = currentPlan;
 		ps.lastSearchFrame = lastSearchFrame;
 		ps.lastSearchTime = lastSearchTime;
+		ps.setCache(cache);
 		return ps;
 	}
 	@Override
@@ -218,7 +218,8 @@ public class PuppetSearchAB extends PuppetBase {
 	public String statisticsString() {
 		return "Average Number of Leaves: "+allLeaves/allSearches+
 				", Average Depth: "+allDepth/allSearches+
-				", Average Time: "+allTime/allSearches;
+				", Average Time: "+allTime/allSearches+
+				", Cache: "+cache.statisticsString();
 	}
 	void clearStats(){
 		allTime=allLeaves=allDepth=0;
@@ -233,6 +234,8 @@ public class PuppetSearchAB extends PuppetBase {
 		MAXPLAYER=player;
 		lastSearchFrame=gs.getTime();
 		lastSearchTime=System.currentTimeMillis();
+		startCacheSearch(gs);
+		TT.salt=CT.salt;
 		stack.clear();
 		stack.push(new ABCDNode(
 				new PuppetGameState(gs.clone()), 
@@ -345,7 +348,7 @@ public class PuppetSearchAB extends PuppetBase {
 					parent.setResult(result, current);
 				}else if(current.nextMoves.hasNext()){//check children
 					if(tt&&current.nextMoves.current==0){//if first child, check TT first
-						Entry ttEntry=TT.lookup(current.gs);
+						Entry ttEntry=TT.lookup(current.gs, current.toMove());
 						ttQueries++;
 						if(ttEntry!=null){
 							current.nextMoves.swapFront(ttEntry._bestMove);
@@ -369,13 +372,13 @@ public class PuppetSearchAB extends PuppetBase {
 						parent.setResult(new Result(parent.nextMoves.last(),current.best.score),current);
 						//						TT.store(parent.gs, parent.depth, parent.prevMove, parent.best.m, parent.best.score, parent.alpha, parent.beta, maxDepth-parent.depth);
 					}
-					if(tt)TT.store(current.gs, current.best.m, current.best.score, current.alpha, current.beta, maxDepth-current.depth);
+					if(tt)TT.store(current.gs, current.toMove(), current.best.m, current.best.score, current.alpha, current.beta, maxDepth-current.depth);
 
 				}
 			}else{//second side to choose move
 				if(current.nextMoves.hasNext()){//check children
 					if(tt&&current.nextMoves.current==0){//if first child, check TT first
-						Entry ttEntry=TT.lookup(current.gs, current.depth, current.prevMove);
+						Entry ttEntry=TT.lookup(current.gs, current.prevMove);
 						ttQueries++;
 						if(ttEntry!=null){
 							current.nextMoves.swapFront(ttEntry._bestMove);
@@ -385,13 +388,10 @@ public class PuppetSearchAB extends PuppetBase {
 					}
 					Move next=current.nextMoves.next();
 					PuppetGameState gs2=null;
-					CacheEntry ctEntry;
 					if(ct){
-						ctEntry=CT.lookup(current.gs, current.depth-1, current.prevMove, next);
+						gs2=CT.lookup(current.gs, current.prevMove, next);
 						ctQueries++;
-						if(ctEntry!=null){
-							gs2=ctEntry._state;
-
+						if(gs2!=null){
 							ctHits++;
 						}
 					}
@@ -408,8 +408,8 @@ public class PuppetSearchAB extends PuppetBase {
 
 						simulate(gsTemp,sc1,sc2,current.prevMove.player,next.player, STEP_PLAYOUT_TIME);
 
-						gs2=new PuppetGameState(current.gs,gsTemp,current.depth-1,current.prevMove, next);
-						if(ct)CT.store(current.gs, gs2);
+						gs2=new PuppetGameState(gsTemp,gsTemp.getZobristHash());
+						if(ct)CT.store(current.gs, current.prevMove, next, gs2, maxDepth-current.depth);
 					}
 					stack.push(new ABCDNode(
 							gs2, 
@@ -424,7 +424,7 @@ public class PuppetSearchAB extends PuppetBase {
 					ABCDNode parent= stack.peek();
 					parent.setResult(new Result(parent.nextMoves.last(),current.best.score),current);
 					//					TT.store(parent.gs, parent.best.m, parent.best.score, parent.alpha, parent.beta, maxDepth-parent.depth);
-					if(tt)TT.store(current.gs, current.depth, current.prevMove, current.best.m, current.best.score, current.alpha, current.beta, maxDepth-current.depth);
+					if(tt)TT.store(current.gs, current.prevMove, current.best.m, current.best.score, current.alpha, current.beta, maxDepth-current.depth);
 				}
 			}
 			frameTime=System.currentTimeMillis()-frameStartTime;
@@ -477,6 +477,15 @@ public class PuppetSearchAB extends PuppetBase {
     }    
 
 
+    @Override
+    public void setCache(PuppetCache a_cache) {
+        super.setCache(a_cache);
+        long salt = TT.salt;
+        TT = new TranspositionTable(cache);
+        TT.salt = salt;
+    }    
+
+
     public EvaluationFunction getEvaluationFunction() {
         return eval;
     }
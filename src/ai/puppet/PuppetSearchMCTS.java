@@ -99,7 +99,8 @@ public class PuppetSearchMCTS extends PuppetBase {
 		return "Average Number of Leaves: "+
                         (allSearches>0 ? allLeaves/allSearches:"-")+
                        ", Average Time: "+ 
-                        (allSearches>0 ? allTime/allSearches:"-");
+                        (allSearches>0 ? allTime/allSearches:"-")+
+                       ", Cache: "+cache.statisticsString();
 	}
 	void clearStats(){
 		allTime=allLeaves=0;
@@ -117,6 +118,7 @@ public class PuppetSearchMCTS extends PuppetBase {
 		clone.currentPlan = currentPlan;
 		clone.lastSearchFrame = lastSearchFrame;
 		clone.lastSearchTime = lastSearchTime;
+		clone.setCache(cache);
 		return clone;
 	}
 
@@ -168,6 +170,7 @@ public class PuppetSearchMCTS extends PuppetBase {
 		setC(gs);
 		lastSearchFrame=gs.getTime();
 		lastSearchTime=System.currentTimeMillis();
+		startCacheSearch(gs);
 		root=new PuppetMCTSNode(gs.clone(),script,C,player,eval.upperBound(gs));
 		allLeaves+=totalLeaves;
 		allTime+=totalTime;
@@ -216,7 +219,7 @@ public class PuppetSearchMCTS extends PuppetBase {
         }        
 	}
 	void monteCarloRun() throws Exception{
-		PuppetMCTSNode leaf = root.selectLeaf(STEP_PLAYOUT_TIME);
+		PuppetMCTSNode leaf = root.selectLeaf(STEP_PLAYOUT_TIME, CT);
 		float e;
 		if(!leaf.gs.gameover()){
             frameLeaves++;
@@ -1,36 +1,20 @@
 package ai.puppet;
 
-
-class Entry{
-	Move _bestMove;
-	int _hash;
-	float _value;
-	int _height;
-	boolean _exact;
-	boolean _upper;
-	Entry(Move bestMove,int hash, float value, int height, boolean exact, boolean upper){
-		_bestMove=bestMove;
-		_hash=hash;
-		_value=value;
-		_height=height;
-		_exact=exact;
-		_upper=upper;
-	}
-	Entry(){}
-}
-
+/**
+ * The best moves found for the nodes of a search, stored in a {@link PuppetCache}
+ * (entries are not modified once stored, since other searches may be reading them).
+ * The keys are salted like the ones of {@link CacheTable}.
+ */
 class TranspositionTable
 {
-	Entry[] _entries;
+	PuppetCache cache;
+	long salt;
 
-	TranspositionTable(int size)
+	TranspositionTable(PuppetCache cache)
 	{
-		_entries=new Entry[size];
-		for(int i=0;i<size;i++){
-			_entries[i]=new Entry();
-		}
+		this.cache=cache;
 	}
-	void store(PuppetGameState origState, Move bestMove, float value, float alpha, float beta, int height)
+	static Entry entry(Move bestMove, long hash, float value, float alpha, float beta, int height)
 	{
 		boolean exact,upper;
 		if (value <= alpha){
@@ -45,56 +29,24 @@ class TranspositionTable
 			exact = true;
 			upper = false;
 		}
-		
-		int pos=origState.getHash()%_entries.length;
-		_entries[pos]._bestMove=bestMove;
-		_entries[pos]._hash=origState.getHash();
-		_entries[pos]._value=value;
-		_entries[pos]._height=height;
-		_entries[pos]._exact=exact;
-		_entries[pos]._upper=upper;
+		return new Entry(bestMove, hash, value, height, exact, upper);
 	}
-	void store(PuppetGameState origState, int depth, Move move, Move bestMove, float value, float alpha, float beta, int height)
+	void store(PuppetGameState origState, int player, Move bestMove, float value, float alpha, float beta, int height)
 	{
-		boolean exact,upper;
-		if (value <= alpha){
-			exact = false;
-			upper = true;
-		}
-		else if (value >= beta){
-			exact = false;
-			upper = false;
-		}
-		else{
-			exact = true;
-			upper = false;
-		}
-		int pos=origState.getHash(depth, move)%_entries.length;
-		_entries[pos]._bestMove=bestMove;
-		_entries[pos]._hash=origState.getHash(depth, move);
-		_entries[pos]._value=value;
-		_entries[pos]._height=height;
-		_entries[pos]._exact=exact;
-		_entries[pos]._upper=upper;
+		long hash=origState.getHash(player)^salt;
+		cache.putMove(hash, entry(bestMove, hash, value, alpha, beta, height), height);
 	}
-	Entry lookup(PuppetGameState state, int depth, Move move)
+	void store(PuppetGameState origState, Move move, Move bestMove, float value, float alpha, float beta, int height)
 	{
-		int hash=state.getHash(depth, move);
-		Entry entry=_entries[hash %_entries.length];
-		if(entry._hash==hash){
-			return entry;
-		}else{
-			return null;
-		}
+		long hash=origState.getHash(move)^salt;
+		cache.putMove(hash, entry(bestMove, hash, value, alpha, beta, height), height);
 	}
-	Entry lookup(PuppetGameState state)
+	Entry lookup(PuppetGameState state, Move move)
 	{
-		Entry entry=_entries[state.getHash() %_entries.length];
-		if(entry._hash==state.getHash()){
-			return entry;
-		}else{
-			return null;
-		}
+		return cache.getMove(state.getHash(move)^salt);
+	}
+	Entry lookup(PuppetGameState state, int player)
+	{
+		return cache.getMove(state.getHash(player)^salt);
 	}
 }
-
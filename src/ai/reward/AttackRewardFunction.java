@@ -4,6 +4,7 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.StepDelta;
 import rts.TraceEntry;
 import rts.UnitAction;
 import rts.units.Unit;
@@ -35,6 +36,28 @@ public class AttackRewardFunction extends RewardFunctionInterface {
         }
     }
 
+    public void computeReward(int maxplayer, int minplayer, StepDelta delta, GameState afterGs) {
+        reward = 0.0;
+        done = false;
+        for (int i = 0; i < delta.getIssuedCount(); i++) {
+            if (delta.getIssuedUnit(i).getPlayer() == maxplayer && delta.getIssuedAction(i).getType() == UnitAction.TYPE_ATTACK_LOCATION) {
+                Unit other = delta.getIssuedTarget(i);
+                if (other != null) {
+                	if (other.getPlayer() == minplayer) {
+                		reward += ATTACK_REWARD;		// Positive reward for attacking opponent
+                	}
+                	else if (other.getPlayer() == maxplayer) {
+                		reward -= ATTACK_REWARD;		// Negative reward for attacking self
+                	}
+                }
+            }
+        }
+    }
+
+    public boolean usesStepDelta() {
+        return true;
+    }
+
     public double getReward() {
         return reward;
     }
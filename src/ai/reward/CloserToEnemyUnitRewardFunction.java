@@ -3,7 +3,10 @@
  * and open the template in the editor.
  */
 package ai.reward;
+import java.util.List;
+
 import rts.GameState;
+import rts.StepDelta;
 import rts.TraceEntry;
 import rts.units.Unit;
 
@@ -59,6 +62,57 @@ public class CloserToEnemyUnitRewardFunction extends RewardFunctionInterface{
         reward = oldMinDistanceToEnemyBase - newMinDistanceToEnemyBase;
     }
 
+    public void computeReward(int maxplayer, int minplayer, StepDelta delta, GameState afterGs) {
+        reward = 0.0;
+        done = false;
+        int baseX = 0;
+        int baseY = 0;
+        boolean baseExists = false;
+        List<Unit> before = delta.getUnitsBefore(afterGs.getPhysicalGameState());
+        for(Unit t: before) {
+            if (t.getPlayer() == minplayer && t.getType().name.equals("Base")) {
+                baseExists = true;
+                baseX = delta.getXBefore(t);
+                baseY = delta.getYBefore(t);
+                break;
+            }
+        }
+        if (!baseExists) {
+            return;
+        }
+        double oldMinDistanceToEnemyBase = 2000000000;
+        for(Unit t: before) {
+            if (t.getPlayer() == maxplayer && (
+                t.getType().name.equals("Light") || t.getType().name.equals("Heavy") || 
+                t.getType().name.equals("Ranged") || t.getType().name.equals("Worker"))) {
+                // Euclidean distance
+                double distance = Math.sqrt(Math.pow((baseX-delta.getXBefore(t)), 2.0) + Math.pow((baseY-delta.getYBefore(t)), 2.0));
+                if (distance < oldMinDistanceToEnemyBase) {
+                    oldMinDistanceToEnemyBase = distance;
+                }
+            }
+        }
+
+
+        double newMinDistanceToEnemyBase = 2000000000;
+        for(Unit t: afterGs.getPhysicalGameState().getUnits()) {
+            if (t.getPlayer() == maxplayer && (
+                t.getType().name.equals("Light") || t.getType().name.equals("Heavy") || 
+                t.getType().name.equals("Ranged") || t.getType().name.equals("Worker"))) {
+                // Euclidean distance
+                double distance = Math.sqrt(Math.pow((baseX-t.getX()), 2.0) + Math.pow((baseY-t.getY()), 2.0));
+                if (distance < newMinDistanceToEnemyBase) {
+                    newMinDistanceToEnemyBase = distance;
+                }
+            }
+        }
+        reward = oldMinDistanceToEnemyBase - newMinDistanceToEnemyBase;
+    }
+
+    public boolean usesStepDelta() {
+        return true;
+    }
+
     public double getReward() {
         return reward;
     }
@@ -4,6 +4,7 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.StepDelta;
 import rts.TraceEntry;
 import rts.UnitAction;
 import rts.units.Unit;
@@ -29,6 +30,23 @@ public class ProduceBuildingRewardFunction extends RewardFunctionInterface{
         }
     }
 
+    public void computeReward(int maxplayer, int minplayer, StepDelta delta, GameState afterGs) {
+        reward = 0.0;
+        done = false;
+        for (int i = 0; i < delta.getIssuedCount(); i++) {
+            UnitAction ua = delta.getIssuedAction(i);
+            if (delta.getIssuedUnit(i).getPlayer()==maxplayer && ua.getType()==UnitAction.TYPE_PRODUCE && ua.getUnitType()!=null) {
+                if (ua.getUnitType().name.equals("Barracks") || ua.getUnitType().name.equals("Base")) {
+                    reward += BUILDING_PRODUCE_REWARD;
+                }
+            }
+        }
+    }
+
+    public boolean usesStepDelta() {
+        return true;
+    }
+
     public double getReward() {
         return reward;
     }
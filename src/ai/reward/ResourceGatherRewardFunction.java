@@ -5,6 +5,7 @@
 package ai.reward;
 import rts.GameState;
 import rts.PhysicalGameState;
+import rts.StepDelta;
 import rts.TraceEntry;
 import rts.UnitAction;
 import rts.units.Unit;
@@ -28,17 +29,37 @@ public class ResourceGatherRewardFunction extends RewardFunctionInterface{
                 reward += RESOURCE_RETURN_REWARD;
             }
         }
-        done = true;
-        PhysicalGameState pgs = afterGs.getPhysicalGameState();
+        done = !resourcesLeft(afterGs);
+    }
+
+    public void computeReward(int maxplayer, int minplayer, StepDelta delta, GameState afterGs) {
+        reward = 0.0;
+        for (int i = 0; i < delta.getIssuedCount(); i++) {
+            int type = delta.getIssuedAction(i).getType();
+            if (delta.getIssuedUnit(i).getPlayer()==maxplayer && type==UnitAction.TYPE_HARVEST) {
+                reward += RESOURCE_HARVEST_REWARD;
+            } else if (delta.getIssuedUnit(i).getPlayer()==maxplayer && type==UnitAction.TYPE_RETURN) {
+                reward += RESOURCE_RETURN_REWARD;
+            }
+        }
+        done = !resourcesLeft(afterGs);
+    }
+
+    public boolean usesStepDelta() {
+        return true;
+    }
+
+    static boolean resourcesLeft(GameState gs) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
         for(Unit u:pgs.getUnits()) {
             // If there are Resources left, it's not done
             if (u.getType().name.equals("Resource")) {
                 if (u.getResources()>0) {
-                    done = false;
-                    return;
+                    return true;
                 }
             }
         }
+        return false;
     }
 
     public double getReward() {
@@ -0,0 +1,289 @@
+package ai.reward;
+
+import java.util.List;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.StepDelta;
+import rts.TraceEntry;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * Computes the rewards of several reward functions at once. The reward functions
+ * of this package are evaluated together, with a single pass over the actions issued
+ * in the step and a single pass over the units of the state after it (comparing unit
+ * type IDs rather than names), instead of one or two passes per function. The
+ * results are the same as those of their computeReward methods. Any other reward
+ * function (including subclasses of the ones in this package) is evaluated on its
+ * own, with its StepDelta or TraceEntry version.
+ */
+public class RewardEngine {
+
+    static final int OTHER = 0;
+    static final int WIN_LOSS = 1;
+    static final int RESOURCE_GATHER = 2;
+    static final int ATTACK = 3;
+    static final int PRODUCE_WORKER = 4;
+    static final int PRODUCE_BUILDING = 5;
+    static final int PRODUCE_COMBAT_UNIT = 6;
+    static final int CLOSER_TO_ENEMY_BASE = 7;     // also CloserToEnemyUnitRewardFunction, which computes the same
+
+    // indexed by unit type ID:
+    boolean isWorker[], isBuilding[], isCombatUnit[], isBase[], isResource[];
+    // units that count for the distance to the enemy base (Light, Heavy, Ranged and Worker):
+    boolean isMobile[];
+
+    public RewardEngine(UnitTypeTable utt) {
+        int n = 0;
+        for (UnitType ut : utt.getUnitTypes()) {
+            n = Math.max(n, ut.ID + 1);
+        }
+        isWorker = new boolean[n];
+        isBuilding = new boolean[n];
+        isCombatUnit = new boolean[n];
+        isBase = new boolean[n];
+        isResource = new boolean[n];
+        isMobile = new boolean[n];
+        for (UnitType ut : utt.getUnitTypes()) {
+            isWorker[ut.ID] = ut.name.equals("Worker");
+            isBuilding[ut.ID] = ut.name.equals("Barracks") || ut.name.equals("Base");
+            isCombatUnit[ut.ID] = ut.name.equals("Light") || ut.name.equals("Heavy") || ut.name.equals("Ranged");
+            isBase[ut.ID] = ut.name.equals("Base");
+            isResource[ut.ID] = ut.name.equals("Resource");
+            isMobile[ut.ID] = isCombatUnit[ut.ID] || isWorker[ut.ID];
+        }
+    }
+
+    static int kind(RewardFunctionInterface rf) {
+        Class<?> c = rf.getClass();
+        if (c == WinLossRewardFunction.class) return WIN_LOSS;
+        if (c == ResourceGatherRewardFunction.class) return RESOURCE_GATHER;
+        if (c == AttackRewardFunction.class) return ATTACK;
+        if (c == ProduceWorkerRewardFunction.class) return PRODUCE_WORKER;
+        if (c == ProduceBuildingRewardFunction.class) return PRODUCE_BUILDING;
+        if (c == ProduceCombatUnitRewardFunction.class) return PRODUCE_COMBAT_UNIT;
+        if (c == CloserToEnemyBaseRewardFunction.class || c == CloserToEnemyUnitRewardFunction.class) return CLOSER_TO_ENEMY_BASE;
+        return OTHER;
+    }
+
+    boolean is(boolean table[], UnitType type) {
+        return type.ID < table.length && table[type.ID];
+    }
+
+    /**
+     * Computes the rewards of a step, leaving them (and whether each function
+     * considers the episode done) in rewards and dones, and in the reward functions
+     * themselves (see {@link RewardFunctionInterface#getReward()}).
+     *
+     * @param rfs
+     * @param maxplayer
+     * @param minplayer
+     * @param delta what happened in the step
+     * @param te the trace entry of the step, only needed if any of the reward
+     * functions needs it (see {@link RewardFunctionInterface#needTraceEntry(RewardFunctionInterface[])})
+     * @param afterGs
+     * @param rewards
+     * @param dones
+     */
+    public void computeRewards(RewardFunctionInterface[] rfs, int maxplayer, int minplayer,
+            StepDelta delta, TraceEntry te, GameState afterGs, double rewards[], boolean dones[]) {
+        boolean needActions = false, needUnits = false;
+        for (RewardFunctionInterface rf : rfs) {
+            int kind = kind(rf);
+            if (kind == RESOURCE_GATHER || kind == ATTACK || kind == PRODUCE_WORKER
+                    || kind == PRODUCE_BUILDING || kind == PRODUCE_COMBAT_UNIT) {
+                needActions = true;
+            }
+            if (kind == WIN_LOSS || kind == RESOURCE_GATHER || kind == CLOSER_TO_ENEMY_BASE) {
+                needUnits = true;
+            }
+        }
+
+        // actions issued in the step:
+        double attack = 0, gather = 0, workers = 0, buildings = 0, combatUnits = 0;
+        if (needActions) {
+            for (int i = 0; i < delta.getIssuedCount(); i++) {
+                if (delta.getIssuedUnit(i).getPlayer() != maxplayer) {
+                    continue;
+                }
+                UnitAction ua = delta.getIssuedAction(i);
+                switch (ua.getType()) {
+                    case UnitAction.TYPE_ATTACK_LOCATION: {
+                        Unit other = delta.getIssuedTarget(i);
+                        if (other != null) {
+                            if (other.getPlayer() == minplayer) {
+                                attack += AttackRewardFunction.ATTACK_REWARD;
+                            } else if (other.getPlayer() == maxplayer) {
+                                attack -= AttackRewardFunction.ATTACK_REWARD;
+                            }
+                        }
+                        break;
+                    }
+                    case UnitAction.TYPE_HARVEST:
+                        gather += ResourceGatherRewardFunction.RESOURCE_HARVEST_REWARD;
+                        break;
+                    case UnitAction.TYPE_RETURN:
+                        gather += ResourceGatherRewardFunction.RESOURCE_RETURN_REWARD;
+                        break;
+                    case UnitAction.TYPE_PRODUCE:
+                        UnitType type = ua.getUnitType();
+                        if (type != null) {
+                            if (is(isWorker, type)) {
+                                workers += ProduceWorkerRewardFunction.WORKER_PRODUCE_REWARD;
+                            }
+                            if (is(isBuilding, type)) {
+                                buildings += ProduceBuildingRewardFunction.BUILDING_PRODUCE_REWARD;
+                            }
+                            if (is(isCombatUnit, type)) {
+                                combatUnits += ProduceCombatUnitRewardFunction.COMBAT_UNITS_PRODUCE_REWARD;
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+
+        // units after the step:
+        boolean gameover = false;
+        int winner = -1;
+        boolean resourcesLeft = false;
+        boolean baseExists = false;
+        double distanceReward = 0;
+        if (needUnits) {
+            PhysicalGameState pgs = afterGs.getPhysicalGameState();
+            List<Unit> created = delta.getCreatedUnits();
+
+            // the first base of the opponent in the unit list before the step:
+            Unit base = null;
+            for (Unit u : delta.getDestroyedUnits()) {
+                if (u.getPlayer() == minplayer && is(isBase, u.getType())) {
+                    base = u;
+                }
+            }
+            if (base != null) {
+                // the order of the destroyed units has to be reconstructed:
+                base = null;
+                for (Unit u : delta.getUnitsBefore(pgs)) {
+                    if (u.getPlayer() == minplayer && is(isBase, u.getType())) {
+                        base = u;
+                        break;
+                    }
+                }
+            } else {
+                for (Unit u : pgs.getUnits()) {
+                    if (u.getPlayer() == minplayer && is(isBase, u.getType()) && !created.contains(u)) {
+                        base = u;
+                        break;
+                    }
+                }
+            }
+            baseExists = (base != null);
+            int baseX = (baseExists ? delta.getXBefore(base) : 0);
+            int baseY = (baseExists ? delta.getYBefore(base) : 0);
+
+            int unitCounts[] = new int[pgs.getPlayers().size()];
+            int totalUnits = 0;
+            int oldMinSq = Integer.MAX_VALUE, newMinSq = Integer.MAX_VALUE;
+            for (Unit u : pgs.getUnits()) {
+                int player = u.getPlayer();
+                if (player >= 0) {
+                    unitCounts[player]++;
+                    totalUnits++;
+                }
+                if (u.getResources() > 0 && is(isResource, u.getType())) {
+                    resourcesLeft = true;
+                }
+                if (baseExists && player == maxplayer && is(isMobile, u.getType())) {
+                    int dx = baseX - u.getX();
+                    int dy = baseY - u.getY();
+                    newMinSq = Math.min(newMinSq, dx * dx + dy * dy);
+                    if (delta.getXBefore(u) == u.getX() && delta.getYBefore(u) == u.getY() && !created.contains(u)) {
+                        oldMinSq = Math.min(oldMinSq, dx * dx + dy * dy);
+                    }
+                }
+            }
+            if (baseExists) {
+                // the positions before the step of the units that moved or were destroyed:
+                for (int i = 0; i < delta.getMoveCount(); i++) {
+                    Unit u = delta.getMovedUnit(i);
+                    if (u.getPlayer() == maxplayer && is(isMobile, u.getType())) {
+                        int dx = baseX - delta.getXBefore(u);
+                        int dy = baseY - delta.getYBefore(u);
+                        oldMinSq = Math.min(oldMinSq, dx * dx + dy * dy);
+                    }
+                }
+                for (Unit u : delta.getDestroyedUnits()) {
+                    if (u.getPlayer() == maxplayer && is(isMobile, u.getType()) && !created.contains(u)) {
+                        int dx = baseX - delta.getXBefore(u);
+                        int dy = baseY - delta.getYBefore(u);
+                        oldMinSq = Math.min(oldMinSq, dx * dx + dy * dy);
+                    }
+                }
+                double oldMinDistance = (oldMinSq == Integer.MAX_VALUE ? 2000000000 : Math.sqrt(oldMinSq));
+                double newMinDistance = (newMinSq == Integer.MAX_VALUE ? 2000000000 : Math.sqrt(newMinSq));
+                distanceReward = oldMinDistance - newMinDistance;
+            }
+
+            // see PhysicalGameState.gameover() and winner():
+            for (int i = 0; i < unitCounts.length; i++) {
+                if (unitCounts[i] > 0) {
+                    if (winner == -1) {
+                        winner = i;
+                    } else {
+                        winner = -2;
+                        break;
+                    }
+                }
+            }
+            gameover = (totalUnits == 0 || winner >= 0);
+            if (winner < 0) {
+                winner = -1;
+            }
+        }
+
+        for (int i = 0; i < rfs.length; i++) {
+            RewardFunctionInterface rf = rfs[i];
+            switch (kind(rf)) {
+                case WIN_LOSS:
+                    rf.reward = (gameover ? (winner == maxplayer ? 1.0 : -1.0) : 0.0);
+                    rf.done = gameover;
+                    break;
+                case RESOURCE_GATHER:
+                    rf.reward = gather;
+                    rf.done = !resourcesLeft;
+                    break;
+                case ATTACK:
+                    rf.reward = attack;
+                    rf.done = false;
+                    break;
+                case PRODUCE_WORKER:
+                    rf.reward = workers;
+                    rf.done = false;
+                    break;
+                case PRODUCE_BUILDING:
+                    rf.reward = buildings;
+                    rf.done = false;
+                    break;
+                case PRODUCE_COMBAT_UNIT:
+                    rf.reward = combatUnits;
+                    rf.done = false;
+                    break;
+                case CLOSER_TO_ENEMY_BASE:
+                    rf.reward = distanceReward;
+                    rf.done = false;
+                    break;
+                default:
+                    if (rf.usesStepDelta()) {
+                        rf.computeReward(maxplayer, minplayer, delta, afterGs);
+                    } else {
+                        rf.computeReward(maxplayer, minplayer, te, afterGs);
+                    }
+            }
+            rewards[i] = rf.getReward();
+            dones[i] = rf.isDone();
+        }
+    }
+}
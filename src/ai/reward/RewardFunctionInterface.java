@@ -4,18 +4,49 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.StepDelta;
 import rts.TraceEntry;
 
 /**
  *
  * @author costa
  */
-public abstract class RewardFunctionInterface {    
+public abstract class RewardFunctionInterface implements Cloneable {    
     public double reward = 0.0;
     public boolean done = false;
 
     public abstract void computeReward(int maxplayer, int minplayer, TraceEntry te, GameState afterGs);
 
+    /**
+     * Computes the reward from what happened during the step, as recorded in a
+     * {@link StepDelta} (see {@link GameState#setStepDelta(StepDelta)}), rather than
+     * from a TraceEntry with a copy of the map before the step. Must give the same
+     * reward as {@link #computeReward(int, int, TraceEntry, GameState)}.
+     */
+    public abstract void computeReward(int maxplayer, int minplayer, StepDelta delta, GameState afterGs);
+
+    /**
+     * @return whether the reward should be computed with
+     * {@link #computeReward(int, int, StepDelta, GameState)}, so that no TraceEntry
+     * needs to be built for it
+     */
+    public boolean usesStepDelta() {
+        return false;
+    }
+
+    /**
+     * @param rfs
+     * @return whether any of the reward functions needs a TraceEntry
+     */
+    public static boolean needTraceEntry(RewardFunctionInterface[] rfs) {
+        for (RewardFunctionInterface rf : rfs) {
+            if (!rf.usesStepDelta()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public double getReward() {
         return reward;
     }
@@ -24,6 +55,18 @@ public abstract class RewardFunctionInterface {
         return done;
     }
 
+    /**
+     * Returns a copy with its own reward and done values, so that the same kind
+     * of reward can be computed for several games at the same time
+     */
+    public RewardFunctionInterface clone() {
+        try {
+            return (RewardFunctionInterface) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new Error(e);
+        }
+    }
+
     public String toString() {
         return getClass().getSimpleName();
     }
@@ -4,6 +4,7 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.StepDelta;
 import rts.TraceEntry;
 
 /**
@@ -22,4 +23,12 @@ public class WinLossRewardFunction extends RewardFunctionInterface{
         }
 
     }
+
+    public void computeReward(int maxplayer, int minplayer, StepDelta delta, GameState afterGs) {
+        computeReward(maxplayer, minplayer, (TraceEntry) null, afterGs);
+    }
+
+    public boolean usesStepDelta() {
+        return true;
+    }
 }
@@ -0,0 +1,90 @@
+package rts;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of action assignments ordered by the cycle in which they
+ * complete (uaa.time + ETA), used by {@link GameState#cycle()} to find the
+ * actions to execute without going through all of them.
+ * Entries are not removed when an assignment is removed or replaced: the
+ * game state discards the ones that are no longer current when they reach the
+ * top of the heap.
+ */
+class ActionQueue {
+
+    UnitActionAssignment assignments[] = new UnitActionAssignment[16];
+    int completionTimes[] = new int[16];
+    int size = 0;
+
+    static int completionTime(UnitActionAssignment uaa) {
+        return uaa.time + uaa.action.ETA(uaa.unit);
+    }
+
+    void clear() {
+        Arrays.fill(assignments, 0, size, null);
+        size = 0;
+    }
+
+    void push(UnitActionAssignment uaa) {
+        if (size == assignments.length) {
+            assignments = Arrays.copyOf(assignments, size * 2);
+            completionTimes = Arrays.copyOf(completionTimes, size * 2);
+        }
+        int t = completionTime(uaa);
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (completionTimes[parent] <= t) {
+                break;
+            }
+            assignments[i] = assignments[parent];
+            completionTimes[i] = completionTimes[parent];
+            i = parent;
+        }
+        assignments[i] = uaa;
+        completionTimes[i] = t;
+    }
+
+    /**
+     * @return the completion time of the entry at the top of the heap (the
+     * queue must not be empty)
+     */
+    int peekTime() {
+        return completionTimes[0];
+    }
+
+    /**
+     * @return the assignment at the top of the heap (the queue must not be
+     * empty)
+     */
+    UnitActionAssignment peek() {
+        return assignments[0];
+    }
+
+    void pop() {
+        size--;
+        UnitActionAssignment uaa = assignments[size];
+        int t = completionTimes[size];
+        assignments[size] = null;
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && completionTimes[child + 1] < completionTimes[child]) {
+                child++;
+            }
+            if (t <= completionTimes[child]) {
+                break;
+            }
+            assignments[i] = assignments[child];
+            completionTimes[i] = completionTimes[child];
+            i = child;
+        }
+        if (size > 0) {
+            assignments[i] = uaa;
+            completionTimes[i] = t;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package rts;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoding of the triples of a {@link GameGraph}, so that they can be handed
+ * to an embedding model as integers instead of strings: the entities (URIs and blank
+ * nodes), relations (predicates) and literals each have their own dictionary, and the
+ * triples are an int array of (subject, relation, object) IDs, where an object ID of
+ * entities.length or more is the literal object ID - entities.length.
+ *
+ * The IDs only depend on the content of the graph: the URIs, relations and literals
+ * are sorted, and the blank nodes come after the URIs, sorted by their content and
+ * where they hang from (their labels, "_:b0", "_:b1"..., replace the random ones Jena
+ * gives them), so two graphs with the same triples (e.g. built in different processes)
+ * have the same encoding. The triples are sorted by their IDs.
+ * The URIs and literals are the same strings as in {@link GameGraph#getTriples()}.
+ * None of the arrays returned can be modified (they are shared).
+ */
+public class EncodedGraph {
+    public static final String BLANK_PREFIX = "_:b";
+
+    final String[] entities;
+    final String[] relations;
+    final String[] literals;
+    final int[] triples;
+    final Map<String, Integer> entityIDs = new HashMap<>();
+    final Map<String, Integer> relationIDs = new HashMap<>();
+    final Map<String, Integer> literalIDs = new HashMap<>();
+    ByteBuffer tripleBuffer;
+
+    EncodedGraph(String[] a_entities, String[] a_relations, String[] a_literals, int[] a_triples) {
+        entities = a_entities;
+        relations = a_relations;
+        literals = a_literals;
+        triples = a_triples;
+        for (int i = 0; i < entities.length; i++) entityIDs.put(entities[i], i);
+        for (int i = 0; i < relations.length; i++) relationIDs.put(relations[i], i);
+        for (int i = 0; i < literals.length; i++) literalIDs.put(literals[i], i);
+    }
+
+    /**
+     * Encodes the triples of a store
+     * @param store
+     * @return
+     */
+    static EncodedGraph encode(TripleStore store) {
+        List<String> uris = new ArrayList<>();
+        List<Integer> blanks = new ArrayList<>();
+        List<String> predicates = new ArrayList<>();
+        List<String> literalList = new ArrayList<>();
+        // (the entities and literals are the terms used as subjects or objects)
+        boolean used[] = new boolean[store.getTermCount()];
+        for (int i = 0; i < store.size(); i++) {
+            used[store.getSubject(i)] = true;
+            used[store.getObject(i)] = true;
+            predicates.add(store.toString(store.getPredicate(i)));
+        }
+        for (int term = 0; term < store.getTermCount(); term++) {
+            if (!used[term]) continue;
+            switch (store.getKind(term)) {
+                case TripleStore.URI -> uris.add(store.toString(term));
+                case TripleStore.BLANK -> blanks.add(term);
+                default -> literalList.add(store.toString(term));
+            }
+        }
+        String[] relationArray = sortedUnique(predicates);
+        String[] literalArray = sortedUnique(literalList);
+
+        // canonical order of the blank nodes:
+        Map<Integer, String> outKeys = new HashMap<>();
+        Map<Integer, String> keys = new HashMap<>();
+        for (int b : blanks) {
+            keys.put(b, outKey(store, b, outKeys) + " <- " + inKey(store, b, outKeys));
+        }
+        blanks.sort((b1, b2) -> keys.get(b1).compareTo(keys.get(b2)));
+
+        String[] uriArray = sortedUnique(uris);
+        String[] entityArray = Arrays.copyOf(uriArray, uriArray.length + blanks.size());
+        Map<Integer, Integer> blankIDs = new HashMap<>();
+        for (int i = 0; i < blanks.size(); i++) {
+            entityArray[uriArray.length + i] = BLANK_PREFIX + i;
+            blankIDs.put(blanks.get(i), uriArray.length + i);
+        }
+        EncodedGraph encoded = new EncodedGraph(entityArray, relationArray, literalArray, new int[store.size() * 3]);
+
+        long[] rows = new long[store.size()];
+        for (int i = 0; i < store.size(); i++) {
+            rows[i] = TripleStore.pack(encoded.nodeID(store, store.getSubject(i), blankIDs),
+                                       encoded.relationIDs.get(store.toString(store.getPredicate(i))),
+                                       encoded.nodeID(store, store.getObject(i), blankIDs));
+        }
+        Arrays.sort(rows);
+        for (int i = 0; i < rows.length; i++) {
+            encoded.triples[i * 3] = (int) (rows[i] >>> (2 * TripleStore.BITS));
+            encoded.triples[i * 3 + 1] = (int) ((rows[i] >>> TripleStore.BITS) & TripleStore.MASK);
+            encoded.triples[i * 3 + 2] = (int) (rows[i] & TripleStore.MASK);
+        }
+        return encoded;
+    }
+
+    static String[] sortedUnique(List<String> l) {
+        return l.stream().distinct().sorted().toArray(String[]::new);
+    }
+
+    /**
+     * The content of a blank node: its properties, with the blank nodes they point to
+     * replaced by their content
+     */
+    static String outKey(TripleStore store, int b, Map<Integer, String> outKeys) {
+        String key = outKeys.get(b);
+        if (key != null) return key;
+        List<String> properties = new ArrayList<>();
+        int found[] = store.find(b, TripleStore.ANY, TripleStore.ANY);
+        for (int i = 0; i < found.length; i += 3) {
+            int o = found[i + 2];
+            String object = switch (store.getKind(o)) {
+                case TripleStore.BLANK -> outKey(store, o, outKeys);
+                case TripleStore.URI -> "<" + store.toString(o) + ">";
+                default -> "\"" + store.toString(o) + "\"";
+            };
+            properties.add(store.toString(found[i + 1]) + " " + object);
+        }
+        Collections.sort(properties);
+        key = "[" + String.join(", ", properties) + "]";
+        outKeys.put(b, key);
+        return key;
+    }
+
+    /**
+     * Where a blank node hangs from: the subjects and predicates of the triples it is
+     * the object of (with the blank subjects replaced by their content and where they hang from)
+     */
+    static String inKey(TripleStore store, int b, Map<Integer, String> outKeys) {
+        List<String> parents = new ArrayList<>();
+        int found[] = store.find(TripleStore.ANY, TripleStore.ANY, b);
+        for (int i = 0; i < found.length; i += 3) {
+            int subject = found[i];
+            String subjectKey = (store.getKind(subject) == TripleStore.BLANK ? outKey(store, subject, outKeys) + " <- " + inKey(store, subject, outKeys) : "<" + store.toString(subject) + ">");
+            parents.add(subjectKey + " " + store.toString(found[i + 1]));
+        }
+        Collections.sort(parents);
+        return "{" + String.join(", ", parents) + "}";
+    }
+
+    int nodeID(TripleStore store, int term, Map<Integer, Integer> blankIDs) {
+        return switch (store.getKind(term)) {
+            case TripleStore.BLANK -> blankIDs.get(term);
+            case TripleStore.LITERAL -> entities.length + literalIDs.get(store.toString(term));
+            default -> entityIDs.get(store.toString(term));
+        };
+    }
+
+    /**
+     * @return the entities: the URIs, and then the blank nodes
+     */
+    public String[] getEntities() {
+        return entities;
+    }
+
+    public String[] getRelations() {
+        return relations;
+    }
+
+    public String[] getLiterals() {
+        return literals;
+    }
+
+    /**
+     * @return the triples, as (subject, relation, object) IDs: getTripleCount()*3 ints
+     */
+    public int[] getTriples() {
+        return triples;
+    }
+
+    public int getTripleCount() {
+        return triples.length / 3;
+    }
+
+    /**
+     * @return the triples (see {@link #getTriples()}) in a read only, direct, native-order
+     * buffer of int32, that the Python side can wrap without copying (e.g.
+     * np.frombuffer(buffer, dtype=np.int32).reshape(-1, 3))
+     */
+    public synchronized ByteBuffer getTripleBuffer() {
+        if (tripleBuffer == null) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(triples.length * 4).order(ByteOrder.nativeOrder());
+            buffer.asIntBuffer().put(triples);
+            tripleBuffer = buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+        }
+        return tripleBuffer.duplicate().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @param uri a URI, or a blank node label
+     * @return its ID, or -1 if it is not an entity of the graph
+     */
+    public int getEntityID(String uri) {
+        return entityIDs.getOrDefault(uri, -1);
+    }
+
+    /**
+     * @param predicate
+     * @return its ID, or -1 if it is not a relation of the graph
+     */
+    public int getRelationID(String predicate) {
+        return relationIDs.getOrDefault(predicate, -1);
+    }
+
+    /**
+     * @param literal
+     * @return its ID (not its object ID), or -1 if it is not a literal of the graph
+     */
+    public int getLiteralID(String literal) {
+        return literalIDs.getOrDefault(literal, -1);
+    }
+
+    /**
+     * @param objectID
+     * @return the string of an object ID (an entity or a literal)
+     */
+    public String getObject(int objectID) {
+        return (objectID < entities.length ? entities[objectID] : literals[objectID - entities.length]);
+    }
+}
@@ -0,0 +1,72 @@
+package rts;
+
+/**
+ * A read-only view of which cells of a {@link GameState} are free: no wall, no
+ * unit, and not the target of a pending move or produce action. It is not a
+ * snapshot: queries always reflect the current contents of the game state, and
+ * are answered in constant time without any allocation.
+ *
+ * Obtained through {@link GameState#getFreeCells()}.
+ */
+public class FreeCellView {
+
+    final GameState gs;
+
+    FreeCellView(GameState a_gs) {
+        gs = a_gs;
+    }
+
+    /**
+     * @return
+     */
+    public int getWidth() {
+        return gs.pgs.width;
+    }
+
+    /**
+     * @return
+     */
+    public int getHeight() {
+        return gs.pgs.height;
+    }
+
+    /**
+     * Returns whether the cell is free. Coordinates outside of the map are
+     * never free.
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    public boolean isFree(int x, int y) {
+        if (x < 0 || y < 0 || x >= gs.pgs.width || y >= gs.pgs.height) {
+            return false;
+        }
+        return gs.free(x, y);
+    }
+
+    /**
+     * Returns whether the cell is free, given its position (x + y * width)
+     *
+     * @param pos
+     * @return
+     */
+    public boolean isFree(int pos) {
+        return isFree(pos % gs.pgs.width, pos / gs.pgs.width);
+    }
+
+    /**
+     * Returns whether a pending move or produce action will use the cell
+     * (regardless of its terrain or of any unit currently standing on it)
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    public boolean isReserved(int x, int y) {
+        if (x < 0 || y < 0 || x >= gs.pgs.width || y >= gs.pgs.height) {
+            return false;
+        }
+        return gs.reserved(x + y * gs.pgs.width);
+    }
+}
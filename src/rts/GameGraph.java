@@ -1,15 +1,17 @@
 package rts;
 
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.vocabulary.RDF;
+import rts.TripleStore.Resource;
 import rts.units.UnitTypeTable;
 
 import java.io.StringWriter;
-import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class GameGraph {
     private static final String DEFAULT_PREFIX = "http://microrts.com/";
@@ -17,6 +19,7 @@ public class GameGraph {
     public static final String UNIT_PREFIX = GAME_PREFIX + "unit/";
     public static final String ACTION_PREFIX = GAME_PREFIX + "action/";
     public static final String RATING_PREFIX = GAME_PREFIX + "rating/";
+    public static final String STATE_PREFIX = GAME_PREFIX + "state/";
 
     private static final String INCLUDES_RELATION = "includes";
     private static final String INCLUDED_BY_RELATION = "includedBy";
@@ -31,14 +34,25 @@ public class GameGraph {
         }
     }
 
-    private final Model model = ModelFactory.createDefaultModel();
+    private final TripleStore model = new TripleStore();
     private final Resource gameNode;
 
     private Map<Integer, Resource> atNodes;
 
+    // Graphs returned by cached(), by the digest of the JSON of their unit type table:
+    private static final Map<String, GameGraph> cache = new ConcurrentHashMap<>();
+
+    // Only in the graphs returned by cached(), which cannot be modified (they are shared):
+    private List<String[]> triples;
+    private List<String> unitTypes;
+    private List<String> actionTypes;
+    private String turtle;
+    private EncodedGraph encoded;
+    private GraphQuery query;
+
     public GameGraph() {
         gameNode = model.createResource(GAME_PREFIX + "mainGame");
-        gameNode.addProperty(RDF.type, model.createResource(GAME_PREFIX + "Game"));
+        gameNode.addProperty(model.createProperty(TripleStore.RDF_TYPE), model.createResource(GAME_PREFIX + "Game"));
 
         processActions();
     }
@@ -51,7 +65,93 @@ public class GameGraph {
         }
     }
 
+    /**
+     * Returns the graph of a unit type table (a graph on which processUnitTypeTable was
+     * called with it), building it only the first time it is asked for a table with the
+     * same content (the same JSON). The graph is shared, so it cannot be modified, and its
+     * triples, unit types, action types and encoding are computed once, when it is built
+     * (and its Turtle the first time it is asked for).
+     * @param utt
+     * @return
+     */
+    public static GameGraph cached(UnitTypeTable utt) {
+        return cache.computeIfAbsent(digest(utt), key -> {
+            GameGraph graph = new GameGraph();
+            graph.processUnitTypeTable(utt);
+            graph.freeze();
+            return graph;
+        });
+    }
+
+    /**
+     * Removes the graphs built by cached()
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * @param utt
+     * @return the SHA-256 digest of the JSON of a unit type table, in hexadecimal
+     */
+    static String digest(UnitTypeTable utt) {
+        try {
+            StringWriter writer = new StringWriter();
+            utt.toJSON(writer);
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(writer.toString().getBytes(StandardCharsets.UTF_8));
+            char hex[] = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = Character.forDigit((hash[i] >> 4) & 0xF, 16);
+                hex[i * 2 + 1] = Character.forDigit(hash[i] & 0xF, 16);
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not write the unit type table as JSON", e);
+        }
+    }
+
+    private void freeze() {
+        List<String[]> ts = listTriples();
+        List<String> uts = listResourcesWithType(UNIT_PREFIX + "Unit");
+        List<String> ats = listResourcesWithType(ACTION_PREFIX + "Action");
+        triples = Collections.unmodifiableList(ts);
+        unitTypes = Collections.unmodifiableList(uts);
+        actionTypes = Collections.unmodifiableList(ats);
+        encoded = EncodedGraph.encode(model);
+        // so that the queries on the shared graph do not modify it:
+        model.buildIndexes();
+        query = new GraphQuery(model);
+    }
+
+    private ArrayList<String[]> listTriples() {
+        ArrayList<String[]> triples = new ArrayList<>(model.size());
+        for (int i = 0; i < model.size(); i++) {
+            triples.add(new String[]{model.toString(model.getSubject(i)), model.toString(model.getPredicate(i)), model.toString(model.getObject(i))});
+        }
+        return triples;
+    }
+
+    private ArrayList<String> listResourcesWithType(String type) {
+        ArrayList<String> resources = new ArrayList<>();
+        int typeID = model.getURIID(type);
+        if (typeID < 0) return resources;
+        for (int resource : model.listSubjects(model.getURIID(TripleStore.RDF_TYPE), typeID)) {
+            resources.add(model.getValue(resource));
+        }
+        return resources;
+    }
+
+    /**
+     * @return whether this graph was returned by cached() (and so cannot be modified)
+     */
+    public boolean isShared() {
+        return triples != null;
+    }
+
     public void processUnitTypeTable(UnitTypeTable utt) {
+        if (isShared()) throw new IllegalStateException("A cached GameGraph cannot be modified");
         utt.addPropertiesRDF(model, gameNode, GAME_PREFIX);
 
         for (Resource utNode : utt.createUnitTypesRDF(model, atNodes, gameNode, GAME_PREFIX)) {
@@ -60,33 +160,68 @@ public class GameGraph {
         }
     }
 
+    /**
+     * @return the triples of the graph (subject, predicate, object). In a cached graph,
+     * the strings are computed once, and each caller gets its own copy of the arrays.
+     */
     public ArrayList<String[]> getTriples() {
-        ArrayList<String[]> triples = new ArrayList<>();
-        model.listStatements().forEachRemaining(statement -> {
-            triples.add(new String[]{statement.getSubject().toString(), statement.getPredicate().toString(), statement.getObject().toString()});
-        });
-        return triples;
+        if (isShared()) {
+            ArrayList<String[]> copy = new ArrayList<>(this.triples.size());
+            for (String[] triple : this.triples) {
+                copy.add(triple.clone());
+            }
+            return copy;
+        }
+        return listTriples();
     }
 
     public ArrayList<String> getUnitTypes() {
-        ArrayList<String> unitTypes = new ArrayList<>();
-        model.listResourcesWithProperty(RDF.type, model.createResource(UNIT_PREFIX + "Unit")).forEachRemaining(resource -> {
-            unitTypes.add(resource.getURI());
-        });
-        return unitTypes;
+        if (isShared()) return new ArrayList<>(this.unitTypes);
+        return listResourcesWithType(UNIT_PREFIX + "Unit");
     }
 
     public ArrayList<String> getActionTypes() {
-        ArrayList<String> actionTypes = new ArrayList<>();
-        model.listResourcesWithProperty(RDF.type, model.createResource(ACTION_PREFIX + "Action")).forEachRemaining(resource -> {
-            actionTypes.add(resource.getURI());
-        });
-        return actionTypes;
+        if (isShared()) return new ArrayList<>(this.actionTypes);
+        return listResourcesWithType(ACTION_PREFIX + "Action");
+    }
+
+    /**
+     * @return the dictionary encoding of the triples of the graph (see {@link EncodedGraph}),
+     * computed once in a cached graph
+     */
+    public EncodedGraph encode() {
+        if (isShared()) return encoded;
+        return EncodedGraph.encode(model);
+    }
+
+    /**
+     * @return queries on the triples of the graph (see {@link GraphQuery}), computed once
+     * in a cached graph
+     */
+    public GraphQuery query() {
+        if (isShared()) return query;
+        return new GraphQuery(model);
     }
 
+    /**
+     * @return the triples of the graph, in Turtle (written through Jena, see {@link JenaExport})
+     */
     public String toTurtle() {
-        Writer writer = new StringWriter();
-        model.write(writer, "TURTLE");
-        return writer.toString();
+        if (isShared()) {
+            // computed the first time it is asked for, so that Jena is only loaded when needed:
+            synchronized (this) {
+                if (turtle == null) turtle = JenaExport.toTurtle(model);
+                return turtle;
+            }
+        }
+        return JenaExport.toTurtle(model);
+    }
+
+    /**
+     * @return the triples of the graph. In a cached graph, the store is shared, so it
+     * must not be modified.
+     */
+    public TripleStore getTripleStore() {
+        return model;
     }
 }
@@ -4,8 +4,12 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.IntBuffer;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -34,14 +38,45 @@ import util.XMLWriter;
 public class GameState {
     public static final boolean REPORT_ILLEGAL_ACTIONS = false;
     
+    // the order in which cycle() executes the actions that complete in the same cycle:
+    static final Comparator<UnitActionAssignment> ASSIGNMENT_ORDER = Comparator.comparingLong(uaa -> uaa.sequence);
     static Random r = new Random();         // only used if the action conflict resolution strategy is set to random
     protected int unitCancelationCounter = 0;  // only used if the action conflict resolution strategy is set to alternating
     
     protected int time = 0;
     protected PhysicalGameState pgs;
     protected HashMap<Unit,UnitActionAssignment> unitActions = new LinkedHashMap<>();
+    protected long assignmentSequence = 0;  // the sequence number of the next action assignment of a unit without one
     protected UnitTypeTable utt;
 
+    // Bitmap over the cells of the map (bit x + y * width) that pending move and
+    // produce actions will use. It is built lazily, and then kept up to date as
+    // actions are issued and retired, so that free() does not need to go through
+    // all the action assignments. null means "not built yet".
+    protected long reservedCells[];
+    protected int reservedCellsActionCount = 0;    // unitActions.size() when reservedCells was last synchronized
+    protected FreeCellView freeCellView;
+
+    // The pending action assignments, ordered by the cycle in which they complete, so that
+    // cycle() only looks at the actions that complete in it. Like reservedCells, it is built
+    // lazily and then kept up to date as actions are issued and retired.
+    ActionQueue actionQueue;
+    int actionQueueActionCount = -1;    // unitActions.size() when actionQueue was last synchronized
+
+    // Journal of the changes made to the state since startUndoLog() (see checkpoint() and undo()). 
+    // null when the changes are not being recorded.
+    UndoLog undoLog;
+
+    // Record of the actions issued and their effects (see setStepDelta()), null when not recording.
+    StepDelta stepDelta;
+
+    // Zobrist hash of the state (see getZobristHash()). It is computed on the first request, and
+    // then kept up to date by issue, cycle and the actions they execute, like reservedCells.
+    long zobristHash;
+    boolean zobristHashValid = false;
+    int zobristHashUnitCount = 0;      // pgs.units.size() when zobristHash was last synchronized
+    int zobristHashActionCount = 0;    // unitActions.size() when zobristHash was last synchronized
+
     // [player][feature map][Y][X] --> Note: feature maps not yet binarised here!
     protected int [][][][] vectorObservation;
     
@@ -77,8 +112,18 @@ public class GameState {
      * @param u
      */
     public void removeUnit(Unit u) {
+        if (undoLog!=null || stepDelta!=null) {
+            int idx = pgs.units.indexOf(u);
+            if (idx>=0) {
+                if (undoLog!=null) undoLog.add(UndoLog.UNIT_REMOVED, u, null, idx, pgs.ownsUnit(u) ? 1:0);
+                if (stepDelta!=null) stepDelta.destroyed(u, idx);
+            }
+        }
+        boolean hashed = maintainZobristHash();
+        int n = pgs.units.size();
         pgs.removeUnit(u);
-        unitActions.remove(u);
+        if (hashed && pgs.units.size()<n) toggleZobristKey(ZobristHash.unit(u));
+        removeAssignment(u);
     }
     
     /**
@@ -190,20 +235,20 @@ public class GameState {
      */
     public boolean free(int x, int y) {
         if (pgs.getTerrain(x, y)!=PhysicalGameState.TERRAIN_NONE) return false;
-        for(Unit u:pgs.units) {
-            if (u.getX()==x && u.getY()==y) return false;
-        }
-        for(UnitActionAssignment ua:unitActions.values()) {
-            if (ua.action.type==UnitAction.TYPE_MOVE ||
-                ua.action.type==UnitAction.TYPE_PRODUCE) {
-                Unit u = ua.unit;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_UP && u.getX()==x && u.getY()==y+1) return false;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_RIGHT && u.getX()==x-1 && u.getY()==y) return false;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_DOWN && u.getX()==x && u.getY()==y-1) return false;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_LEFT && u.getX()==x+1 && u.getY()==y) return false;
-            }
-        }
-        return true;
+        if (pgs.getUnitAt(x, y)!=null) return false;
+        return !reserved(x + y * pgs.width);
+    }
+    
+    
+    /**
+     * Returns a read-only view to query which cells are free (see {@link #free(int, int)})
+     * in constant time and without allocating memory. The view always reflects the
+     * current contents of this state.
+     * @return
+     */
+    public FreeCellView getFreeCells() {
+        if (freeCellView == null) freeCellView = new FreeCellView(this);
+        return freeCellView;
     }
     
    
@@ -215,19 +260,181 @@ public class GameState {
     public boolean[][] getAllFree() {
     	
     	boolean free[][]=pgs.getAllFree();
-        for(UnitActionAssignment ua:unitActions.values()) {
-            if (ua.action.type==UnitAction.TYPE_MOVE ||
-                ua.action.type==UnitAction.TYPE_PRODUCE) {
-                Unit u = ua.unit;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_UP ) free[u.getX()][u.getY()-1]=false;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_RIGHT) free[u.getX()+1][u.getY()]=false;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_DOWN ) free[u.getX()][u.getY()+1]=false;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_LEFT) free[u.getX()-1][u.getY()]=false;
+        if (!reservationsSynchronized()) rebuildReservations();
+        for(int i = 0;i<reservedCells.length;i++) {
+            long word = reservedCells[i];
+            while(word!=0) {
+                int pos = i*64 + Long.numberOfTrailingZeros(word);
+                free[pos % pgs.width][pos / pgs.width] = false;
+                word &= word - 1;
             }
         }
         return free;
     }
     
+    
+    /**
+     * Returns whether a pending move or produce action will use the position (x + y * width)
+     * @param pos
+     * @return
+     */
+    boolean reserved(int pos) {
+        if (!reservationsSynchronized()) rebuildReservations();
+        return (reservedCells[pos >> 6] & (1L << (pos & 63))) != 0;
+    }
+    
+    
+    /**
+     * Returns whether an action with the given resource usage might conflict with the
+     * pending actions: if it does not use resources, only with the move and produce
+     * actions that reserved the cells it uses
+     * @param ru
+     * @return
+     */
+    boolean mayConflict(ResourceUsage ru) {
+        for(int used:ru.resourcesUsed) {
+            if (used!=0) return true;
+        }
+        for(int pos:ru.positionsUsed) {
+            if (pos<0 || pos>=pgs.width*pgs.height || reserved(pos)) return true;
+        }
+        return false;
+    }
+    
+    
+    /**
+     * Returns the position (x + y * width) that the action in an assignment will use,
+     * or -1 if it does not use any
+     * @param uaa
+     * @return
+     */
+    int reservedPosition(UnitActionAssignment uaa) {
+        if (uaa.action.type!=UnitAction.TYPE_MOVE &&
+            uaa.action.type!=UnitAction.TYPE_PRODUCE) return -1;
+        int direction = uaa.action.getDirection();
+        if (direction<0) return -1;
+        int x = uaa.unit.getX() + UnitAction.DIRECTION_OFFSET_X[direction];
+        int y = uaa.unit.getY() + UnitAction.DIRECTION_OFFSET_Y[direction];
+        if (x<0 || y<0 || x>=pgs.width || y>=pgs.height) return -1;
+        return x + y * pgs.width;
+    }
+    
+    
+    /**
+     * Whether the reservation bitmap is up to date with the action assignments
+     * @return
+     */
+    boolean reservationsSynchronized() {
+        return reservedCells!=null && 
+               reservedCellsActionCount==unitActions.size() &&
+               reservedCells.length==((pgs.width*pgs.height + 63) >> 6);
+    }
+    
+    
+    /**
+     * Recomputes the reservation bitmap from the action assignments
+     */
+    void rebuildReservations() {
+        int words = (pgs.width*pgs.height + 63) >> 6;
+        if (reservedCells==null || reservedCells.length!=words) {
+            reservedCells = new long[words];
+        } else {
+            Arrays.fill(reservedCells, 0);
+        }
+        for(UnitActionAssignment uaa:unitActions.values()) {
+            int pos = reservedPosition(uaa);
+            if (pos>=0) reservedCells[pos >> 6] |= 1L << (pos & 63);
+        }
+        reservedCellsActionCount = unitActions.size();
+    }
+    
+    
+    /**
+     * Updates the reservation bitmap after an assignment was added to or removed from
+     * unitActions. If the bitmap was not synchronized before the change, it is just
+     * discarded (and rebuilt next time it is needed).
+     * @param uaa
+     * @param add
+     * @param synced whether the bitmap was synchronized before the change
+     */
+    void updateReservations(UnitActionAssignment uaa, boolean add, boolean synced) {
+        if (!synced) {
+            reservedCells = null;
+            return;
+        }
+        int pos = reservedPosition(uaa);
+        if (pos>=0) {
+            if (add) {
+                reservedCells[pos >> 6] |= 1L << (pos & 63);
+            } else {
+                reservedCells[pos >> 6] &= ~(1L << (pos & 63));
+            }
+        }
+        reservedCellsActionCount = unitActions.size();
+    }
+    
+    
+    /**
+     * @return whether actionQueue has an entry for each of the current action assignments
+     */
+    boolean actionQueueSynchronized() {
+        return actionQueue!=null && actionQueueActionCount==unitActions.size();
+    }
+    
+    
+    /**
+     * Rebuilds actionQueue from scratch from the current action assignments
+     */
+    void rebuildActionQueue() {
+        if (actionQueue==null) {
+            actionQueue = new ActionQueue();
+        } else {
+            actionQueue.clear();
+        }
+        for(UnitActionAssignment uaa:unitActions.values()) actionQueue.push(uaa);
+        actionQueueActionCount = unitActions.size();
+    }
+    
+    
+    /**
+     * Updates actionQueue after unitActions was changed. If the queue was not 
+     * synchronized before the change, it is just marked to be rebuilt next time it is needed.
+     * @param uaa the assignment that was added or whose action changed, or null if one was removed
+     * @param synced whether the queue was synchronized before the change
+     */
+    void updateActionQueue(UnitActionAssignment uaa, boolean synced) {
+        if (!synced) {
+            actionQueueActionCount = -1;
+            return;
+        }
+        if (uaa!=null) actionQueue.push(uaa);
+        actionQueueActionCount = unitActions.size();
+    }
+    
+    
+    /**
+     * Returns the first cycle in which some pending action completes, discarding the 
+     * entries at the top of actionQueue that no longer correspond to a current assignment
+     * @return the cycle, or Integer.MAX_VALUE if there are no pending actions (notice that
+     * this can be a past cycle, e.g. for NONE actions with a negative duration)
+     */
+    int nextCompletionTime() {
+        if (!actionQueueSynchronized()) rebuildActionQueue();
+        while(actionQueue.size>0) {
+            UnitActionAssignment uaa = actionQueue.peek();
+            int t = actionQueue.peekTime();
+            if (unitActions.get(uaa.unit)==uaa) {
+                if (ActionQueue.completionTime(uaa)==t) return t;
+                // the action changed after it was queued:
+                actionQueue.pop();
+                actionQueue.push(uaa);
+            } else {
+                actionQueue.pop();
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+    
 
     /**
      * Returns whether the cell is observable.
@@ -250,81 +457,119 @@ public class GameState {
         boolean returnValue = false;
         
         for(Pair<Unit,UnitAction> p:pa.actions) {
-//            if (p.m_a==null) {
-//                System.err.println("Issuing an action to a null unit!!!");
-//                System.exit(1);
-//            }
-//            if (unitActions.get(p.m_a)!=null) {
-//                System.err.println("Issuing an action to a unit with another action!");
-//            } else 
-//            {
-                // check for conflicts:
-                ResourceUsage ru = p.m_b.resourceUsage(p.m_a, pgs);
-                for(UnitActionAssignment uaa:unitActions.values()) {
-                    if (!uaa.action.resourceUsage(uaa.unit, pgs).consistentWith(ru, this)) {
-                        // conflicting actions:
-                        if (uaa.time==time) {
-                            // The actions were issued in the same game cycle, so it's normal
-                            boolean cancel_old = false;
-                            boolean cancel_new = false;
-                            switch(utt.getMoveConflictResolutionStrategy()) {
-                                default:
-                                    System.err.println("Unknown move conflict resolution strategy in the UnitTypeTable!: " + utt.getMoveConflictResolutionStrategy());
-                                    System.err.println("Defaulting to MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH");
-                                //$FALL-THROUGH$
-                                case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH:
-                                    cancel_old = cancel_new = true;
-                                    break;
-                                case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM:
-                                    if (r.nextInt(2)==0) cancel_new = true;
-                                                    else cancel_old = true;
-                                    break;
-                                case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING:
-                                    if ((unitCancelationCounter%2)==0) cancel_new = true;
-                                                                  else cancel_old = true;
-                                    unitCancelationCounter++;
-                                    break;
-                            }
-                            int duration1 = uaa.action.ETA(uaa.unit);
-                            int duration2 = p.m_b.ETA(p.m_a);
-                            if (cancel_old) {
+            if (issue(p.m_a, p.m_b)) returnValue = true;
+        }
+        return returnValue;
+    }
+
+
+    /**
+     * Issues an action to a unit (like {@link #issue(PlayerAction)} does for each of
+     * the unit actions of a player action), so that AIs that generate their actions one
+     * unit at a time (e.g. playout policies) do not need to build a PlayerAction
+     * @param u
+     * @param ua
+     * @return "true" if the action issued was not a NONE action (it might have been
+     * replaced by one, if it conflicted with another action)
+     */
+    public boolean issue(Unit u, UnitAction ua) {
+        if (stepDelta!=null) {
+            Unit target = (ua.type==UnitAction.TYPE_ATTACK_LOCATION ? pgs.getUnitAt(ua.x, ua.y):null);
+            stepDelta.issued(u, ua, target);
+        }
+        // check for conflicts (only actions that use resources, or cells reserved by
+        // other actions, can have them):
+        ResourceUsage ru = ua.resourceUsage(u, pgs);
+        if (mayConflict(ru)) {
+            for(UnitActionAssignment uaa:unitActions.values()) {
+                if (!uaa.action.resourceUsage(uaa.unit, pgs).consistentWith(ru, this)) {
+                    // conflicting actions:
+                    if (uaa.time==time) {
+                        // The actions were issued in the same game cycle, so it's normal
+                        boolean cancel_old = false;
+                        boolean cancel_new = false;
+                        switch(utt.getMoveConflictResolutionStrategy()) {
+                            default:
+                                System.err.println("Unknown move conflict resolution strategy in the UnitTypeTable!: " + utt.getMoveConflictResolutionStrategy());
+                                System.err.println("Defaulting to MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH");
+                            //$FALL-THROUGH$
+                            case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH:
+                                cancel_old = cancel_new = true;
+                                break;
+                            case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM:
+                                if (SimulationContext.random(r).nextInt(2)==0) cancel_new = true;
+                                                else cancel_old = true;
+                                break;
+                            case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING:
+                                if ((unitCancelationCounter%2)==0) cancel_new = true;
+                                                              else cancel_old = true;
+                                if (undoLog!=null) undoLog.add(UndoLog.CANCELATION_COUNTER, null, null, unitCancelationCounter, 0);
+                                unitCancelationCounter++;
+                                break;
+                        }
+                        int duration1 = uaa.action.ETA(uaa.unit);
+                        int duration2 = ua.ETA(u);
+                        if (cancel_old) {
 //                                System.out.println("Old action canceled: " + uaa.unit.getID() + ", " + uaa.action);
-                                uaa.action = new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2));
-                            }
-                            if (cancel_new) {
-//                                System.out.println("New action canceled: " + p.m_a.getID() + ", " + p.m_b);
-                                p = new Pair<>(p.m_a, new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2)));
-                            }
-                        } else {
-                            // This is more a problem, since it means there is a bug somewhere...
-                            // (probably in one of the AIs)
-                            System.err.println("Inconsistent actions were executed!");
-                            System.err.println(uaa);
-                            System.err.println("  Resources: " + uaa.action.resourceUsage(uaa.unit, pgs));
-                            System.err.println(p.m_a + " assigned action " + p.m_b + " at time " + time);
-                            System.err.println("  Resources: " + ru);
-                            System.err.println("Player resources: " + pgs.getPlayer(0).getResources() + ", " + pgs.getPlayer(1).getResources());
-                            System.err.println("Resource Consistency: " + uaa.action.resourceUsage(uaa.unit, pgs).consistentWith(ru, this));
-                            
-                            try {
-                                throw new Exception("dummy");   // just to be able to print the stack trace
-                            }catch(Exception e) {
-                                e.printStackTrace();
+                            if (reservedCells!=null) {
+                                int pos = reservedPosition(uaa);
+                                if (pos>=0) reservedCells[pos >> 6] &= ~(1L << (pos & 63));
                             }
-                            
-                            // only the newly issued action is cancelled, since it's the problematic one...
-                            p.m_b = new UnitAction(UnitAction.TYPE_NONE);
+                            if (undoLog!=null) undoLog.add(UndoLog.ASSIGNMENT_ACTION, uaa, uaa.action, 0, 0);
+                            boolean queued = actionQueueSynchronized();
+                            boolean hashed = maintainZobristHash();
+                            if (hashed) toggleZobristKey(ZobristHash.assignment(uaa));
+                            uaa.action = new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2));
+                            if (hashed) toggleZobristKey(ZobristHash.assignment(uaa));
+                            updateActionQueue(uaa, queued);
                         }
+                        if (cancel_new) {
+//                                System.out.println("New action canceled: " + u.getID() + ", " + ua);
+                            ua = new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2));
+                        }
+                    } else {
+                        // This is more a problem, since it means there is a bug somewhere...
+                        // (probably in one of the AIs)
+                        System.err.println("Inconsistent actions were executed!");
+                        System.err.println(uaa);
+                        System.err.println("  Resources: " + uaa.action.resourceUsage(uaa.unit, pgs));
+                        System.err.println(u + " assigned action " + ua + " at time " + time);
+                        System.err.println("  Resources: " + ru);
+                        System.err.println("Player resources: " + pgs.getPlayer(0).getResources() + ", " + pgs.getPlayer(1).getResources());
+                        System.err.println("Resource Consistency: " + uaa.action.resourceUsage(uaa.unit, pgs).consistentWith(ru, this));
+                    
+                        try {
+                            throw new Exception("dummy");   // just to be able to print the stack trace
+                        }catch(Exception e) {
+                            e.printStackTrace();
+                        }
+                    
+                        // only the newly issued action is cancelled, since it's the problematic one...
+                        ua = new UnitAction(UnitAction.TYPE_NONE);
                     }
                 }
-                
-                UnitActionAssignment uaa = new UnitActionAssignment(p.m_a, p.m_b, time);
-                unitActions.put(p.m_a,uaa);
-                if (p.m_b.type!=UnitAction.TYPE_NONE) returnValue = true;
-//                System.out.println("Issuing action " + p.m_b + " to " + p.m_a);                
-//            }
+            }
         }
-        return returnValue;
+        
+        UnitActionAssignment uaa = new UnitActionAssignment(u, ua, time);
+        boolean synced = reservationsSynchronized();
+        boolean queued = actionQueueSynchronized();
+        boolean hashed = maintainZobristHash();
+        UnitActionAssignment old = unitActions.put(u,uaa);
+        // a unit that already had an assignment keeps its position in unitActions:
+        uaa.sequence = (old!=null ? old.sequence : assignmentSequence++);
+        updateActionQueue(uaa, queued);
+        if (hashed) {
+            if (old!=null) toggleZobristKey(ZobristHash.assignment(old));
+            toggleZobristKey(ZobristHash.assignment(uaa));
+        }
+        if (undoLog!=null) undoLog.add(UndoLog.ASSIGNMENT_PUT, u, old, 0, 0);
+        if (old!=null && synced) {
+            int pos = reservedPosition(old);
+            if (pos>=0) reservedCells[pos >> 6] &= ~(1L << (pos & 63));
+        }
+        updateReservations(uaa, true, synced);
+        return ua.type!=UnitAction.TYPE_NONE;
     }
     
     
@@ -530,18 +775,12 @@ public class GameState {
      * @return
      */
     public int getNextChangeTime() {
-        int nextChangeTime = -1;
-        
         for(Player player:pgs.players) {
             if (canExecuteAnyAction(player.ID)) return time;
         }
         
-        for(UnitActionAssignment uaa:unitActions.values()) {
-            int t = uaa.time + uaa.action.ETA(uaa.unit);
-            if (nextChangeTime == -1 || t < nextChangeTime) nextChangeTime = t;
-        }
-        
-        if (nextChangeTime == -1) return time;
+        int nextChangeTime = nextCompletionTime();
+        if (nextChangeTime == Integer.MAX_VALUE) return time;
         return nextChangeTime;
     }
         
@@ -551,26 +790,84 @@ public class GameState {
      * @return whether the game was over
      */
     public boolean cycle() {
+        if (undoLog!=null) undoLog.add(UndoLog.TIME, null, null, time, 0);
+        if (maintainZobristHash()) toggleZobristKey(ZobristHash.time(time) ^ ZobristHash.time(time+1));
         time++;
         
-        List<UnitActionAssignment> readyToExecute = new LinkedList<>();
-        for(UnitActionAssignment uaa:unitActions.values()) {
-            if (uaa.action.ETA(uaa.unit)+uaa.time<=time) readyToExecute.add(uaa);
+        int next = nextCompletionTime();
+        if (next>time) return gameover();   // no action completes in this cycle
+        
+        List<UnitActionAssignment> readyToExecute = new ArrayList<>();
+        while(actionQueue.size>0 && actionQueue.peekTime()<=time) {
+            UnitActionAssignment uaa = actionQueue.peek();
+            actionQueue.pop();
+            // skip the entries of assignments that were retired or replaced after being queued:
+            if (unitActions.get(uaa.unit)!=uaa) continue;
+            if (ActionQueue.completionTime(uaa)<=time) {
+                readyToExecute.add(uaa);
+            } else {
+                actionQueue.push(uaa);
+            }
+        }
+        if (readyToExecute.size()>1) {
+            // actions completing in the same cycle are executed in the order they were assigned in
+            // (the order of unitActions), skipping the assignments that were queued more than once
+            // (e.g. when their action was canceled):
+            readyToExecute.sort(ASSIGNMENT_ORDER);
+            int n = 1;
+            for(int i = 1;i<readyToExecute.size();i++) {
+                UnitActionAssignment uaa = readyToExecute.get(i);
+                if (uaa!=readyToExecute.get(n-1)) readyToExecute.set(n++, uaa);
+            }
+            readyToExecute.subList(n, readyToExecute.size()).clear();
         }
                 
         // execute the actions:
         for(UnitActionAssignment uaa:readyToExecute) {
-            unitActions.remove(uaa.unit);
+            // the unit might have been replaced by a private copy earlier in this cycle (see cloneSharingUnits):
+            Unit u = pgs.getCurrentUnit(uaa.unit);
+            removeAssignment(u);
             
 //            System.out.println("Executing action for " + u + " issued at time " + uaa.time + " with duration " + uaa.action.ETA(uaa.unit));
             
-            uaa.action.execute(uaa.unit,this);
+            uaa.action.execute(u,this);
         }
         
         return gameover();
     }
     
     
+    /**
+     * Runs cycles until one in which some action completes (or until timeLimit is reached), 
+     * which is equivalent to calling {@link #cycle()} repeatedly, except that the cycles in which
+     * nothing happens are skipped in constant time. At least one cycle is always run.
+     * Intended for playouts, when no player can issue actions until the next action completes
+     * (see {@link #isComplete()}).
+     * @param timeLimit
+     * @return whether the game is over
+     */
+    public boolean fastForwardToNextChange(int timeLimit) {
+        int next = nextCompletionTime();
+        int target = (next==Integer.MAX_VALUE ? time+1 : Math.min(next, timeLimit));
+        if (target-1>time) {
+            if (undoLog!=null) undoLog.add(UndoLog.TIME, null, null, time, 0);
+            if (maintainZobristHash()) toggleZobristKey(ZobristHash.time(time) ^ ZobristHash.time(target-1));
+            time = target-1;
+        }
+        return cycle();
+    }
+    
+    
+    /**
+     * Like {@link #fastForwardToNextChange(int)}, without a time limit. If there are no pending
+     * actions, a single cycle is run.
+     * @return whether the game is over
+     */
+    public boolean fastForwardToNextChange() {
+        return fastForwardToNextChange(Integer.MAX_VALUE);
+    }
+    
+    
     /**
      * Forces the execution of all assigned actions
      */
@@ -579,8 +876,9 @@ public class GameState {
                 
         // execute all the actions:
         for(UnitActionAssignment uaa:readyToExecute) {
-            unitActions.remove(uaa.unit);
-            uaa.action.execute(uaa.unit,this);
+            Unit u = pgs.getCurrentUnit(uaa.unit);
+            removeAssignment(u);
+            uaa.action.execute(u,this);
         }
     }
     
@@ -592,24 +890,343 @@ public class GameState {
         GameState gs = new GameState(pgs.clone(), utt);
         gs.time = time;
         gs.unitCancelationCounter = unitCancelationCounter;
+        gs.assignmentSequence = assignmentSequence;
+        if (!unitActions.isEmpty()) {
+            // map each unit to its clone by index, and then copy the assignments in their original order:
+            IdentityHashMap<Unit,Unit> clones = new IdentityHashMap<>(pgs.units.size());
+            for(int i = 0;i<pgs.units.size();i++) {
+                clones.put(pgs.units.get(i), gs.pgs.units.get(i));
+            }
+            for(UnitActionAssignment uaa:unitActions.values()) {
+                Unit u2 = clones.get(uaa.unit);
+                if (u2==null) {
+                    System.out.println("Problematic game state:");
+                    System.out.println(this);
+                    System.out.println("Problematic action:");
+                    System.out.println(uaa);
+                    throw new Error("Inconsistent game state during cloning...");
+                }
+                gs.unitActions.put(u2,new UnitActionAssignment(u2, uaa));
+            }
+        }
+        if (reservationsSynchronized()) {
+            gs.reservedCells = reservedCells.clone();
+            gs.reservedCellsActionCount = gs.unitActions.size();
+        }
+        copyZobristHash(gs);
+        return gs;
+    }
+    
+    
+    /**
+     * Builds the indexes of the state that are otherwise built by the first query that
+     * needs them (see {@link PhysicalGameState#buildIndexes()}, and the cells reserved by
+     * pending actions), so that several threads can then read the state, or clone it, 
+     * at the same time, as long as none of them modifies it (e.g. the states in the nodes
+     * of a search tree shared by several threads).
+     */
+    public void buildIndexes() {
+        pgs.buildIndexes();
+        if (!reservationsSynchronized()) rebuildReservations();
+    }
+    
+    
+    /**
+     * Structure-sharing clone (see {@link PhysicalGameState#cloneSharingUnits()}): 
+     * the terrain and the units are shared with this state, and a unit is only copied
+     * the first time the clone modifies it, so a clone that only changes a few units
+     * costs proportionally little. Intended for search algorithms that keep the state 
+     * they clone from unchanged while the clone is in use (e.g. the states stored in 
+     * the nodes of a search tree).
+     * Notice that the {@link Unit} objects of the clone can be replaced by copies when 
+     * the clone is cycled, so references to them should not be kept across cycles.
+     * @return
+     */
+    public GameState cloneSharingUnits() {
+        GameState gs = new GameState(pgs.cloneSharingUnits(), utt);
+        gs.time = time;
+        gs.unitCancelationCounter = unitCancelationCounter;
+        gs.assignmentSequence = assignmentSequence;
         for(UnitActionAssignment uaa:unitActions.values()) {
-            Unit u = uaa.unit;
-            int idx = pgs.getUnits().indexOf(u);
-            if (idx==-1) {
-                System.out.println("Problematic game state:");
-                System.out.println(this);
-                System.out.println("Problematic action:");
-                System.out.println(uaa);
-                throw new Error("Inconsistent game state during cloning...");
-            } else {
-                Unit u2 = gs.pgs.getUnits().get(idx);
-                gs.unitActions.put(u2,new UnitActionAssignment(u2, uaa.action, uaa.time));
-            }                
+            gs.unitActions.put(uaa.unit,new UnitActionAssignment(uaa.unit, uaa));
         }
+        if (reservationsSynchronized()) {
+            gs.reservedCells = reservedCells.clone();
+            gs.reservedCellsActionCount = gs.unitActions.size();
+        }
+        copyZobristHash(gs);
         return gs;
     }
     
     
+    /**
+     * Returns a version of the unit that can be modified in this state. This is the 
+     * unit itself, unless it is shared with other states (see {@link #cloneSharingUnits()}), 
+     * in which case it is replaced by a private copy in this state (including in its 
+     * action assignments), and the copy is returned.
+     * @param u
+     * @return
+     */
+    public Unit getWritableUnit(Unit u) {
+        Unit u2 = pgs.copyOnWrite(u);
+        if (u2!=u) {
+            if (undoLog!=null) undoLog.add(UndoLog.UNIT_COPIED, u, u2, 0, 0);
+            replaceAssignmentKey(u, u2);
+        }
+        return u2;
+    }
+    
+    
+    /**
+     * Moves the action assignment of unit u (if any) to unit u2, keeping the order 
+     * in which the actions were assigned
+     * @param u
+     * @param u2
+     */
+    void replaceAssignmentKey(Unit u, Unit u2) {
+        if (!unitActions.containsKey(u)) return;
+        boolean queued = actionQueueSynchronized();
+        List<UnitActionAssignment> l = new ArrayList<>(unitActions.values());
+        unitActions.clear();
+        for(UnitActionAssignment uaa:l) {
+            if (uaa.unit==u) {
+                uaa = new UnitActionAssignment(u2, uaa);
+                unitActions.put(uaa.unit, uaa);
+                updateActionQueue(uaa, queued);
+            } else {
+                unitActions.put(uaa.unit, uaa);
+            }
+        }
+    }
+    
+    
+    /**
+     * Removes the action assignment of a unit (if any), keeping the reserved cells 
+     * up to date and recording the change in the undo log
+     * @param u
+     * @return the removed assignment, or null if the unit had none
+     */
+    UnitActionAssignment removeAssignment(Unit u) {
+        boolean hashed = maintainZobristHash();
+        if (undoLog!=null && unitActions.containsKey(u)) {
+            int rank = 0;
+            for(Unit u2:unitActions.keySet()) {
+                if (u2==u) break;
+                rank++;
+            }
+            undoLog.add(UndoLog.ASSIGNMENT_REMOVED, unitActions.get(u), null, rank, 0);
+        }
+        boolean synced = reservationsSynchronized();
+        boolean queued = actionQueueSynchronized();
+        UnitActionAssignment uaa = unitActions.remove(u);
+        if (uaa!=null) {
+            updateReservations(uaa, false, synced);
+            updateActionQueue(null, queued);
+            if (hashed) toggleZobristKey(ZobristHash.assignment(uaa));
+        }
+        return uaa;
+    }
+    
+    
+    /**
+     * Puts back an action assignment that was removed when it had the given 
+     * position in the assignment order (used to undo removeAssignment)
+     * @param rank
+     * @param uaa
+     */
+    void insertAssignment(int rank, UnitActionAssignment uaa) {
+        boolean synced = reservationsSynchronized();
+        boolean queued = actionQueueSynchronized();
+        if (rank>=unitActions.size()) {
+            unitActions.put(uaa.unit, uaa);
+        } else {
+            List<UnitActionAssignment> l = new ArrayList<>(unitActions.values());
+            l.add(rank, uaa);
+            unitActions.clear();
+            for(UnitActionAssignment uaa2:l) unitActions.put(uaa2.unit, uaa2);
+        }
+        updateReservations(uaa, true, synced);
+        updateActionQueue(uaa, queued);
+    }
+    
+    
+    /**
+     * Undoes "unitActions.put(u, ...)": restores the previous assignment of the unit
+     * (which keeps its position in the assignment order), or removes the assignment
+     * if there was none
+     * @param u
+     * @param previous
+     */
+    void undoAssignmentPut(Unit u, UnitActionAssignment previous) {
+        boolean synced = reservationsSynchronized();
+        boolean queued = actionQueueSynchronized();
+        UnitActionAssignment current = (previous==null ? unitActions.remove(u):unitActions.put(u, previous));
+        updateReservations(current, false, synced);
+        if (previous!=null) updateReservations(previous, true, synced);
+        updateActionQueue(previous, queued);
+    }
+    
+    
+    /**
+     * Changes the action of an existing assignment, keeping the reserved cells up to date
+     * @param uaa
+     * @param action
+     */
+    void setAssignmentAction(UnitActionAssignment uaa, UnitAction action) {
+        boolean synced = reservationsSynchronized();
+        boolean queued = actionQueueSynchronized();
+        updateReservations(uaa, false, synced);
+        uaa.action = action;
+        updateReservations(uaa, true, synced);
+        updateActionQueue(uaa, queued);
+    }
+    
+    
+    /**
+     * Returns the Zobrist hash of the state (see {@link ZobristHash}), which only depends on
+     * its units (but not their IDs), pending actions, player resources and time, so that
+     * search algorithms can detect the same state reached by different sequences of actions
+     * (e.g. to share statistics in a transposition table). It is computed the first time,
+     * and then kept up to date by {@link #issue(PlayerAction)}, {@link #cycle()} and the actions
+     * they execute (and copied by clone), so asking for it again costs nothing. Changes made
+     * by other means (e.g. through the setters of {@link Unit}) are not tracked, unless they
+     * add or remove units or action assignments.
+     * @return
+     */
+    public long getZobristHash() {
+        if (!maintainZobristHash()) {
+            zobristHash = ZobristHash.compute(this);
+            zobristHashValid = true;
+            zobristHashUnitCount = pgs.units.size();
+            zobristHashActionCount = unitActions.size();
+        }
+        return zobristHash;
+    }
+
+
+    /**
+     * Checks whether the Zobrist hash has to be kept up to date by a change about to be
+     * made, discarding it if it is not up to date (it is then recomputed on request)
+     * @return
+     */
+    boolean maintainZobristHash() {
+        if (zobristHashValid && 
+            zobristHashUnitCount==pgs.units.size() && 
+            zobristHashActionCount==unitActions.size()) return true;
+        zobristHashValid = false;
+        return false;
+    }
+
+
+    /**
+     * Toggles (adds or removes) the key of an element in the Zobrist hash, after a change
+     * for which maintainZobristHash() returned true
+     * @param key
+     */
+    void toggleZobristKey(long key) {
+        zobristHash ^= key;
+        zobristHashUnitCount = pgs.units.size();
+        zobristHashActionCount = unitActions.size();
+    }
+
+
+    void copyZobristHash(GameState gs) {
+        if (maintainZobristHash()) {
+            gs.zobristHash = zobristHash;
+            gs.zobristHashValid = true;
+            gs.zobristHashUnitCount = gs.pgs.units.size();
+            gs.zobristHashActionCount = gs.unitActions.size();
+        }
+    }
+
+
+    /**
+     * Starts recording the changes made to this state by {@link #issue(PlayerAction)}, 
+     * {@link #cycle()} and the actions they execute, so that they can be rolled back 
+     * with {@link #undo(int)}. This lets search algorithms walk down a branch of the 
+     * game tree and back up on a single state, instead of cloning the state for each node:
+     * <pre>
+     *   int cp = gs.checkpoint();
+     *   gs.issue(pa);
+     *   gs.cycle();
+     *   ...
+     *   gs.undo(cp);
+     * </pre>
+     * Only changes made through this class and {@link UnitAction#execute(Unit, GameState)} 
+     * are recorded (e.g. calling {@link PhysicalGameState#addUnit(Unit)} directly is not).
+     * Randomness (e.g. damage ranges) is not rolled back, and units created after a 
+     * checkpoint consume new IDs even if they are undone.
+     * @return false if the changes were already being recorded
+     */
+    public boolean startUndoLog() {
+        if (undoLog!=null) return false;
+        undoLog = new UndoLog();
+        return true;
+    }
+    
+    
+    /**
+     * Stops recording changes, and discards the recorded ones (so, the state cannot be
+     * rolled back to any previous checkpoint)
+     */
+    public void stopUndoLog() {
+        undoLog = null;
+    }
+    
+    
+    /**
+     * @return whether changes are being recorded (see {@link #startUndoLog()})
+     */
+    public boolean isUndoLogActive() {
+        return undoLog!=null;
+    }
+    
+    
+    /**
+     * Starts recording into a step delta the actions issued to this state and
+     * what happens when cycle executes them (the delta is not cleared, see
+     * {@link StepDelta#clear()}). Copies of the state do not record anything.
+     * @param delta the delta, or null to stop recording
+     */
+    public void setStepDelta(StepDelta delta) {
+        stepDelta = delta;
+    }
+    
+    
+    /**
+     * @return the delta being recorded (see {@link #setStepDelta(StepDelta)}), or null
+     */
+    public StepDelta getStepDelta() {
+        return stepDelta;
+    }
+    
+    
+    /**
+     * Marks the current state as one that {@link #undo(int)} can go back to. Checkpoints 
+     * can be nested: undoing to a checkpoint invalidates the ones taken after it.
+     * @return the checkpoint
+     * @throws IllegalStateException if the changes are not being recorded (see {@link #startUndoLog()})
+     */
+    public int checkpoint() {
+        if (undoLog==null) throw new IllegalStateException("GameState.checkpoint: the undo log has not been started");
+        return undoLog.size;
+    }
+    
+    
+    /**
+     * Rolls back all the changes made since the checkpoint was taken. The state is then
+     * equal to what it was at the checkpoint, including the identity of the Unit objects
+     * and the order of the unit list and of the action assignments.
+     * @param checkpoint
+     */
+    public void undo(int checkpoint) {
+        if (undoLog==null) throw new IllegalStateException("GameState.undo: the undo log has not been started");
+        undoLog.undo(this, checkpoint);
+        // the hash is recomputed the next time it is requested:
+        zobristHashValid = false;
+    }
+    
+    
     /**
      * This method does a quick clone, that shares the same PGS, but different unit assignments
      * @param pa
@@ -619,7 +1236,13 @@ public class GameState {
         GameState gs = new GameState(pgs, utt);
         gs.time = time;
         gs.unitCancelationCounter = unitCancelationCounter;
+        gs.assignmentSequence = assignmentSequence;
         gs.unitActions.putAll(unitActions);
+        if (reservationsSynchronized()) {
+            gs.reservedCells = reservedCells.clone();
+            gs.reservedCellsActionCount = gs.unitActions.size();
+        }
+        copyZobristHash(gs);
         gs.issue(pa);
         return gs;        
     }
@@ -695,6 +1318,19 @@ public class GameState {
     }
     
     
+    /**
+     * Like {@link #equals(Object)}, but also comparing the owners of the units and the
+     * resources they carry or have left (see {@link PhysicalGameState#equivalentsIncludingResources(PhysicalGameState)}),
+     * so that the actions that are legal in one of the states are legal in the other
+     * (with the units in the same positions of their lists)
+     * @param gs
+     * @return
+     */
+    public boolean equalsIncludingResources(GameState gs) {
+        return equals(gs) && pgs.equivalentsIncludingResources(gs.pgs);
+    }
+    
+    
     /**
      * Verifies integrity: if an action was assigned to non-existing unit
      * or two actions were assigned to the same unit, integrity is violated
@@ -855,6 +1491,7 @@ public class GameState {
             int time = Integer.parseInt(action_e.getAttributeValue("time"));
             UnitAction ua = UnitAction.fromXML(action_e.getChild("UnitAction"), utt);
             UnitActionAssignment uaa = new UnitActionAssignment(u, ua, time);
+            uaa.sequence = gs.assignmentSequence++;
             gs.unitActions.put(u, uaa);
         }
         
@@ -908,6 +1545,7 @@ public class GameState {
             int time = uaa_o.getInt("time", 0);
             UnitAction ua = UnitAction.fromJSON(uaa_o.get("action").asObject(), utt);
             UnitActionAssignment uaa = new UnitActionAssignment(u, ua, time);
+            uaa.sequence = gs.assignmentSequence++;
             gs.unitActions.put(u, uaa);
         }
         
@@ -968,4 +1606,41 @@ public class GameState {
         return vectorObservation[player];
     }
 
+    /**
+     * Writes the vector observation for a player (the same feature maps as 
+     * {@link #getVectorObservation(int)}) into a buffer, as numVectorObservationFeatureMaps 
+     * consecutive planes of height x width ints (row-major) starting at the given offset.
+     * This lets the observations of several game states be gathered in a single buffer 
+     * (e.g. a direct buffer shared with native code) without intermediate arrays.
+     * @param player
+     * @param buffer
+     * @param offset index of the buffer where the first plane starts
+     */
+    public void getVectorObservation(final int player, IntBuffer buffer, int offset) {
+        final int planeSize = pgs.width * pgs.height;
+        final int wallPlane = offset + (numVectorObservationFeatureMaps - 1) * planeSize;
+        for (int i = offset; i < wallPlane; i++) {
+            buffer.put(i, 0);
+        }
+
+        for (int i = 0; i < pgs.units.size(); i++) {
+            Unit u = pgs.units.get(i);
+            UnitActionAssignment uaa = unitActions.get(u);
+            final int pos = offset + u.getX() + u.getY() * pgs.width;
+            buffer.put(pos, u.getHitPoints());
+            buffer.put(pos + planeSize, u.getResources());
+            if (u.getPlayer() >= 0)		// Owned by a player, not neutral
+                buffer.put(pos + 2 * planeSize, ((u.getPlayer() + player) % 2) + 1);
+            buffer.put(pos + 3 * planeSize, u.getType().ID + 1);
+            if (uaa != null) {
+                buffer.put(pos + 4 * planeSize, uaa.action.type);
+            }
+        }
+
+        // Encode the presence of walls
+        IntBuffer walls = buffer.duplicate();
+        walls.position(wallPlane);
+        walls.put(pgs.terrain, 0, planeSize);
+    }
+
 }
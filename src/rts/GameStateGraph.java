@@ -0,0 +1,495 @@
+package rts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import rts.units.Unit;
+
+/**
+ * The live facts of a game (the units, who owns them, their positions, hit points and
+ * resources, their pending actions and what they target, and the resources of the
+ * players) as a dynamic layer over the rules in {@link GameGraph}, kept up to date
+ * one step at a time: each call to {@link #update(GameState, StepDelta)} only looks at
+ * the units that the step touched, and appends to a log the triples the step added and
+ * removed (a {@link Delta}), so the facts never have to be rebuilt.
+ *
+ * The triples are encoded like the ones of {@link EncodedGraph}, and the dictionaries
+ * start with the ones of the encoded rules (so the IDs of the unit types, action types
+ * and relations are the same as in GameGraph.cached(utt).encode()). The entities (units
+ * and players) and literals that appear during the game are added at the end of the
+ * dictionaries, so, since they grow, an object ID that is a literal is -1 - its literal
+ * ID (instead of being offset by the number of entities). Each delta has the size of the
+ * dictionaries after it, so a consumer only needs to fetch their new entries.
+ *
+ * The graph of a game is not shared between threads.
+ */
+public class GameStateGraph {
+    public static final String UNIT_PREFIX = GameGraph.STATE_PREFIX + "unit/";
+    public static final String PLAYER_PREFIX = GameGraph.STATE_PREFIX + "player/";
+
+    /**
+     * The triples added and removed by a step
+     */
+    public static class Delta {
+        final int time;
+        final int[] added;
+        final int[] removed;
+        final int entityCount;
+        final int relationCount;
+        final int literalCount;
+
+        Delta(int a_time, int[] a_added, int[] a_removed, int a_entityCount, int a_relationCount, int a_literalCount) {
+            time = a_time;
+            added = a_added;
+            removed = a_removed;
+            entityCount = a_entityCount;
+            relationCount = a_relationCount;
+            literalCount = a_literalCount;
+        }
+
+        /**
+         * @return the time of the game after the step
+         */
+        public int getTime() {
+            return time;
+        }
+
+        /**
+         * @return the triples added, as (subject, relation, object) IDs
+         */
+        public int[] getAdded() {
+            return added;
+        }
+
+        /**
+         * @return the triples removed, as (subject, relation, object) IDs
+         */
+        public int[] getRemoved() {
+            return removed;
+        }
+
+        public int getEntityCount() {
+            return entityCount;
+        }
+
+        public int getRelationCount() {
+            return relationCount;
+        }
+
+        public int getLiteralCount() {
+            return literalCount;
+        }
+    }
+
+    // the facts of a unit, in the order of UNIT_RELATIONS:
+    static final int TYPE = 0;
+    static final int OWNER = 1;
+    static final int X = 2;
+    static final int Y = 3;
+    static final int HIT_POINTS = 4;
+    static final int RESOURCES = 5;
+    static final int ACTION = 6;
+    static final int DIRECTION = 7;
+    static final int PRODUCES = 8;
+    static final int TARGET = 9;
+    static final int TARGET_X = 10;
+    static final int TARGET_Y = 11;
+    static final String UNIT_RELATIONS[] = {TripleStore.RDF_TYPE, "ownedBy", "x", "y", "hitPoints", "resources",
+                                            "does", "direction", "produces", "targets", "targetX", "targetY"};
+    // (the facts of a player, its type and resources, use the same relations)
+
+    // after the facts of a unit, the step in which it was last updated, and when its
+    // action completes (if it has one):
+    static final int STEP = UNIT_RELATIONS.length;
+    static final int COMPLETION = UNIT_RELATIONS.length + 1;
+
+    // a fact that does not hold (e.g. the direction of an attack):
+    static final int NONE = Integer.MIN_VALUE;
+
+    final List<String> entities = new ArrayList<>();
+    final List<String> relations = new ArrayList<>();
+    final List<String> literals = new ArrayList<>();
+    final Map<String, Integer> entityIDs;
+    final Map<String, Integer> relationIDs;
+    final Map<String, Integer> literalIDs;
+    final Map<Integer, Integer> intLiterals = new HashMap<>();
+
+    final int unitRelations[] = new int[UNIT_RELATIONS.length];
+    final int unitTypes[];
+    final int actionTypes[];
+    final int playerType;
+
+    // the facts currently in the graph, by unit ID and player:
+    final Map<Long, int[]> unitFacts = new HashMap<>();
+    final Map<Long, Integer> unitEntities = new HashMap<>();
+    final Map<Integer, int[]> playerFacts = new HashMap<>();
+    final Map<Integer, Integer> playerEntities = new HashMap<>();
+    // the facts of the units that have actions (kept up to date by updateUnit and removeUnit):
+    final Map<Long, int[]> unitsWithActions = new HashMap<>();
+
+    final List<Delta> log = new ArrayList<>();
+    int[] added = new int[96];
+    int addedCount;
+    int[] removed = new int[96];
+    int removedCount;
+    long[] pending = new long[16];
+    int step = 0;
+
+    /**
+     * Creates the graph of the current facts of a game. The rules are taken from
+     * {@link GameGraph#cached(rts.units.UnitTypeTable)}.
+     * @param gs
+     */
+    public GameStateGraph(GameState gs) {
+        EncodedGraph rules = GameGraph.cached(gs.getUnitTypeTable()).encode();
+        entities.addAll(Arrays.asList(rules.getEntities()));
+        relations.addAll(Arrays.asList(rules.getRelations()));
+        literals.addAll(Arrays.asList(rules.getLiterals()));
+        entityIDs = new HashMap<>(rules.entityIDs);
+        relationIDs = new HashMap<>(rules.relationIDs);
+        literalIDs = new HashMap<>(rules.literalIDs);
+
+        for (int i = 0; i < UNIT_RELATIONS.length; i++) {
+            unitRelations[i] = relationID(i == TYPE ? UNIT_RELATIONS[i] : GameGraph.STATE_PREFIX + UNIT_RELATIONS[i]);
+        }
+        unitTypes = new int[gs.getUnitTypeTable().getUnitTypes().size()];
+        for (int i = 0; i < unitTypes.length; i++) {
+            unitTypes[i] = entityID(GameGraph.UNIT_PREFIX + gs.getUnitTypeTable().getUnitTypes().get(i).ID);
+        }
+        actionTypes = new int[UnitAction.NUMBER_OF_ACTION_TYPES];
+        for (int i = 0; i < actionTypes.length; i++) {
+            actionTypes[i] = entityID(GameGraph.ACTION_PREFIX + i);
+        }
+        playerType = entityID(GameGraph.STATE_PREFIX + "Player");
+
+        update(gs);
+        // the initial facts are not a step:
+        log.clear();
+    }
+
+    int entityID(String uri) {
+        Integer ID = entityIDs.get(uri);
+        if (ID == null) {
+            ID = entities.size();
+            entities.add(uri);
+            entityIDs.put(uri, ID);
+        }
+        return ID;
+    }
+
+    int relationID(String uri) {
+        Integer ID = relationIDs.get(uri);
+        if (ID == null) {
+            ID = relations.size();
+            relations.add(uri);
+            relationIDs.put(uri, ID);
+        }
+        return ID;
+    }
+
+    /**
+     * @return the object ID of an integer literal (written like Jena writes the ones of
+     * the rules)
+     */
+    int literal(int value) {
+        Integer ID = intLiterals.get(value);
+        if (ID == null) {
+            String literal = "\"" + value + "\"^^xsd:int";
+            ID = literalIDs.get(literal);
+            if (ID == null) {
+                ID = literals.size();
+                literals.add(literal);
+                literalIDs.put(literal, ID);
+            }
+            intLiterals.put(value, ID);
+        }
+        return -1 - ID;
+    }
+
+    int unitEntity(long unitID) {
+        Integer ID = unitEntities.get(unitID);
+        if (ID == null) {
+            ID = entityID(UNIT_PREFIX + unitID);
+            unitEntities.put(unitID, ID);
+        }
+        return ID;
+    }
+
+    int playerEntity(int player) {
+        Integer ID = playerEntities.get(player);
+        if (ID == null) {
+            ID = entityID(PLAYER_PREFIX + player);
+            playerEntities.put(player, ID);
+        }
+        return ID;
+    }
+
+    /**
+     * Applies the changes made by a step to the graph, looking only at the units that
+     * the delta recorded (see {@link GameState#setStepDelta(StepDelta)}, including the
+     * ones that were issued actions) and at the ones whose actions completed during the
+     * step (or that attack a cell whose unit may have changed), and appends the triples
+     * added and removed to the log.
+     * @param gs the state after the step
+     * @param delta what was recorded while the actions of the step were issued and
+     * executed
+     * @return the triples added and removed by the step
+     */
+    public Delta update(GameState gs, StepDelta delta) {
+        int facts[] = new int[UNIT_RELATIONS.length];
+        int time = gs.getTime();
+        boolean cellsChanged = delta.getMoveCount() > 0 || !delta.getCreatedUnits().isEmpty() || !delta.getDestroyedUnits().isEmpty();
+        int attack = actionTypes[UnitAction.TYPE_ATTACK_LOCATION];
+        // the units with actions before the step that may have changed (copied, since
+        // updating them changes the map):
+        int n = 0;
+        for (Map.Entry<Long, int[]> entry : unitsWithActions.entrySet()) {
+            int old[] = entry.getValue();
+            if (old[COMPLETION] <= time || (cellsChanged && old[ACTION] == attack)) {
+                if (n == pending.length) pending = Arrays.copyOf(pending, n * 2);
+                pending[n++] = entry.getKey();
+            }
+        }
+        for (int i = 0; i < n; i++) update(gs, pending[i], facts);
+        // (the units already updated in this step are skipped)
+        for (int i = 0; i < delta.getIssuedCount(); i++) update(gs, delta.getIssuedUnit(i).getID(), facts);
+        for (Unit u : delta.getCreatedUnits()) update(gs, u.getID(), facts);
+        for (Unit u : delta.getDestroyedUnits()) update(gs, u.getID(), facts);
+        for (int i = 0; i < delta.getMoveCount(); i++) update(gs, delta.getMovedUnit(i).getID(), facts);
+        for (int i = 0; i < delta.getDamageCount(); i++) update(gs, delta.getDamagedUnit(i).getID(), facts);
+        for (int i = 0; i < delta.getHarvestCount(); i++) {
+            update(gs, delta.getHarvester(i).getID(), facts);
+            update(gs, delta.getHarvestedResource(i).getID(), facts);
+        }
+        for (int i = 0; i < delta.getReturnCount(); i++) update(gs, delta.getReturner(i).getID(), facts);
+        return endStep(gs);
+    }
+
+    /**
+     * Like {@link #update(GameState, StepDelta)}, when the step was not recorded:
+     * looks at all the units
+     * @param gs the state after the step
+     * @return the triples added and removed by the step
+     */
+    public Delta update(GameState gs) {
+        int facts[] = new int[UNIT_RELATIONS.length];
+        for (Unit u : gs.getUnits()) {
+            updateUnit(u, gs, facts);
+        }
+        if (unitFacts.size() != gs.getUnits().size()) {
+            List<Long> gone = new ArrayList<>();
+            for (long unitID : unitFacts.keySet()) {
+                if (gs.getUnit(unitID) == null) gone.add(unitID);
+            }
+            for (long unitID : gone) removeUnit(unitID);
+        }
+        return endStep(gs);
+    }
+
+    void update(GameState gs, long unitID, int facts[]) {
+        int old[] = unitFacts.get(unitID);
+        if (old != null && old[STEP] == step) return;
+        Unit u = gs.getUnit(unitID);
+        if (u == null) {
+            removeUnit(unitID);
+        } else {
+            updateUnit(u, gs, facts);
+        }
+    }
+
+    void updateUnit(Unit u, GameState gs, int facts[]) {
+        Arrays.fill(facts, NONE);
+        facts[TYPE] = unitTypes[u.getType().ID];
+        if (u.getPlayer() >= 0) facts[OWNER] = playerEntity(u.getPlayer());
+        facts[X] = literal(u.getX());
+        facts[Y] = literal(u.getY());
+        facts[HIT_POINTS] = literal(u.getHitPoints());
+        facts[RESOURCES] = literal(u.getResources());
+        UnitActionAssignment uaa = gs.getActionAssignment(u);
+        if (uaa != null) {
+            UnitAction ua = uaa.action;
+            facts[ACTION] = actionTypes[ua.getType()];
+            switch (ua.getType()) {
+                case UnitAction.TYPE_MOVE:
+                case UnitAction.TYPE_HARVEST:
+                case UnitAction.TYPE_RETURN:
+                    facts[DIRECTION] = literal(ua.getDirection());
+                    break;
+                case UnitAction.TYPE_PRODUCE:
+                    facts[DIRECTION] = literal(ua.getDirection());
+                    facts[PRODUCES] = unitTypes[ua.getUnitType().ID];
+                    break;
+                case UnitAction.TYPE_ATTACK_LOCATION:
+                    Unit target = gs.getPhysicalGameState().getUnitAt(ua.getLocationX(), ua.getLocationY());
+                    if (target != null) facts[TARGET] = unitEntity(target.getID());
+                    facts[TARGET_X] = literal(ua.getLocationX());
+                    facts[TARGET_Y] = literal(ua.getLocationY());
+                    break;
+            }
+        }
+
+        int subject = unitEntity(u.getID());
+        int old[] = unitFacts.get(u.getID());
+        if (old == null) {
+            old = new int[UNIT_RELATIONS.length + 2];
+            Arrays.fill(old, NONE);
+            unitFacts.put(u.getID(), old);
+        }
+        if ((old[ACTION] != NONE) != (facts[ACTION] != NONE)) {
+            if (facts[ACTION] != NONE) unitsWithActions.put(u.getID(), old);
+                                  else unitsWithActions.remove(u.getID());
+        }
+        old[STEP] = step;
+        old[COMPLETION] = (uaa == null ? NONE : ActionQueue.completionTime(uaa));
+        for (int i = 0; i < facts.length; i++) {
+            if (facts[i] != old[i]) {
+                if (old[i] != NONE) removed(subject, unitRelations[i], old[i]);
+                if (facts[i] != NONE) added(subject, unitRelations[i], facts[i]);
+                old[i] = facts[i];
+            }
+        }
+    }
+
+    void removeUnit(long unitID) {
+        int old[] = unitFacts.remove(unitID);
+        if (old == null) return;
+        if (old[ACTION] != NONE) unitsWithActions.remove(unitID);
+        int subject = unitEntity(unitID);
+        for (int i = 0; i < UNIT_RELATIONS.length; i++) {
+            if (old[i] != NONE) removed(subject, unitRelations[i], old[i]);
+        }
+    }
+
+    Delta endStep(GameState gs) {
+        for (Player p : gs.getPhysicalGameState().getPlayers()) {
+            int facts[] = playerFacts.get(p.getID());
+            int subject = playerEntity(p.getID());
+            if (facts == null) {
+                facts = new int[]{playerType, NONE};
+                playerFacts.put(p.getID(), facts);
+                added(subject, unitRelations[TYPE], playerType);
+            }
+            int resources = literal(p.getResources());
+            if (facts[1] != resources) {
+                if (facts[1] != NONE) removed(subject, unitRelations[RESOURCES], facts[1]);
+                added(subject, unitRelations[RESOURCES], resources);
+                facts[1] = resources;
+            }
+        }
+
+        Delta delta = new Delta(gs.getTime(), Arrays.copyOf(added, addedCount * 3), Arrays.copyOf(removed, removedCount * 3),
+                                entities.size(), relations.size(), literals.size());
+        addedCount = 0;
+        removedCount = 0;
+        step++;
+        log.add(delta);
+        return delta;
+    }
+
+    void added(int s, int p, int o) {
+        if (addedCount * 3 == added.length) added = Arrays.copyOf(added, added.length * 2);
+        added[addedCount * 3] = s;
+        added[addedCount * 3 + 1] = p;
+        added[addedCount * 3 + 2] = o;
+        addedCount++;
+    }
+
+    void removed(int s, int p, int o) {
+        if (removedCount * 3 == removed.length) removed = Arrays.copyOf(removed, removed.length * 2);
+        removed[removedCount * 3] = s;
+        removed[removedCount * 3 + 1] = p;
+        removed[removedCount * 3 + 2] = o;
+        removedCount++;
+    }
+
+    /**
+     * @return the deltas of the steps since the graph was created (or since
+     * {@link #clearLog()}), in order
+     */
+    public List<Delta> getLog() {
+        return Collections.unmodifiableList(log);
+    }
+
+    /**
+     * Forgets the deltas logged so far (e.g. once they have been consumed)
+     */
+    public void clearLog() {
+        log.clear();
+    }
+
+    /**
+     * @return all the facts currently in the graph, as (subject, relation, object) IDs
+     * (the rules are not included, see {@link GameGraph#encode()})
+     */
+    public int[] getTriples() {
+        int triples[] = new int[(unitFacts.size() * UNIT_RELATIONS.length + playerFacts.size() * 2) * 3];
+        int n = 0;
+        for (Map.Entry<Long, int[]> entry : unitFacts.entrySet()) {
+            n = addFacts(triples, n, unitEntities.get(entry.getKey()), unitRelations, entry.getValue());
+        }
+        int playerRelations[] = {unitRelations[TYPE], unitRelations[RESOURCES]};
+        for (Map.Entry<Integer, int[]> entry : playerFacts.entrySet()) {
+            n = addFacts(triples, n, playerEntities.get(entry.getKey()), playerRelations, entry.getValue());
+        }
+        return Arrays.copyOf(triples, n);
+    }
+
+    static int addFacts(int triples[], int n, int subject, int relations[], int facts[]) {
+        for (int i = 0; i < relations.length; i++) {
+            if (facts[i] != NONE) {
+                triples[n++] = subject;
+                triples[n++] = relations[i];
+                triples[n++] = facts[i];
+            }
+        }
+        return n;
+    }
+
+    public int getEntityCount() {
+        return entities.size();
+    }
+
+    public int getRelationCount() {
+        return relations.size();
+    }
+
+    public int getLiteralCount() {
+        return literals.size();
+    }
+
+    /**
+     * @param from
+     * @return the entities with IDs from the one given on (e.g. the entity count of the
+     * last delta a consumer has seen)
+     */
+    public String[] getEntities(int from) {
+        return entities.subList(from, entities.size()).toArray(new String[0]);
+    }
+
+    public String[] getRelations(int from) {
+        return relations.subList(from, relations.size()).toArray(new String[0]);
+    }
+
+    public String[] getLiterals(int from) {
+        return literals.subList(from, literals.size()).toArray(new String[0]);
+    }
+
+    public String getEntity(int ID) {
+        return entities.get(ID);
+    }
+
+    public String getRelation(int ID) {
+        return relations.get(ID);
+    }
+
+    /**
+     * @param objectID
+     * @return the string of an object ID (an entity, or a literal if it is negative)
+     */
+    public String getObject(int objectID) {
+        return (objectID >= 0 ? entities.get(objectID) : literals.get(-1 - objectID));
+    }
+}
@@ -0,0 +1,337 @@
+package rts;
+
+import java.util.Arrays;
+
+/**
+ * Queries on the triples of a {@link TripleStore} (e.g. the rules in a {@link GameGraph},
+ * see {@link GameGraph#query()}), fast enough to be used by AIs while they choose
+ * their actions: for each relation, the objects of each subject and the subjects of
+ * each object are precomputed (in adjacency arrays indexed by term ID), so following
+ * a relation from a term takes constant time and does not allocate anything (see
+ * {@link #objectCount(int, int)} and {@link #object(int, int, int)}). On top of them,
+ * there are patterns with wildcards ({@link #match(int, int, int)}) and 2-hop joins
+ * (e.g. the weights of the preferences of an action, which are blank nodes):
+ * <pre>
+ *   GraphQuery q = GameGraph.cached(utt).query();
+ *   int attack = q.term(GameGraph.ACTION_PREFIX + UnitAction.TYPE_ATTACK_LOCATION);
+ *   int prefers = q.term(GameGraph.ACTION_PREFIX + "prefers");
+ *   int weight = q.term(GameGraph.ACTION_PREFIX + "weight");
+ *   int pairs[] = q.join(attack, prefers, weight);   // (preference, weight) pairs
+ *   double w = q.number(pairs[1]);
+ * </pre>
+ * The query is built from the triples of the store when it is created (later changes
+ * to the store are not seen), and can be used by several threads at the same time.
+ */
+public class GraphQuery {
+    public static final int ANY = TripleStore.ANY;
+
+    final TripleStore store;
+    final int termCount;
+
+    // by relation (null for the terms that are not relations), the start of the objects
+    // of each subject (indexed by term ID, plus one at the end) in the objects array,
+    // and the same for the subjects of each object:
+    final int objectStart[][];
+    final int objects[][];
+    final int subjectStart[][];
+    final int subjects[][];
+
+    // the values of the numeric literals (NaN for the rest of the terms):
+    final double numbers[];
+
+    public GraphQuery(TripleStore a_store) {
+        store = a_store;
+        termCount = store.getTermCount();
+        objectStart = new int[termCount][];
+        objects = new int[termCount][];
+        subjectStart = new int[termCount][];
+        subjects = new int[termCount][];
+
+        int counts[] = new int[termCount];
+        for (int i = 0; i < store.size(); i++) counts[store.getPredicate(i)]++;
+        for (int p = 0; p < termCount; p++) {
+            if (counts[p] == 0) continue;
+            objectStart[p] = new int[termCount + 1];
+            objects[p] = new int[counts[p]];
+            subjectStart[p] = new int[termCount + 1];
+            subjects[p] = new int[counts[p]];
+        }
+        for (int i = 0; i < store.size(); i++) {
+            int p = store.getPredicate(i);
+            objectStart[p][store.getSubject(i) + 1]++;
+            subjectStart[p][store.getObject(i) + 1]++;
+        }
+        for (int p = 0; p < termCount; p++) {
+            if (counts[p] == 0) continue;
+            for (int t = 0; t < termCount; t++) {
+                objectStart[p][t + 1] += objectStart[p][t];
+                subjectStart[p][t + 1] += subjectStart[p][t];
+            }
+        }
+        int objectEnd[][] = new int[termCount][];
+        int subjectEnd[][] = new int[termCount][];
+        for (int p = 0; p < termCount; p++) {
+            if (counts[p] == 0) continue;
+            objectEnd[p] = Arrays.copyOf(objectStart[p], termCount);
+            subjectEnd[p] = Arrays.copyOf(subjectStart[p], termCount);
+        }
+        for (int i = 0; i < store.size(); i++) {
+            int s = store.getSubject(i), p = store.getPredicate(i), o = store.getObject(i);
+            objects[p][objectEnd[p][s]++] = o;
+            subjects[p][subjectEnd[p][o]++] = s;
+        }
+        // in the order of their IDs, so that the results do not depend on the order of the triples:
+        for (int p = 0; p < termCount; p++) {
+            if (counts[p] == 0) continue;
+            for (int t = 0; t < termCount; t++) {
+                Arrays.sort(objects[p], objectStart[p][t], objectStart[p][t + 1]);
+                Arrays.sort(subjects[p], subjectStart[p][t], subjectStart[p][t + 1]);
+            }
+        }
+
+        numbers = new double[termCount];
+        for (int t = 0; t < termCount; t++) {
+            numbers[t] = Double.NaN;
+            if (store.getKind(t) == TripleStore.LITERAL) {
+                switch (store.getDatatype(t)) {
+                    case "int", "long", "float", "double" -> numbers[t] = Double.parseDouble(store.getValue(t));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param uri
+     * @return the ID of a URI (a resource or a relation), or -1 if it is not in the graph
+     */
+    public int term(String uri) {
+        int term = store.getURIID(uri);
+        return (term < termCount ? term : -1);
+    }
+
+    /**
+     * @param value a String, Integer, Long, Float, Double or Boolean (e.g. "enemy", or 5.0)
+     * @return the ID of the literal with the value (and its type), or -1 if it is not in the graph
+     */
+    public int literal(Object value) {
+        int term = store.literalIDs.getOrDefault(TripleStore.datatype(value) + " " + value, -1);
+        return (term < termCount ? term : -1);
+    }
+
+    /**
+     * @param term
+     * @return the URI of a term, or the value of a literal (null for a blank node)
+     */
+    public String value(int term) {
+        return store.getValue(term);
+    }
+
+    /**
+     * @param term
+     * @return the value of a numeric literal, or NaN if the term is not one
+     */
+    public double number(int term) {
+        return numbers[term];
+    }
+
+    public boolean isLiteral(int term) {
+        return store.getKind(term) == TripleStore.LITERAL;
+    }
+
+    public boolean isAnon(int term) {
+        return store.getKind(term) == TripleStore.BLANK;
+    }
+
+    public String toString(int term) {
+        return store.toString(term);
+    }
+
+    boolean isRelation(int p) {
+        return p >= 0 && p < termCount && objects[p] != null;
+    }
+
+    /**
+     * @param s a subject
+     * @param p a relation
+     * @return the number of objects of the subject through the relation
+     */
+    public int objectCount(int s, int p) {
+        if (!isRelation(p) || s < 0 || s >= termCount) return 0;
+        return objectStart[p][s + 1] - objectStart[p][s];
+    }
+
+    /**
+     * @param s a subject
+     * @param p a relation
+     * @param i from 0 to objectCount(s, p) - 1
+     * @return the i-th object of the subject through the relation (in the order of their IDs)
+     */
+    public int object(int s, int p, int i) {
+        return objects[p][objectStart[p][s] + i];
+    }
+
+    /**
+     * @param s a subject
+     * @param p a relation
+     * @return the first object of the subject through the relation, or -1 if it has none
+     * (for the relations with one object, like "weight")
+     */
+    public int firstObject(int s, int p) {
+        return (objectCount(s, p) > 0 ? object(s, p, 0) : -1);
+    }
+
+    /**
+     * @param s a subject
+     * @param p a relation
+     * @return the objects of the subject through the relation
+     */
+    public int[] objects(int s, int p) {
+        int n = objectCount(s, p);
+        return (n == 0 ? new int[0] : Arrays.copyOfRange(objects[p], objectStart[p][s], objectStart[p][s] + n));
+    }
+
+    /**
+     * @param p a relation
+     * @param o an object
+     * @return the number of subjects related to the object through the relation
+     */
+    public int subjectCount(int p, int o) {
+        if (!isRelation(p) || o < 0 || o >= termCount) return 0;
+        return subjectStart[p][o + 1] - subjectStart[p][o];
+    }
+
+    /**
+     * @param p a relation
+     * @param o an object
+     * @param i from 0 to subjectCount(p, o) - 1
+     * @return the i-th subject related to the object through the relation
+     */
+    public int subject(int p, int o, int i) {
+        return subjects[p][subjectStart[p][o] + i];
+    }
+
+    /**
+     * @param p a relation
+     * @param o an object
+     * @return the subjects related to the object through the relation
+     */
+    public int[] subjects(int p, int o) {
+        int n = subjectCount(p, o);
+        return (n == 0 ? new int[0] : Arrays.copyOfRange(subjects[p], subjectStart[p][o], subjectStart[p][o] + n));
+    }
+
+    /**
+     * @return whether the graph has the triple
+     */
+    public boolean contains(int s, int p, int o) {
+        int n = objectCount(s, p);
+        if (n == 0) return false;
+        int start = objectStart[p][s];
+        return Arrays.binarySearch(objects[p], start, start + n, o) >= 0;
+    }
+
+    /**
+     * Finds the triples that match a pattern
+     * @param s a subject, or ANY
+     * @param p a relation, or ANY
+     * @param o an object, or ANY
+     * @return the triples that match, as (subject, relation, object) IDs
+     */
+    public int[] match(int s, int p, int o) {
+        if (p == ANY) {
+            int found[] = new int[16];
+            int n = 0;
+            for (int p2 = 0; p2 < termCount; p2++) {
+                if (objects[p2] == null) continue;
+                int matches[] = match(s, p2, o);
+                if (n + matches.length > found.length) found = Arrays.copyOf(found, Math.max(found.length * 2, n + matches.length));
+                System.arraycopy(matches, 0, found, n, matches.length);
+                n += matches.length;
+            }
+            return Arrays.copyOf(found, n);
+        }
+        if (!isRelation(p)) return new int[0];
+        if (s != ANY) {
+            if (o != ANY) return (contains(s, p, o) ? new int[]{s, p, o} : new int[0]);
+            int n = objectCount(s, p);
+            int found[] = new int[n * 3];
+            for (int i = 0; i < n; i++) {
+                found[i * 3] = s;
+                found[i * 3 + 1] = p;
+                found[i * 3 + 2] = object(s, p, i);
+            }
+            return found;
+        }
+        if (o != ANY) {
+            int n = subjectCount(p, o);
+            int found[] = new int[n * 3];
+            for (int i = 0; i < n; i++) {
+                found[i * 3] = subject(p, o, i);
+                found[i * 3 + 1] = p;
+                found[i * 3 + 2] = o;
+            }
+            return found;
+        }
+        int found[] = new int[objects[p].length * 3];
+        int n = 0;
+        for (int s2 = 0; s2 < termCount; s2++) {
+            for (int i = objectStart[p][s2]; i < objectStart[p][s2 + 1]; i++) {
+                found[n++] = s2;
+                found[n++] = p;
+                found[n++] = objects[p][i];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 2-hop join from a subject: the (middle, object) pairs such that (s, p1, middle)
+     * and (middle, p2, object) are in the graph
+     * @param s a subject
+     * @param p1 the relation from the subject
+     * @param p2 the relation from the middle terms
+     * @return the pairs, one after the other
+     */
+    public int[] join(int s, int p1, int p2) {
+        int n1 = objectCount(s, p1);
+        int n = 0;
+        for (int i = 0; i < n1; i++) n += objectCount(object(s, p1, i), p2);
+        int pairs[] = new int[n * 2];
+        n = 0;
+        for (int i = 0; i < n1; i++) {
+            int middle = object(s, p1, i);
+            int n2 = objectCount(middle, p2);
+            for (int j = 0; j < n2; j++) {
+                pairs[n++] = middle;
+                pairs[n++] = object(middle, p2, j);
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * 2-hop join to an object: the (subject, middle) pairs such that (subject, p1, middle)
+     * and (middle, p2, o) are in the graph (e.g. the units that prefer something whose
+     * "how" is "below")
+     * @param p1 the relation to the middle terms
+     * @param p2 the relation from the middle terms
+     * @param o an object
+     * @return the pairs, one after the other
+     */
+    public int[] joinTo(int p1, int p2, int o) {
+        int n2 = subjectCount(p2, o);
+        int n = 0;
+        for (int i = 0; i < n2; i++) n += subjectCount(p1, subject(p2, o, i));
+        int pairs[] = new int[n * 2];
+        n = 0;
+        for (int i = 0; i < n2; i++) {
+            int middle = subject(p2, o, i);
+            int n1 = subjectCount(p1, middle);
+            for (int j = 0; j < n1; j++) {
+                pairs[n++] = subject(p1, middle, j);
+                pairs[n++] = middle;
+            }
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,58 @@
+package rts;
+
+import java.io.StringWriter;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+
+/**
+ * Copies a {@link TripleStore} into a Jena Model, e.g. to write it as Turtle. This is
+ * the only class that needs Jena to build and export the game graphs, so Jena is only
+ * loaded by the programs that use it.
+ */
+public class JenaExport {
+
+    /**
+     * @param store
+     * @return a Jena Model with the triples of the store
+     */
+    public static Model toModel(TripleStore store) {
+        Model model = ModelFactory.createDefaultModel();
+        RDFNode nodes[] = new RDFNode[store.getTermCount()];
+        for (int i = 0; i < store.size(); i++) {
+            Resource subject = node(model, store, store.getSubject(i), nodes).asResource();
+            String predicate = store.getValue(store.getPredicate(i));
+            model.add(subject, model.createProperty(predicate), node(model, store, store.getObject(i), nodes));
+        }
+        return model;
+    }
+
+    static RDFNode node(Model model, TripleStore store, int term, RDFNode nodes[]) {
+        if (nodes[term] == null) {
+            switch (store.getKind(term)) {
+                case TripleStore.URI:
+                    nodes[term] = model.createResource(store.getValue(term));
+                    break;
+                case TripleStore.BLANK:
+                    nodes[term] = model.createResource();
+                    break;
+                default:
+                    nodes[term] = model.createTypedLiteral(store.getValue(term),
+                            TypeMapper.getInstance().getSafeTypeByName(TripleStore.XSD + store.getDatatype(term)));
+            }
+        }
+        return nodes[term];
+    }
+
+    /**
+     * @param store
+     * @return the triples of the store, in Turtle
+     */
+    public static String toTurtle(TripleStore store) {
+        StringWriter writer = new StringWriter();
+        toModel(store).write(writer, "TURTLE");
+        return writer.toString();
+    }
+}
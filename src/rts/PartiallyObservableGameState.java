@@ -23,6 +23,7 @@ public class PartiallyObservableGameState extends GameState {
     public PartiallyObservableGameState(GameState gs, int a_player) {
 		super(gs.getPhysicalGameState().cloneKeepingUnits(), gs.getUnitTypeTable());
 		unitCancelationCounter = gs.unitCancelationCounter;
+		assignmentSequence = gs.assignmentSequence;
 		time = gs.time;
 
 		player = a_player;
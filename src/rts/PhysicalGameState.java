@@ -10,8 +10,11 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import util.XMLWriter;
 import org.jdom.Element;
 import org.jdom.JDOMException;
@@ -40,7 +43,61 @@ public class PhysicalGameState {
     int height = 8;
     int terrain[];
     List<Player> players = new ArrayList<>();
-    List<Unit> units = new LinkedList<>();
+    List<Unit> units = new ArrayList<>();
+
+    /**
+     * When this map shares its units with other maps (see
+     * {@link #cloneSharingUnits()}), the set of units that this map is allowed
+     * to modify in place: the private copies it made, and the units it created.
+     * null means that all the units belong to this map.
+     */
+    Set<Unit> ownedUnits;
+
+    /**
+     * Shared units that were replaced by private copies in this map (shared unit
+     * -> copy), only used when ownedUnits is not null
+     */
+    IdentityHashMap<Unit, Unit> unitCopies;
+
+    /**
+     * Spatial index: the unit standing on each cell (x + y * width), or null.
+     * It is built lazily on the first positional query and then kept up to date
+     * by {@link #addUnit(Unit)}, {@link #removeUnit(Unit)} and
+     * {@link #moveUnit(Unit, int, int)}. A null value means "not built yet".
+     */
+    Unit unitGrid[];
+
+    /**
+     * Number of units in the list when the spatial index was last synchronized,
+     * used to detect direct modifications of the list returned by {@link #getUnits()}
+     */
+    int unitGridSize = 0;
+
+    /**
+     * Number of times a unit of this map was moved without
+     * {@link #moveUnit(Unit, int, int)} (see {@link #unitMoved()}), and its
+     * value when the spatial index was last synchronized
+     */
+    int positionChangeCount = 0;
+    int unitGridPositionChangeCount = 0;
+
+    /**
+     * ID index: unit ID -> unit. Built lazily on the first ID query, null when
+     * not built yet
+     */
+    HashMap<Long, Unit> unitIDIndex;
+
+    /**
+     * Number of units in the list when the ID index was last synchronized
+     */
+    int unitIDIndexSize = 0;
+
+    /**
+     * Number of times the ID of a unit of this map was changed (see
+     * {@link #unitIDChanged()}), and its value when the ID index was built
+     */
+    int IDChangeCount = 0;
+    int unitIDIndexChangeCount = 0;
 
     /**
      * Constructs the game state map from a XML
@@ -113,6 +170,7 @@ public class PhysicalGameState {
      */
     public void setWidth(int w) {
         width = w;
+        unitGrid = null;
     }
 
     /**
@@ -123,6 +181,7 @@ public class PhysicalGameState {
      */
     public void setHeight(int h) {
         height = h;
+        unitGrid = null;
     }
 
     /**
@@ -154,6 +213,7 @@ public class PhysicalGameState {
      */
     public void setTerrain(int t[]) {
         terrain = t;
+        unitGrid = null;
     }
 
     /**
@@ -176,13 +236,25 @@ public class PhysicalGameState {
      * occupied
      */
     public void addUnit(Unit newUnit) throws IllegalArgumentException {
-        for (Unit existingUnit : units) {
-            if (newUnit.getX() == existingUnit.getX() && newUnit.getY() == existingUnit.getY()) {
-                throw new IllegalArgumentException(
-                        "PhysicalGameState.addUnit: added two units in position: (" + newUnit.getX() + ", " + newUnit.getY() + ")");
-            }
+        if (getUnitAt(newUnit.getX(), newUnit.getY()) != null) {
+            throw new IllegalArgumentException(
+                    "PhysicalGameState.addUnit: added two units in position: (" + newUnit.getX() + ", " + newUnit.getY() + ")");
         }
         units.add(newUnit);
+        newUnit.setMap(this);
+        if (ownedUnits != null) {
+            ownedUnits.add(newUnit);
+        }
+        if (unitGrid != null) {
+            if (insideMap(newUnit.getX(), newUnit.getY())) {
+                unitGrid[newUnit.getX() + newUnit.getY() * width] = newUnit;
+            }
+            unitGridSize++;
+        }
+        if (unitIDIndex != null) {
+            unitIDIndex.putIfAbsent(newUnit.getID(), newUnit);
+            unitIDIndexSize++;
+        }
     }
 
     /**
@@ -191,7 +263,150 @@ public class PhysicalGameState {
      * @param u
      */
     public void removeUnit(Unit u) {
-        units.remove(u);
+        if (!units.remove(u)) {
+            return;
+        }
+        if (ownedUnits != null) {
+            ownedUnits.remove(u);
+        }
+        if (unitGrid != null) {
+            if (insideMap(u.getX(), u.getY()) && unitGrid[u.getX() + u.getY() * width] == u) {
+                unitGrid[u.getX() + u.getY() * width] = null;
+            }
+            unitGridSize--;
+        }
+        if (unitIDIndex != null) {
+            if (unitIDIndex.get(u.getID()) == u) {
+                unitIDIndex.remove(u.getID());
+            }
+            unitIDIndexSize--;
+        }
+    }
+
+    /**
+     * Moves a unit that belongs to this map to a new position, keeping the spatial index up
+     * to date. Moving them with {@link Unit#setX(int)} / {@link Unit#setY(int)}
+     * instead also works, but makes the map rebuild its spatial index.
+     *
+     * @param u
+     * @param x
+     * @param y
+     */
+    public void moveUnit(Unit u, int x, int y) {
+        // units that are not in the map (e.g. killed earlier in this cycle) are not indexed:
+        if (unitGrid != null && insideMap(u.getX(), u.getY()) && unitGrid[u.getX() + u.getY() * width] == u) {
+            unitGrid[u.getX() + u.getY() * width] = null;
+            if (insideMap(x, y)) {
+                unitGrid[x + y * width] = u;
+            }
+        }
+        u.setPositionIndexed(x, y);
+    }
+
+    /**
+     * Returns whether this map can modify a unit in place, i.e. whether the unit
+     * is not shared with other maps (see {@link #cloneSharingUnits()})
+     *
+     * @param u
+     * @return
+     */
+    public boolean ownsUnit(Unit u) {
+        return ownedUnits == null || ownedUnits.contains(u);
+    }
+
+    /**
+     * If the unit is shared with other maps, replaces it in this map by a
+     * private copy and returns the copy. Otherwise returns the unit itself.
+     * Use {@link GameState#getWritableUnit(Unit)} rather than this method when
+     * the map is part of a game state, so that the action assignments are also
+     * updated.
+     *
+     * @param u
+     * @return
+     */
+    public Unit copyOnWrite(Unit u) {
+        if (ownedUnits == null || ownedUnits.contains(u)) {
+            return u;
+        }
+        int idx = units.indexOf(u);
+        if (idx == -1) {
+            return u;
+        }
+        Unit copy = u.clone();
+        copy.setMap(this);
+        units.set(idx, copy);
+        ownedUnits.add(copy);
+        unitCopies.put(u, copy);
+        if (unitGrid != null && insideMap(u.getX(), u.getY()) && unitGrid[u.getX() + u.getY() * width] == u) {
+            unitGrid[u.getX() + u.getY() * width] = copy;
+        }
+        if (unitIDIndex != null && unitIDIndex.get(u.getID()) == u) {
+            unitIDIndex.put(u.getID(), copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the unit that stands for u in this map: the private copy that
+     * replaced it if u was shared and has been modified (see
+     * {@link #copyOnWrite(Unit)}), or u itself otherwise
+     *
+     * @param u
+     * @return
+     */
+    public Unit getCurrentUnit(Unit u) {
+        if (unitCopies == null) {
+            return u;
+        }
+        Unit copy = unitCopies.get(u);
+        return copy == null ? u : copy;
+    }
+
+    /**
+     * Puts back a unit that was removed from the map at the given position of
+     * the unit list (used to undo {@link #removeUnit(Unit)})
+     *
+     * @param idx
+     * @param u
+     * @param owned whether the unit was owned by this map when it was removed
+     */
+    void insertUnit(int idx, Unit u, boolean owned) {
+        units.add(idx, u);
+        if (ownedUnits == null || owned) {
+            u.setMap(this);
+        }
+        if (ownedUnits != null && owned) {
+            ownedUnits.add(u);
+        }
+        if (unitGrid != null) {
+            if (insideMap(u.getX(), u.getY()) && unitGrid[u.getX() + u.getY() * width] == null) {
+                unitGrid[u.getX() + u.getY() * width] = u;
+            }
+            unitGridSize++;
+        }
+        if (unitIDIndex != null) {
+            unitIDIndex.putIfAbsent(u.getID(), u);
+            unitIDIndexSize++;
+        }
+    }
+
+    /**
+     * Puts back a shared unit in the place of the private copy that
+     * {@link #copyOnWrite(Unit)} created for it
+     *
+     * @param u
+     * @param copy
+     */
+    void undoCopyOnWrite(Unit u, Unit copy) {
+        units.set(units.indexOf(copy), u);
+        ownedUnits.remove(copy);
+        unitCopies.remove(u);
+        if (unitGrid != null && insideMap(copy.getX(), copy.getY()) && unitGrid[copy.getX() + copy.getY() * width] == copy) {
+            unitGrid[copy.getX() + copy.getY() * width] = u;
+        }
+        if (unitIDIndex != null && unitIDIndex.get(copy.getID()) == copy) {
+            unitIDIndex.put(copy.getID(), u);
+        }
     }
 
     /**
@@ -222,6 +437,22 @@ public class PhysicalGameState {
         return players.get(pID);
     }
 
+    /**
+     * Tells the map that one of its units was moved with {@link Unit#setX(int)}
+     * or {@link Unit#setY(int)}, so that the spatial index is rebuilt
+     */
+    public void unitMoved() {
+        positionChangeCount++;
+    }
+
+    /**
+     * Tells the map that the ID of one of its units was changed with
+     * {@link Unit#setID(long)}, so that the ID index is rebuilt
+     */
+    public void unitIDChanged() {
+        IDChangeCount++;
+    }
+
     /**
      * Returns a {@link Unit} given its ID or null if not found
      *
@@ -229,12 +460,27 @@ public class PhysicalGameState {
      * @return
      */
     public Unit getUnit(long ID) {
-        for (Unit u : units) {
-            if (u.getID() == ID) {
-                return u;
-            }
+        if (unitIDIndex == null || unitIDIndexSize != units.size()
+                || unitIDIndexChangeCount != IDChangeCount) {
+            rebuildIDIndex();
+        }
+        return unitIDIndex.get(ID);
+    }
+
+    /**
+     * Builds the spatial and ID indexes if they are not up to date, instead of
+     * waiting for the first query that needs them. Since queries only modify the
+     * map to build them, several threads can then query the map at the same time,
+     * as long as none of them modifies it.
+     */
+    public void buildIndexes() {
+        if (unitGridOutOfDate()) {
+            rebuildUnitGrid();
+        }
+        if (unitIDIndex == null || unitIDIndexSize != units.size()
+                || unitIDIndexChangeCount != IDChangeCount) {
+            rebuildIDIndex();
         }
-        return null;
     }
 
     /**
@@ -246,12 +492,13 @@ public class PhysicalGameState {
      * @return
      */
     public Unit getUnitAt(int x, int y) {
-        for (Unit u : units) {
-            if (u.getX() == x && u.getY() == y) {
-                return u;
-            }
+        if (!insideMap(x, y)) {
+            return null;
         }
-        return null;
+        if (unitGridOutOfDate()) {
+            rebuildUnitGrid();
+        }
+        return unitGrid[x + y * width];
     }
 
     /**
@@ -276,12 +523,8 @@ public class PhysicalGameState {
      * @return
      */
     public Collection<Unit> getUnitsAround(int x, int y, int width, int height) {
-        List<Unit> closeUnits = new LinkedList<>();
-        for (Unit u : units) {
-            if ((Math.abs(u.getX() - x) <= width && Math.abs(u.getY() - y) <= height)) {
-                closeUnits.add(u);
-            }
-        }
+        List<Unit> closeUnits = new ArrayList<>();
+        collectUnitsInArea(x - width, y - height, x + width, y + height, closeUnits);
         return closeUnits;
     }
     
@@ -298,17 +541,96 @@ public class PhysicalGameState {
     public Collection<Unit> getUnitsInRectangle(int x, int y, int width, int height) {
     	if(width < 1 || height < 1) throw new IllegalArgumentException("Width and height must be >=1");
     	
-        List<Unit> unitsInside = new LinkedList<Unit>();
+        List<Unit> unitsInside = new ArrayList<>();
+        collectUnitsInArea(x, y, x + width - 1, y + height - 1, unitsInside);
+        return unitsInside;
+    }
+
+    /**
+     * Adds to "out" all the units with x0 <= unitX <= x1 and y0 <= unitY <= y1
+     * (both ends inclusive), in row-major order. The area is clipped to the map,
+     * so the cost is proportional to the area rather than to the number of units.
+     *
+     * @param x0
+     * @param y0
+     * @param x1
+     * @param y1
+     * @param out
+     */
+    public void collectUnitsInArea(int x0, int y0, int x1, int y1, Collection<Unit> out) {
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, width - 1);
+        y1 = Math.min(y1, height - 1);
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+        if (unitGridOutOfDate()) {
+            rebuildUnitGrid();
+        }
+        for (int y = y0; y <= y1; y++) {
+            int offset = y * width;
+            for (int x = x0; x <= x1; x++) {
+                Unit u = unitGrid[offset + x];
+                if (u != null) {
+                    out.add(u);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the coordinates are within the map boundaries
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    boolean insideMap(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Returns whether the spatial index has to be rebuilt: it was not built yet,
+     * the list of units was modified directly, or a unit was moved with
+     * {@link Unit#setX(int)} or {@link Unit#setY(int)}
+     *
+     * @return
+     */
+    boolean unitGridOutOfDate() {
+        return unitGrid == null || unitGridSize != units.size()
+                || unitGridPositionChangeCount != positionChangeCount;
+    }
+
+    /**
+     * Recomputes the spatial index from the list of units
+     */
+    void rebuildUnitGrid() {
+        if (unitGrid == null || unitGrid.length != width * height) {
+            unitGrid = new Unit[width * height];
+        } else {
+            Arrays.fill(unitGrid, null);
+        }
         for (Unit u : units) {
-        	//tests for x <= unitX < x+width && y <= unitY < y+height 
-        	if(x <= u.getX() && u.getX() < x + width && y <= u.getY() && u.getY() < y+height) {
-                unitsInside.add(u);
+            if (insideMap(u.getX(), u.getY()) && unitGrid[u.getX() + u.getY() * width] == null) {
+                unitGrid[u.getX() + u.getY() * width] = u;
             }
         }
-        return unitsInside;
+        unitGridSize = units.size();
+        unitGridPositionChangeCount = positionChangeCount;
+    }
+
+    /**
+     * Recomputes the ID index from the list of units
+     */
+    void rebuildIDIndex() {
+        unitIDIndex = new HashMap<>(units.size() * 2);
+        for (Unit u : units) {
+            unitIDIndex.putIfAbsent(u.getID(), u);
+        }
+        unitIDIndexSize = units.size();
+        unitIDIndexChangeCount = IDChangeCount;
     }
-    
-    
 
     /**
      * Returns the winner of the game, given the unit counts or -1 if the game
@@ -380,7 +702,9 @@ public class PhysicalGameState {
             pgs.players.add(p.clone());
         }
         for (Unit u : units) {
-            pgs.units.add(u.clone());
+            Unit u2 = u.clone();
+            u2.setMap(pgs);
+            pgs.units.add(u2);
         }
         return pgs;
     }
@@ -398,6 +722,28 @@ public class PhysicalGameState {
         return pgs;
     }
 
+    /**
+     * Structure-sharing clone: the terrain and all the units are shared with
+     * this map, and only the list of units and the players are copied. The
+     * clone makes a private copy of a unit the first time it modifies it (see
+     * {@link #copyOnWrite(Unit)}), so the cost of the clone is proportional to
+     * the number of units that actually change. This map must not be modified
+     * while the clone is in use, since their unmodified units are the same
+     * objects.
+     *
+     * @return
+     */
+    public PhysicalGameState cloneSharingUnits() {
+        PhysicalGameState pgs = new PhysicalGameState(width, height, terrain);  // The terrain is shared amongst all instances, since it never changes
+        for (Player p : players) {
+            pgs.players.add(p.clone());
+        }
+        pgs.units.addAll(units);
+        pgs.ownedUnits = Collections.newSetFromMap(new IdentityHashMap<>());
+        pgs.unitCopies = new IdentityHashMap<>();
+        return pgs;
+    }
+
     /**
      * Clones the physical game state, including its terrain
      *
@@ -411,7 +757,9 @@ public class PhysicalGameState {
             pgs.players.add(p.clone());
         }
         for (Unit u : units) {
-            pgs.units.add(u.clone());
+            Unit u2 = u.clone();
+            u2.setMap(pgs);
+            pgs.units.add(u2);
         }
         return pgs;
     }
@@ -475,6 +823,29 @@ public class PhysicalGameState {
         return true;
     }
 
+    /**
+     * Like {@link #equivalents(PhysicalGameState)}, but also compares the owners
+     * of the units and the resources they carry (or have left, if they are
+     * resources). The IDs of the units are still not compared.
+     *
+     * @param pgs
+     * @return
+     */
+    public boolean equivalentsIncludingResources(PhysicalGameState pgs) {
+        if (!equivalents(pgs)) {
+            return false;
+        }
+        for (int i = 0; i < units.size(); i++) {
+            if (units.get(i).getPlayer() != pgs.units.get(i).getPlayer()) {
+                return false;
+            }
+            if (units.get(i).getResources() != pgs.units.get(i).getResources()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * This function tests if two PhysicalGameStates are identical, including their terrain
      *      *
@@ -270,7 +270,36 @@ public class PlayerAction {
         clone.r = r.clone();
         return clone;
     }
-        
+
+
+    /**
+     * Returns a copy of this action for another state that is the same as the one it
+     * was generated for (see {@link GameState#equalsIncludingResources(GameState)}), but whose units are
+     * different objects (for example, if they were created in a simulation, with other
+     * IDs): each unit is replaced by the one in the same position of the unit list.
+     * @param from the state this action was generated for
+     * @param to the equivalent state
+     * @return the translated action
+     */
+    public PlayerAction translate(GameState from, GameState to) {
+        List<Unit> fromUnits = from.getUnits();
+        List<Unit> toUnits = to.getUnits();
+        PlayerAction translated = new PlayerAction();
+        for(Pair<Unit,UnitAction> tmp:actions) {
+            int idx = -1;
+            for(int i = 0;i<fromUnits.size();i++) {
+                if (fromUnits.get(i)==tmp.m_a) {
+                    idx = i;
+                    break;
+                }
+            }
+            if (idx==-1 || idx>=toUnits.size()) throw new IllegalArgumentException("Unit " + tmp.m_a + " does not have an equivalent in the target state");
+            translated.actions.add(new Pair<>(toUnits.get(idx), tmp.m_b));
+        }
+        translated.r = r.clone();
+        return translated;
+    }
+
     /**
      * Resets the PlayerAction
      */
@@ -1,7 +1,7 @@
 package rts;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import rts.units.Unit;
@@ -23,7 +23,23 @@ public class PlayerActionGenerator {
     long generated = 0;
     int choiceSizes[];
     int currentChoice[];
+    int acceptedChoice[];
     boolean moreActions = true;
+
+    // primitive version of the resource usage of the choices (built the first time they are
+    // enumerated, and again if they are reordered), used to check the consistency of the
+    // combinations without creating ResourceUsage objects: the position (x + y * width) used
+    // by each action (or -1) and the resources it uses (of the player of its unit),
+    int choicePositions[][];
+    int choiceCosts[][];
+    int choicePlayers[];
+    // the positions used by the assigned actions, the positions used by the combination
+    // being checked (those marked with the current stamp), and the resources used by each player:
+    boolean baseCells[];
+    int cellStamps[];
+    int stamp = 0;
+    int baseResources[];
+    int resources[];
     
     /**
      * 
@@ -44,6 +60,14 @@ public class PlayerActionGenerator {
     public List<Pair<Unit,List<UnitAction>>> getChoices() {
         return choices;
     }
+
+    /**
+     * @return the resources and positions used by the actions already assigned in the
+     * state (which all the generated actions start from). It must not be modified.
+     */
+    public ResourceUsage getBaseResourceUsage() {
+        return base_ru;
+    }
         
 
     /**
@@ -97,6 +121,7 @@ public class PlayerActionGenerator {
 
         choiceSizes = new int[choices.size()];
         currentChoice = new int[choices.size()];
+        acceptedChoice = new int[choices.size()];
         int i = 0;
         for(Pair<Unit,List<UnitAction>> choice:choices) {
             choiceSizes[i] = choice.m_b.size();
@@ -115,13 +140,106 @@ public class PlayerActionGenerator {
      * Shuffles the list of choices
      */
     public void randomizeOrder() {
+		Random r = SimulationContext.random(PlayerActionGenerator.r);
 		for (Pair<Unit, List<UnitAction>> choice : choices) {
-            List<UnitAction> tmp = new LinkedList<>(choice.m_b);
+			// drawn one at a time (rather than with Collections.shuffle), so that a given seed still
+			// gives the same order:
+			List<UnitAction> tmp = new ArrayList<>(choice.m_b);
 			choice.m_b.clear();
 			while (!tmp.isEmpty())
 				choice.m_b.add(tmp.remove(r.nextInt(tmp.size())));
 		}
+		choicePositions = null;
 	}
+
+
+    /**
+     * Builds the primitive version of the resource usage of the choices, and of the actions
+     * already assigned in the state
+     */
+    void prepareResourceChecks() {
+        int n = choices.size();
+        int cells = physicalGameState.getWidth() * physicalGameState.getHeight();
+        choicePositions = new int[n][];
+        choiceCosts = new int[n][];
+        choicePlayers = new int[n];
+        for (int i = 0; i < n; i++) {
+            Pair<Unit, List<UnitAction>> choice = choices.get(i);
+            Unit u = choice.m_a;
+            choicePlayers[i] = u.getPlayer();
+            choicePositions[i] = new int[choiceSizes[i]];
+            choiceCosts[i] = new int[choiceSizes[i]];
+            for (int j = 0; j < choiceSizes[i]; j++) {
+                UnitAction ua = choice.m_b.get(j);
+                choicePositions[i][j] = -1;
+                if (ua.type == UnitAction.TYPE_MOVE || ua.type == UnitAction.TYPE_PRODUCE) {
+                    choicePositions[i][j] = u.getX() + UnitAction.DIRECTION_OFFSET_X[ua.parameter]
+                                         + (u.getY() + UnitAction.DIRECTION_OFFSET_Y[ua.parameter]) * physicalGameState.getWidth();
+                }
+                if (ua.type == UnitAction.TYPE_PRODUCE) choiceCosts[i][j] = ua.unitType.cost;
+            }
+        }
+        if (baseCells == null) {
+            baseCells = new boolean[cells];
+            for (int pos : base_ru.getPositionsUsed()) {
+                if (pos >= 0 && pos < cells) baseCells[pos] = true;
+            }
+            cellStamps = new int[cells];
+            baseResources = base_ru.resourcesUsed.clone();
+            resources = new int[baseResources.length];
+        }
+    }
+
+
+    /**
+     * Starts checking a new combination of unit actions (with only the resources and
+     * positions used by the assigned actions)
+     */
+    void startResourceCheck() {
+        if (choicePositions == null) prepareResourceChecks();
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(cellStamps, 0);
+            stamp = 1;
+        }
+        System.arraycopy(baseResources, 0, resources, 0, resources.length);
+    }
+
+
+    /**
+     * Adds an action to the combination being checked, if it is consistent with the ones
+     * added before (same check as {@link ResourceUsage#consistentWith(ResourceUsage, GameState)})
+     * @param i the unit (index in the choices)
+     * @param j the action (index in the choices of the unit)
+     * @return whether it was consistent
+     */
+    boolean addIfConsistent(int i, int j) {
+        int pos = choicePositions[i][j];
+        if (pos >= 0 && (baseCells[pos] || cellStamps[pos] == stamp)) return false;
+        int cost = choiceCosts[i][j];
+        int player = choicePlayers[i];
+        if (cost != 0 && resources[player] + cost > 0 && resources[player] + cost > gameState.getPlayer(player).getResources()) return false;
+        if (pos >= 0) cellStamps[pos] = stamp;
+        resources[player] += cost;
+        return true;
+    }
+
+
+    /**
+     * Checks whether the unit actions of the current choice are consistent with each other
+     * (and with the assigned actions), in the same order in which {@link #getNextAction(long)}
+     * adds them to its PlayerAction (from the last unit to the first)
+     * @return the index of the first unit whose action is not consistent with the ones before
+     * it, or -1 if all of them are consistent
+     */
+    int firstInconsistentChoice() {
+        startResourceCheck();
+        for (int i = choicePositions.length - 1; i >= 0; i--) {
+            if (!addIfConsistent(i, currentChoice[i])) return i;
+        }
+        return -1;
+    }
+    
     
     /**
      * Increases the index that tracks the next action to be returned
@@ -143,55 +261,91 @@ public class PlayerActionGenerator {
     }
 
     /**
-     * Returns the next PlayerAction for the state stored in this object
-     * @param cutOffTime time to stop generationg the action
-     * @return
+     * Advances to the next combination of unit actions that are consistent with each other,
+     * without creating a PlayerAction for it (the combinations that are not are skipped
+     * checking their resource usage with primitive counters). The combination is then
+     * available in {@link #getAcceptedChoice()}.
+     * @param cutOffTime time to stop looking for the combination
+     * @return false if there are no more combinations (or the time was over)
      * @throws Exception
      */
-    public PlayerAction getNextAction(long cutOffTime) throws Exception {
+    public boolean nextConsistentChoice(long cutOffTime) throws Exception {
+        if (choices.size() == 0)
+            throw new Exception("Move generator created with no units that can execute actions!");
         int count = 0;
         while(moreActions) {
-            boolean consistent = true;
-            PlayerAction pa = new PlayerAction();
-            pa.setResourceUsage(base_ru.clone());
-            int i = choices.size();
-			if (i == 0)
-				throw new Exception("Move generator created with no units that can execute actions!");
-			
-			while (i > 0) {
-				i--;
-				Pair<Unit, List<UnitAction>> unitChoices = choices.get(i);
-				int choice = currentChoice[i];
-				Unit u = unitChoices.m_a;
-				UnitAction ua = unitChoices.m_b.get(choice);
-
-				ResourceUsage r2 = ua.resourceUsage(u, physicalGameState);
-
-				if (pa.getResourceUsage().consistentWith(r2, gameState)) {
-					pa.getResourceUsage().merge(r2);
-					pa.addUnitAction(u, ua);
-				} else {
-					consistent = false;
-					break;
-				}
-			}
-
-			incrementCurrentChoice(i);
-			if (consistent) {
-				lastAction = pa;
-				generated++;
-				return pa;
-			}
+            int i = firstInconsistentChoice();
+            if (i < 0) {
+                System.arraycopy(currentChoice, 0, acceptedChoice, 0, currentChoice.length);
+                incrementCurrentChoice(0);
+                generated++;
+                return true;
+            }
+            incrementCurrentChoice(i);
             
             // check if we are over time (only check once every 1000 actions, since currenttimeMillis is a slow call):
 			if (cutOffTime > 0 && (count % 1000 == 0) && System.currentTimeMillis() > cutOffTime) {
-				lastAction = null;
-				return null;
+				return false;
 			}
 			count++;
         }
-        lastAction = null;
-        return null;
+        return false;
+    }
+
+
+    /**
+     * @return the combination found by the last call to {@link #nextConsistentChoice(long)}:
+     * the index of the action of each unit in its list of {@link #getChoices()}. The array is
+     * reused, and must not be modified.
+     */
+    public int[] getAcceptedChoice() {
+        return acceptedChoice;
+    }
+
+
+    /**
+     * Returns the next PlayerAction for the state stored in this object
+     * @param cutOffTime time to stop generationg the action
+     * @return
+     * @throws Exception
+     */
+    public PlayerAction getNextAction(long cutOffTime) throws Exception {
+        if (!nextConsistentChoice(cutOffTime)) {
+            lastAction = null;
+            return null;
+        }
+        lastAction = createAction(acceptedChoice);
+        return lastAction;
+    }
+
+
+    /**
+     * Returns the PlayerAction of a given combination of unit actions (e.g. one found by
+     * {@link #nextConsistentChoice(long)} and kept to try it first in another search),
+     * without changing the enumeration
+     * @param choice the index of the action of each unit in its list of {@link #getChoices()}
+     * @return the action, or null if the unit actions are not consistent with each other
+     */
+    public PlayerAction getAction(int choice[]) {
+        startResourceCheck();
+        for (int i = choices.size() - 1; i >= 0; i--) {
+            if (!addIfConsistent(i, choice[i])) return null;
+        }
+        return createAction(choice);
+    }
+
+
+    PlayerAction createAction(int choice[]) {
+        PlayerAction pa = new PlayerAction();
+        pa.setResourceUsage(base_ru.clone());
+        for (int i = choices.size() - 1; i >= 0; i--) {
+            Pair<Unit, List<UnitAction>> unitChoices = choices.get(i);
+            Unit u = unitChoices.m_a;
+            UnitAction ua = unitChoices.m_b.get(choice[i]);
+            pa.getResourceUsage().merge(ua.resourceUsage(u, physicalGameState));
+            pa.addUnitAction(u, ua);
+        }
+        return pa;
     }
     
     /**
@@ -199,24 +353,29 @@ public class PlayerActionGenerator {
      * @return
      */
     public PlayerAction getRandom() {
-		Random r = new Random();
+		Random r = SimulationContext.random(PlayerActionGenerator.r);
 		PlayerAction pa = new PlayerAction();
 		pa.setResourceUsage(base_ru.clone());
-		for (Pair<Unit, List<UnitAction>> unitChoices : choices) {
-            List<UnitAction> l = new LinkedList<>(unitChoices.m_b);
+		startResourceCheck();
+		int order[] = new int[0];
+		for (int i = 0; i < choices.size(); i++) {
+			Pair<Unit, List<UnitAction>> unitChoices = choices.get(i);
 			Unit u = unitChoices.m_a;
-
-			boolean consistent = false;
-			do {
-				UnitAction ua = l.remove(r.nextInt(l.size()));
-				ResourceUsage r2 = ua.resourceUsage(u, physicalGameState);
-
-				if (pa.getResourceUsage().consistentWith(r2, gameState)) {
-					pa.getResourceUsage().merge(r2);
+			// try the actions in random order (without repetition) until one is consistent:
+			int remaining = choiceSizes[i];
+			if (order.length < remaining) order = new int[remaining];
+			for (int j = 0; j < remaining; j++) order[j] = j;
+			while (remaining > 0) {
+				int k = r.nextInt(remaining);
+				int j = order[k];
+				order[k] = order[--remaining];
+				if (addIfConsistent(i, j)) {
+					UnitAction ua = unitChoices.m_b.get(j);
+					pa.getResourceUsage().merge(ua.resourceUsage(u, physicalGameState));
 					pa.addUnitAction(u, ua);
-					consistent = true;
+					break;
 				}
-			} while (!consistent);
+			}
 		}
 		return pa;
     }
@@ -0,0 +1,93 @@
+package rts;
+
+import java.util.Random;
+
+/**
+ * The source of unit IDs and random numbers used by the game engine (new units,
+ * attack damage, random move conflict resolution) in the thread it is set for.
+ * By default the engine uses the shared static counter
+ * ({@link rts.units.Unit#next_ID}) and random generators, so games run in
+ * different threads interfere with each other. A game that is advanced in a
+ * thread with its own context only depends on the context's seed, no matter which
+ * thread runs it or what the other threads do, e.g.:
+ *
+ * <pre>
+ * SimulationContext.set(context);
+ * try {
+ *     gs.cycle();
+ * } finally {
+ *     SimulationContext.set(null);
+ * }
+ * </pre>
+ */
+public class SimulationContext {
+
+    static final ThreadLocal<SimulationContext> current = new ThreadLocal<>();
+
+    long nextID = 0;
+    Random random;
+
+    public SimulationContext(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Sets the context used by the current thread
+     *
+     * @param context the context, or null to go back to the shared counter and
+     * random generators
+     */
+    public static void set(SimulationContext context) {
+        if (context == null) {
+            current.remove();
+        } else {
+            current.set(context);
+        }
+    }
+
+    /**
+     * @return the context of the current thread, or null if it uses the shared
+     * counter and random generators
+     */
+    public static SimulationContext get() {
+        return current.get();
+    }
+
+    /**
+     * @param defaultRandom the generator to use when the current thread has no
+     * context
+     * @return the random generator to use in the current thread
+     */
+    public static Random random(Random defaultRandom) {
+        SimulationContext context = current.get();
+        return (context == null ? defaultRandom : context.random);
+    }
+
+    /**
+     * @return the ID to assign to the next unit created in this context
+     */
+    public long getNextID() {
+        return nextID;
+    }
+
+    /**
+     * Returns a new unit ID and increments the counter
+     *
+     * @return
+     */
+    public long newID() {
+        return nextID++;
+    }
+
+    /**
+     * Makes sure that IDs returned later are greater than the given one (which
+     * was assigned explicitly)
+     *
+     * @param ID
+     */
+    public void reserveID(long ID) {
+        if (ID >= nextID) {
+            nextID = ID + 1;
+        }
+    }
+}
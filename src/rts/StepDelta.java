@@ -0,0 +1,266 @@
+package rts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rts.units.Unit;
+
+/**
+ * Record of what happened to a {@link GameState} during a step: the actions
+ * issued, and the changes made when they were executed by cycle (units created,
+ * destroyed, damaged and moved, resources harvested and returned). It is filled
+ * while it is set as the state's step delta (see
+ * {@link GameState#setStepDelta(StepDelta)}), and lets the caller know how the
+ * state was before the step (e.g. to compute rewards) without keeping a copy of
+ * it. The lists are reused from one step to the next (see {@link #clear()}).
+ */
+public class StepDelta {
+
+    // actions issued, and for attacks, the unit in the target location when they were issued:
+    List<Unit> issuedUnits = new ArrayList<>();
+    List<UnitAction> issuedActions = new ArrayList<>();
+    List<Unit> issuedTargets = new ArrayList<>();
+
+    List<Unit> created = new ArrayList<>();
+
+    // destroyed units, with their index in the unit list when they were removed:
+    List<Unit> destroyed = new ArrayList<>();
+    int destroyedIndexes[] = new int[8];
+
+    // moved units, with their position before moving:
+    List<Unit> moved = new ArrayList<>();
+    int movedX[] = new int[8];
+    int movedY[] = new int[8];
+
+    List<Unit> attackers = new ArrayList<>();
+    List<Unit> damaged = new ArrayList<>();
+    int damages[] = new int[8];
+
+    // harvesters, with the resource they harvested from and the amount:
+    List<Unit> harvesters = new ArrayList<>();
+    List<Unit> harvestedResources = new ArrayList<>();
+    int harvested[] = new int[8];
+
+    List<Unit> returners = new ArrayList<>();
+    int returned[] = new int[8];
+
+    /**
+     * Forgets everything recorded so far, to start a new step
+     */
+    public void clear() {
+        issuedUnits.clear();
+        issuedActions.clear();
+        issuedTargets.clear();
+        created.clear();
+        destroyed.clear();
+        moved.clear();
+        attackers.clear();
+        damaged.clear();
+        harvesters.clear();
+        harvestedResources.clear();
+        returners.clear();
+    }
+
+    static int[] add(int a[], int n, int v) {
+        if (n == a.length) {
+            a = Arrays.copyOf(a, n * 2);
+        }
+        a[n] = v;
+        return a;
+    }
+
+    void issued(Unit u, UnitAction a, Unit target) {
+        issuedUnits.add(u);
+        issuedActions.add(a);
+        issuedTargets.add(target);
+    }
+
+    void created(Unit u) {
+        created.add(u);
+    }
+
+    void destroyed(Unit u, int index) {
+        destroyedIndexes = add(destroyedIndexes, destroyed.size(), index);
+        destroyed.add(u);
+    }
+
+    void moved(Unit u) {
+        movedX = add(movedX, moved.size(), u.getX());
+        movedY = add(movedY, moved.size(), u.getY());
+        moved.add(u);
+    }
+
+    void damaged(Unit attacker, Unit u, int damage) {
+        damages = add(damages, damaged.size(), damage);
+        attackers.add(attacker);
+        damaged.add(u);
+    }
+
+    void harvested(Unit u, Unit resource, int amount) {
+        harvested = add(harvested, harvesters.size(), amount);
+        harvesters.add(u);
+        harvestedResources.add(resource);
+    }
+
+    void returned(Unit u, int amount) {
+        returned = add(returned, returners.size(), amount);
+        returners.add(u);
+    }
+
+    /**
+     * @return the number of unit actions issued during the step (including
+     * those that were then canceled by a conflict)
+     */
+    public int getIssuedCount() {
+        return issuedUnits.size();
+    }
+
+    public Unit getIssuedUnit(int i) {
+        return issuedUnits.get(i);
+    }
+
+    public UnitAction getIssuedAction(int i) {
+        return issuedActions.get(i);
+    }
+
+    /**
+     * @param i
+     * @return for an attack action, the unit that was in the target location
+     * when it was issued (null otherwise)
+     */
+    public Unit getIssuedTarget(int i) {
+        return issuedTargets.get(i);
+    }
+
+    /**
+     * @return the units produced during the step
+     */
+    public List<Unit> getCreatedUnits() {
+        return created;
+    }
+
+    /**
+     * @return the units removed during the step (killed, or depleted resources)
+     */
+    public List<Unit> getDestroyedUnits() {
+        return destroyed;
+    }
+
+    public int getMoveCount() {
+        return moved.size();
+    }
+
+    public Unit getMovedUnit(int i) {
+        return moved.get(i);
+    }
+
+    public int getMoveOldX(int i) {
+        return movedX[i];
+    }
+
+    public int getMoveOldY(int i) {
+        return movedY[i];
+    }
+
+    public int getDamageCount() {
+        return damaged.size();
+    }
+
+    public Unit getAttacker(int i) {
+        return attackers.get(i);
+    }
+
+    public Unit getDamagedUnit(int i) {
+        return damaged.get(i);
+    }
+
+    public int getDamage(int i) {
+        return damages[i];
+    }
+
+    public int getHarvestCount() {
+        return harvesters.size();
+    }
+
+    public Unit getHarvester(int i) {
+        return harvesters.get(i);
+    }
+
+    /**
+     * @param i
+     * @return the resource unit harvested from (it might have been removed, if it
+     * was depleted)
+     */
+    public Unit getHarvestedResource(int i) {
+        return harvestedResources.get(i);
+    }
+
+    public int getHarvestedAmount(int i) {
+        return harvested[i];
+    }
+
+    public int getReturnCount() {
+        return returners.size();
+    }
+
+    public Unit getReturner(int i) {
+        return returners.get(i);
+    }
+
+    public int getReturnedAmount(int i) {
+        return returned[i];
+    }
+
+    /**
+     * @param u
+     * @return the x coordinate of the unit before the step
+     */
+    public int getXBefore(Unit u) {
+        for (int i = 0; i < moved.size(); i++) {
+            if (moved.get(i) == u) {
+                return movedX[i];
+            }
+        }
+        return u.getX();
+    }
+
+    /**
+     * @param u
+     * @return the y coordinate of the unit before the step
+     */
+    public int getYBefore(Unit u) {
+        for (int i = 0; i < moved.size(); i++) {
+            if (moved.get(i) == u) {
+                return movedY[i];
+            }
+        }
+        return u.getY();
+    }
+
+    /**
+     * Returns the units that were in the map before the step, in the order in
+     * which they were in the unit list (their positions before the step can be
+     * obtained with {@link #getXBefore(Unit)} and {@link #getYBefore(Unit)})
+     *
+     * @param pgs the map after the step
+     * @return
+     */
+    public List<Unit> getUnitsBefore(PhysicalGameState pgs) {
+        List<Unit> units = new ArrayList<>(pgs.getUnits().size() + destroyed.size());
+        for (Unit u : pgs.getUnits()) {
+            if (!created.contains(u)) {
+                units.add(u);
+            }
+        }
+        // produced units are added at the end of the list, so they did not change the
+        // index of the ones that were destroyed after them:
+        for (int i = destroyed.size() - 1; i >= 0; i--) {
+            Unit u = destroyed.get(i);
+            if (!created.contains(u)) {
+                units.add(Math.min(destroyedIndexes[i], units.size()), u);
+            }
+        }
+        return units;
+    }
+}
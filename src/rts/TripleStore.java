@@ -0,0 +1,402 @@
+package rts;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A small in-memory RDF graph, with what {@link GameGraph} needs from a Jena Model
+ * (creating resources and blank nodes, adding properties and typed literals to them,
+ * and finding the triples that match a pattern), without Jena: the terms are int IDs,
+ * and the triples are packed into longs, kept in a hash set (as in a Jena Model, adding
+ * a triple twice has no effect) and in three sorted indexes (SPO, POS and OSP), built
+ * on the first query after the graph is modified. The graph can be exported through
+ * Jena with {@link JenaExport}, e.g. to write it as Turtle.
+ *
+ * Literals are typed like the ones of Jena's Resource.addLiteral (e.g. an int is added
+ * as an xsd:long, and an Integer as an xsd:int), and written like Jena writes them
+ * (a string as its value, and the rest as "value"^^xsd:type).
+ */
+public class TripleStore {
+    public static final String RDF_TYPE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
+    public static final String RDFS_LABEL = "http://www.w3.org/2000/01/rdf-schema#label";
+    public static final String RDFS_COMMENT = "http://www.w3.org/2000/01/rdf-schema#comment";
+    public static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+    // the kinds of terms:
+    public static final byte URI = 0;
+    public static final byte BLANK = 1;
+    public static final byte LITERAL = 2;
+
+    // a wildcard in a pattern (see find()):
+    public static final int ANY = -1;
+
+    // the terms are packed into 21 bits in the triples:
+    static final int BITS = 21;
+    static final long MASK = (1L << BITS) - 1;
+
+    /**
+     * A term (a URI, a blank node or a literal) of a graph, with methods to add
+     * triples where it is the subject
+     */
+    public static class Resource {
+        final TripleStore store;
+        final int ID;
+
+        Resource(TripleStore a_store, int a_ID) {
+            store = a_store;
+            ID = a_ID;
+        }
+
+        public int getID() {
+            return ID;
+        }
+
+        public boolean isAnon() {
+            return store.kinds[ID] == BLANK;
+        }
+
+        /**
+         * @return the URI of the resource (null for a blank node)
+         */
+        public String getURI() {
+            return (store.kinds[ID] == URI ? store.values[ID] : null);
+        }
+
+        public Resource addProperty(Resource predicate, Resource object) {
+            store.add(ID, predicate.ID, object.ID);
+            return this;
+        }
+
+        /**
+         * Adds a string literal
+         */
+        public Resource addProperty(Resource predicate, String value) {
+            store.add(ID, predicate.ID, store.literal(value, "string"));
+            return this;
+        }
+
+        public Resource addLiteral(Resource predicate, boolean value) {
+            store.add(ID, predicate.ID, store.literal(String.valueOf(value), "boolean"));
+            return this;
+        }
+
+        public Resource addLiteral(Resource predicate, long value) {
+            store.add(ID, predicate.ID, store.literal(String.valueOf(value), "long"));
+            return this;
+        }
+
+        public Resource addLiteral(Resource predicate, double value) {
+            store.add(ID, predicate.ID, store.literal(String.valueOf(value), "double"));
+            return this;
+        }
+
+        /**
+         * Adds a literal with the type of the value (a String, Integer, Long, Float,
+         * Double or Boolean)
+         */
+        public Resource addLiteral(Resource predicate, Object value) {
+            store.add(ID, predicate.ID, store.literal(String.valueOf(value), datatype(value)));
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return store.toString(ID);
+        }
+    }
+
+    String values[] = new String[256];
+    String datatypes[] = new String[256];   // the local names (in XSD) of the types of the literals
+    byte kinds[] = new byte[256];
+    int termCount = 0;
+    final Map<String, Integer> uriIDs = new HashMap<>();
+    final Map<String, Integer> literalIDs = new HashMap<>();
+
+    // the triples, in the order they were added, and a hash set of them (0 is an empty slot):
+    long triples[] = new long[512];
+    int size = 0;
+    long set[] = new long[1024];
+
+    // the indexes (null when they need to be built again):
+    long spo[];
+    long pos[];
+    long osp[];
+
+    static String datatype(Object value) {
+        if (value instanceof String) return "string";
+        if (value instanceof Integer) return "int";
+        if (value instanceof Long) return "long";
+        if (value instanceof Float) return "float";
+        if (value instanceof Double) return "double";
+        if (value instanceof Boolean) return "boolean";
+        throw new IllegalArgumentException("Literals of class " + value.getClass().getName() + " are not supported");
+    }
+
+    int newTerm(String value, String datatype, byte kind) {
+        if (termCount == MASK) throw new IllegalStateException("A TripleStore can only have " + MASK + " terms");
+        if (termCount == values.length) {
+            values = Arrays.copyOf(values, termCount * 2);
+            datatypes = Arrays.copyOf(datatypes, termCount * 2);
+            kinds = Arrays.copyOf(kinds, termCount * 2);
+        }
+        values[termCount] = value;
+        datatypes[termCount] = datatype;
+        kinds[termCount] = kind;
+        return termCount++;
+    }
+
+    /**
+     * @param uri
+     * @return the resource with a URI (created the first time it is asked for)
+     */
+    public Resource createResource(String uri) {
+        Integer ID = uriIDs.get(uri);
+        if (ID == null) {
+            ID = newTerm(uri, null, URI);
+            uriIDs.put(uri, ID);
+        }
+        return new Resource(this, ID);
+    }
+
+    /**
+     * @return a new blank node
+     */
+    public Resource createResource() {
+        return new Resource(this, newTerm(null, null, BLANK));
+    }
+
+    /**
+     * Like {@link #createResource(String)} (predicates are resources too)
+     */
+    public Resource createProperty(String uri) {
+        return createResource(uri);
+    }
+
+    int literal(String lexical, String datatype) {
+        String key = datatype + " " + lexical;
+        Integer ID = literalIDs.get(key);
+        if (ID == null) {
+            ID = newTerm(lexical, datatype, LITERAL);
+            literalIDs.put(key, ID);
+        }
+        return ID;
+    }
+
+    static long pack(int a, int b, int c) {
+        return ((long) a << (2 * BITS)) | ((long) b << BITS) | c;
+    }
+
+    /**
+     * Adds a triple (if it was not already in the graph)
+     * @param s
+     * @param p
+     * @param o
+     */
+    public void add(int s, int p, int o) {
+        long triple = pack(s, p, o);
+        if ((size + 1) * 2 > set.length) {
+            set = new long[set.length * 2];
+            for (int i = 0; i < size; i++) insert(set, triples[i]);
+        }
+        if (!insert(set, triple)) return;
+        if (size == triples.length) triples = Arrays.copyOf(triples, size * 2);
+        triples[size++] = triple;
+        spo = pos = osp = null;
+    }
+
+    /**
+     * @return whether the triple was not in the set yet
+     */
+    static boolean insert(long set[], long triple) {
+        long key = triple + 1;
+        int mask = set.length - 1;
+        int i = (int) (ZobristHash.mix(key) & mask);
+        while (set[i] != 0) {
+            if (set[i] == key) return false;
+            i = (i + 1) & mask;
+        }
+        set[i] = key;
+        return true;
+    }
+
+    public boolean contains(int s, int p, int o) {
+        long key = pack(s, p, o) + 1;
+        int mask = set.length - 1;
+        int i = (int) (ZobristHash.mix(key) & mask);
+        while (set[i] != 0) {
+            if (set[i] == key) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of triples
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getSubject(int i) {
+        return (int) (triples[i] >>> (2 * BITS));
+    }
+
+    public int getPredicate(int i) {
+        return (int) ((triples[i] >>> BITS) & MASK);
+    }
+
+    public int getObject(int i) {
+        return (int) (triples[i] & MASK);
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public byte getKind(int term) {
+        return kinds[term];
+    }
+
+    /**
+     * @param term
+     * @return the URI of a term, or the value of a literal (null for a blank node)
+     */
+    public String getValue(int term) {
+        return values[term];
+    }
+
+    /**
+     * @param term
+     * @return the local name in XSD of the type of a literal (e.g. "long"), or null
+     */
+    public String getDatatype(int term) {
+        return datatypes[term];
+    }
+
+    /**
+     * @param uri
+     * @return the ID of the resource with a URI, or -1 if there is none
+     */
+    public int getURIID(String uri) {
+        return uriIDs.getOrDefault(uri, -1);
+    }
+
+    /**
+     * @param term
+     * @return the term written like Jena writes it (blank nodes as "_:n" followed by
+     * their ID)
+     */
+    public String toString(int term) {
+        switch (kinds[term]) {
+            case URI:
+                return values[term];
+            case BLANK:
+                return "_:n" + term;
+            default:
+                if (datatypes[term].equals("string")) return values[term];
+                return "\"" + values[term] + "\"^^xsd:" + datatypes[term];
+        }
+    }
+
+    void buildIndexes() {
+        if (spo != null) return;
+        long spo2[] = new long[size];
+        long pos2[] = new long[size];
+        long osp2[] = new long[size];
+        for (int i = 0; i < size; i++) {
+            int s = getSubject(i), p = getPredicate(i), o = getObject(i);
+            spo2[i] = triples[i];
+            pos2[i] = pack(p, o, s);
+            osp2[i] = pack(o, s, p);
+        }
+        Arrays.sort(spo2);
+        Arrays.sort(pos2);
+        Arrays.sort(osp2);
+        pos = pos2;
+        osp = osp2;
+        spo = spo2;
+    }
+
+    /**
+     * Finds the triples that match a pattern
+     * @param s a subject, or ANY
+     * @param p a predicate, or ANY
+     * @param o an object, or ANY
+     * @return the triples that match, as (subject, predicate, object) IDs
+     */
+    public int[] find(int s, int p, int o) {
+        buildIndexes();
+        if (s != ANY && p != ANY && o != ANY) {
+            return (contains(s, p, o) ? new int[]{s, p, o} : new int[0]);
+        }
+        // the index where the bound terms are a prefix, and the order of its terms:
+        long index[];
+        int a, b, order;
+        if (s != ANY) {
+            if (o != ANY) {
+                index = osp; a = o; b = s; order = 2;
+            } else {
+                index = spo; a = s; b = p; order = 0;
+            }
+        } else if (p != ANY) {
+            index = pos; a = p; b = o; order = 1;
+        } else if (o != ANY) {
+            index = osp; a = o; b = ANY; order = 2;
+        } else {
+            index = spo; a = ANY; b = ANY; order = 0;
+        }
+        int from, to;
+        if (a == ANY) {
+            from = 0;
+            to = index.length;
+        } else if (b == ANY) {
+            from = lowerBound(index, pack(a, 0, 0));
+            to = lowerBound(index, pack(a + 1, 0, 0));
+        } else {
+            from = lowerBound(index, pack(a, b, 0));
+            to = lowerBound(index, pack(a, b + 1, 0));
+        }
+        int result[] = new int[(to - from) * 3];
+        for (int i = from; i < to; i++) {
+            int t1 = (int) (index[i] >>> (2 * BITS)), t2 = (int) ((index[i] >>> BITS) & MASK), t3 = (int) (index[i] & MASK);
+            int j = (i - from) * 3;
+            // back to (subject, predicate, object):
+            switch (order) {
+                case 0: result[j] = t1; result[j + 1] = t2; result[j + 2] = t3; break;
+                case 1: result[j] = t3; result[j + 1] = t1; result[j + 2] = t2; break;
+                default: result[j] = t2; result[j + 1] = t3; result[j + 2] = t1; break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the first position with a value greater or equal than key
+     */
+    static int lowerBound(long index[], long key) {
+        int low = 0, high = index.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param p
+     * @param o
+     * @return the subjects of the triples with a predicate and object, like Jena's
+     * Model.listResourcesWithProperty (each one once, in the order of their IDs)
+     */
+    public int[] listSubjects(int p, int o) {
+        int found[] = find(ANY, p, o);
+        int subjects[] = new int[found.length / 3];
+        for (int i = 0; i < subjects.length; i++) subjects[i] = found[i * 3];
+        return subjects;
+    }
+}
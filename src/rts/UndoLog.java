@@ -0,0 +1,132 @@
+package rts;
+
+import java.util.Arrays;
+
+import rts.units.Unit;
+
+/**
+ * Journal of the changes done to a {@link GameState} by issue, cycle and
+ * {@link UnitAction#execute(Unit, GameState)}, so that they can be rolled back
+ * (see {@link GameState#checkpoint()} and {@link GameState#undo(int)}).
+ * Entries are stored in parallel arrays that are reused from one rollback to the
+ * next, so recording a change does not allocate any object.
+ */
+class UndoLog {
+
+    static final int HIT_POINTS = 0;            // unit, old hit points
+    static final int UNIT_RESOURCES = 1;        // unit, old resources
+    static final int PLAYER_RESOURCES = 2;      // player, old resources
+    static final int POSITION = 3;              // unit, old x, old y
+    static final int UNIT_ADDED = 4;            // unit
+    static final int UNIT_REMOVED = 5;          // unit, index in the unit list, whether it was owned
+    static final int UNIT_COPIED = 6;           // original unit, copy (see GameState.getWritableUnit)
+    static final int ASSIGNMENT_PUT = 7;        // unit, previous assignment (or null)
+    static final int ASSIGNMENT_REMOVED = 8;    // assignment, position in the assignment order
+    static final int ASSIGNMENT_ACTION = 9;     // assignment, old action
+    static final int TIME = 10;                 // old time
+    static final int CANCELATION_COUNTER = 11;  // old unitCancelationCounter
+
+    int size = 0;
+    int op[] = new int[64];
+    int a[] = new int[64];
+    int b[] = new int[64];
+    Object o1[] = new Object[64];
+    Object o2[] = new Object[64];
+
+    void add(int a_op, Object a_o1, Object a_o2, int a_a, int a_b) {
+        if (size == op.length) {
+            int n = size * 2;
+            op = Arrays.copyOf(op, n);
+            a = Arrays.copyOf(a, n);
+            b = Arrays.copyOf(b, n);
+            o1 = Arrays.copyOf(o1, n);
+            o2 = Arrays.copyOf(o2, n);
+        }
+        op[size] = a_op;
+        o1[size] = a_o1;
+        o2[size] = a_o2;
+        a[size] = a_a;
+        b[size] = a_b;
+        size++;
+    }
+
+    void hitPoints(Unit u) {
+        add(HIT_POINTS, u, null, u.getHitPoints(), 0);
+    }
+
+    void resources(Unit u) {
+        add(UNIT_RESOURCES, u, null, u.getResources(), 0);
+    }
+
+    void resources(Player p) {
+        add(PLAYER_RESOURCES, p, null, p.getResources(), 0);
+    }
+
+    void position(Unit u) {
+        add(POSITION, u, null, u.getX(), u.getY());
+    }
+
+    void unitAdded(Unit u) {
+        add(UNIT_ADDED, u, null, 0, 0);
+    }
+
+    /**
+     * Rolls back all the changes recorded after the checkpoint, most recent
+     * first, so that each change is undone on the same state it was made on.
+     *
+     * @param gs
+     * @param checkpoint
+     */
+    void undo(GameState gs, int checkpoint) {
+        if (checkpoint < 0 || checkpoint > size) {
+            throw new IllegalArgumentException("UndoLog.undo: checkpoint " + checkpoint + " is not in the log (size " + size + ")");
+        }
+        PhysicalGameState pgs = gs.pgs;
+        while (size > checkpoint) {
+            size--;
+            Object x1 = o1[size];
+            Object x2 = o2[size];
+            o1[size] = null;
+            o2[size] = null;
+            switch (op[size]) {
+                case HIT_POINTS:
+                    ((Unit) x1).setHitPoints(a[size]);
+                    break;
+                case UNIT_RESOURCES:
+                    ((Unit) x1).setResources(a[size]);
+                    break;
+                case PLAYER_RESOURCES:
+                    ((Player) x1).setResources(a[size]);
+                    break;
+                case POSITION:
+                    pgs.moveUnit((Unit) x1, a[size], b[size]);
+                    break;
+                case UNIT_ADDED:
+                    pgs.removeUnit((Unit) x1);
+                    break;
+                case UNIT_REMOVED:
+                    pgs.insertUnit(a[size], (Unit) x1, b[size] != 0);
+                    break;
+                case UNIT_COPIED:
+                    gs.replaceAssignmentKey((Unit) x2, (Unit) x1);
+                    pgs.undoCopyOnWrite((Unit) x1, (Unit) x2);
+                    break;
+                case ASSIGNMENT_PUT:
+                    gs.undoAssignmentPut((Unit) x1, (UnitActionAssignment) x2);
+                    break;
+                case ASSIGNMENT_REMOVED:
+                    gs.insertAssignment(a[size], (UnitActionAssignment) x1);
+                    break;
+                case ASSIGNMENT_ACTION:
+                    gs.setAssignmentAction((UnitActionAssignment) x1, (UnitAction) x2);
+                    break;
+                case TIME:
+                    gs.time = a[size];
+                    break;
+                case CANCELATION_COUNTER:
+                    gs.unitCancelationCounter = a[size];
+                    break;
+            }
+        }
+    }
+}
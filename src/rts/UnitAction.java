@@ -3,10 +3,7 @@ package rts;
 import java.io.Writer;
 import java.util.*;
 
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.vocabulary.RDF;
-import org.apache.jena.vocabulary.RDFS;
+import rts.TripleStore.Resource;
 import org.jdom.Element;
 
 import com.eclipsesource.json.Json;
@@ -343,37 +340,50 @@ public class UnitAction {
      */
     public void execute(Unit u, GameState s) {
         PhysicalGameState pgs = s.getPhysicalGameState();
+        UndoLog log = s.undoLog;    // changes are recorded if the state's undo log is active
+        StepDelta delta = s.stepDelta;
+        boolean hashed = s.maintainZobristHash();    // the keys of the changed elements are toggled if the hash is up to date
         switch (type) {
             case TYPE_NONE:	//no-op
                 break;
 
             case TYPE_MOVE: //moves the unit in the intended direction
+                u = s.getWritableUnit(u);
+                if (log != null) log.position(u);
+                if (delta != null) delta.moved(u);
+                if (hashed) s.toggleZobristKey(ZobristHash.unit(u));
                 switch (parameter) {
                     case DIRECTION_UP:
-                        u.setY(u.getY() - 1);
+                        pgs.moveUnit(u, u.getX(), u.getY() - 1);
                         break;
                     case DIRECTION_RIGHT:
-                        u.setX(u.getX() + 1);
+                        pgs.moveUnit(u, u.getX() + 1, u.getY());
                         break;
                     case DIRECTION_DOWN:
-                        u.setY(u.getY() + 1);
+                        pgs.moveUnit(u, u.getX(), u.getY() + 1);
                         break;
                     case DIRECTION_LEFT:
-                        u.setX(u.getX() - 1);
+                        pgs.moveUnit(u, u.getX() - 1, u.getY());
                         break;
                 }
+                if (hashed) s.toggleZobristKey(ZobristHash.unit(u));
                 break;
             case TYPE_ATTACK_LOCATION: //if there's a unit in the target location, damages it
             {
                 Unit other = pgs.getUnitAt(x, y);
                 if (other != null) {
+                    other = s.getWritableUnit(other);
                     int damage;
                     if (u.getMinDamage() == u.getMaxDamage()) {
                         damage = u.getMinDamage();
                     } else {
-                        damage = u.getMinDamage() + r.nextInt(1 + (u.getMaxDamage() - u.getMinDamage()));
+                        damage = u.getMinDamage() + SimulationContext.random(r).nextInt(1 + (u.getMaxDamage() - u.getMinDamage()));
                     }
+                    if (log != null) log.hitPoints(other);
+                    if (delta != null) delta.damaged(u, other, damage);
+                    if (hashed) s.toggleZobristKey(ZobristHash.unit(other));
                     other.setHitPoints(other.getHitPoints() - damage);
+                    if (hashed) s.toggleZobristKey(ZobristHash.unit(other));
                     if (other.getHitPoints() <= 0) {
                         s.removeUnit(other);
                     }
@@ -400,11 +410,20 @@ public class UnitAction {
                 }
                 if (maybeAResource != null && maybeAResource.getType().isResource && u.getType().canHarvest && u.getResources() == 0) {
                     //indeed it is a resource, harvest from it
+                    maybeAResource = s.getWritableUnit(maybeAResource);
+                    u = s.getWritableUnit(u);
+                    if (log != null) {
+                        log.resources(maybeAResource);
+                        log.resources(u);
+                    }
+                    if (delta != null) delta.harvested(u, maybeAResource, u.getHarvestAmount());
+                    if (hashed) s.toggleZobristKey(ZobristHash.unit(maybeAResource) ^ ZobristHash.unit(u));
                     maybeAResource.setResources(maybeAResource.getResources() - u.getHarvestAmount());
+                    u.setResources(u.getHarvestAmount());
+                    if (hashed) s.toggleZobristKey(ZobristHash.unit(maybeAResource) ^ ZobristHash.unit(u));
                     if (maybeAResource.getResources() <= 0) {
                         s.removeUnit(maybeAResource);
                     }
-                    u.setResources(u.getHarvestAmount());
                 }
             }
             break;
@@ -428,9 +447,17 @@ public class UnitAction {
                 }
 
                 if (base != null && base.getType().isStockpile && u.getResources() > 0) {
+                    u = s.getWritableUnit(u);
                     Player p = pgs.getPlayer(u.getPlayer());
+                    if (log != null) {
+                        log.resources(p);
+                        log.resources(u);
+                    }
+                    if (delta != null) delta.returned(u, u.getResources());
+                    if (hashed) s.toggleZobristKey(ZobristHash.player(p) ^ ZobristHash.unit(u));
                     p.setResources(p.getResources() + u.getResources());
                     u.setResources(0);
+                    if (hashed) s.toggleZobristKey(ZobristHash.player(p) ^ ZobristHash.unit(u));
                 } else {// base is not there
 
                 }
@@ -459,7 +486,14 @@ public class UnitAction {
                 Player p = pgs.getPlayer(u.getPlayer());
                 if((p.getResources() - newUnit.getCost())>=0){
                     pgs.addUnit(newUnit);
+                    if (log != null) {
+                        log.unitAdded(newUnit);
+                        log.resources(p);
+                    }
+                    if (delta != null) delta.created(newUnit);
+                    if (hashed) s.toggleZobristKey(ZobristHash.unit(newUnit) ^ ZobristHash.player(p));
                     p.setResources(p.getResources() - newUnit.getCost());
+                    if (hashed) s.toggleZobristKey(ZobristHash.player(p));
                 } else {
                     System.err.print("Illegal action attempted ("+this+")! "+
                                      "Resources of player " + p.ID + " would have been negative!\n");
@@ -756,14 +790,14 @@ public class UnitAction {
         }
     }
 
-    public static Map<Integer, Resource> createActionTypesRDF(Model model) {
+    public static Map<Integer, Resource> createActionTypesRDF(TripleStore model) {
         Map<Integer, Resource> atNodes = new HashMap<>();
         int[] actionTypes = new int[]{TYPE_NONE, TYPE_MOVE, TYPE_HARVEST, TYPE_RETURN, TYPE_PRODUCE, TYPE_ATTACK_LOCATION};
         for (int actionType : actionTypes) {
             Resource atNode = model.createResource(GameGraph.ACTION_PREFIX + actionType);
-            atNode.addProperty(RDF.type, model.createResource(GameGraph.ACTION_PREFIX + "Action"));
-            atNode.addProperty(RDFS.label, actionName[actionType]);
-            atNode.addProperty(RDFS.comment, actionsComments.get(actionType));
+            atNode.addProperty(model.createProperty(TripleStore.RDF_TYPE), model.createResource(GameGraph.ACTION_PREFIX + "Action"));
+            atNode.addProperty(model.createProperty(TripleStore.RDFS_LABEL), actionName[actionType]);
+            atNode.addProperty(model.createProperty(TripleStore.RDFS_COMMENT), actionsComments.get(actionType));
             atNode.addLiteral(model.createProperty(GameGraph.ACTION_PREFIX + "targetsDistance"), switch (actionType) {
                 case TYPE_MOVE, TYPE_HARVEST, TYPE_RETURN, TYPE_PRODUCE -> "adjacent";
                 case TYPE_ATTACK_LOCATION -> "distant";
@@ -799,14 +833,14 @@ public class UnitAction {
         return atNodes;
     }
 
-    public static void createNeeds(Resource atNode, Model model, String statistics, String in, String value) {
+    public static void createNeeds(Resource atNode, TripleStore model, String statistics, String in, String value) {
         atNode.addProperty(model.createProperty(GameGraph.ACTION_PREFIX + "needs"), model.createResource().
                 addLiteral(model.createProperty(GameGraph.ACTION_PREFIX + "statistic"), statistics).
                 addLiteral(model.createProperty(GameGraph.ACTION_PREFIX + "in"), in).
                 addLiteral(model.createProperty(GameGraph.ACTION_PREFIX + "value"), value));
     }
 
-    public static void createPrefers(Resource atNode, Model model, String statistics, String in, String value, double weight) {
+    public static void createPrefers(Resource atNode, TripleStore model, String statistics, String in, String value, double weight) {
         atNode.addProperty(model.createProperty(GameGraph.ACTION_PREFIX + "prefers"), model.createResource().
                 addLiteral(model.createProperty(GameGraph.ACTION_PREFIX + "statistic"), statistics).
                 addLiteral(model.createProperty(GameGraph.ACTION_PREFIX + "in"), in).
@@ -814,7 +848,7 @@ public class UnitAction {
                 addLiteral(model.createProperty(GameGraph.ACTION_PREFIX + "weight"), weight));
     }
 
-    public static void createPrefers(Resource atNode, Model model, String statistics, String in, Resource value, double weight) {
+    public static void createPrefers(Resource atNode, TripleStore model, String statistics, String in, Resource value, double weight) {
         atNode.addProperty(model.createProperty(GameGraph.ACTION_PREFIX + "prefers"), model.createResource().
                 addLiteral(model.createProperty(GameGraph.ACTION_PREFIX + "statistic"), statistics).
                 addLiteral(model.createProperty(GameGraph.ACTION_PREFIX + "in"), in).
@@ -10,6 +10,9 @@ public class UnitActionAssignment {
     public Unit unit;
     public UnitAction action;
     public int time;
+    // position of the assignment in the order in which the game state assigned the actions
+    // (see GameState.cycle()): the assignment of a unit that already had one keeps its number
+    long sequence;
     
     public UnitActionAssignment(Unit a_unit, UnitAction a_action, int a_time) {
         unit = a_unit;
@@ -20,6 +23,17 @@ public class UnitActionAssignment {
         time = a_time;
     }
     
+    /**
+     * Copy of an assignment for another unit (e.g. the clone of the unit in a cloned state),
+     * keeping its position in the assignment order
+     * @param a_unit
+     * @param uaa
+     */
+    UnitActionAssignment(Unit a_unit, UnitActionAssignment uaa) {
+        this(a_unit, uaa.action, uaa.time);
+        sequence = uaa.sequence;
+    }
+    
     public String toString() {
         return unit + " assigned action " + action + " at time " + time;
     }
@@ -0,0 +1,99 @@
+package rts;
+
+import rts.units.Unit;
+
+/**
+ * Zobrist hash of a {@link GameState}: the XOR of a pseudo-random 64 bit key for
+ * each element of the state, which are each unit (its type, owner, position, hit
+ * points and resources, but not its ID), each pending action assignment (the action,
+ * the time it was assigned at and the position of its unit), the resources of each
+ * player, and the time. Instead of being looked up in tables of random numbers, the
+ * key of an element is a hash of its values (chained with the finalizer of
+ * SplitMix64), so there is no limit on the size of maps or on hit points.
+ *
+ * Since XOR is its own inverse, a state keeps its hash up to date by toggling the
+ * keys of the elements that change (see {@link GameState#getZobristHash()}), and two
+ * states with the same elements have the same hash, no matter the IDs of their units
+ * or the order of their unit lists.
+ */
+public class ZobristHash {
+
+    static final long UNIT = 0x6A09E667F3BCC908L;
+    static final long ASSIGNMENT = 0xBB67AE8584CAA73BL;
+    static final long PLAYER = 0x3C6EF372FE94F82BL;
+    static final long TIME = 0xA54FF53A5F1D36F1L;
+
+    /**
+     * @param u
+     * @return the key of a unit
+     */
+    public static long unit(Unit u) {
+        long h = mix(UNIT + u.getType().ID);
+        h = mix(h + u.getPlayer());
+        h = mix(h + pack(u.getX(), u.getY()));
+        return mix(h + pack(u.getHitPoints(), u.getResources()));
+    }
+
+    /**
+     * @param uaa
+     * @return the key of an action assignment
+     */
+    public static long assignment(UnitActionAssignment uaa) {
+        UnitAction a = uaa.action;
+        long h = mix(ASSIGNMENT + pack(uaa.unit.getX(), uaa.unit.getY()));
+        h = mix(h + pack(a.type, a.parameter));
+        h = mix(h + pack(a.x, a.y));
+        h = mix(h + (a.unitType == null ? -1 : a.unitType.ID));
+        return mix(h + uaa.time);
+    }
+
+    /**
+     * @param p
+     * @return the key of a player (with its resources)
+     */
+    public static long player(Player p) {
+        return mix(mix(PLAYER + p.ID) + p.resources);
+    }
+
+    /**
+     * @param time
+     * @return the key of the game time
+     */
+    public static long time(int time) {
+        return mix(TIME + time);
+    }
+
+    /**
+     * Computes the hash of a state from scratch
+     *
+     * @param gs
+     * @return
+     */
+    public static long compute(GameState gs) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        long h = time(gs.getTime());
+        for (Player p : pgs.getPlayers()) {
+            h ^= player(p);
+        }
+        for (Unit u : pgs.getUnits()) {
+            h ^= unit(u);
+        }
+        for (UnitActionAssignment uaa : gs.unitActions.values()) {
+            h ^= assignment(uaa);
+        }
+        return h;
+    }
+
+    static long pack(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The finalizer of SplitMix64
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -12,6 +12,7 @@ import com.eclipsesource.json.JsonObject;
 import rts.GameState;
 import rts.PhysicalGameState;
 import rts.Player;
+import rts.SimulationContext;
 import rts.UnitAction;
 import util.XMLWriter;
 
@@ -29,10 +30,21 @@ public class Unit implements Serializable {
 
     /**
      * Indicates the ID to assign to a new unit. It is incremented when the
-     * constructor without explicit ID is used
+     * constructor without explicit ID is used (unless the current thread has a
+     * {@link SimulationContext}, which has its own counter)
      */
     public static long next_ID = 0;
 
+    /**
+     * The map this unit belongs to, which is told when the unit is moved with
+     * {@link #setX(int)} or {@link #setY(int)}, or its ID is changed with
+     * {@link #setID(long)}, so that its indexes (see
+     * {@link PhysicalGameState#getUnitAt(int, int)} and
+     * {@link PhysicalGameState#getUnit(long)}) know when to be rebuilt. null
+     * if the unit is not in a map
+     */
+    transient PhysicalGameState map;
+
     /**
      * The unique identifier of this unit
      */
@@ -77,9 +89,7 @@ public class Unit implements Serializable {
         resources = a_resources;
         hitpoints = a_type.hp;
         ID = a_ID;
-        if (ID >= next_ID) {
-            next_ID = ID + 1;
-        }
+        reserveID(ID);
     }
 
     /**
@@ -99,7 +109,7 @@ public class Unit implements Serializable {
         y = a_y;
         resources = a_resources;
         hitpoints = a_type.hp;
-        ID = next_ID++;
+        ID = newID();
     }
 
     /**
@@ -117,7 +127,7 @@ public class Unit implements Serializable {
         y = a_y;
         resources = 0;
         hitpoints = a_type.hp;
-        ID = next_ID++;
+        ID = newID();
     }
 
     /**
@@ -181,9 +191,51 @@ public class Unit implements Serializable {
      * @param a_ID
      */
     public void setID(long a_ID) {
+        if (ID != a_ID && map != null) {
+            map.unitIDChanged();
+        }
         ID = a_ID;
     }
 
+    /**
+     * Returns the ID for a new unit, from the {@link SimulationContext} of the
+     * current thread if it has one, or from {@link #next_ID} otherwise
+     *
+     * @return
+     */
+    static long newID() {
+        SimulationContext context = SimulationContext.get();
+        if (context != null) {
+            return context.newID();
+        }
+        return next_ID++;
+    }
+
+    /**
+     * Makes sure that new units do not get IDs lower than or equal to an ID
+     * that was assigned explicitly
+     *
+     * @param a_ID
+     */
+    static void reserveID(long a_ID) {
+        SimulationContext context = SimulationContext.get();
+        if (context != null) {
+            context.reserveID(a_ID);
+        } else if (a_ID >= next_ID) {
+            next_ID = a_ID + 1;
+        }
+    }
+
+    /**
+     * Sets the map this unit belongs to (called by {@link PhysicalGameState}
+     * when the unit is added to it)
+     *
+     * @param a_map
+     */
+    public void setMap(PhysicalGameState a_map) {
+        map = a_map;
+    }
+
     /**
      * Returns the index of this unit in a {@link PhysicalGameState} (as it is
      * an 'unrolled matrix')
@@ -214,20 +266,43 @@ public class Unit implements Serializable {
     }
 
     /**
-     * Sets x coordinate
+     * Sets x coordinate. If this unit is in a {@link PhysicalGameState},
+     * {@link PhysicalGameState#moveUnit(Unit, int, int)} is faster: it updates
+     * the spatial index of the map, instead of having it rebuilt
      *
      * @param a_x
      */
     public void setX(int a_x) {
+        if (x != a_x && map != null) {
+            map.unitMoved();
+        }
         x = a_x;
     }
 
     /**
-     * Sets y coordinate
+     * Sets y coordinate. If this unit is in a {@link PhysicalGameState},
+     * {@link PhysicalGameState#moveUnit(Unit, int, int)} is faster: it updates
+     * the spatial index of the map, instead of having it rebuilt
      *
      * @param a_y
      */
     public void setY(int a_y) {
+        if (y != a_y && map != null) {
+            map.unitMoved();
+        }
+        y = a_y;
+    }
+
+    /**
+     * Sets both coordinates without telling the map of the unit. Only for
+     * {@link PhysicalGameState#moveUnit(Unit, int, int)}, which updates the
+     * spatial index of its map itself
+     *
+     * @param a_x
+     * @param a_y
+     */
+    public void setPositionIndexed(int a_x, int a_y) {
+        x = a_x;
         y = a_y;
     }
 
@@ -386,24 +461,10 @@ public class Unit implements Serializable {
         Player p = pgs.getPlayer(player);
 
         // retrieves units around me
-        Unit uup = null, uright = null, udown = null, uleft = null;
-        for (Unit u : pgs.getUnits()) {
-            if (u.x == x) {
-                if (u.y == y - 1) {
-                    uup = u;
-                } else if (u.y == y + 1) {
-                    udown = u;
-                }
-            } else {
-                if (u.y == y) {
-                    if (u.x == x - 1) {
-                        uleft = u;
-                    } else if (u.x == x + 1) {
-                        uright = u;
-                    }
-                }
-            }
-        }
+        Unit uup = pgs.getUnitAt(x, y - 1);
+        Unit uright = pgs.getUnitAt(x + 1, y);
+        Unit udown = pgs.getUnitAt(x, y + 1);
+        Unit uleft = pgs.getUnitAt(x - 1, y);
 
         // if this unit can attack, adds an attack action for each unit around it
         if (type.canAttack) {
@@ -479,16 +540,16 @@ public class Unit implements Serializable {
                 int tdown = (y < pgs.getHeight() - 1 ? pgs.getTerrain(x, y + 1) : PhysicalGameState.TERRAIN_WALL);
                 int tleft = (x > 0 ? pgs.getTerrain(x - 1, y) : PhysicalGameState.TERRAIN_WALL);
 
-                if (tup == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x, y - 1) == null) {
+                if (tup == PhysicalGameState.TERRAIN_NONE && uup == null) {
                     l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_UP, ut));
                 }
-                if (tright == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x + 1, y) == null) {
+                if (tright == PhysicalGameState.TERRAIN_NONE && uright == null) {
                     l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_RIGHT, ut));
                 }
-                if (tdown == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x, y + 1) == null) {
+                if (tdown == PhysicalGameState.TERRAIN_NONE && udown == null) {
                     l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_DOWN, ut));
                 }
-                if (tleft == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x - 1, y) == null) {
+                if (tleft == PhysicalGameState.TERRAIN_NONE && uleft == null) {
                     l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_LEFT, ut));
                 }
             }
@@ -604,9 +665,7 @@ public class Unit implements Serializable {
         String hitpointsStr = e.getAttributeValue("hitpoints");
 
         long ID = Long.parseLong(IDStr);
-        if (ID >= next_ID) {
-            next_ID = ID + 1;
-        }
+        reserveID(ID);
         UnitType type = utt.getUnitType(typeName);
         int player = Integer.parseInt(playerStr);
         int x = Integer.parseInt(xStr);
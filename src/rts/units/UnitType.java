@@ -9,10 +9,8 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.vocabulary.RDF;
-import org.apache.jena.vocabulary.RDFS;
+import rts.TripleStore;
+import rts.TripleStore.Resource;
 import org.jdom.Element;
 import rts.GameGraph;
 import rts.UnitAction;
@@ -350,7 +348,7 @@ public class UnitType {
 		w.write("]}");
     }
 
-    public Resource toRDF(Model model, Map<String, Integer> minValues, Map<String, Integer> maxValues, Map<Integer, Resource> atNodes, Set<String> ratings) {
+    public Resource toRDF(TripleStore model, Map<String, Integer> minValues, Map<String, Integer> maxValues, Map<Integer, Resource> atNodes, Set<String> ratings) {
         final String utPrefix = GameGraph.UNIT_PREFIX;
         final String atPrefix = GameGraph.ACTION_PREFIX;
         final String rPrefix = GameGraph.RATING_PREFIX;
@@ -372,8 +370,8 @@ public class UnitType {
         final String aimsAtRelation = "aimsAt";
 
         Resource utNode = model.createResource(utPrefix + ID);
-        utNode.addProperty(RDF.type, model.createResource(utPrefix + "Unit"));
-        utNode.addProperty(RDFS.label, name);
+        utNode.addProperty(model.createProperty(TripleStore.RDF_TYPE), model.createResource(utPrefix + "Unit"));
+        utNode.addProperty(model.createProperty(TripleStore.RDFS_LABEL), name);
 
         Resource atNoneNode = atNodes.get(UnitAction.TYPE_NONE);
         Resource atMoveNode = atNodes.get(UnitAction.TYPE_MOVE);
@@ -592,7 +590,7 @@ public class UnitType {
                 Resource rNode = model.createResource(ratingUri);
                 if (!ratings.contains(ratingUri)) {
                     ratings.add(ratingUri);
-                    rNode.addProperty(RDF.type, model.createResource(rPrefix + "Rating"));
+                    rNode.addProperty(model.createProperty(TripleStore.RDF_TYPE), model.createResource(rPrefix + "Rating"));
                     Resource atNode = atNodes.get(numericalFieldsActions.get(field));
                     if (atNode != null) {
                         rNode.addProperty(model.createProperty(rPrefix + describesRelation), atNode);
@@ -613,11 +611,11 @@ public class UnitType {
         return utNode;
     }
 
-    public static void createPrefers(Resource utNode, Model model, Resource unit, String relation, String how, double fraction, double weight) {
+    public static void createPrefers(Resource utNode, TripleStore model, Resource unit, String relation, String how, double fraction, double weight) {
         createPrefers(utNode, model, unit, relation, how, fraction, weight, 0.);
     }
 
-    public static void createPrefers(Resource utNode, Model model, Resource unit, String relation, String how, double fraction, double weight, double reverseWeight) {
+    public static void createPrefers(Resource utNode, TripleStore model, Resource unit, String relation, String how, double fraction, double weight, double reverseWeight) {
         utNode.addProperty(model.createProperty(GameGraph.UNIT_PREFIX + "prefers"), model.createResource().
                 addProperty(model.createProperty(GameGraph.UNIT_PREFIX + "unit"), unit).
                 addLiteral(model.createProperty(GameGraph.UNIT_PREFIX + "relation"), relation).
@@ -3,8 +3,8 @@ package rts.units;
 import java.io.Writer;
 import java.util.*;
 
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.Resource;
+import rts.TripleStore;
+import rts.TripleStore.Resource;
 import org.jdom.Element;
 
 import com.eclipsesource.json.Json;
@@ -383,7 +383,7 @@ public class UnitTypeTable  {
 		w.write("]}");
 	}
 
-    public void addPropertiesRDF(Model model, Resource gameNode, String prefix) {
+    public void addPropertiesRDF(TripleStore model, Resource gameNode, String prefix) {
         switch (moveConflictResolutionStrategy) {
             case 1 -> gameNode.addLiteral(model.createProperty(prefix + "hasMoveConflictResolutionStrategy"), "cancel both");
             case 2 -> gameNode.addLiteral(model.createProperty(prefix + "hasMoveConflictResolutionStrategy"), "cancel random");
@@ -391,7 +391,7 @@ public class UnitTypeTable  {
         }
     }
 
-    public ArrayList<Resource> createUnitTypesRDF(Model model, Map<Integer, Resource> atNodes, Resource gameNode, String prefix) {
+    public ArrayList<Resource> createUnitTypesRDF(TripleStore model, Map<Integer, Resource> atNodes, Resource gameNode, String prefix) {
         Map<String, Integer> minValues = new HashMap<>();
         Map<String, Integer> maxValues = new HashMap<>();
         for (String field : UnitType.getNumericalFields()) {
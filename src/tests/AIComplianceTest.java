@@ -11,6 +11,7 @@ import ai.core.ParameterSpecification;
 import ai.mcts.informedmcts.InformedNaiveMCTS;
 import ai.mcts.naivemcts.NaiveMCTS;
 import ai.montecarlo.lsi.LSI;
+import ai.montecarlo.lsi.ParallelLSI;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -37,6 +38,7 @@ public class AIComplianceTest {
         complianceTest(NaiveMCTS.class);
         complianceTest(InformedNaiveMCTS.class);
         complianceTest(LSI.class);
+        complianceTest(ParallelLSI.class);
     }
     
     
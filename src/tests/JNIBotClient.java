@@ -9,12 +9,14 @@ import java.nio.file.Paths;
 
 import ai.core.AI;
 import ai.jni.Response;
+import ai.reward.RewardEngine;
 import ai.reward.RewardFunctionInterface;
 import gui.PhysicalGameStateJFrame;
 import gui.PhysicalGameStatePanel;
 import rts.GameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
+import rts.StepDelta;
 import rts.TraceEntry;
 import rts.units.UnitTypeTable;
 
@@ -51,6 +53,9 @@ public class JNIBotClient {
     Response response;
     PlayerAction pa1;
     PlayerAction pa2;
+    // what happens in each step, for the reward functions that do not need a TraceEntry
+    StepDelta stepDelta = new StepDelta();
+    RewardEngine rewardEngine;
 
     /**
      * 
@@ -68,6 +73,7 @@ public class JNIBotClient {
         mapPath = a_mapPath;
         rfs = a_rfs;
         utt = a_utt;
+        rewardEngine = new RewardEngine(utt);
         partialObs = partial_obs;
         ai1 = a_ai1;
         ai2 = a_ai2;
@@ -109,23 +115,25 @@ public class JNIBotClient {
         pa1 = ai1.getAction(player, gs);
         pa2 = ai2.getAction(1 - player, gs);
 
+        stepDelta.clear();
+        gs.setStepDelta(stepDelta);
         gs.issueSafe(pa1);
         gs.issueSafe(pa2);
-        TraceEntry te  = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
-        te.addPlayerAction(pa1.clone());
-        te.addPlayerAction(pa2.clone());
+        TraceEntry te = null;
+        if (RewardFunctionInterface.needTraceEntry(rfs)) {
+            te  = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
+            te.addPlayerAction(pa1.clone());
+            te.addPlayerAction(pa2.clone());
+        }
 
         // simulate:
         gameover = gs.cycle();
+        gs.setStepDelta(null);
         if (gameover) {
             ai1.gameOver(gs.winner());
             ai2.gameOver(gs.winner());
         }
-        for (int i = 0; i < rewards.length; i++) {
-            rfs[i].computeReward(player, 1 - player, te, gs);
-            dones[i] = rfs[i].isDone();
-            rewards[i] = rfs[i].getReward();
-        }
+        rewardEngine.computeRewards(rfs, player, 1 - player, stepDelta, te, gs, rewards, dones);
         response.set(
             null,
             rewards,
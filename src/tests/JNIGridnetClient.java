@@ -5,13 +5,17 @@ import java.awt.image.DataBufferByte;
 import java.awt.image.WritableRaster;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.nio.file.Paths;
 import java.util.Arrays;
 
 import ai.core.AI;
 import ai.jni.JNIAI;
 import ai.jni.JNIInterface;
+import ai.jni.PackedActionMasks;
 import ai.jni.Response;
+import ai.reward.RewardEngine;
 import ai.reward.RewardFunctionInterface;
 import gui.PhysicalGameStateJFrame;
 import gui.PhysicalGameStatePanel;
@@ -19,6 +23,7 @@ import rts.GameState;
 import rts.PartiallyObservableGameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
+import rts.StepDelta;
 import rts.TraceEntry;
 import rts.UnitAction;
 import rts.units.Unit;
@@ -44,6 +49,8 @@ public class JNIGridnetClient {
     public AI ai2;
     UnitTypeTable utt;
     public boolean partialObs = false;
+    /** Whether responses include the observations as arrays (see {@link #writeObservation(int, IntBuffer, int)}) */
+    public boolean observationArrays = true;
 
     // Internal State
     public PhysicalGameState pgs;
@@ -55,6 +62,7 @@ public class JNIGridnetClient {
     public int maxAttackRadius;
     PhysicalGameStateJFrame w;
     public JNIInterface ai1;
+    PackedActionMasks packedMasks;
 
     // Storage
     
@@ -104,6 +112,9 @@ public class JNIGridnetClient {
     Response response;
     PlayerAction pa1;
     PlayerAction pa2;
+    // what happens in each step, for the reward functions that do not need a TraceEntry
+    StepDelta stepDelta = new StepDelta();
+    RewardEngine rewardEngine;
 
     /**
      * 
@@ -121,6 +132,7 @@ public class JNIGridnetClient {
         mapPath = a_mapPath;
         rfs = a_rfs;
         utt = a_utt;
+        rewardEngine = new RewardEngine(utt);
         partialObs = partial_obs;
         maxAttackRadius = utt.getMaxAttackRange() * 2 + 1;
         ai1 = new JNIAI(100, 0, utt);
@@ -170,25 +182,27 @@ public class JNIGridnetClient {
         }
         pa1 = ai1.getAction(player, player1gs, action);
         pa2 = ai2.getAction(1 - player, player2gs);
+        stepDelta.clear();
+        gs.setStepDelta(stepDelta);
         gs.issueSafe(pa1);
         gs.issueSafe(pa2);
-        TraceEntry te  = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
-        te.addPlayerAction(pa1.clone());
-        te.addPlayerAction(pa2.clone());
+        TraceEntry te = null;
+        if (RewardFunctionInterface.needTraceEntry(rfs)) {
+            te  = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
+            te.addPlayerAction(pa1.clone());
+            te.addPlayerAction(pa2.clone());
+        }
 
         // simulate:
         gameover = gs.cycle();
+        gs.setStepDelta(null);
         if (gameover) {
             // ai1.gameOver(gs.winner());
             ai2.gameOver(gs.winner());
         }
-        for (int i = 0; i < rewards.length; i++) {
-            rfs[i].computeReward(player, 1 - player, te, gs);
-            dones[i] = rfs[i].isDone();
-            rewards[i] = rfs[i].getReward();
-        }
+        rewardEngine.computeRewards(rfs, player, 1 - player, stepDelta, te, gs, rewards, dones);
         response.set(
-            ai1.getObservation(player, player1gs),
+            observationArrays ? ai1.getObservation(player, player1gs) : null,
             rewards,
             dones,
             ai1.computeInfo(player, player2gs));
@@ -225,6 +239,33 @@ public class JNIGridnetClient {
         return w.toString(); // now it works fine
     }
 
+    /**
+     * Writes the current observation of the player controlled through JNI into a 
+     * buffer, with the layout of {@link GameState#getVectorObservation(int, IntBuffer, int)}
+     * @param player
+     * @param buffer
+     * @param offset
+     */
+    public void writeObservation(int player, IntBuffer buffer, int offset) {
+        player1gs.getVectorObservation(player, buffer, offset);
+    }
+
+    /**
+     * Writes the legal action masks of a player into a buffer, bit-packed with the
+     * layout of {@link PackedActionMasks}. The cells that cannot have changed since
+     * the previous call (for the same player, buffer and offset) are not rewritten.
+     * @param player
+     * @param buffer
+     * @param offset
+     * @return the number of cells that were rewritten
+     */
+    public int writeMasks(int player, LongBuffer buffer, int offset) {
+        if (packedMasks == null) {
+            packedMasks = new PackedActionMasks(pgs.getWidth(), pgs.getHeight(), utt, maxAttackRadius);
+        }
+        return packedMasks.update(gs, player, buffer, offset);
+    }
+
     public Response reset(int player) throws Exception {
         ai1.reset();
         ai2 = ai2.clone();
@@ -242,7 +283,7 @@ public class JNIGridnetClient {
             dones[i] = false;
         }
         response.set(
-            ai1.getObservation(player, player1gs),
+            observationArrays ? ai1.getObservation(player, player1gs) : null,
             rewards,
             dones,
             "{}");
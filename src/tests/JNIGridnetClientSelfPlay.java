@@ -5,13 +5,17 @@ import java.awt.image.DataBufferByte;
 import java.awt.image.WritableRaster;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.nio.file.Paths;
 import java.util.Arrays;
 
 import ai.core.AI;
 import ai.jni.JNIAI;
 import ai.jni.JNIInterface;
+import ai.jni.PackedActionMasks;
 import ai.jni.Response;
+import ai.reward.RewardEngine;
 import ai.reward.RewardFunctionInterface;
 import gui.PhysicalGameStateJFrame;
 import gui.PhysicalGameStatePanel;
@@ -19,6 +23,7 @@ import rts.GameState;
 import rts.PartiallyObservableGameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
+import rts.StepDelta;
 import rts.TraceEntry;
 import rts.UnitAction;
 import rts.units.Unit;
@@ -44,6 +49,8 @@ public class JNIGridnetClientSelfPlay {
     public AI ai2;
     UnitTypeTable utt;
     boolean partialObs = false;
+    /** Whether responses include the observations as arrays (see {@link #writeObservation(int, IntBuffer, int)}) */
+    public boolean observationArrays = true;
 
     // Internal State
     PhysicalGameStateJFrame w;
@@ -56,6 +63,7 @@ public class JNIGridnetClientSelfPlay {
     public int renderTheme = PhysicalGameStatePanel.COLORSCHEME_WHITE;
     public int maxAttackRadius;
     public int numPlayers = 2;
+    PackedActionMasks[] packedMasks = new PackedActionMasks[2];
 
     // Storage
     
@@ -104,6 +112,9 @@ public class JNIGridnetClientSelfPlay {
     boolean[][] dones = new boolean[2][];
     Response[] response = new Response[2];
     PlayerAction[] pas = new PlayerAction[2];
+    // what happens in each step, for the reward functions that do not need a TraceEntry
+    StepDelta stepDelta = new StepDelta();
+    RewardEngine rewardEngine;
 
     /**
      * 
@@ -119,6 +130,7 @@ public class JNIGridnetClientSelfPlay {
         mapPath = a_mapPath;
         rfs = a_rfs;
         utt = a_utt;
+        rewardEngine = new RewardEngine(utt);
         partialObs = partial_obs;
         maxAttackRadius = utt.getMaxAttackRange() * 2 + 1;
         if (micrortsPath.length() != 0) {
@@ -157,7 +169,12 @@ public class JNIGridnetClientSelfPlay {
     }
 
     public void gameStep(int[][] action1, int[][] action2) throws Exception {
-        TraceEntry te  = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
+        TraceEntry te = null;
+        if (RewardFunctionInterface.needTraceEntry(rfs)) {
+            te  = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
+        }
+        stepDelta.clear();
+        gs.setStepDelta(stepDelta);
         for (int i = 0; i < numPlayers; i++) {
             playergs[i] = gs;
             if (partialObs) {
@@ -165,23 +182,22 @@ public class JNIGridnetClientSelfPlay {
             }
             pas[i] = i == 0 ? ais[i].getAction(i, playergs[0], action1) : ais[i].getAction(i, playergs[1], action2);
             gs.issueSafe(pas[i]);
-            te.addPlayerAction(pas[i].clone());
+            if (te != null) {
+                te.addPlayerAction(pas[i].clone());
+            }
         }
         // simulate:
         gameover = gs.cycle();
+        gs.setStepDelta(null);
         if (gameover) {
             // ai1.gameOver(gs.winner());
             // ai2.gameOver(gs.winner());
         }
 
         for (int i = 0; i < numPlayers; i++) {
-            for (int j = 0; j < rfs.length; j++) {
-                rfs[j].computeReward(i, 1 - i, te, gs);
-                rewards[i][j] = rfs[j].getReward();
-                dones[i][j] = rfs[j].isDone();
-            }
+            rewardEngine.computeRewards(rfs, i, 1 - i, stepDelta, te, gs, rewards[i], dones[i]);
             response[i].set(
-                ais[i].getObservation(i, playergs[i]),
+                observationArrays ? ais[i].getObservation(i, playergs[i]) : null,
                 rewards[i],
                 dones[i],
                 "{}");
@@ -232,7 +248,7 @@ public class JNIGridnetClientSelfPlay {
                 dones[i][j] = false;
             }
             response[i].set(
-                ais[i].getObservation(i, playergs[i]),
+                observationArrays ? ais[i].getObservation(i, playergs[i]) : null,
                 rewards[i],
                 dones[i],
                 "{}");
@@ -245,6 +261,34 @@ public class JNIGridnetClientSelfPlay {
         return response[player];
     }
 
+    /**
+     * Writes the current observation of a player into a buffer, with the layout of
+     * {@link GameState#getVectorObservation(int, IntBuffer, int)}
+     * @param player
+     * @param buffer
+     * @param offset
+     */
+    public void writeObservation(int player, IntBuffer buffer, int offset) {
+        playergs[player].getVectorObservation(player, buffer, offset);
+    }
+
+    /**
+     * Writes the legal action masks of a player into a buffer, bit-packed with the
+     * layout of {@link PackedActionMasks}. The cells that cannot have changed since
+     * the previous call for this player (with the same buffer and offset) are not
+     * rewritten.
+     * @param player
+     * @param buffer
+     * @param offset
+     * @return the number of cells that were rewritten
+     */
+    public int writeMasks(int player, LongBuffer buffer, int offset) {
+        if (packedMasks[player] == null) {
+            packedMasks[player] = new PackedActionMasks(pgs.getWidth(), pgs.getHeight(), utt, maxAttackRadius);
+        }
+        return packedMasks[player].update(gs, player, buffer, offset);
+    }
+
     public void close() throws Exception {
         if (w!=null) {
             w.dispose();    
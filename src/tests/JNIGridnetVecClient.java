@@ -1,16 +1,35 @@
 package tests;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import ai.PassiveAI;
 import ai.core.AI;
+import ai.jni.PackedActionMasks;
 import ai.jni.Response;
 import ai.jni.Responses;
 import ai.reward.RewardFunctionInterface;
+import rts.EncodedGraph;
+import rts.GameGraph;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.SimulationContext;
 import rts.units.UnitTypeTable;
 
 /**
  * A vectorized client which lets us run multiple difference environments in
- * parallel (although, on the Java-side of the implementation, there is no
- * actual parallelization and input actions are simply processed sequentially).
+ * parallel. By default, on the Java-side of the implementation, there is no
+ * actual parallelization and input actions are simply processed sequentially;
+ * see {@link #useParallelStepping(int, long)} to step them concurrently.
  *
  * @author santi and costa
  */
@@ -72,17 +91,26 @@ public class JNIGridnetVecClient {
     //		...: ...													|
     // ]
     int[][][][] masks;
+    // Direct masks (see useDirectMasks): [player+environment index][Y][X][mask words], as native-order longs
+    ByteBuffer maskBuffer;
+    LongBuffer maskLongs;
     
     int[][][][] observation;
+    // Direct observations (see useDirectObservations): [environment index][feature map][Y][X], as native-order ints
+    ByteBuffer observationBuffer;
+    IntBuffer observationInts;
     double[][] reward;
     boolean[][] done;
     Response[] rs;
     Responses responses;
 
-    double[] terminalReward1;
-    boolean[] terminalDone1;
-    double[] terminalReward2;
-    boolean[] terminalDone2;
+    // [player+environment index][reward function], to keep the rewards of the last step when an environment is reset
+    double[][] terminalReward;
+    boolean[][] terminalDone;
+
+    // Parallel stepping (see useParallelStepping): [environment (client) index]
+    ExecutorService executor;
+    SimulationContext[] contexts;
 
     /**
      * 
@@ -133,10 +161,8 @@ public class JNIGridnetVecClient {
         observation = new int[s1][s2][s3][s4];
         reward = new double[s1][rfs.length];
         done = new boolean[s1][rfs.length];
-        terminalReward1 = new double[rfs.length];
-        terminalDone1 = new boolean[rfs.length];
-        terminalReward2 = new double[rfs.length];
-        terminalDone2 = new boolean[rfs.length];
+        terminalReward = new double[s1][rfs.length];
+        terminalDone = new boolean[s1][rfs.length];
         responses = new Responses(null, null, null);
         rs = new Response[s1];
     }
@@ -172,15 +198,15 @@ public class JNIGridnetVecClient {
         reward = new double[a_ai2s.length][rfs.length];
         done = new boolean[a_ai2s.length][rfs.length];
         envSteps = new int[a_ai2s.length];
-        terminalReward1 = new double[rfs.length];
-        terminalDone1 = new boolean[rfs.length];
+        terminalReward = new double[a_ai2s.length][rfs.length];
+        terminalDone = new boolean[a_ai2s.length][rfs.length];
     }
 
     public Responses reset(int[] players) throws Exception {
         if (botClients != null) {
-            for (int i = 0; i < botClients.length; i++) {
+            forEachEnv(botClients.length, (i) -> {
                 rs[i] = botClients[i].reset(players[i]);
-            }
+            });
             for (int i = 0; i < rs.length; i++) {
                 // observation[i] = rs[i].observation;
                 reward[i] = rs[i].reward;
@@ -190,21 +216,32 @@ public class JNIGridnetVecClient {
             return responses;
         }
         
-        for (int i = 0; i < selfPlayClients.length; i++) {
-            selfPlayClients[i].reset();
-            rs[i*2] = selfPlayClients[i].getResponse(0);
-            rs[i*2+1] = selfPlayClients[i].getResponse(1);
-        }
-        
-        for (int i = selfPlayClients.length*2; i < players.length; i++) {
-            rs[i] = clients[i-selfPlayClients.length*2].reset(players[i]);
-        }
+        forEachEnv(selfPlayClients.length + clients.length, (k) -> {
+            if (k < selfPlayClients.length) {
+                selfPlayClients[k].reset();
+                rs[k*2] = selfPlayClients[k].getResponse(0);
+                rs[k*2+1] = selfPlayClients[k].getResponse(1);
+            } else {
+                int i = k + selfPlayClients.length;
+                rs[i] = clients[k-selfPlayClients.length].reset(players[i]);
+            }
+            if (observationBuffer != null) {
+                writeObservation(k, players);
+            }
+            if (maskBuffer != null) {
+                writeMasks(k, players, -1);
+            }
+        });
 
         for (int i = 0; i < rs.length; i++) {
             observation[i] = rs[i].observation;
             reward[i] = rs[i].reward;
             done[i] = rs[i].done;
         }
+        if (observationBuffer != null) {
+            responses.set(null, reward, done);
+            return responses;
+        }
         
         responses.set(observation, reward, done);
         return responses;
@@ -212,23 +249,23 @@ public class JNIGridnetVecClient {
 
     public Responses gameStep(int[][][] action, int[] players) throws Exception {
         if (botClients != null) {
-            for (int i = 0; i < botClients.length; i++) {
+            forEachEnv(botClients.length, (i) -> {
                 rs[i] = botClients[i].gameStep(players[i]);
                 envSteps[i] += 1;
                 if (rs[i].done[0] || envSteps[i] >= maxSteps) {
-                    for (int j = 0; j < terminalReward1.length; j++) {
-                        terminalReward1[j] = rs[i].reward[j];
-                        terminalDone1[j] = rs[i].done[j];
+                    for (int j = 0; j < rfs.length; j++) {
+                        terminalReward[i][j] = rs[i].reward[j];
+                        terminalDone[i][j] = rs[i].done[j];
                     }
                     botClients[i].reset(players[i]);
-                    for (int j = 0; j < terminalReward1.length; j++) {
-                        rs[i].reward[j] = terminalReward1[j];
-                        rs[i].done[j] = terminalDone1[j];
+                    for (int j = 0; j < rfs.length; j++) {
+                        rs[i].reward[j] = terminalReward[i][j];
+                        rs[i].done[j] = terminalDone[i][j];
                     }
                     rs[i].done[0] = true;
                     envSteps[i] =0;
                 }
-            }
+            });
             for (int i = 0; i < rs.length; i++) {
                 // observation[i] = rs[i].observation;
                 reward[i] = rs[i].reward;
@@ -238,64 +275,326 @@ public class JNIGridnetVecClient {
             return responses;
         }
         
-        for (int i = 0; i < selfPlayClients.length; i++) {
-            selfPlayClients[i].gameStep(action[i*2], action[i*2+1]);
-            rs[i*2] = selfPlayClients[i].getResponse(0);
-            rs[i*2+1] = selfPlayClients[i].getResponse(1);
-            envSteps[i*2] += 1;
-            envSteps[i*2+1] += 1;
-            if (rs[i*2].done[0] || envSteps[i*2] >= maxSteps) {
-                for (int j = 0; j < terminalReward1.length; j++) {
-                    terminalReward1[j] = rs[i*2].reward[j];
-                    terminalDone1[j] = rs[i*2].done[j];
-                    terminalReward2[j] = rs[i*2+1].reward[j];
-                    terminalDone2[j] = rs[i*2+1].done[j];
-                }
-
-                selfPlayClients[i].reset();
-                for (int j = 0; j < terminalReward1.length; j++) {
-                    rs[i*2].reward[j] = terminalReward1[j];
-                    rs[i*2].done[j] = terminalDone1[j];
-                    rs[i*2+1].reward[j] = terminalReward2[j];
-                    rs[i*2+1].done[j] = terminalDone2[j];
-                }
-                rs[i*2].done[0] = true;
-                rs[i*2+1].done[0] = true;
-                envSteps[i*2] =0;
-                envSteps[i*2+1] =0;
+        forEachEnv(selfPlayClients.length + clients.length, (k) -> {
+            if (k < selfPlayClients.length) {
+                selfPlayClientStep(k, action);
+            } else {
+                clientStep(k + selfPlayClients.length, action, players);
             }
-        }
-
-        for (int i = selfPlayClients.length*2; i < players.length; i++) {
-            envSteps[i] += 1;
-            rs[i] = clients[i-selfPlayClients.length*2].gameStep(action[i], players[i]);
-            if (rs[i].done[0] || envSteps[i] >= maxSteps) {
-                // TRICKY: note that `clients` already resets the shared `observation`
-                // so we need to set the old reward and done to this response
-                for (int j = 0; j < rs[i].reward.length; j++) {
-                    terminalReward1[j] = rs[i].reward[j];
-                    terminalDone1[j] = rs[i].done[j];
-                }
-                clients[i-selfPlayClients.length*2].reset(players[i]);
-                for (int j = 0; j < rs[i].reward.length; j++) {
-                    rs[i].reward[j] = terminalReward1[j];
-                    rs[i].done[j] = terminalDone1[j];
-                }
-                rs[i].done[0] = true;
-                envSteps[i] = 0;
+            if (observationBuffer != null) {
+                writeObservation(k, players);
             }
-        }
+            if (maskBuffer != null) {
+                writeMasks(k, players, -1);
+            }
+        });
         
         for (int i = 0; i < rs.length; i++) {
             observation[i] = rs[i].observation;
             reward[i] = rs[i].reward;
             done[i] = rs[i].done;
         }
+        if (observationBuffer != null) {
+            responses.set(null, reward, done);
+            return responses;
+        }
         
         responses.set(observation, reward, done);
         return responses;
     }
 
+    void selfPlayClientStep(int i, int[][][] action) throws Exception {
+        selfPlayClients[i].gameStep(action[i*2], action[i*2+1]);
+        rs[i*2] = selfPlayClients[i].getResponse(0);
+        rs[i*2+1] = selfPlayClients[i].getResponse(1);
+        envSteps[i*2] += 1;
+        envSteps[i*2+1] += 1;
+        if (rs[i*2].done[0] || envSteps[i*2] >= maxSteps) {
+            for (int j = 0; j < rfs.length; j++) {
+                terminalReward[i*2][j] = rs[i*2].reward[j];
+                terminalDone[i*2][j] = rs[i*2].done[j];
+                terminalReward[i*2+1][j] = rs[i*2+1].reward[j];
+                terminalDone[i*2+1][j] = rs[i*2+1].done[j];
+            }
+
+            selfPlayClients[i].reset();
+            for (int j = 0; j < rfs.length; j++) {
+                rs[i*2].reward[j] = terminalReward[i*2][j];
+                rs[i*2].done[j] = terminalDone[i*2][j];
+                rs[i*2+1].reward[j] = terminalReward[i*2+1][j];
+                rs[i*2+1].done[j] = terminalDone[i*2+1][j];
+            }
+            rs[i*2].done[0] = true;
+            rs[i*2+1].done[0] = true;
+            envSteps[i*2] =0;
+            envSteps[i*2+1] =0;
+        }
+    }
+
+    void clientStep(int i, int[][][] action, int[] players) throws Exception {
+        envSteps[i] += 1;
+        rs[i] = clients[i-selfPlayClients.length*2].gameStep(action[i], players[i]);
+        if (rs[i].done[0] || envSteps[i] >= maxSteps) {
+            // TRICKY: note that `clients` already resets the shared `observation`
+            // so we need to set the old reward and done to this response
+            for (int j = 0; j < rs[i].reward.length; j++) {
+                terminalReward[i][j] = rs[i].reward[j];
+                terminalDone[i][j] = rs[i].done[j];
+            }
+            clients[i-selfPlayClients.length*2].reset(players[i]);
+            for (int j = 0; j < rs[i].reward.length; j++) {
+                rs[i].reward[j] = terminalReward[i][j];
+                rs[i].done[j] = terminalDone[i][j];
+            }
+            rs[i].done[0] = true;
+            envSteps[i] = 0;
+        }
+    }
+
+    /**
+     * Switches to parallel stepping: from then on, reset, gameStep and getMasks process
+     * the environments concurrently in a pool of worker threads (including the Java
+     * bots' getAction, the rewards and the masks), each of them writing only to its own
+     * entries of the output arrays and its own slice of the observation buffer.
+     * So that the outcome of each environment does not depend on how the threads are
+     * scheduled, each one is given its own {@link SimulationContext} (unit IDs and
+     * random numbers of the game engine, seeded from the given seed and its index)
+     * and its own copies of the reward functions. The bots passed to the constructor
+     * must be different instances for different environments.
+     * Note that the random outcomes (attack damage, random conflict resolution) differ
+     * from those of the sequential mode, since the environments no longer share
+     * random generators.
+     * @param numThreads number of worker threads
+     * @param seed
+     */
+    public void useParallelStepping(int numThreads, long seed) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("JNIGridnetVecClient.useParallelStepping: numThreads must be at least 1");
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        executor = Executors.newFixedThreadPool(numThreads, (r) -> {
+            Thread t = new Thread(r, "JNIGridnetVecClient worker");
+            t.setDaemon(true);
+            return t;
+        });
+        if (botClients != null) {
+            contexts = new SimulationContext[botClients.length];
+            for (JNIBotClient client : botClients) {
+                client.rfs = cloneRewardFunctions(client.rfs);
+            }
+        } else {
+            contexts = new SimulationContext[selfPlayClients.length + clients.length];
+            for (JNIGridnetClientSelfPlay client : selfPlayClients) {
+                client.rfs = cloneRewardFunctions(client.rfs);
+            }
+            for (JNIGridnetClient client : clients) {
+                client.rfs = cloneRewardFunctions(client.rfs);
+            }
+        }
+        Random r = new Random(seed);
+        for (int k = 0; k < contexts.length; k++) {
+            contexts[k] = new SimulationContext(r.nextLong());
+        }
+    }
+
+    /**
+     * @return whether environments are stepped in parallel (see
+     * {@link #useParallelStepping(int, long)})
+     */
+    public boolean isParallelStepping() {
+        return executor != null;
+    }
+
+    static RewardFunctionInterface[] cloneRewardFunctions(RewardFunctionInterface[] rfs) {
+        RewardFunctionInterface[] copies = new RewardFunctionInterface[rfs.length];
+        for (int i = 0; i < rfs.length; i++) {
+            copies[i] = rfs[i].clone();
+        }
+        return copies;
+    }
+
+    interface EnvTask {
+        void run(int env) throws Exception;
+    }
+
+    /**
+     * Runs the task for environments 0 ... n-1, in order in the calling thread, or
+     * concurrently in the worker pool when stepping in parallel (in which case each
+     * task runs with the {@link SimulationContext} of its environment)
+     */
+    void forEachEnv(int n, EnvTask task) throws Exception {
+        if (executor == null) {
+            for (int k = 0; k < n; k++) {
+                task.run(k);
+            }
+            return;
+        }
+        List<Future<Void>> futures = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            final int env = k;
+            futures.add(executor.submit(() -> {
+                SimulationContext.set(contexts[env]);
+                try {
+                    task.run(env);
+                } finally {
+                    SimulationContext.set(null);
+                }
+                return null;
+            }));
+        }
+        Exception exception = null;
+        for (Future<Void> future : futures) {
+            // wait for all of them, so that no task is still running when we return:
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    Throwable t = e.getCause();
+                    if (t instanceof Error) {
+                        throw (Error) t;
+                    }
+                    exception = (t instanceof Exception ? (Exception) t : e);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * @return the dictionary-encoded graph of the rules of the environments (see
+     * {@link GameGraph#cached(UnitTypeTable)}), shared by all the environments and resets
+     */
+    public EncodedGraph getEncodedGraph() {
+        return GameGraph.cached(utt).encode();
+    }
+
+    /**
+     * Switches to direct observations: from then on, reset and gameStep write the
+     * observations of all the environments into a single direct, native-order buffer,
+     * laid out as a contiguous int32 array of shape [environment][feature map][height][width],
+     * and the responses they return do not contain observation arrays. The buffer is
+     * updated in place, so the Python side can wrap it once as a numpy array without
+     * copying (e.g. np.frombuffer(buffer, dtype=np.int32).reshape(...)), instead of
+     * converting the int[][][][] observations element by element across JNI.
+     * Should be called before reset, and requires all the maps to have the same size.
+     * @return the observation buffer
+     */
+    public ByteBuffer useDirectObservations() {
+        if (botClients != null) {
+            throw new IllegalStateException("JNIGridnetVecClient.useDirectObservations: Java-bot-only environments have no observations");
+        }
+        if (observationBuffer == null) {
+            int envSize = observation[0].length * observation[0][0].length * observation[0][0][0].length;
+            observationBuffer = ByteBuffer.allocateDirect(observation.length * envSize * 4).order(ByteOrder.nativeOrder());
+            observationInts = observationBuffer.asIntBuffer();
+            for (JNIGridnetClientSelfPlay client : selfPlayClients) {
+                client.observationArrays = false;
+            }
+            for (JNIGridnetClient client : clients) {
+                client.observationArrays = false;
+            }
+        }
+        return observationBuffer;
+    }
+
+    /**
+     * @return the buffer set up by {@link #useDirectObservations()}, or null if the
+     * observations are returned as arrays
+     */
+    public ByteBuffer getObservationBuffer() {
+        return observationBuffer;
+    }
+
+    /**
+     * Writes the observations of the k-th environment (a self-play environment
+     * fills two slices of the buffer) into the direct observation buffer
+     */
+    void writeObservation(int k, int[] players) {
+        int envSize = observationInts.capacity() / observation.length;
+        if (k < selfPlayClients.length) {
+            checkObservationSize(selfPlayClients[k].gs, envSize);
+            selfPlayClients[k].writeObservation(0, observationInts, (k*2) * envSize);
+            selfPlayClients[k].writeObservation(1, observationInts, (k*2+1) * envSize);
+        } else {
+            int i = k + selfPlayClients.length;
+            JNIGridnetClient client = clients[k-selfPlayClients.length];
+            checkObservationSize(client.gs, envSize);
+            client.writeObservation(players[i], observationInts, i * envSize);
+        }
+    }
+
+    /**
+     * Switches to direct masks: from then on, reset and gameStep also update the legal
+     * action masks of all the environments (for both players in self-play environments,
+     * and for the player given in players[i] in the others), so that they are available
+     * without another call. They are written, bit-packed, into a single direct,
+     * native-order buffer laid out as a contiguous int64 array of shape
+     * [environment][height][width][words], where feature k of the int masks returned by
+     * {@link #getMasks(int)} is bit (k % 64) of word (k / 64) (see
+     * {@link PackedActionMasks}); e.g. in numpy, on a little-endian machine:
+     * np.unpackbits(np.frombuffer(buffer, dtype=np.uint8).reshape(envs, height, width, words * 8),
+     * axis=-1, bitorder='little')[..., :mask_size].
+     * Only the cells whose masks may have changed are rewritten at every step.
+     * Requires all the maps to have the same size.
+     * @return the mask buffer
+     */
+    public ByteBuffer useDirectMasks() {
+        if (botClients != null) {
+            throw new IllegalStateException("JNIGridnetVecClient.useDirectMasks: Java-bot-only environments have no masks");
+        }
+        if (maskBuffer == null) {
+            int maxAttackRadius = utt.getMaxAttackRange() * 2 + 1;
+            int wordsPerCell = (PackedActionMasks.maskSize(utt, maxAttackRadius) + 63) / 64;
+            int envSize = observation[0][0].length * observation[0][0][0].length * wordsPerCell;
+            maskBuffer = ByteBuffer.allocateDirect(observation.length * envSize * 8).order(ByteOrder.nativeOrder());
+            maskLongs = maskBuffer.asLongBuffer();
+        }
+        return maskBuffer;
+    }
+
+    /**
+     * Updates the direct masks (see {@link #useDirectMasks()}) for the given player in
+     * the environments against Java bots (and for both players in self-play environments)
+     * @param player
+     * @return the mask buffer
+     * @throws Exception
+     */
+    public ByteBuffer getMasksBuffer(int player) throws Exception {
+        useDirectMasks();
+        forEachEnv(selfPlayClients.length + clients.length, (k) -> {
+            writeMasks(k, null, player);
+        });
+        return maskBuffer;
+    }
+
+    /**
+     * Writes the masks of the k-th environment (a self-play environment fills two
+     * slices of the buffer) into the direct mask buffer
+     * @param k
+     * @param players players of each environment, or null to use the given player
+     * @param player
+     */
+    void writeMasks(int k, int[] players, int player) {
+        int envSize = maskLongs.capacity() / observation.length;
+        if (k < selfPlayClients.length) {
+            selfPlayClients[k].writeMasks(0, maskLongs, (k*2) * envSize);
+            selfPlayClients[k].writeMasks(1, maskLongs, (k*2+1) * envSize);
+        } else {
+            int i = k + selfPlayClients.length;
+            clients[k-selfPlayClients.length].writeMasks(players != null ? players[i] : player, maskLongs, i * envSize);
+        }
+    }
+
+    static void checkObservationSize(GameState gs, int envSize) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        if (GameState.numVectorObservationFeatureMaps * pgs.getWidth() * pgs.getHeight() != envSize) {
+            throw new IllegalStateException("JNIGridnetVecClient: direct observations require all the maps to have the same size");
+        }
+    }
 
     /**
      * @param player
@@ -305,17 +604,22 @@ public class JNIGridnetVecClient {
      * @throws Exception
      */
     public int[][][][] getMasks(int player) throws Exception {
-        for (int i = 0; i < selfPlayClients.length; i++) {
-            masks[i*2] = selfPlayClients[i].getMasks(0);
-            masks[i*2+1] = selfPlayClients[i].getMasks(1);
-        }
-        for (int i = selfPlayClients.length*2; i < masks.length; i++) {
-            masks[i] = clients[i-selfPlayClients.length*2].getMasks(player);
-        }
+        forEachEnv(selfPlayClients.length + clients.length, (k) -> {
+            if (k < selfPlayClients.length) {
+                masks[k*2] = selfPlayClients[k].getMasks(0);
+                masks[k*2+1] = selfPlayClients[k].getMasks(1);
+            } else {
+                masks[k+selfPlayClients.length] = clients[k-selfPlayClients.length].getMasks(player);
+            }
+        });
         return masks;
     }
 
     public void close() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
         if (clients != null) {
             for (JNIGridnetClient client : clients) {
                 client.close();
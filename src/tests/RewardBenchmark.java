@@ -0,0 +1,115 @@
+package tests;
+
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import ai.reward.AttackRewardFunction;
+import ai.reward.CloserToEnemyBaseRewardFunction;
+import ai.reward.CloserToEnemyUnitRewardFunction;
+import ai.reward.ProduceBuildingRewardFunction;
+import ai.reward.ProduceCombatUnitRewardFunction;
+import ai.reward.ProduceWorkerRewardFunction;
+import ai.reward.ResourceGatherRewardFunction;
+import ai.reward.RewardEngine;
+import ai.reward.RewardFunctionInterface;
+import ai.reward.WinLossRewardFunction;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.StepDelta;
+import rts.TraceEntry;
+import rts.units.UnitTypeTable;
+
+/**
+ * Compares the cost per step of computing the rewards of the JNI clients as they
+ * used to (a TraceEntry with a copy of the map, and one computeReward call per
+ * reward function), one computeReward call per reward function from a
+ * {@link StepDelta}, and all of them at once with a {@link RewardEngine}. It also
+ * checks that the three give the same rewards.
+ *
+ * Usage: RewardBenchmark [steps per map]
+ */
+public class RewardBenchmark {
+
+    static final String MAPS[] = {
+        "maps/8x8/basesWorkers8x8.xml",
+        "maps/16x16/basesWorkers16x16.xml",
+        "maps/BWDistantResources32x32.xml",
+        "maps/GardenOfWar64x64.xml"
+    };
+
+    public static void main(String args[]) throws Exception {
+        int steps = (args.length > 0 ? Integer.parseInt(args[0]) : 3000);
+        UnitTypeTable utt = new UnitTypeTable();
+        RewardEngine engine = new RewardEngine(utt);
+
+        for (String mapName : MAPS) {
+            RewardFunctionInterface rfs[] = {
+                new WinLossRewardFunction(),
+                new ResourceGatherRewardFunction(),
+                new ProduceWorkerRewardFunction(),
+                new ProduceBuildingRewardFunction(),
+                new AttackRewardFunction(),
+                new ProduceCombatUnitRewardFunction(),
+                new CloserToEnemyBaseRewardFunction(),
+                new CloserToEnemyUnitRewardFunction()
+            };
+            double expected[] = new double[rfs.length];
+            double rewards[] = new double[rfs.length];
+            boolean dones[] = new boolean[rfs.length];
+            long traceTime = 0, deltaTime = 0, engineTime = 0;
+            int measured = 0, mismatches = 0;
+            for (int repetition = 0; repetition < 6; repetition++) {
+                // the first repetition is a warm up (the games are deterministic, so all are the same)
+                GameState gs = new GameState(PhysicalGameState.load(mapName, utt), utt);
+                AI ai1 = new WorkerRush(utt);
+                AI ai2 = new LightRush(utt);
+                StepDelta delta = new StepDelta();
+                for (int step = 0; step < steps && !gs.gameover(); step++) {
+                    PlayerAction pa1 = ai1.getAction(0, gs);
+                    PlayerAction pa2 = ai2.getAction(1, gs);
+                    delta.clear();
+                    gs.setStepDelta(delta);
+                    gs.issueSafe(pa1);
+                    gs.issueSafe(pa2);
+                    long start = System.nanoTime();
+                    TraceEntry te = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
+                    te.addPlayerAction(pa1.clone());
+                    te.addPlayerAction(pa2.clone());
+                    long cloned = System.nanoTime() - start;
+                    gs.cycle();
+                    gs.setStepDelta(null);
+
+                    start = System.nanoTime();
+                    for (int i = 0; i < rfs.length; i++) {
+                        rfs[i].computeReward(0, 1, te, gs);
+                        expected[i] = rfs[i].getReward();
+                    }
+                    long t1 = System.nanoTime();
+                    for (int i = 0; i < rfs.length; i++) {
+                        rfs[i].computeReward(0, 1, delta, gs);
+                        rewards[i] = rfs[i].getReward();
+                    }
+                    long t2 = System.nanoTime();
+                    for (int i = 0; i < rfs.length; i++) {
+                        if (rewards[i] != expected[i]) mismatches++;
+                    }
+                    engine.computeRewards(rfs, 0, 1, delta, te, gs, rewards, dones);
+                    long t3 = System.nanoTime();
+                    for (int i = 0; i < rfs.length; i++) {
+                        if (rewards[i] != expected[i]) mismatches++;
+                    }
+                    if (repetition > 0) {
+                        traceTime += cloned + (t1 - start);
+                        deltaTime += t2 - t1;
+                        engineTime += t3 - t2;
+                        measured++;
+                    }
+                }
+            }
+            System.out.println(String.format("%-36s %5d steps  TraceEntry: %7.2f us/step   StepDelta: %7.2f us/step   RewardEngine: %7.2f us/step   (x%.1f)   mismatches: %d",
+                    mapName, measured, traceTime / 1000.0 / measured, deltaTime / 1000.0 / measured,
+                    engineTime / 1000.0 / measured, (double) traceTime / engineTime, mismatches));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package tests.rts;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import ai.evaluation.EvaluationFunction;
+import ai.evaluation.LanchesterEvaluationFunction;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import rts.GameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures the states per second evaluated one at a time and in batches (see
+ * {@link EvaluationFunction#evaluate(int, int, GameState[], int, float[])}), on states
+ * like the ones at the end of the playouts of a search (random playouts from a mid
+ * game state), checking that both give the same evaluations.
+ *
+ * Usage: EvaluationBatchBenchmark [milliseconds per measurement] [batch size]
+ */
+public class EvaluationBatchBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        long budget = (args.length > 0 ? Long.parseLong(args[0]) : 1000);
+        int batchSize = (args.length > 1 ? Integer.parseInt(args[1]) : 64);
+        UnitTypeTable utt = new UnitTypeTable();
+        EvaluationFunction functions[] = {new SimpleSqrtEvaluationFunction3(), new LanchesterEvaluationFunction()};
+
+        for (String mapName : GameStateCloneBenchmark.MAPS) {
+            GameState gs = GameStateCloneBenchmark.midGameState(mapName, utt);
+            GameState states[] = new GameState[batchSize];
+            AI policy = new RandomBiasedAI();
+            for (int i = 0; i < batchSize; i++) {
+                states[i] = gs.clone();
+                for (int j = 0; j < 50 && !states[i].gameover(); j++) {
+                    states[i].issueSafe(policy.getAction(0, states[i]));
+                    states[i].issueSafe(policy.getAction(1, states[i]));
+                    states[i].cycle();
+                }
+            }
+            System.out.println(mapName + " (" + gs.getUnits().size() + " units):");
+            for (EvaluationFunction ef : functions) {
+                float single[] = new float[batchSize];
+                float batch[] = new float[batchSize];
+                for (int i = 0; i < batchSize; i++) {
+                    single[i] = ef.evaluate(0, 1, states[i]);
+                }
+                ef.evaluate(0, 1, states, batchSize, batch);
+                int different = 0;
+                for (int i = 0; i < batchSize; i++) {
+                    if (Float.floatToIntBits(single[i]) != Float.floatToIntBits(batch[i])) different++;
+                }
+                // warm up:
+                measure(ef, states, false, budget / 4);
+                measure(ef, states, true, budget / 4);
+                double one = measure(ef, states, false, budget);
+                double all = measure(ef, states, true, budget);
+                System.out.println(String.format("  %-30s one at a time: %10.0f/s   batch: %10.0f/s   (x%.2f)%s",
+                        ef, one, all, all / one, (different == 0 ? "" : "   " + different + " DIFFERENT EVALUATIONS")));
+            }
+        }
+    }
+
+    /**
+     * Returns states evaluated per second
+     */
+    static double measure(EvaluationFunction ef, GameState states[], boolean batch, long budget) {
+        float result[] = new float[states.length];
+        long start = System.currentTimeMillis();
+        long end;
+        long count = 0;
+        do {
+            if (batch) {
+                ef.evaluate(0, 1, states, states.length, result);
+            } else {
+                for (int i = 0; i < states.length; i++) {
+                    result[i] = ef.evaluate(0, 1, states[i]);
+                }
+            }
+            count += states.length;
+            end = System.currentTimeMillis();
+        } while (end - start < budget);
+        return count * 1000.0 / (end - start);
+    }
+}
@@ -0,0 +1,105 @@
+package tests.rts;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import rts.EncodedGraph;
+import rts.GameGraph;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures how long it takes to get the graph of a unit type table and its triples
+ * (as an environment does at every reset) building it each time, and through
+ * {@link GameGraph#cached(UnitTypeTable)}, for the standard unit type table and the
+ * one in utts/TestUnitTypeTable.json, and the size of the triples as strings and
+ * dictionary encoded (see {@link GameGraph#encode()}), the heap a graph takes, and
+ * the time it takes to build the first graph in a JVM (loading the classes it needs).
+ *
+ * Usage: GameGraphBenchmark [milliseconds per measurement]
+ */
+public class GameGraphBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        long budget = (args.length > 0 ? Long.parseLong(args[0]) : 1000);
+        // the first graph pays for loading the classes it needs:
+        int classes = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+        long start = System.nanoTime();
+        GameGraph first = new GameGraph();
+        first.processUnitTypeTable(new UnitTypeTable());
+        first.getTriples();
+        System.out.println(String.format("first graph: %.1f ms, %d classes loaded",
+                (System.nanoTime() - start) / 1000000.0, ManagementFactory.getClassLoadingMXBean().getLoadedClassCount() - classes));
+
+        UnitTypeTable utts[] = {
+            new UnitTypeTable(),
+            UnitTypeTable.fromJSON(new String(Files.readAllBytes(Paths.get("utts/TestUnitTypeTable.json"))))
+        };
+        String names[] = {"standard", "TestUnitTypeTable.json"};
+
+        for (int i = 0; i < utts.length; i++) {
+            GameGraph graph = GameGraph.cached(utts[i]);
+            System.out.println(names[i] + " (" + graph.getTriples().size() + " triples):");
+            // warm up:
+            measure(utts[i], false, budget / 4);
+            measure(utts[i], true, budget / 4);
+            double built = measure(utts[i], false, budget);
+            double cached = measure(utts[i], true, budget);
+            System.out.println(String.format("  built: %10.1f/s   cached: %10.1f/s   (x%.1f)", built, cached, cached / built));
+            System.out.println(String.format("  heap per built graph: %.1f KB", heapPerGraph(utts[i], 200) / 1024.0));
+            long chars = 0;
+            for (String triple[] : graph.getTriples()) {
+                for (String s : triple) chars += s.length();
+            }
+            EncodedGraph encoded = graph.encode();
+            long dictionary = 0;
+            for (String s : encoded.getEntities()) dictionary += s.length();
+            for (String s : encoded.getRelations()) dictionary += s.length();
+            for (String s : encoded.getLiterals()) dictionary += s.length();
+            System.out.println("  triples as strings: " + chars + " chars   encoded: " + encoded.getTriples().length * 4 + " bytes (+ dictionaries of " + dictionary + " chars, sent once)");
+        }
+    }
+
+    /**
+     * Returns the bytes of heap retained by each of n graphs built (the difference
+     * in used heap, after collecting the garbage, before and after building them)
+     */
+    static double heapPerGraph(UnitTypeTable utt, int n) {
+        GameGraph graphs[] = new GameGraph[n];
+        long before = usedHeap();
+        for (int i = 0; i < n; i++) {
+            graphs[i] = new GameGraph();
+            graphs[i].processUnitTypeTable(utt);
+        }
+        long after = usedHeap();
+        if (graphs[n - 1] == null) throw new Error();  // keeps the graphs reachable until here
+        return (after - before) / (double) n;
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Returns graphs (with their triples) per second
+     */
+    static double measure(UnitTypeTable utt, boolean cached, long budget) {
+        long start = System.currentTimeMillis();
+        long end;
+        long count = 0;
+        do {
+            GameGraph graph;
+            if (cached) {
+                graph = GameGraph.cached(utt);
+            } else {
+                graph = new GameGraph();
+                graph.processUnitTypeTable(utt);
+            }
+            graph.getTriples();
+            count++;
+            end = System.currentTimeMillis();
+        } while (end - start < budget);
+        return count * 1000.0 / (end - start);
+    }
+}
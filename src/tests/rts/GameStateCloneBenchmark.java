@@ -0,0 +1,110 @@
+package tests.rts;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Compares the throughput of the deep {@link GameState#clone()} against the
+ * structure-sharing {@link GameState#cloneSharingUnits()}, both alone and
+ * followed by what search algorithms do with the clone: advancing it until a
+ * player can act (as when creating a tree node), or running a short random
+ * playout.
+ *
+ * Usage: GameStateCloneBenchmark [milliseconds per measurement]
+ */
+public class GameStateCloneBenchmark {
+
+    static final String MAPS[] = {
+        "maps/8x8/basesWorkers8x8.xml",
+        "maps/16x16/basesWorkers16x16.xml",
+        "maps/BWDistantResources32x32.xml",
+        "maps/GardenOfWar64x64.xml"
+    };
+
+    static final int MODE_CLONE = 0;
+    static final int MODE_NODE = 1;
+    static final int MODE_PLAYOUT = 2;
+    static final String MODE_NAMES[] = {"clone", "clone+advance to next decision", "clone+20 cycle playout"};
+
+    public static void main(String args[]) throws Exception {
+        long budget = (args.length > 0 ? Long.parseLong(args[0]) : 1000);
+        UnitTypeTable utt = new UnitTypeTable();
+
+        for (String mapName : MAPS) {
+            GameState gs = midGameState(mapName, utt);
+            System.out.println(mapName + " (" + gs.getUnits().size() + " units, "
+                    + gs.getUnitActions().size() + " pending actions):");
+            for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+                // warm up:
+                measure(gs, mode, false, budget / 4);
+                measure(gs, mode, true, budget / 4);
+                double deep = measure(gs, mode, false, budget);
+                double shared = measure(gs, mode, true, budget);
+                System.out.println(String.format("  %-32s deep: %10.0f/s   sharing units: %10.0f/s   (x%.2f)",
+                        MODE_NAMES[mode], deep, shared, shared / deep));
+            }
+        }
+    }
+
+    /**
+     * Plays a scripted game for a while, so that the state has a realistic
+     * number of units and pending actions
+     */
+    static GameState midGameState(String mapName, UnitTypeTable utt) throws Exception {
+        return midGameState(mapName, utt, 400);
+    }
+
+    static GameState midGameState(String mapName, UnitTypeTable utt, int cycles) throws Exception {
+        GameState gs = new GameState(PhysicalGameState.load(mapName, utt), utt);
+        AI ai1 = new WorkerRush(utt);
+        AI ai2 = new LightRush(utt);
+        for (int i = 0; i < cycles && !gs.gameover(); i++) {
+            gs.issueSafe(ai1.getAction(0, gs));
+            gs.issueSafe(ai2.getAction(1, gs));
+            gs.cycle();
+        }
+        gs.issueSafe(ai1.getAction(0, gs));
+        gs.issueSafe(ai2.getAction(1, gs));
+        return gs;
+    }
+
+    /**
+     * Returns operations per second
+     */
+    static double measure(GameState gs, int mode, boolean sharing, long budget) throws Exception {
+        AI playoutPolicy = new RandomBiasedAI();
+        long n = 0;
+        long start = System.currentTimeMillis();
+        long end = start + budget;
+        while (System.currentTimeMillis() < end) {
+            for (int i = 0; i < 16; i++) {
+                GameState gs2 = (sharing ? gs.cloneSharingUnits() : gs.clone());
+                if (mode == MODE_NODE) {
+                    while (!gs2.gameover()
+                            && !gs2.canExecuteAnyAction(0)
+                            && !gs2.canExecuteAnyAction(1)) {
+                        gs2.cycle();
+                    }
+                } else if (mode == MODE_PLAYOUT) {
+                    int time = gs2.getTime() + 20;
+                    boolean gameover = false;
+                    do {
+                        if (gs2.isComplete()) {
+                            gameover = gs2.cycle();
+                        } else {
+                            gs2.issue(playoutPolicy.getAction(0, gs2));
+                            gs2.issue(playoutPolicy.getAction(1, gs2));
+                        }
+                    } while (!gameover && gs2.getTime() < time);
+                }
+                n++;
+            }
+        }
+        return n * 1000.0 / (System.currentTimeMillis() - start);
+    }
+}
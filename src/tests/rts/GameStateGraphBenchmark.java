@@ -0,0 +1,78 @@
+package tests.rts;
+
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import rts.GameState;
+import rts.GameStateGraph;
+import rts.PhysicalGameState;
+import rts.StepDelta;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures the time per step it takes to keep the facts of a game up to date in a
+ * {@link GameStateGraph} (from the step delta, and looking at all the units), against
+ * building them again at every step (as a GameStateGraph, and as a Jena model), in
+ * games between WorkerRush and LightRush.
+ *
+ * Usage: GameStateGraphBenchmark [max cycles per game]
+ */
+public class GameStateGraphBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        int maxCycles = (args.length > 0 ? Integer.parseInt(args[0]) : 1500);
+        UnitTypeTable utt = new UnitTypeTable();
+
+        for (String mapName : GameStateCloneBenchmark.MAPS) {
+            GameState gs = new GameState(PhysicalGameState.load(mapName, utt), utt);
+            AI ai1 = new WorkerRush(utt);
+            AI ai2 = new LightRush(utt);
+            GameStateGraph fromDelta = new GameStateGraph(gs);
+            GameStateGraph fromUnits = new GameStateGraph(gs);
+            StepDelta delta = new StepDelta();
+            long times[] = new long[4];
+            long facts = 0, changes = 0;
+            int steps = 0;
+            boolean gameover = false;
+            while (!gameover && gs.getTime() < maxCycles) {
+                delta.clear();
+                gs.setStepDelta(delta);
+                gs.issueSafe(ai1.getAction(0, gs));
+                gs.issueSafe(ai2.getAction(1, gs));
+                gameover = gs.cycle();
+                gs.setStepDelta(null);
+
+                long start = System.nanoTime();
+                GameStateGraph.Delta d = fromDelta.update(gs, delta);
+                long t1 = System.nanoTime();
+                fromUnits.update(gs);
+                long t2 = System.nanoTime();
+                GameStateGraph rebuilt = new GameStateGraph(gs);
+                int triples[] = rebuilt.getTriples();
+                long t3 = System.nanoTime();
+                Model model = ModelFactory.createDefaultModel();
+                for (int i = 0; i < triples.length; i += 3) {
+                    int o = triples[i + 2];
+                    model.add(model.createResource(rebuilt.getEntity(triples[i])),
+                              model.createProperty(rebuilt.getRelation(triples[i + 1])),
+                              (o >= 0 ? model.createResource(rebuilt.getObject(o)) : model.createTypedLiteral(Integer.parseInt(rebuilt.getObject(o).split("\"")[1]))));
+                }
+                long t4 = System.nanoTime();
+                times[0] += t1 - start;
+                times[1] += t2 - t1;
+                times[2] += t3 - t2;
+                times[3] += t4 - t3;
+                facts += triples.length / 3;
+                changes += (d.getAdded().length + d.getRemoved().length) / 3;
+                steps++;
+            }
+            fromDelta.clearLog();
+            fromUnits.clearLog();
+            System.out.println(mapName + " (" + steps + " steps, " + facts / steps + " facts and " + changes / steps + " changes per step on average):");
+            System.out.println(String.format("  update from the delta: %8.1f us/step   from the units: %8.1f us/step   rebuilt: %8.1f us/step   Jena model: %8.1f us/step",
+                    times[0] / 1000.0 / steps, times[1] / 1000.0 / steps, times[2] / 1000.0 / steps, times[3] / 1000.0 / steps));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package tests.rts;
+
+import java.util.function.DoubleSupplier;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.StmtIterator;
+import rts.GameGraph;
+import rts.GraphQuery;
+import rts.JenaExport;
+import rts.TripleStore;
+import rts.UnitAction;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures how long some queries an AI could make on the rules of the game take with
+ * a {@link GraphQuery} (see {@link GameGraph#query()}), with the indexes of the
+ * {@link TripleStore}, and iterating over the statements of a Jena model with the same
+ * triples:
+ * - the actions each unit type does
+ * - the weights of the preferences of the attack action (a 2-hop join)
+ * - the unit types that aim at enemies (a 2-hop join to a literal)
+ *
+ * Usage: GraphQueryBenchmark [milliseconds per measurement]
+ */
+public class GraphQueryBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        long budget = (args.length > 0 ? Long.parseLong(args[0]) : 1000);
+        UnitTypeTable utt = new UnitTypeTable();
+        GameGraph graph = GameGraph.cached(utt);
+        TripleStore store = graph.getTripleStore();
+        GraphQuery q = graph.query();
+        Model model = JenaExport.toModel(store);
+
+        int unitTypes[] = new int[utt.getUnitTypes().size()];
+        Resource unitTypeNodes[] = new Resource[unitTypes.length];
+        for (UnitType ut : utt.getUnitTypes()) {
+            unitTypes[ut.ID] = q.term(GameGraph.UNIT_PREFIX + ut.ID);
+            unitTypeNodes[ut.ID] = model.createResource(GameGraph.UNIT_PREFIX + ut.ID);
+        }
+        int does = q.term(GameGraph.UNIT_PREFIX + "does");
+        int attack = q.term(GameGraph.ACTION_PREFIX + UnitAction.TYPE_ATTACK_LOCATION);
+        int prefers = q.term(GameGraph.ACTION_PREFIX + "prefers");
+        int weight = q.term(GameGraph.ACTION_PREFIX + "weight");
+        int aimsAt = q.term(GameGraph.UNIT_PREFIX + "aimsAt");
+        int relation = q.term(GameGraph.UNIT_PREFIX + "relation");
+        int enemy = q.literal("enemy");
+        Property doesProperty = model.createProperty(GameGraph.UNIT_PREFIX + "does");
+        Resource attackNode = model.createResource(GameGraph.ACTION_PREFIX + UnitAction.TYPE_ATTACK_LOCATION);
+        Property prefersProperty = model.createProperty(GameGraph.ACTION_PREFIX + "prefers");
+        Property weightProperty = model.createProperty(GameGraph.ACTION_PREFIX + "weight");
+        Property aimsAtProperty = model.createProperty(GameGraph.UNIT_PREFIX + "aimsAt");
+        Property relationProperty = model.createProperty(GameGraph.UNIT_PREFIX + "relation");
+        RDFNode enemyNode = model.createTypedLiteral("enemy");
+
+        String names[] = {"actions of each unit type", "weights of the attack preferences", "unit types aiming at enemies"};
+        DoubleSupplier queries[][] = {
+            {
+                () -> {
+                    int n = 0;
+                    for (int ut : unitTypes) {
+                        for (int i = 0; i < q.objectCount(ut, does); i++) n += q.object(ut, does, i);
+                    }
+                    return n;
+                },
+                () -> {
+                    int n = 0;
+                    for (int ut : unitTypes) {
+                        int found[] = store.find(ut, does, TripleStore.ANY);
+                        for (int i = 0; i < found.length; i += 3) n += found[i + 2];
+                    }
+                    return n;
+                },
+                () -> {
+                    int n = 0;
+                    for (Resource ut : unitTypeNodes) {
+                        StmtIterator it = model.listStatements(ut, doesProperty, (RDFNode) null);
+                        while (it.hasNext()) n += store.getURIID(it.next().getObject().asResource().getURI());
+                    }
+                    return n;
+                }
+            },
+            {
+                () -> {
+                    double sum = 0;
+                    for (int i = 0; i < q.objectCount(attack, prefers); i++) {
+                        sum += q.number(q.firstObject(q.object(attack, prefers, i), weight));
+                    }
+                    return sum;
+                },
+                () -> {
+                    double sum = 0;
+                    int found[] = store.find(attack, prefers, TripleStore.ANY);
+                    for (int i = 0; i < found.length; i += 3) {
+                        int weights[] = store.find(found[i + 2], weight, TripleStore.ANY);
+                        sum += Double.parseDouble(store.getValue(weights[2]));
+                    }
+                    return sum;
+                },
+                () -> {
+                    double sum = 0;
+                    StmtIterator it = model.listStatements(attackNode, prefersProperty, (RDFNode) null);
+                    while (it.hasNext()) {
+                        sum += it.next().getObject().asResource().getProperty(weightProperty).getDouble();
+                    }
+                    return sum;
+                }
+            },
+            {
+                () -> q.joinTo(aimsAt, relation, enemy).length / 2,
+                () -> {
+                    int n = 0;
+                    int found[] = store.find(TripleStore.ANY, relation, enemy);
+                    for (int i = 0; i < found.length; i += 3) n += store.find(TripleStore.ANY, aimsAt, found[i]).length / 3;
+                    return n;
+                },
+                () -> {
+                    int n = 0;
+                    StmtIterator it = model.listStatements(null, relationProperty, enemyNode);
+                    while (it.hasNext()) {
+                        StmtIterator it2 = model.listStatements(null, aimsAtProperty, it.next().getSubject());
+                        while (it2.hasNext()) {
+                            it2.next();
+                            n++;
+                        }
+                    }
+                    return n;
+                }
+            }
+        };
+
+        for (int i = 0; i < queries.length; i++) {
+            double results[] = new double[3];
+            double times[] = new double[3];
+            for (int j = 0; j < 3; j++) {
+                measure(queries[i][j], budget / 4);   // warm up
+                results[j] = queries[i][j].getAsDouble();
+                times[j] = measure(queries[i][j], budget);
+            }
+            if (results[0] != results[1] || results[0] != results[2]) {
+                throw new Error("The results of \"" + names[i] + "\" differ: " + results[0] + " " + results[1] + " " + results[2]);
+            }
+            System.out.println(names[i] + ":");
+            System.out.println(String.format("  GraphQuery: %8.3f us   TripleStore.find: %8.3f us   Jena: %8.3f us   (x%.1f)",
+                    times[0], times[1], times[2], times[2] / times[0]));
+        }
+    }
+
+    /**
+     * Returns the microseconds per query
+     */
+    static double measure(DoubleSupplier query, long budget) {
+        double sum = 0;
+        long n = 0;
+        long start = System.nanoTime();
+        long end = start + budget * 1000000;
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) sum += query.getAsDouble();
+            n += 100;
+            now = System.nanoTime();
+        } while (now < end);
+        if (sum == Double.MIN_VALUE) System.out.println();   // so that the queries are not optimized away
+        return (now - start) / 1000.0 / n;
+    }
+}
@@ -0,0 +1,67 @@
+package tests.rts;
+
+import ai.RandomBiasedAI;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.montecarlo.lsi.LSI;
+import ai.montecarlo.lsi.ParallelLSI;
+import ai.montecarlo.lsi.Sampling;
+import rts.GameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures the simulations per second of {@link ParallelLSI} from 1 thread to the given
+ * maximum (doubling the number of threads each time), compared to those of
+ * {@link LSI}, on the 8x8, 16x16 and 32x32 maps.
+ *
+ * Usage: ParallelLSIBenchmark [simulations per search] [searches per measurement] [maximum threads]
+ */
+public class ParallelLSIBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        int budget = (args.length > 0 ? Integer.parseInt(args[0]) : 1000);
+        int searches = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+        int maxThreads = (args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+        UnitTypeTable utt = new UnitTypeTable();
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+
+        for (int i = 0; i < 3; i++) {
+            String mapName = GameStateCloneBenchmark.MAPS[i];
+            GameState gs = GameStateCloneBenchmark.midGameState(mapName, utt, 100);
+            while (!gs.gameover() && !gs.canExecuteAnyAction(0)) {
+                gs.cycle();
+            }
+            System.out.println(mapName + " (" + gs.getUnits().size() + " units):");
+            LSI sequential = new LSI(budget, 100, 0.25,
+                    LSI.EstimateType.RANDOM_TAIL, LSI.EstimateReuseType.ALL,
+                    LSI.GenerateType.PER_AGENT, Sampling.AgentOrderingType.ENTROPY,
+                    LSI.EvaluateType.HALVING, false, LSI.RelaxationType.NONE, 2, false,
+                    new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3());
+            // warm up:
+            measure(sequential, gs, budget, searches);
+            double base = measure(sequential, gs, budget, searches);
+            System.out.println(String.format("  LSI:                 %8.0f simulations/s", base));
+            for (int threads = 1; threads <= maxThreads; threads = (threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1)) {
+                ParallelLSI ai = new ParallelLSI(budget, 100, 0.25,
+                        LSI.EstimateType.RANDOM_TAIL, LSI.EstimateReuseType.ALL,
+                        LSI.GenerateType.PER_AGENT, Sampling.AgentOrderingType.ENTROPY,
+                        LSI.EvaluateType.HALVING, false, LSI.RelaxationType.NONE, 2, false,
+                        new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(), threads, -1);
+                measure(ai, gs, budget, Math.max(1, searches / 4));
+                double sps = measure(ai, gs, budget, searches);
+                System.out.println(String.format("  ParallelLSI, %2d threads: %8.0f simulations/s   (x%.2f)", threads, sps, sps / base));
+            }
+        }
+    }
+
+    /**
+     * Returns simulations per second over the given number of searches (each of which
+     * runs the whole budget of simulations)
+     */
+    static double measure(LSI ai, GameState gs, int budget, int searches) throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < searches; i++) {
+            ai.getAction(0, gs);
+        }
+        return (double) budget * searches * 1000.0 / Math.max(1, System.currentTimeMillis() - start);
+    }
+}
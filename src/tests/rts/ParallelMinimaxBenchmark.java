@@ -0,0 +1,77 @@
+package tests.rts;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.minimax.ABCD.IDABCD;
+import ai.minimax.RTMiniMax.IDRTMinimax;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures the nodes searched per second, and the depth reached, by {@link IDABCD} and
+ * {@link IDRTMinimax} with different numbers of threads (1 is the sequential search) in
+ * the melee maps: each of them plays a short game against RandomBiasedAI, searching in
+ * every frame in which it can act.
+ *
+ * Usage: ParallelMinimaxBenchmark [milliseconds per frame] [frames] [thread counts...]
+ */
+public class ParallelMinimaxBenchmark {
+    static final String MAPS[] = {
+        "maps/melee4x4light2.xml",
+        "maps/8x8/melee8x8Mixed4.xml",
+        "maps/16x16/melee16x16Mixed8.xml",
+        "maps/melee14x12Mixed18.xml"
+    };
+
+    public static void main(String args[]) throws Exception {
+        int budget = (args.length > 0 ? Integer.parseInt(args[0]) : 100);
+        int frames = (args.length > 1 ? Integer.parseInt(args[1]) : 200);
+        int threads[] = {1, 2, 4};
+        if (args.length > 2) {
+            threads = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) threads[i - 2] = Integer.parseInt(args[i]);
+        }
+        UnitTypeTable utt = new UnitTypeTable();
+        System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+
+        for (String mapName : MAPS) {
+            System.out.println(mapName + ":");
+            for (int nThreads : threads) {
+                IDABCD abcd = new IDABCD(budget, -1, new RandomBiasedAI(), 100,
+                        new SimpleSqrtEvaluationFunction3(), true, nThreads);
+                double r[] = measure(abcd, mapName, utt, frames);
+                System.out.println(String.format("  IDABCD,      %d threads: %10.0f nodes/s  avg depth %6.2f", nThreads, r[0], r[1]));
+                IDRTMinimax rtm = new IDRTMinimax(budget, new SimpleSqrtEvaluationFunction3(), nThreads);
+                r = measure(rtm, mapName, utt, frames);
+                System.out.println(String.format("  IDRTMinimax, %d threads: %10.0f nodes/s  avg lookahead %6.2f", nThreads, r[0], r[1]));
+            }
+        }
+    }
+
+    /**
+     * Returns the nodes searched per second, and the average depth (or lookahead) of the
+     * last iteration of the searches
+     */
+    static double[] measure(AI ai, String mapName, UnitTypeTable utt, int frames) throws Exception {
+        GameState gs = new GameState(PhysicalGameState.load(mapName, utt), utt);
+        AI opponent = new RandomBiasedAI();
+        long time = 0;
+        long depth = 0;
+        int searches = 0;
+        for (int i = 0; i < frames && !gs.gameover(); i++) {
+            if (gs.canExecuteAnyAction(0)) {
+                long start = System.currentTimeMillis();
+                gs.issueSafe(ai.getAction(0, gs));
+                time += System.currentTimeMillis() - start;
+                depth += (ai instanceof IDABCD ? ((IDABCD) ai).getLastDepth() : ((IDRTMinimax) ai).getLastLookAhead());
+                searches++;
+            }
+            gs.issueSafe(opponent.getAction(1, gs));
+            gs.cycle();
+        }
+        long nodes = (ai instanceof IDABCD ? ((IDABCD) ai).getNodesSearched() : ((IDRTMinimax) ai).getNodesSearched());
+        return new double[]{nodes * 1000.0 / Math.max(1, time), depth / (double) Math.max(1, searches)};
+    }
+}
@@ -0,0 +1,66 @@
+package tests.rts;
+
+import ai.RandomBiasedAI;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.naivemcts.NaiveMCTS;
+import ai.mcts.naivemcts.ParallelNaiveMCTS;
+import rts.GameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures the iterations per second of {@link ParallelNaiveMCTS}, in its root
+ * parallel and tree parallel modes, from 1 thread to the given maximum (doubling
+ * the number of threads each time), compared to those of {@link NaiveMCTS}, on the
+ * 8x8, 16x16 and 32x32 maps.
+ *
+ * Usage: ParallelNaiveMCTSBenchmark [milliseconds per search] [searches per measurement] [maximum threads]
+ */
+public class ParallelNaiveMCTSBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        int budget = (args.length > 0 ? Integer.parseInt(args[0]) : 100);
+        int searches = (args.length > 1 ? Integer.parseInt(args[1]) : 20);
+        int maxThreads = (args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+        UnitTypeTable utt = new UnitTypeTable();
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+
+        for (int i = 0; i < 3; i++) {
+            String mapName = GameStateCloneBenchmark.MAPS[i];
+            GameState gs = GameStateCloneBenchmark.midGameState(mapName, utt, 100);
+            while (!gs.gameover() && !gs.canExecuteAnyAction(0)) {
+                gs.cycle();
+            }
+            System.out.println(mapName + " (" + gs.getUnits().size() + " units):");
+            NaiveMCTS sequential = new NaiveMCTS(budget, -1, 100, 10, 0.3f, 0.0f, 0.4f,
+                    new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(), true);
+            // warm up:
+            measure(sequential, gs, searches);
+            double base = measure(sequential, gs, searches);
+            System.out.println(String.format("  NaiveMCTS:                 %8.0f iterations/s", base));
+            for (int parallelization : new int[]{ParallelNaiveMCTS.ROOT_PARALLEL, ParallelNaiveMCTS.TREE_PARALLEL}) {
+                for (int threads = 1; threads <= maxThreads; threads = (threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1)) {
+                    ParallelNaiveMCTS ai = new ParallelNaiveMCTS(budget, -1, 100, 10, 0.3f, 0.0f, 0.4f,
+                            new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(), true, threads, parallelization);
+                    measure(ai, gs, Math.max(1, searches / 4));
+                    double ips = measure(ai, gs, searches);
+                    System.out.println(String.format("  %s, %2d threads: %8.0f iterations/s   (x%.2f)",
+                            (parallelization == ParallelNaiveMCTS.ROOT_PARALLEL ? "root" : "tree"), threads, ips, ips / base));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns iterations per second over the given number of searches
+     */
+    static double measure(NaiveMCTS ai, GameState gs, int searches) throws Exception {
+        ai.reset();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < searches; i++) {
+            ai.startNewComputation(0, gs.clone());
+            ai.computeDuringOneGameFrame();
+            ai.getBestActionSoFar();
+        }
+        return ai.total_runs * 1000.0 / (System.currentTimeMillis() - start);
+    }
+}
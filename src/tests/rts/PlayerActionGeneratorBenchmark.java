@@ -0,0 +1,58 @@
+package tests.rts;
+
+import rts.GameState;
+import rts.PlayerActionGenerator;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures how many player actions per second {@link PlayerActionGenerator} enumerates
+ * (as RTMinimax or ABCD do) in a mid-game state of each map, both creating a
+ * PlayerAction for each of them with getNextAction, and only streaming the
+ * combinations of unit actions with nextConsistentChoice.
+ *
+ * Usage: PlayerActionGeneratorBenchmark [milliseconds per measurement] [actions per generator]
+ */
+public class PlayerActionGeneratorBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        long budget = (args.length > 0 ? Long.parseLong(args[0]) : 2000);
+        int maxActions = (args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+        UnitTypeTable utt = new UnitTypeTable();
+
+        for (String mapName : GameStateCloneBenchmark.MAPS) {
+            GameState gs = GameStateCloneBenchmark.midGameState(mapName, utt, 100);
+            // let both players choose again:
+            gs.getUnitActions().clear();
+            for (int player = 0; player < 2; player++) {
+                if (!gs.canExecuteAnyAction(player)) continue;
+                PlayerActionGenerator pag = new PlayerActionGenerator(gs, player);
+                System.out.println(mapName + ", player " + player + " (" + pag.getChoices().size()
+                        + " units, " + pag.getSize() + " combinations):");
+                // warm up:
+                measure(gs, player, false, maxActions, budget / 4);
+                measure(gs, player, true, maxActions, budget / 4);
+                double actions = measure(gs, player, false, maxActions, budget);
+                double choices = measure(gs, player, true, maxActions, budget);
+                System.out.println(String.format("  getNextAction: %10.0f/s   nextConsistentChoice: %10.0f/s",
+                        actions, choices));
+            }
+        }
+    }
+
+    /**
+     * Returns the consistent player actions enumerated per second
+     */
+    static double measure(GameState gs, int player, boolean streaming, int maxActions, long budget) throws Exception {
+        long n = 0;
+        long start = System.currentTimeMillis();
+        long end = start + budget;
+        while (System.currentTimeMillis() < end) {
+            PlayerActionGenerator pag = new PlayerActionGenerator(gs, player);
+            for (int i = 0; i < maxActions; i++) {
+                if (streaming ? !pag.nextConsistentChoice(-1) : pag.getNextAction(-1) == null) break;
+                n++;
+            }
+        }
+        return n * 1000.0 / (System.currentTimeMillis() - start);
+    }
+}
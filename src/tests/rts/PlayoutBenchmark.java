@@ -0,0 +1,61 @@
+package tests.rts;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import rts.GameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures how many game cycles per second random playouts (as run by
+ * NaiveMCTS.simulate or MonteCarlo) simulate when the state is advanced one
+ * cycle at a time with {@link GameState#cycle()}, and when the cycles in which
+ * no action completes are skipped with
+ * {@link GameState#fastForwardToNextChange(int)}.
+ *
+ * Usage: PlayoutBenchmark [milliseconds per measurement] [playout length]
+ */
+public class PlayoutBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        long budget = (args.length > 0 ? Long.parseLong(args[0]) : 2000);
+        int length = (args.length > 1 ? Integer.parseInt(args[1]) : 100);
+        UnitTypeTable utt = new UnitTypeTable();
+
+        for (String mapName : GameStateCloneBenchmark.MAPS) {
+            GameState gs = GameStateCloneBenchmark.midGameState(mapName, utt);
+            System.out.println(mapName + " (" + gs.getUnits().size() + " units):");
+            // warm up:
+            measure(gs, false, length, budget / 4);
+            measure(gs, true, length, budget / 4);
+            double perCycle = measure(gs, false, length, budget);
+            double fastForward = measure(gs, true, length, budget);
+            System.out.println(String.format("  cycle: %10.0f cycles/s   fastForwardToNextChange: %10.0f cycles/s   (x%.2f)",
+                    perCycle, fastForward, fastForward / perCycle));
+        }
+    }
+
+    /**
+     * Returns simulated game cycles per second
+     */
+    static double measure(GameState gs, boolean fastForward, int length, long budget) throws Exception {
+        AI playoutPolicy = new RandomBiasedAI();
+        long cycles = 0;
+        long start = System.currentTimeMillis();
+        long end = start + budget;
+        while (System.currentTimeMillis() < end) {
+            GameState gs2 = gs.clone();
+            int time = gs2.getTime() + length;
+            boolean gameover = false;
+            do {
+                if (gs2.isComplete()) {
+                    gameover = (fastForward ? gs2.fastForwardToNextChange(time) : gs2.cycle());
+                } else {
+                    gs2.issue(playoutPolicy.getAction(0, gs2));
+                    gs2.issue(playoutPolicy.getAction(1, gs2));
+                }
+            } while (!gameover && gs2.getTime() < time);
+            cycles += gs2.getTime() - gs.getTime();
+        }
+        return cycles * 1000.0 / (System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,74 @@
+package tests.rts;
+
+import ai.FastRandomBiasedAI;
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import java.lang.management.ManagementFactory;
+import rts.GameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Compares the random playouts (as run by NaiveMCTS.simulate or MonteCarlo) of
+ * {@link RandomBiasedAI} and of {@link FastRandomBiasedAI}, which chooses actions
+ * with the same probabilities but issues them directly from reused buffers: playouts
+ * per second, and bytes allocated per playout, starting from a mid-game state of
+ * each map.
+ *
+ * Usage: PlayoutPolicyBenchmark [milliseconds per measurement] [playout length]
+ */
+public class PlayoutPolicyBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        long budget = (args.length > 0 ? Long.parseLong(args[0]) : 2000);
+        int length = (args.length > 1 ? Integer.parseInt(args[1]) : 100);
+        UnitTypeTable utt = new UnitTypeTable();
+
+        for (String mapName : GameStateCloneBenchmark.MAPS) {
+            GameState gs = GameStateCloneBenchmark.midGameState(mapName, utt);
+            System.out.println(mapName + " (" + gs.getUnits().size() + " units):");
+            // warm up:
+            measure(gs, new RandomBiasedAI(), length, budget / 4);
+            measure(gs, new FastRandomBiasedAI(), length, budget / 4);
+            double biased[] = measure(gs, new RandomBiasedAI(), length, budget);
+            double fast[] = measure(gs, new FastRandomBiasedAI(), length, budget);
+            System.out.println(String.format("  RandomBiasedAI:     %8.0f playouts/s  %10.0f bytes/playout", biased[0], biased[1]));
+            System.out.println(String.format("  FastRandomBiasedAI: %8.0f playouts/s  %10.0f bytes/playout  (x%.2f)",
+                    fast[0], fast[1], fast[0] / biased[0]));
+        }
+    }
+
+    /**
+     * Returns the playouts per second, and the bytes allocated per playout (or -1 if
+     * the JVM does not report them)
+     */
+    static double[] measure(GameState gs, AI playoutPolicy, int length, long budget) throws Exception {
+        long playouts = 0;
+        long bytes = allocatedBytes();
+        long start = System.currentTimeMillis();
+        long end = start + budget;
+        while (System.currentTimeMillis() < end) {
+            GameState gs2 = gs.cloneSharingUnits();
+            int time = gs2.getTime() + length;
+            boolean gameover = false;
+            do {
+                if (gs2.isComplete()) {
+                    gameover = gs2.fastForwardToNextChange(time);
+                } else {
+                    playoutPolicy.issueAction(0, gs2);
+                    playoutPolicy.issueAction(1, gs2);
+                }
+            } while (!gameover && gs2.getTime() < time);
+            playouts++;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        bytes = (bytes < 0 ? -1 : allocatedBytes() - bytes);
+        return new double[]{playouts * 1000.0 / elapsed, (bytes < 0 ? -1 : bytes / (double) playouts)};
+    }
+
+    static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,79 @@
+package tests.rts;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.naivemcts.NaiveMCTS;
+import ai.mcts.uct.UCT;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.units.UnitTypeTable;
+
+/**
+ * Plays games between a {@link NaiveMCTS} (and a {@link UCT}) that reuses its tree
+ * across frames and the same AI without tree reuse, with a small time budget per frame,
+ * and reports the playouts that the first one inherits from the previous frame, compared
+ * to the ones it runs in each frame, and the results of the games.
+ *
+ * Usage: TreeReuseBenchmark [milliseconds per frame] [games per map] [maximum cycles]
+ */
+public class TreeReuseBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        int budget = (args.length > 0 ? Integer.parseInt(args[0]) : 20);
+        int games = (args.length > 1 ? Integer.parseInt(args[1]) : 4);
+        int maxCycles = (args.length > 2 ? Integer.parseInt(args[2]) : 1000);
+        UnitTypeTable utt = new UnitTypeTable();
+
+        for (int i = 0; i < 2; i++) {
+            String mapName = GameStateCloneBenchmark.MAPS[i];
+            System.out.println(mapName + ":");
+            NaiveMCTS naive = new NaiveMCTS(budget, -1, 100, 10, 0.3f, 0.0f, 0.4f,
+                    new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(), true);
+            NaiveMCTS naiveReuse = (NaiveMCTS) naive.clone();
+            naiveReuse.setReuseTree(true);
+            play(mapName, utt, naiveReuse, naive, games, maxCycles);
+            System.out.println(String.format("  NaiveMCTS: %.1f runs per action, %.1f of them inherited",
+                    naiveReuse.total_runs / (double) naiveReuse.total_actions_issued,
+                    naiveReuse.total_reused_runs / (double) naiveReuse.total_actions_issued));
+
+            UCT uct = new UCT(budget, -1, 100, 10, new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3());
+            UCT uctReuse = (UCT) uct.clone();
+            uctReuse.setReuseTree(true);
+            play(mapName, utt, uctReuse, uct, games, maxCycles);
+        }
+    }
+
+    /**
+     * Plays the given number of games (alternating the player of each AI) and prints
+     * the wins of each AI
+     */
+    static void play(String mapName, UnitTypeTable utt, AI reuse, AI noReuse, int games, int maxCycles) throws Exception {
+        int wins = 0, losses = 0, draws = 0;
+        // (the trees of a game are not reused in the next one, since their states are later)
+        reuse.reset();
+        noReuse.reset();
+        for (int game = 0; game < games; game++) {
+            GameState gs = new GameState(PhysicalGameState.load(mapName, utt), utt);
+            int reusePlayer = game % 2;
+            boolean gameover;
+            do {
+                PlayerAction pa1 = (reusePlayer == 0 ? reuse : noReuse).getAction(0, gs);
+                PlayerAction pa2 = (reusePlayer == 1 ? reuse : noReuse).getAction(1, gs);
+                gs.issueSafe(pa1);
+                gs.issueSafe(pa2);
+                gameover = gs.cycle();
+            } while (!gameover && gs.getTime() < maxCycles);
+            if (gs.winner() == reusePlayer) {
+                wins++;
+            } else if (gs.winner() == 1 - reusePlayer) {
+                losses++;
+            } else {
+                draws++;
+            }
+        }
+        System.out.println("  " + reuse.getClass().getSimpleName() + " with tree reuse: "
+                + wins + " wins, " + losses + " losses, " + draws + " draws; " + reuse.statisticsString());
+    }
+}
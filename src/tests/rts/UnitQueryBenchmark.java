@@ -0,0 +1,125 @@
+package tests.rts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import rts.PhysicalGameState;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * Compares the indexed unit queries of {@link PhysicalGameState} (getUnitAt,
+ * getUnit, getUnitsAround) against the linear scans they replaced, on
+ * GardenOfWar64x64 populated with extra units to reach a few hundred units.
+ *
+ * Usage: UnitQueryBenchmark [map] [extra units] [queries]
+ */
+public class UnitQueryBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        String mapName = (args.length > 0 ? args[0] : "maps/GardenOfWar64x64.xml");
+        int extraUnits = (args.length > 1 ? Integer.parseInt(args[1]) : 400);
+        int queries = (args.length > 2 ? Integer.parseInt(args[2]) : 2000000);
+
+        UnitTypeTable utt = new UnitTypeTable();
+        PhysicalGameState pgs = PhysicalGameState.load(mapName, utt);
+        Random r = new Random(0);
+
+        // fill some of the free cells with additional workers for both players:
+        UnitType worker = utt.getUnitType("Worker");
+        boolean free[][] = pgs.getAllFree();
+        int added = 0;
+        while (added < extraUnits) {
+            int x = r.nextInt(pgs.getWidth());
+            int y = r.nextInt(pgs.getHeight());
+            if (free[x][y]) {
+                pgs.addUnit(new Unit(added % 2, worker, x, y, 0));
+                free[x][y] = false;
+                added++;
+            }
+        }
+        List<Unit> units = pgs.getUnits();
+        System.out.println(mapName + ": " + units.size() + " units, " + queries + " queries per test");
+
+        int xs[] = new int[queries];
+        int ys[] = new int[queries];
+        long ids[] = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            xs[i] = r.nextInt(pgs.getWidth());
+            ys[i] = r.nextInt(pgs.getHeight());
+            ids[i] = units.get(r.nextInt(units.size())).getID();
+        }
+
+        // warm up both versions so that the JIT compiles them:
+        for (int rep = 0; rep < 3; rep++) {
+            runLinear(units, xs, ys, ids, queries / 10);
+            runIndexed(pgs, xs, ys, ids, queries / 10);
+        }
+        runLinear(units, xs, ys, ids, queries);
+        runIndexed(pgs, xs, ys, ids, queries);
+    }
+
+    static void runLinear(List<Unit> units, int xs[], int ys[], long ids[], int n) {
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            for (Unit u : units) {
+                if (u.getX() == xs[i] && u.getY() == ys[i]) {
+                    checksum += u.getID();
+                    break;
+                }
+            }
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            for (Unit u : units) {
+                if (u.getID() == ids[i]) {
+                    checksum += u.getX();
+                    break;
+                }
+            }
+        }
+        long t2 = System.nanoTime();
+        for (int i = 0; i < n / 10; i++) {
+            Collection<Unit> l = new ArrayList<>();
+            for (Unit u : units) {
+                if (Math.abs(u.getX() - xs[i]) <= 3 && Math.abs(u.getY() - ys[i]) <= 3) {
+                    l.add(u);
+                }
+            }
+            checksum += l.size();
+        }
+        long t3 = System.nanoTime();
+        report("linear ", start, t1, t2, t3, n, checksum);
+    }
+
+    static void runIndexed(PhysicalGameState pgs, int xs[], int ys[], long ids[], int n) {
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            Unit u = pgs.getUnitAt(xs[i], ys[i]);
+            if (u != null) checksum += u.getID();
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            checksum += pgs.getUnit(ids[i]).getX();
+        }
+        long t2 = System.nanoTime();
+        for (int i = 0; i < n / 10; i++) {
+            checksum += pgs.getUnitsAround(xs[i], ys[i], 3).size();
+        }
+        long t3 = System.nanoTime();
+        report("indexed", start, t1, t2, t3, n, checksum);
+    }
+
+    static void report(String name, long start, long t1, long t2, long t3, int n, long checksum) {
+        System.out.println(name
+                + "  getUnitAt: " + String.format("%.1f", (t1 - start) / (double) n) + " ns/query"
+                + "  getUnit(ID): " + String.format("%.1f", (t2 - t1) / (double) n) + " ns/query"
+                + "  getUnitsAround(3): " + String.format("%.1f", (t3 - t2) / (double) (n / 10)) + " ns/query"
+                + "  (checksum " + checksum + ")");
+    }
+}
@@ -12,22 +12,30 @@ package util;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import rts.SimulationContext;
 
 public class Sampler {
     static Random generator = new Random();
 
+    /*
+     * Returns the generator to use in the current thread (the one of its SimulationContext, if any)
+     */
+    static Random currentGenerator() {
+        return SimulationContext.random(generator);
+    }
+
     /*
      * Returns a random element in the distribution
      */
     public static int random(double[] distribution) {
-        return generator.nextInt(distribution.length);
+        return currentGenerator().nextInt(distribution.length);
     }
 
     /*
      * Returns a random element in the distribution
      */
     public static int random(List<Double> distribution) {
-        return generator.nextInt(distribution.size());
+        return currentGenerator().nextInt(distribution.size());
     }
 
     /*
@@ -52,7 +60,7 @@ public class Sampler {
         }
 
         if(best.size() > 0) {
-            return best.get(generator.nextInt(best.size()));
+            return best.get(currentGenerator().nextInt(best.size()));
         }
 
         throw new Exception("Input distribution empty in Sampler.max!");
@@ -80,7 +88,7 @@ public class Sampler {
         }
 
         if(best.size() > 0) {
-            return best.get(generator.nextInt(best.size()));
+            return best.get(currentGenerator().nextInt(best.size()));
         }
 
         throw new Exception("Input distribution empty in Sampler.max!");
@@ -123,7 +131,7 @@ public class Sampler {
         if(total == 0)
             return random(distribution);
 
-        tmp = generator.nextDouble() * total;
+        tmp = currentGenerator().nextDouble() * total;
 
         for(int i = 0; i < distribution.length; i++) {
             accum += distribution[i];
@@ -147,9 +155,9 @@ public class Sampler {
         }
 
         if(total == 0)
-            return outputs.get(generator.nextInt(outputs.size()));
+            return outputs.get(currentGenerator().nextInt(outputs.size()));
 
-        tmp = generator.nextDouble() * total;
+        tmp = currentGenerator().nextDouble() * total;
 
         for(int i = 0; i < distribution.size(); i++) {
             accum += distribution.get(i);
@@ -193,7 +201,7 @@ public class Sampler {
     }
 
     public static int eGreedy(List<Double> distribution, double e) throws Exception {
-        if(generator.nextDouble() < e) {
+        if(currentGenerator().nextDouble() < e) {
             // explore:
             return random(distribution);
         } else {
@@ -0,0 +1,230 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import ai.abstraction.HeavyRush;
+import ai.abstraction.LightRush;
+import ai.abstraction.RangedRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.SimulationContext;
+import rts.Trace;
+import rts.TraceEntry;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+import util.Pair;
+
+/**
+ * Unit tests to verify that driving {@link GameState#cycle()} from the queue of
+ * pending actions ordered by completion time does not change how games unfold:
+ * the traces stored under /data/traces/ (recorded when every cycle went through
+ * all the pending actions) are replayed and compared state by state, and seeded
+ * games between scripted AIs are played advancing one cycle at a time and skipping
+ * the cycles in which nothing happens (see {@link GameState#fastForwardToNextChange(int)}).
+ */
+public class TestActionQueue {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	private static final String[] MAPS = {
+		"maps/8x8/basesWorkers8x8.xml",
+		"maps/16x16/basesWorkers16x16.xml",
+		"maps/24x24/basesWorkers24x24.xml",
+		"maps/16x16/TwoBasesBarracks16x16.xml"
+	};
+
+	private static final int MAX_CYCLES = 3000;
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testRecordedTraces() throws Exception {
+		final File tracesRootDir = new File("data/traces");
+
+		final List<File> traceDirs = new ArrayList<File>();
+		traceDirs.add(tracesRootDir);
+
+		while (!traceDirs.isEmpty()) {
+			final File traceDir = traceDirs.remove(traceDirs.size() - 1);
+			final File[] files = traceDir.listFiles();
+
+			for (final File file : files) {
+				if (file.isDirectory()) {
+					traceDirs.add(file);
+				}
+				else {
+					final String path = file.getAbsolutePath();
+					if (path.endsWith(".zip")) {
+						final Trace trace = Trace.fromZip(path);
+						final String mapPath =
+								file.getParentFile().getParentFile().getAbsolutePath()
+								.replaceAll(Pattern.quote("\\"), "/")
+								.replaceFirst(Pattern.quote("/data/traces"), "/maps") + ".xml";
+						replayTrace(trace, mapPath, path);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replays the actions of a trace, checking that the state is the recorded one
+	 * at each of its entries
+	 * @param trace
+	 * @param mapPath
+	 * @param tracePath
+	 * @throws Exception
+	 */
+	private static void replayTrace(final Trace trace, final String mapPath, final String tracePath) throws Exception {
+		final GameState gameState = new GameState(PhysicalGameState.load(mapPath, UTT), UTT);
+
+		for (final TraceEntry traceEntry : trace.getEntries()) {
+			while (gameState.getTime() < traceEntry.getTime()) {
+				gameState.cycle();
+			}
+			final PhysicalGameState recorded = traceEntry.getPhysicalGameState();
+
+			// Synchronize the IDs (as in TestTracesIntegrity):
+			for (final Unit u1 : gameState.getUnits()) {
+				for (final Unit u2 : recorded.getUnits()) {
+					if (u1.getX() == u2.getX() && u1.getY() == u2.getY() && u1.getType() == u2.getType()
+							&& u1.getID() != u2.getID()) {
+						u1.setID(u2.getID());
+						break;
+					}
+				}
+			}
+
+			final String where = tracePath + " at time " + traceEntry.getTime();
+			assertEquals(where, describe(recorded), describe(gameState.getPhysicalGameState()));
+
+			final PlayerAction p1Action = new PlayerAction();
+			final PlayerAction p2Action = new PlayerAction();
+			for (final Pair<Unit, UnitAction> action : traceEntry.getActions()) {
+				if (action.m_a.getPlayer() == 0) {
+					p1Action.addUnitAction(action.m_a, action.m_b);
+				}
+				else {
+					p2Action.addUnitAction(action.m_a, action.m_b);
+				}
+			}
+			gameState.issueSafe(p1Action);
+			gameState.issueSafe(p2Action);
+		}
+	}
+
+	/**
+	 * Returns the resources of the players and the units of a map, sorted by ID
+	 * @param pgs
+	 * @return
+	 */
+	private static List<String> describe(final PhysicalGameState pgs) {
+		final List<String> description = new ArrayList<String>();
+		for (int i = 0; i < pgs.getPlayers().size(); i++) {
+			description.add("player " + i + ": " + pgs.getPlayer(i).getResources());
+		}
+		final List<Unit> units = new ArrayList<Unit>(pgs.getUnits());
+		units.sort((u1, u2) -> Long.compare(u1.getID(), u2.getID()));
+		for (final Unit u : units) {
+			description.add(u.toString());
+		}
+		return description;
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testFastForward() throws Exception {
+		final int[] versions = {UnitTypeTable.VERSION_ORIGINAL, UnitTypeTable.VERSION_NON_DETERMINISTIC};
+		final int[] conflictResolutions = {
+			UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_BOTH,
+			UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM,
+			UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING
+		};
+		long seed = 0;
+
+		for (final int version : versions) {
+			for (final int conflictResolution : conflictResolutions) {
+				final UnitTypeTable utt = new UnitTypeTable(version, conflictResolution);
+				for (final String map : MAPS) {
+					seed++;
+					final List<String> perCycle = playGame(map, utt, seed, false);
+					final List<String> fastForward = playGame(map, utt, seed, true);
+					assertTrue(perCycle.size() > 1);
+					assertEquals(map + " (version " + version + ", conflict resolution " + conflictResolution + ")",
+							perCycle, fastForward);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Plays a game between scripted AIs in a context with the given seed, and returns
+	 * the state every time the AIs are asked for actions, and at the end
+	 * @param map
+	 * @param utt
+	 * @param seed
+	 * @param fastForward whether to skip the cycles in which no action completes
+	 * when all the units have actions, or to run them one by one
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<String> playGame(final String map, final UnitTypeTable utt, final long seed,
+			final boolean fastForward) throws Exception {
+		final SimulationContext context = new SimulationContext(seed);
+		SimulationContext.set(context);
+		try {
+			final GameState gameState = new GameState(PhysicalGameState.load(map, utt), utt);
+			final AI ai1 = newAI((int) (seed % 4), utt);
+			final AI ai2 = newAI((int) ((seed / 4 + 1) % 4), utt);
+			final List<String> trace = new ArrayList<String>();
+			boolean gameOver = false;
+
+			while (!gameOver && gameState.getTime() < MAX_CYCLES) {
+				if (!gameState.isComplete()) {
+					trace.add(toJSON(gameState));
+					gameState.issueSafe(ai1.getAction(0, gameState));
+					gameState.issueSafe(ai2.getAction(1, gameState));
+				}
+				if (fastForward && gameState.isComplete()) {
+					gameOver = gameState.fastForwardToNextChange(MAX_CYCLES);
+				}
+				else {
+					gameOver = gameState.cycle();
+				}
+			}
+			trace.add(toJSON(gameState));
+			return trace;
+		}
+		finally {
+			SimulationContext.set(null);
+		}
+	}
+
+	private static AI newAI(final int index, final UnitTypeTable utt) {
+		switch (index) {
+			case 0: return new WorkerRush(utt);
+			case 1: return new LightRush(utt);
+			case 2: return new HeavyRush(utt);
+			default: return new RangedRush(utt);
+		}
+	}
+
+	private static String toJSON(final GameState gameState) throws Exception {
+		final StringWriter writer = new StringWriter();
+		gameState.toJSON(writer);
+		return writer.toString();
+	}
+
+}
@@ -0,0 +1,169 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.SimulationContext;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that the structure-sharing clones of a game state
+ * (see {@link GameState#cloneSharingUnits()}) never modify the state they
+ * were cloned from, and evolve exactly like deep clones when the same
+ * actions are issued to them.
+ */
+public class TestCloneSharingUnits {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	private static final String[] MAPS = {
+		"maps/8x8/basesWorkers8x8.xml",
+		"maps/16x16/basesWorkers16x16.xml",
+		"maps/24x24/basesWorkers24x24.xml"
+	};
+
+	/** Game cycles between two states that are cloned */
+	private static final int CLONE_INTERVAL = 50;
+
+	/** Game cycles each pair of clones is simulated for */
+	private static final int SIMULATION_LENGTH = 100;
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testCloneSharingUnits() throws Exception {
+		for (final String map : MAPS) {
+			final GameState gameState = new GameState(PhysicalGameState.load(map, UTT), UTT);
+			final AI ai1 = new WorkerRush(UTT);
+			final AI ai2 = new LightRush(UTT);
+			boolean gameOver = false;
+
+			while (!gameOver && gameState.getTime() < 1000) {
+				if (gameState.getTime() % CLONE_INTERVAL == 0) {
+					testClones(gameState, gameState.getTime());
+				}
+				gameState.issueSafe(ai1.getAction(0, gameState));
+				gameState.issueSafe(ai2.getAction(1, gameState));
+				gameOver = gameState.cycle();
+			}
+		}
+	}
+
+	/**
+	 * Simulates a structure-sharing clone and a deep clone of a state with the same
+	 * random actions, checking at every cycle that they are equal, and that neither
+	 * the state nor the structure-sharing clone are modified by clones made from them
+	 * @param gameState
+	 * @param seed
+	 * @throws Exception
+	 */
+	private static void testClones(final GameState gameState, final long seed) throws Exception {
+		final String before = toJSON(gameState);
+		final List<Unit> unitsBefore = new ArrayList<Unit>(gameState.getUnits());
+
+		final GameState shared = gameState.cloneSharingUnits();
+		final GameState deep = gameState.clone();
+		// the same unit IDs and random numbers in both clones:
+		final SimulationContext sharedContext = newContext(gameState, seed);
+		final SimulationContext deepContext = newContext(gameState, seed);
+		final AI ai = new RandomBiasedAI();
+		boolean gameOver = false;
+
+		// modifying a shared unit replaces it by a copy:
+		if (!shared.getUnits().isEmpty()) {
+			final Unit unit = shared.getUnits().get(0);
+			final int hitPoints = unit.getHitPoints();
+			final Unit copy = shared.getWritableUnit(unit);
+			assertNotSame(unit, copy);
+			assertSame(copy, shared.getWritableUnit(copy));
+			assertSame(copy, shared.getUnit(unit.getID()));
+			copy.setHitPoints(hitPoints + 1);
+			assertEquals(hitPoints, unit.getHitPoints());
+			copy.setHitPoints(hitPoints);
+		}
+
+		for (int i = 0; i < SIMULATION_LENGTH && !gameOver; i++) {
+			final PlayerAction p1Action = ai.getAction(0, deep);
+			final PlayerAction p2Action = ai.getAction(1, deep);
+			shared.issueSafe(p1Action.translate(deep, shared));
+			shared.issueSafe(p2Action.translate(deep, shared));
+			deep.issueSafe(p1Action);
+			deep.issueSafe(p2Action);
+
+			// a clone of the clone, as the states in a search tree:
+			final String sharedBefore = toJSON(shared);
+			final GameState nested = shared.cloneSharingUnits();
+			nested.issueSafe(ai.getAction(0, nested));
+			nested.issueSafe(ai.getAction(1, nested));
+			cycle(nested, newContext(nested, seed + 1), 10);
+			assertEquals(sharedBefore, toJSON(shared));
+
+			cycle(shared, sharedContext, 1);
+			gameOver = cycle(deep, deepContext, 1);
+			assertEquals(toJSON(deep), toJSON(shared));
+		}
+
+		assertEquals(before, toJSON(gameState));
+		assertEquals(unitsBefore.size(), gameState.getUnits().size());
+		for (int i = 0; i < unitsBefore.size(); i++) {
+			assertSame(unitsBefore.get(i), gameState.getUnits().get(i));
+		}
+	}
+
+	/**
+	 * Returns a context with the given seed, whose new unit IDs do not collide with
+	 * the ones of the units in the state
+	 * @param gameState
+	 * @param seed
+	 * @return
+	 */
+	private static SimulationContext newContext(final GameState gameState, final long seed) {
+		final SimulationContext context = new SimulationContext(seed);
+		for (final Unit unit : gameState.getUnits()) {
+			context.reserveID(unit.getID());
+		}
+		return context;
+	}
+
+	/**
+	 * Runs some game cycles in a context
+	 * @param gameState
+	 * @param context
+	 * @param cycles
+	 * @return whether the game is over
+	 */
+	private static boolean cycle(final GameState gameState, final SimulationContext context, final int cycles) {
+		SimulationContext.set(context);
+		try {
+			boolean gameOver = false;
+			for (int i = 0; i < cycles && !gameOver; i++) {
+				gameOver = gameState.cycle();
+			}
+			return gameOver;
+		}
+		finally {
+			SimulationContext.set(null);
+		}
+	}
+
+	private static String toJSON(final GameState gameState) throws Exception {
+		final StringWriter writer = new StringWriter();
+		gameState.toJSON(writer);
+		return writer.toString();
+	}
+
+}
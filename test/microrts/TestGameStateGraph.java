@@ -0,0 +1,109 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.HeavyRush;
+import ai.abstraction.LightRush;
+import ai.abstraction.RangedRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import rts.GameState;
+import rts.GameStateGraph;
+import rts.PhysicalGameState;
+import rts.StepDelta;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that the facts of a {@link GameStateGraph} updated one step at
+ * a time from what the steps recorded (see {@link GameStateGraph#update(GameState, StepDelta)})
+ * are always the ones of a graph built from scratch for the same state, and the ones
+ * of a graph updated looking at all the units, and that replaying the triples added
+ * and removed by each step gives the same facts.
+ */
+public class TestGameStateGraph {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	private static final String[] MAPS = {
+		"maps/8x8/basesWorkers8x8.xml",
+		"maps/16x16/basesWorkers16x16.xml",
+		"maps/16x16/TwoBasesBarracks16x16.xml"
+	};
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testIncrementalUpdate() throws Exception {
+		final Random rng = new Random(1);
+
+		for (final String map : MAPS) {
+			for (int pairing = 0; pairing < 3; pairing++) {
+				final GameState gameState = new GameState(PhysicalGameState.load(map, UTT), UTT);
+				final AI ai1 = (pairing == 0 ? new WorkerRush(UTT) : pairing == 1 ? new RangedRush(UTT) : new RandomBiasedAI());
+				final AI ai2 = (pairing == 0 ? new LightRush(UTT) : pairing == 1 ? new HeavyRush(UTT) : new WorkerRush(UTT));
+				final GameStateGraph fromDelta = new GameStateGraph(gameState);
+				final GameStateGraph fromUnits = new GameStateGraph(gameState);
+				final Set<String> replayed = new HashSet<String>(describe(fromDelta, fromDelta.getTriples()));
+				final StepDelta delta = new StepDelta();
+				boolean gameOver = false;
+
+				while (!gameOver && gameState.getTime() < 1000) {
+					delta.clear();
+					gameState.setStepDelta(delta);
+					gameState.issueSafe(ai1.getAction(0, gameState));
+					gameState.issueSafe(ai2.getAction(1, gameState));
+					// sometimes a step skips the cycles in which no action completes:
+					gameOver = (rng.nextInt(4) == 0 ? gameState.fastForwardToNextChange() : gameState.cycle());
+					gameState.setStepDelta(null);
+
+					final GameStateGraph.Delta step = fromDelta.update(gameState, delta);
+					fromUnits.update(gameState);
+					fromDelta.clearLog();
+					fromUnits.clearLog();
+
+					final String where = map + " (pairing " + pairing + ") at time " + gameState.getTime();
+					final List<String> facts = describe(fromDelta, fromDelta.getTriples());
+					final GameStateGraph rebuilt = new GameStateGraph(gameState);
+					assertEquals(where, describe(rebuilt, rebuilt.getTriples()), facts);
+					assertEquals(where, describe(fromUnits, fromUnits.getTriples()), facts);
+
+					for (final String triple : describe(fromDelta, step.getRemoved())) {
+						assertTrue(where + ": removed " + triple, replayed.remove(triple));
+					}
+					for (final String triple : describe(fromDelta, step.getAdded())) {
+						assertTrue(where + ": added " + triple, replayed.add(triple));
+					}
+					assertEquals(where, new HashSet<String>(facts), replayed);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the triples of a graph as sorted strings, which do not depend on the
+	 * order in which the entities and literals were added to its dictionaries
+	 * @param graph
+	 * @param triples
+	 * @return
+	 */
+	private static List<String> describe(final GameStateGraph graph, final int[] triples) {
+		final List<String> description = new ArrayList<String>();
+		for (int i = 0; i < triples.length; i += 3) {
+			description.add(graph.getEntity(triples[i]) + " " + graph.getRelation(triples[i + 1]) + " "
+					+ graph.getObject(triples[i + 2]));
+		}
+		Collections.sort(description);
+		return description;
+	}
+
+}
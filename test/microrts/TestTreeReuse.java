@@ -0,0 +1,116 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ai.mcts.naivemcts.NaiveMCTSNode;
+import ai.mcts.uct.UCTNode;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit tests to verify that the nodes of a search tree that NaiveMCTS and UCT reuse
+ * in the next frame (see {@link NaiveMCTSNode#findNode(GameState, int)}) are only
+ * matched to the observed state if they are the same in everything that makes an
+ * action legal, including the owners and resources of the units and the resources
+ * of the players, and not only in the types, positions and hit points of the units
+ * that {@link GameState#equals(Object)} compares.
+ */
+public class TestTreeReuse {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testResources() throws Exception {
+		final GameState gameState = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT), UTT);
+
+		// a resource field with less resources left:
+		final GameState depleted = gameState.clone();
+		final Unit resource = findUnit(depleted, UTT.getUnitType("Resource"));
+		resource.setResources(resource.getResources() - 1);
+		assertEquals(gameState, depleted);
+		checkNotReused(gameState, depleted);
+
+		// a worker carrying resources:
+		final GameState carrying = gameState.clone();
+		findUnit(carrying, UTT.getUnitType("Worker")).setResources(1);
+		assertEquals(gameState, carrying);
+		checkNotReused(gameState, carrying);
+
+		// a player with less resources:
+		final GameState poorer = gameState.clone();
+		final Player player = poorer.getPlayer(0);
+		player.setResources(player.getResources() - 1);
+		checkNotReused(gameState, poorer);
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testOwners() throws Exception {
+		final GameState gameState = newGameState(0);
+		final GameState swapped = newGameState(1);
+		assertEquals(gameState, swapped);
+		checkNotReused(gameState, swapped);
+	}
+
+	/**
+	 * Returns a state with a base for each player, and a worker owned by the given player
+	 * @param workerOwner
+	 * @return
+	 */
+	private static GameState newGameState(final int workerOwner) {
+		final PhysicalGameState pgs = new PhysicalGameState(8, 8);
+		pgs.addPlayer(new Player(0, 5));
+		pgs.addPlayer(new Player(1, 5));
+		pgs.addUnit(new Unit(0, UTT.getUnitType("Base"), 1, 1));
+		pgs.addUnit(new Unit(1, UTT.getUnitType("Base"), 6, 6));
+		pgs.addUnit(new Unit(workerOwner, UTT.getUnitType("Worker"), 3, 3));
+		return new GameState(pgs, UTT);
+	}
+
+	/**
+	 * Checks that the nodes of trees whose root has a state are reused for a copy of the
+	 * state, but not for another state that differs from it
+	 * @param gameState
+	 * @param other
+	 * @throws Exception
+	 */
+	private static void checkNotReused(final GameState gameState, final GameState other) throws Exception {
+		assertTrue(gameState.equalsIncludingResources(gameState.clone()));
+		assertFalse(gameState.equalsIncludingResources(other));
+
+		final NaiveMCTSNode naiveMCTSRoot = new NaiveMCTSNode(0, 1, gameState.clone(), null, 1, 0, true);
+		assertSame(naiveMCTSRoot, naiveMCTSRoot.findNode(gameState, 0));
+		assertNull(naiveMCTSRoot.findNode(other, 0));
+
+		final UCTNode uctRoot = new UCTNode(0, 1, gameState.clone(), null, 1);
+		assertSame(uctRoot, uctRoot.findNode(gameState, 0));
+		assertNull(uctRoot.findNode(other, 0));
+	}
+
+	/**
+	 * Returns the first unit of a type in a state
+	 * @param gameState
+	 * @param type
+	 * @return
+	 */
+	private static Unit findUnit(final GameState gameState, final UnitType type) {
+		for (final Unit unit : gameState.getUnits()) {
+			if (unit.getType() == type) {
+				return unit;
+			}
+		}
+		throw new IllegalArgumentException("No unit of type " + type.name);
+	}
+
+}
@@ -0,0 +1,187 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.SimulationContext;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that {@link GameState#undo(int)} restores a state exactly
+ * as it was at a checkpoint (units, action assignments, resources and time), after
+ * sequences of random actions issued and game cycles run on it, as search
+ * algorithms that walk a single state down and up the game tree do.
+ */
+public class TestUndoLog {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	private static final String[] MAPS = {
+		"maps/8x8/basesWorkers8x8.xml",
+		"maps/16x16/basesWorkers16x16.xml",
+		"maps/24x24/basesWorkers24x24.xml"
+	};
+
+	/** Game cycles between two states where the undo log is tested */
+	private static final int TEST_INTERVAL = 50;
+
+	/** Number of random branches walked down and undone from each tested state */
+	private static final int NUM_BRANCHES = 4;
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testUndo() throws Exception {
+		for (final String map : MAPS) {
+			final GameState gameState = new GameState(PhysicalGameState.load(map, UTT), UTT);
+			final AI ai1 = new WorkerRush(UTT);
+			final AI ai2 = new LightRush(UTT);
+			final Random rng = new Random(map.hashCode());
+			boolean gameOver = false;
+
+			while (!gameOver && gameState.getTime() < 1000) {
+				if (gameState.getTime() % TEST_INTERVAL == 0) {
+					gameState.startUndoLog();
+					for (int i = 0; i < NUM_BRANCHES; i++) {
+						testBranch(gameState, rng);
+					}
+					gameState.stopUndoLog();
+				}
+				gameState.issueSafe(ai1.getAction(0, gameState));
+				gameState.issueSafe(ai2.getAction(1, gameState));
+				gameOver = gameState.cycle();
+			}
+		}
+	}
+
+	/**
+	 * Walks down a random branch from the state, with a nested checkpoint in the
+	 * middle, undoes it back to each checkpoint and checks that the state is then
+	 * equal to a copy made at the checkpoint. Then checks that the state evolves
+	 * like the copy when the same actions are issued to both.
+	 * @param gameState a state whose changes are being recorded
+	 * @param rng
+	 * @throws Exception
+	 */
+	private static void testBranch(final GameState gameState, final Random rng) throws Exception {
+		final GameState copy = gameState.clone();
+		final String before = toJSON(gameState);
+		final List<Unit> unitsBefore = new ArrayList<Unit>(gameState.getUnits());
+		final AI ai = new RandomBiasedAI();
+
+		final int checkpoint = gameState.checkpoint();
+		walk(gameState, ai, rng, 1 + rng.nextInt(30));
+		final GameState middleCopy = gameState.clone();
+		final String middle = toJSON(gameState);
+		final int middleCheckpoint = gameState.checkpoint();
+		walk(gameState, ai, rng, 1 + rng.nextInt(30));
+
+		gameState.undo(middleCheckpoint);
+		assertEquals(middle, toJSON(gameState));
+		assertEquals(middleCopy, gameState);
+
+		gameState.undo(checkpoint);
+		assertEquals(before, toJSON(gameState));
+		assertEquals(copy, gameState);
+		assertEquals(unitsBefore.size(), gameState.getUnits().size());
+		for (int i = 0; i < unitsBefore.size(); i++) {
+			assertSame(unitsBefore.get(i), gameState.getUnits().get(i));
+		}
+
+		// the state keeps working like the copy (e.g. its pending actions complete at the same times):
+		final long seed = rng.nextLong();
+		final SimulationContext context = newContext(gameState, seed);
+		final SimulationContext copyContext = newContext(copy, seed);
+		final int checkpointAfterUndo = gameState.checkpoint();
+		boolean gameOver = false;
+		for (int i = 0; i < 20 && !gameOver; i++) {
+			final PlayerAction p1Action = ai.getAction(0, copy);
+			final PlayerAction p2Action = ai.getAction(1, copy);
+			gameState.issueSafe(p1Action.translate(copy, gameState));
+			gameState.issueSafe(p2Action.translate(copy, gameState));
+			copy.issueSafe(p1Action);
+			copy.issueSafe(p2Action);
+			cycle(gameState, context);
+			gameOver = cycle(copy, copyContext);
+			assertEquals(toJSON(copy), toJSON(gameState));
+		}
+		gameState.undo(checkpointAfterUndo);
+		assertEquals(before, toJSON(gameState));
+	}
+
+	/**
+	 * Issues random actions and runs game cycles on the state, sometimes cycle by
+	 * cycle and sometimes skipping to the next cycle in which an action completes
+	 * @param gameState
+	 * @param ai
+	 * @param rng
+	 * @param steps
+	 * @throws Exception
+	 */
+	private static void walk(final GameState gameState, final AI ai, final Random rng, final int steps) throws Exception {
+		for (int i = 0; i < steps; i++) {
+			if (rng.nextBoolean()) {
+				gameState.issueSafe(ai.getAction(0, gameState));
+			}
+			if (rng.nextBoolean()) {
+				gameState.issueSafe(ai.getAction(1, gameState));
+			}
+			final boolean gameOver = (rng.nextBoolean() ? gameState.cycle() : gameState.fastForwardToNextChange());
+			if (gameOver) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns a context with the given seed, whose new unit IDs do not collide with
+	 * the ones of the units in the state
+	 * @param gameState
+	 * @param seed
+	 * @return
+	 */
+	private static SimulationContext newContext(final GameState gameState, final long seed) {
+		final SimulationContext context = new SimulationContext(seed);
+		for (final Unit unit : gameState.getUnits()) {
+			context.reserveID(unit.getID());
+		}
+		return context;
+	}
+
+	/**
+	 * Runs a game cycle in a context
+	 * @param gameState
+	 * @param context
+	 * @return whether the game is over
+	 */
+	private static boolean cycle(final GameState gameState, final SimulationContext context) {
+		SimulationContext.set(context);
+		try {
+			return gameState.cycle();
+		}
+		finally {
+			SimulationContext.set(null);
+		}
+	}
+
+	private static String toJSON(final GameState gameState) throws Exception {
+		final StringWriter writer = new StringWriter();
+		gameState.toJSON(writer);
+		return writer.toString();
+	}
+
+}
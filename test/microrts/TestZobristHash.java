@@ -0,0 +1,151 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.HeavyRush;
+import ai.abstraction.LightRush;
+import ai.abstraction.RangedRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.ZobristHash;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that the Zobrist hash that a {@link GameState} keeps up to
+ * date as actions are issued and cycles are run (see {@link GameState#getZobristHash()})
+ * is always equal to the hash computed from scratch, including in clones and after
+ * undoing changes, since transposition tables rely on it.
+ */
+public class TestZobristHash {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	private static final String[] MAPS = {
+		"maps/8x8/basesWorkers8x8.xml",
+		"maps/16x16/basesWorkers16x16.xml",
+		"maps/16x16/TwoBasesBarracks16x16.xml"
+	};
+
+	/** Game cycles between two states that are cloned and walked down with the undo log */
+	private static final int BRANCH_INTERVAL = 25;
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testIncrementalHash() throws Exception {
+		final Random rng = new Random(1);
+
+		for (final String map : MAPS) {
+			for (int pairing = 0; pairing < 2; pairing++) {
+				final GameState gameState = new GameState(PhysicalGameState.load(map, UTT), UTT);
+				final AI ai1 = (pairing == 0 ? new WorkerRush(UTT) : new RangedRush(UTT));
+				final AI ai2 = (pairing == 0 ? new LightRush(UTT) : new HeavyRush(UTT));
+				boolean gameOver = false;
+				checkHash(gameState);
+
+				while (!gameOver && gameState.getTime() < 1000) {
+					if (gameState.getTime() % BRANCH_INTERVAL == 0) {
+						testBranches(gameState, rng);
+					}
+					gameState.issueSafe(ai1.getAction(0, gameState));
+					checkHash(gameState);
+					gameState.issueSafe(ai2.getAction(1, gameState));
+					checkHash(gameState);
+					gameOver = gameState.cycle();
+					checkHash(gameState);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walks down random branches from clones of the state and from the state itself
+	 * (undoing them afterwards), checking the hashes along the way
+	 * @param gameState
+	 * @param rng
+	 * @throws Exception
+	 */
+	private static void testBranches(final GameState gameState, final Random rng) throws Exception {
+		final long hash = gameState.getZobristHash();
+		final AI ai = new RandomBiasedAI();
+
+		final GameState clone = gameState.clone();
+		assertEquals(hash, clone.getZobristHash());
+		walk(clone, ai, rng, 20);
+
+		final GameState shared = gameState.cloneSharingUnits();
+		assertEquals(hash, shared.getZobristHash());
+		walk(shared, ai, rng, 20);
+		final GameState nested = shared.cloneSharingUnits();
+		walk(nested, ai, rng, 20);
+
+		final GameState issued = gameState.cloneIssue(ai.getAction(0, gameState));
+		checkHash(issued);
+
+		assertEquals(hash, gameState.getZobristHash());
+		checkHash(gameState);
+
+		gameState.startUndoLog();
+		final int checkpoint = gameState.checkpoint();
+		walk(gameState, ai, rng, 20);
+		gameState.undo(checkpoint);
+		assertEquals(ZobristHash.compute(gameState), gameState.getZobristHash());
+		assertEquals(hash, gameState.getZobristHash());
+		checkHash(gameState);
+		gameState.stopUndoLog();
+	}
+
+	/**
+	 * Issues random actions and runs game cycles on the state, sometimes cycle by
+	 * cycle and sometimes skipping to the next cycle in which an action completes,
+	 * checking the hash after each change
+	 * @param gameState
+	 * @param ai
+	 * @param rng
+	 * @param steps
+	 * @throws Exception
+	 */
+	private static void walk(final GameState gameState, final AI ai, final Random rng, final int steps) throws Exception {
+		for (int i = 0; i < steps; i++) {
+			gameState.issueSafe(ai.getAction(0, gameState));
+			checkHash(gameState);
+			gameState.issueSafe(ai.getAction(1, gameState));
+			checkHash(gameState);
+			final boolean gameOver = (rng.nextBoolean() ? gameState.cycle() : gameState.fastForwardToNextChange());
+			checkHash(gameState);
+			if (gameOver) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks that the hash of the state is the one computed from scratch, and that it
+	 * is being kept up to date rather than computed again on request
+	 * @param gameState
+	 */
+	private static void checkHash(final GameState gameState) {
+		final long hash = gameState.getZobristHash();
+		assertEquals(ZobristHash.compute(gameState), hash);
+
+		// a change that is not tracked (through a setter of Unit) is only seen by the
+		// hash if it is computed again:
+		if (!gameState.getUnits().isEmpty()) {
+			final Unit unit = gameState.getWritableUnit(gameState.getUnits().get(0));
+			unit.setHitPoints(unit.getHitPoints() + 1);
+			assertEquals(hash, gameState.getZobristHash());
+			assertNotEquals(ZobristHash.compute(gameState), hash);
+			unit.setHitPoints(unit.getHitPoints() - 1);
+			assertEquals(ZobristHash.compute(gameState), gameState.getZobristHash());
+		}
+	}
+
+}